@@ -37,6 +37,8 @@ import org.jasig.cas.support.oauth.scope.InvalidScopeException;
 import org.jasig.cas.support.oauth.scope.Scope;
 import org.jasig.cas.support.oauth.scope.ScopeManager;
 import org.jasig.cas.support.oauth.services.OAuthRegisteredService;
+import org.jasig.cas.support.oauth.ticket.support.TimeToKillExpirationPolicy;
+import org.jasig.cas.support.oauth.token.AbstractToken;
 import org.jasig.cas.support.oauth.token.AccessToken;
 import org.jasig.cas.support.oauth.token.AccessTokenImpl;
 import org.jasig.cas.support.oauth.token.AuthorizationCode;
@@ -50,6 +52,7 @@ import org.jasig.cas.support.oauth.token.registry.TokenRegistry;
 import org.jasig.cas.ticket.ServiceTicket;
 import org.jasig.cas.ticket.TicketException;
 import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.TicketState;
 import org.jasig.cas.ticket.registry.TicketRegistry;
 import org.jasig.cas.util.UniqueTicketIdGenerator;
 import org.slf4j.Logger;
@@ -118,6 +121,12 @@ public final class CentralOAuthServiceImpl implements CentralOAuthService {
     @NotNull
     private final UniqueTicketIdGenerator accessTokenUniqueIdGenerator;
 
+    /** The expiration policy of the service tickets of authorization codes, null if unknown. */
+    private TimeToKillExpirationPolicy authorizationCodeExpirationPolicy;
+
+    /** The expiration policy of the tickets of online and offline access tokens, null if unknown. */
+    private TimeToKillExpirationPolicy accessTokenExpirationPolicy;
+
     /**
      * Build the central oauth service implementation.
      *
@@ -152,11 +161,13 @@ public final class CentralOAuthServiceImpl implements CentralOAuthService {
     }
 
     @Override
+    @Timed(name = "GET_REGISTERED_SERVICE_TIMER")
     public OAuthRegisteredService getRegisteredService(final String clientId) {
         return OAuthUtils.getRegisteredOAuthService(servicesManager, clientId);
     }
 
     @Override
+    @Timed(name = "GRANT_AUTHORIZATION_CODE_TIMER")
     public AuthorizationCode grantAuthorizationCode(final TokenType type, final String clientId,
                                                     final String ticketGrantingTicketId, final String redirectUri,
                                                     final Set<String> scopes) throws TicketException {
@@ -169,12 +180,14 @@ public final class CentralOAuthServiceImpl implements CentralOAuthService {
                 serviceTicket, scopes);
         LOGGER.debug("{} : {}", OAuthConstants.AUTHORIZATION_CODE, authorizationCode);
 
+        updateExpiresAt(authorizationCode);
         this.tokenRegistry.addToken(authorizationCode);
 
         return authorizationCode;
     }
 
     @Override
+    @Timed(name = "GRANT_OFFLINE_REFRESH_TOKEN_TIMER")
     public RefreshToken grantOfflineRefreshToken(final AuthorizationCode authorizationCode, final String redirectUri)
             throws InvalidTokenException {
         final Principal principal = authorizationCode.getServiceTicket().getGrantingTicket().getAuthentication().getPrincipal();
@@ -201,6 +214,7 @@ public final class CentralOAuthServiceImpl implements CentralOAuthService {
     }
 
     @Override
+    @Timed(name = "GRANT_CAS_ACCESS_TOKEN_TIMER")
     public AccessToken grantCASAccessToken(final TicketGrantingTicket ticketGrantingTicket, final Service service)
             throws TicketException {
         final AccessToken accessToken = new AccessTokenImpl(
@@ -209,12 +223,14 @@ public final class CentralOAuthServiceImpl implements CentralOAuthService {
                 scopeManager.getCASScopes());
         LOGGER.debug("CAS {} : {}", OAuthConstants.ACCESS_TOKEN, accessToken);
 
+        updateExpiresAt(accessToken);
         tokenRegistry.addToken(accessToken);
 
         return accessToken;
     }
 
     @Override
+    @Timed(name = "GRANT_PERSONAL_ACCESS_TOKEN_TIMER")
     public AccessToken grantPersonalAccessToken(final PersonalAccessToken personalAccessToken) throws InvalidTokenException {
         final OAuthCredential credential = new OAuthCredential(personalAccessToken.getPrincipalId(), TokenType.PERSONAL);
 
@@ -230,12 +246,14 @@ public final class CentralOAuthServiceImpl implements CentralOAuthService {
                 null, null, personalAccessToken.getScopes());
         LOGGER.debug("Personal {} : {}", OAuthConstants.ACCESS_TOKEN, accessToken);
 
+        updateExpiresAt(accessToken);
         tokenRegistry.addToken(accessToken);
 
         return accessToken;
     }
 
     @Override
+    @Timed(name = "GRANT_OFFLINE_ACCESS_TOKEN_TIMER")
     public AccessToken grantOfflineAccessToken(final RefreshToken refreshToken) throws InvalidTokenException {
         final ServiceTicket serviceTicket;
         try {
@@ -251,12 +269,14 @@ public final class CentralOAuthServiceImpl implements CentralOAuthService {
                 serviceTicket, refreshToken.getScopes());
         LOGGER.debug("Offline {} : {}", OAuthConstants.ACCESS_TOKEN, accessToken);
 
+        updateExpiresAt(accessToken);
         tokenRegistry.addToken(accessToken);
 
         return accessToken;
     }
 
     @Override
+    @Timed(name = "GRANT_ONLINE_ACCESS_TOKEN_TIMER")
     public AccessToken grantOnlineAccessToken(final AuthorizationCode authorizationCode) throws InvalidTokenException {
         final Principal principal = authorizationCode.getServiceTicket().getGrantingTicket().getAuthentication().getPrincipal();
         final OAuthCredential credential = new OAuthCredential(principal.getId(), principal.getAttributes(), TokenType.ONLINE);
@@ -276,17 +296,20 @@ public final class CentralOAuthServiceImpl implements CentralOAuthService {
 
         // remove the service ticket, doing so will cascade and remove the authorization code token
         ticketRegistry.deleteTicket(authorizationCode.getTicket().getId());
+        updateExpiresAt(accessToken);
         tokenRegistry.addToken(accessToken);
 
         return accessToken;
     }
 
     @Override
+    @Timed(name = "REVOKE_TOKEN_TIMER")
     public Boolean revokeToken(final Token token) {
         return ticketRegistry.deleteTicket(token.getTicket().getId());
     }
 
     @Override
+    @Timed(name = "REVOKE_CLIENT_TOKENS_TIMER")
     public Boolean revokeClientTokens(final String clientId, final String clientSecret) {
         final OAuthRegisteredService service = getRegisteredService(clientId);
         if (service == null) {
@@ -314,6 +337,7 @@ public final class CentralOAuthServiceImpl implements CentralOAuthService {
     }
 
     @Override
+    @Timed(name = "REVOKE_CLIENT_PRINCIPAL_TOKENS_TIMER")
     public Boolean revokeClientPrincipalTokens(final AccessToken accessToken, final String clientId) {
         final String targetClientId;
         if (accessToken.getType() == TokenType.CAS) {
@@ -349,6 +373,7 @@ public final class CentralOAuthServiceImpl implements CentralOAuthService {
     }
 
     @Override
+    @Timed(name = "GET_CLIENT_METADATA_TIMER")
     public ClientMetadata getClientMetadata(final String clientId, final String clientSecret) {
         final OAuthRegisteredService service = getRegisteredService(clientId);
         if (service == null) {
@@ -365,6 +390,7 @@ public final class CentralOAuthServiceImpl implements CentralOAuthService {
     }
 
     @Override
+    @Timed(name = "GET_PRINCIPAL_METADATA_TIMER")
     public Collection<PrincipalMetadata> getPrincipalMetadata(final AccessToken accessToken)
             throws InvalidTokenException {
         if (accessToken.getType() != TokenType.CAS) {
@@ -406,17 +432,20 @@ public final class CentralOAuthServiceImpl implements CentralOAuthService {
     }
 
     @Override
+    @Timed(name = "IS_REFRESH_TOKEN_TIMER")
     public Boolean isRefreshToken(final String clientId, final String principalId, final Set<String> scopes) {
         return tokenRegistry.isToken(clientId, principalId, scopes, RefreshToken.class);
     }
 
     @Override
+    @Timed(name = "IS_ACCESS_TOKEN_TIMER")
     public Boolean isAccessToken(final TokenType type, final String clientId, final String principalId,
                                  final Set<String> scopes) {
         return tokenRegistry.isToken(type, clientId, principalId, scopes, AccessToken.class);
     }
 
     @Override
+    @Timed(name = "GET_TOKEN_BY_ID_TIMER")
     public Token getToken(final String tokenId) throws InvalidTokenException {
         Assert.notNull(tokenId, "tokenId cannot be null");
 
@@ -450,10 +479,16 @@ public final class CentralOAuthServiceImpl implements CentralOAuthService {
             throw new InvalidTokenException(tokenId);
         }
 
+        // sliding expiration, the ticket may have been used since the expiry was computed.
+        if (updateExpiresAt(token)) {
+            tokenRegistry.updateToken(token);
+        }
+
         return token;
     }
 
     @Override
+    @Timed(name = "GET_PERSONAL_ACCESS_TOKEN_TIMER")
     public PersonalAccessToken getPersonalAccessToken(final String tokenId) {
         Assert.notNull(tokenId, "tokenId cannot be null");
 
@@ -465,6 +500,7 @@ public final class CentralOAuthServiceImpl implements CentralOAuthService {
     }
 
     @Override
+    @Timed(name = "GET_SCOPES_TIMER")
     public Map<String, Scope> getScopes(final Set<String> scopeSet) throws InvalidScopeException {
         Assert.notNull(scopeSet, "scopeSet cannot be null");
 
@@ -485,6 +521,63 @@ public final class CentralOAuthServiceImpl implements CentralOAuthService {
 
         return scopeMap;
     }
-}
 
+    /**
+     * Compute when the ticket of the token expires at the latest, from the expiration policy of the token type,
+     * and store it on the token so that the registry can filter expired tokens by range.
+     *
+     * @param token the token
+     * @return true if the expiry of the token changed, false otherwise
+     */
+    private boolean updateExpiresAt(final Token token) {
+        if (!(token instanceof AbstractToken)) {
+            return false;
+        }
+        final Long expiresAt = computeExpiresAt(token);
+        if (expiresAt == null ? token.getExpiresAt() == null : expiresAt.equals(token.getExpiresAt())) {
+            return false;
+        }
+        ((AbstractToken) token).setExpiresAt(expiresAt);
+        return true;
+    }
 
+    /**
+     * Compute when the ticket of the token expires at the latest. Authorization codes expire with their service
+     * ticket, and online and offline access tokens a fixed time after their ticket was last used. Refresh, personal
+     * and CAS access tokens live as long as a ticket that does not expire on a schedule the token knows of.
+     *
+     * @param token the token
+     * @return the expiry in milliseconds since the epoch, or null if the token does not expire on a schedule
+     */
+    private Long computeExpiresAt(final Token token) {
+        final TimeToKillExpirationPolicy expirationPolicy;
+        if (token instanceof AuthorizationCode) {
+            expirationPolicy = this.authorizationCodeExpirationPolicy;
+        } else if (token instanceof AccessToken
+                && (token.getType() == TokenType.ONLINE || token.getType() == TokenType.OFFLINE)) {
+            expirationPolicy = this.accessTokenExpirationPolicy;
+        } else {
+            return null;
+        }
+        if (expirationPolicy == null || !(token.getTicket() instanceof TicketState)) {
+            return null;
+        }
+        return expirationPolicy.getExpiresAt((TicketState) token.getTicket());
+    }
+
+    /**
+     * @param authorizationCodeExpirationPolicy the expiration policy of the service tickets of the authorization
+     *                                          codes, null leaves their expiry unknown
+     */
+    public void setAuthorizationCodeExpirationPolicy(final TimeToKillExpirationPolicy authorizationCodeExpirationPolicy) {
+        this.authorizationCodeExpirationPolicy = authorizationCodeExpirationPolicy;
+    }
+
+    /**
+     * @param accessTokenExpirationPolicy the access token expiration policy, null leaves the expiry of the online
+     *                                    and offline access tokens unknown
+     */
+    public void setAccessTokenExpirationPolicy(final TimeToKillExpirationPolicy accessTokenExpirationPolicy) {
+        this.accessTokenExpirationPolicy = accessTokenExpirationPolicy;
+    }
+}
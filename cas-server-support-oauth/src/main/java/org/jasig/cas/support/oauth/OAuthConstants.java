@@ -144,6 +144,9 @@ public interface OAuthConstants {
     /** The invalid grant. */
     String INVALID_GRANT = "invalid_grant";
 
+    /** The temporarily unavailable error, returned when a client exceeds its rate limit. */
+    String TEMPORARILY_UNAVAILABLE = "temporarily_unavailable";
+
     /** The authorize url. */
     String AUTHORIZE_URL = "authorize";
 
@@ -212,4 +215,7 @@ public interface OAuthConstants {
 
     /** The failed token revocation error description. */
     String FAILED_TOKEN_REVOCATION_DESCRIPTION = "Token Revocation Failed";
+
+    /** The rate limit exceeded error description. */
+    String RATE_LIMIT_EXCEEDED_DESCRIPTION = "Rate Limit Exceeded";
 }
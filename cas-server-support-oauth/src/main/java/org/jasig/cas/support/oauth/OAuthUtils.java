@@ -35,6 +35,7 @@ import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class has some useful methods to output data in plain text,
@@ -47,6 +48,9 @@ public final class OAuthUtils {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(OAuthUtils.class);
 
+    /** The too many requests http status, which the http status constants lack. */
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
     /**
      * Instantiates a new OAuth utils.
      */
@@ -78,6 +82,20 @@ public final class OAuthUtils {
         return null;
     }
 
+    /**
+     * Write to the output the rate limit error as json, with the seconds to wait as a Retry-After header, and return a
+     * null view.
+     *
+     * @param response http response
+     * @param wait the nanoseconds until the request would be within its limit
+     * @return a null view
+     */
+    public static ModelAndView writeRateLimitError(final HttpServletResponse response, final long wait) {
+        response.setHeader("Retry-After", String.valueOf(TimeUnit.NANOSECONDS.toSeconds(wait - 1) + 1));
+        return writeJsonError(response, OAuthConstants.TEMPORARILY_UNAVAILABLE, OAuthConstants.RATE_LIMIT_EXCEEDED_DESCRIPTION,
+                              SC_TOO_MANY_REQUESTS);
+    }
+
     /**
      * Write to the output this error text and return a null view.
      *
@@ -0,0 +1,52 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.support.oauth.monitor;
+
+import org.jasig.cas.monitor.SessionMonitor;
+import org.jasig.cas.support.oauth.ticket.registry.PartitionTicketRegistryState;
+
+import javax.validation.constraints.NotNull;
+
+/**
+ * Session monitor of one partition of the ticket registry, named after the partition so that the health check
+ * reports the browser SSO and the OAuth sessions apart.
+ *
+ * @author Michael Haselton
+ * @since 4.1.5
+ */
+public class PartitionSessionMonitor extends SessionMonitor {
+
+    @NotNull
+    private final String name;
+
+    /**
+     * Instantiates a new partition session monitor.
+     *
+     * @param registryState the state of the partition
+     */
+    public PartitionSessionMonitor(final PartitionTicketRegistryState registryState) {
+        this.name = SessionMonitor.class.getSimpleName() + '.' + registryState.getPartition().name().toLowerCase();
+        setTicketRegistry(registryState);
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+}
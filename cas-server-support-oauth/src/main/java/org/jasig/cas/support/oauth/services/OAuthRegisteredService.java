@@ -41,6 +41,12 @@ public final class OAuthRegisteredService extends RegexRegisteredService {
 
     private Boolean bypassApprovalPrompt = Boolean.FALSE;
 
+    /** The requests per minute the authenticated client may make to the token endpoint, from any address, null for the default. */
+    private Integer rateLimitPerMinute;
+
+    /** The requests the authenticated client may make at once to the token endpoint, null for the default. */
+    private Integer rateLimitBurst;
+
     public String getClientId() {
         return this.clientId;
     }
@@ -65,6 +71,22 @@ public final class OAuthRegisteredService extends RegexRegisteredService {
         this.bypassApprovalPrompt = bypassApprovalPrompt;
     }
 
+    public Integer getRateLimitPerMinute() {
+        return rateLimitPerMinute;
+    }
+
+    public void setRateLimitPerMinute(final Integer rateLimitPerMinute) {
+        this.rateLimitPerMinute = rateLimitPerMinute;
+    }
+
+    public Integer getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+
+    public void setRateLimitBurst(final Integer rateLimitBurst) {
+        this.rateLimitBurst = rateLimitBurst;
+    }
+
     @Override
     public int compareTo(final RegisteredService other) {
         if (other instanceof OAuthRegisteredService) {
@@ -83,6 +105,8 @@ public final class OAuthRegisteredService extends RegexRegisteredService {
         builder.appendSuper(super.toString());
         builder.append("clientId", getClientId());
         builder.append("approvalPrompt", isBypassApprovalPrompt());
+        builder.append("rateLimitPerMinute", getRateLimitPerMinute());
+        builder.append("rateLimitBurst", getRateLimitBurst());
         return builder.toString();
     }
 
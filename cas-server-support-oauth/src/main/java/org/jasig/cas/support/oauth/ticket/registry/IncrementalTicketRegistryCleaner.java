@@ -0,0 +1,483 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.support.oauth.ticket.registry;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.jasig.cas.CentralAuthenticationService;
+import org.jasig.cas.support.oauth.token.AbstractToken;
+import org.jasig.cas.support.oauth.token.AccessTokenImpl;
+import org.jasig.cas.support.oauth.token.AuthorizationCodeImpl;
+import org.jasig.cas.ticket.AbstractTicket;
+import org.jasig.cas.ticket.ServiceTicketImpl;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+import org.jasig.cas.ticket.registry.RegistryCleaner;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.jasig.cas.ticket.registry.support.LockingStrategy;
+import org.jasig.cas.ticket.registry.support.NoOpLockingStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes the expired tickets of the JPA ticket registry in small batches.
+ *
+ * The cleaner walks the authorization codes and access tokens past their expiry column, in order of expiry, then the
+ * service tickets and the ticket granting tickets, in order of last use, a batch at a time. Every batch resumes after
+ * the last row of the previous one, through the index on the expiry column of the tokens and on the last use of the
+ * tickets, in the CAS database:
+ * {@code create index concurrently idx_serviceticket_last_time_used on serviceticket (last_time_used, id)} and
+ * {@code create index concurrently idx_ticketgrantingticket_last_time_used on ticketgrantingticket (last_time_used, id)}.
+ * The tickets of the tokens are removed once confirmed expired, which removes the tokens with them. Every run first
+ * counts the tokens past their expiry column, through the same index, and reports the count as the backlog.
+ *
+ * A run loads at most the maximum number of batches and then stops, keeping its position for the next run, so that a
+ * run is short however large the registry and the lock is never held for long. A pass over every entity takes as many
+ * runs as it needs, and the next pass starts over once it ends. Tickets do not expire in order of last use, a ticket
+ * granting ticket may reach its hard timeout while in use, so a pass walks every ticket last used before it started.
+ * Between batches the cleaner pauses, and when a batch takes longer than the latency threshold the pause doubles, up
+ * to the maximum pause, so that the cleaner yields to the login traffic while the database is under load.
+ *
+ * A cleaner may be limited to one {@link TicketPartition}, so that the browser SSO and the OAuth tickets are cleaned
+ * on their own schedules, locks and batch sizes: the SSO cleaner walks only the SSO tickets and skips the tokens,
+ * and the OAuth cleaner walks the tokens and then only the OAuth tickets.
+ *
+ * @author Michael Haselton
+ * @since 4.1.5
+ */
+public final class IncrementalTicketRegistryCleaner implements RegistryCleaner, InitializingBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IncrementalTicketRegistryCleaner.class);
+
+    private static final int DEFAULT_BATCH_SIZE = 500;
+
+    private static final long DEFAULT_PAUSE = 100;
+
+    private static final long DEFAULT_MAX_PAUSE = 5000;
+
+    private static final long DEFAULT_LATENCY_THRESHOLD = 500;
+
+    private static final int DEFAULT_MAX_BATCHES = 20;
+
+    /** Service tickets first, so that destroying a ticket granting ticket does not race its own service tickets. */
+    private static final String[] TICKET_ENTITIES = {
+            ServiceTicketImpl.class.getSimpleName(),
+            TicketGrantingTicketImpl.class.getSimpleName(),
+    };
+
+    /** The tokens with an expiry column. */
+    private static final String[] TOKEN_ENTITIES = {
+            AuthorizationCodeImpl.class.getSimpleName(),
+            AccessTokenImpl.class.getSimpleName(),
+    };
+
+    @NotNull
+    private final CentralAuthenticationService centralAuthenticationService;
+
+    @NotNull
+    private final TicketRegistry ticketRegistry;
+
+    @NotNull
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @NotNull
+    private LockingStrategy lock = new NoOpLockingStrategy();
+
+    @NotNull
+    private MetricRegistry metricRegistry = new MetricRegistry();
+
+    @Min(1)
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private long pause = DEFAULT_PAUSE;
+
+    private long maxPause = DEFAULT_MAX_PAUSE;
+
+    private long latencyThreshold = DEFAULT_LATENCY_THRESHOLD;
+
+    @Min(1)
+    private int maxBatches = DEFAULT_MAX_BATCHES;
+
+    private boolean logUserOutOfServices = true;
+
+    @NotNull
+    private TicketPartition partition = TicketPartition.ALL;
+
+    private volatile long currentPause = DEFAULT_PAUSE;
+
+    private volatile long lastCompletedPass;
+
+    private volatile long backlog = -1;
+
+    /** The token entities, then the ticket entities, of the partition. */
+    private String[] entities;
+
+    /** The position of the walk, kept between runs: the entity, and the sort key and id of the last row walked. */
+    private int entityIndex;
+
+    private long lastValue = Long.MIN_VALUE;
+
+    private String lastId = "";
+
+    /** When the run that started the current pass started. */
+    private long passStart;
+
+    private Meter deletedMeter;
+
+    private Timer batchTimer;
+
+    /**
+     * Instantiates a new incremental ticket registry cleaner.
+     *
+     * @param centralAuthenticationService the central authentication service, which logs out of the services
+     * @param ticketRegistry the ticket registry
+     */
+    public IncrementalTicketRegistryCleaner(final CentralAuthenticationService centralAuthenticationService,
+                                            final TicketRegistry ticketRegistry) {
+        this.centralAuthenticationService = centralAuthenticationService;
+        this.ticketRegistry = ticketRegistry;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        this.currentPause = this.pause;
+        final List<String> entities = new ArrayList<>();
+        if (this.partition != TicketPartition.SSO) {
+            entities.addAll(Arrays.asList(TOKEN_ENTITIES));
+        }
+        entities.addAll(Arrays.asList(TICKET_ENTITIES));
+        this.entities = entities.toArray(new String[entities.size()]);
+        this.deletedMeter = this.metricRegistry.meter(metricName("deleted"));
+        this.batchTimer = this.metricRegistry.timer(metricName("batch"));
+        this.metricRegistry.register(metricName("lag"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return getLag();
+            }
+        });
+        this.metricRegistry.register(metricName("backlog"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return getBacklog();
+            }
+        });
+    }
+
+    @Override
+    public Collection<Ticket> clean() {
+        if (!this.lock.acquire()) {
+            LOGGER.debug("Another node is cleaning the ticket registry");
+            return new ArrayList<>();
+        }
+        final long start = System.currentTimeMillis();
+        final List<Ticket> removed = new ArrayList<>();
+        try {
+            if (this.entityIndex == 0 && this.lastId.isEmpty()) {
+                this.passStart = start;
+            }
+            if (this.partition != TicketPartition.SSO) {
+                this.backlog = countExpiredTokens(start);
+            }
+            for (int batches = 1; batches <= this.maxBatches; batches++) {
+                final long batchStart = System.nanoTime();
+                final String entity = this.entities[this.entityIndex];
+                final int size = isToken(entity) ? cleanTokens(entity, start, removed) : cleanTickets(entity, start, removed);
+                final long elapsed = System.nanoTime() - batchStart;
+                this.batchTimer.update(elapsed, TimeUnit.NANOSECONDS);
+
+                if (size < this.batchSize && nextEntity()) {
+                    this.lastCompletedPass = this.passStart;
+                    break;
+                }
+                if (batches < this.maxBatches && !backOff(TimeUnit.NANOSECONDS.toMillis(elapsed))) {
+                    LOGGER.info("Ticket registry cleaning interrupted after removing {} tickets", removed.size());
+                    return removed;
+                }
+            }
+        } finally {
+            this.lock.release();
+        }
+        LOGGER.info("Removed {} expired {} tickets in {} ms", removed.size(), this.partition,
+                System.currentTimeMillis() - start);
+        return removed;
+    }
+
+    /**
+     * Move the walk to the start of the next entity, or of the next pass after the last entity.
+     *
+     * @return true if the pass has ended, false otherwise
+     */
+    private boolean nextEntity() {
+        this.entityIndex = (this.entityIndex + 1) % this.entities.length;
+        this.lastValue = Long.MIN_VALUE;
+        this.lastId = "";
+        return this.entityIndex == 0;
+    }
+
+    /**
+     * @param entity the entity name
+     * @return true if the entity is a token entity, false if it is a ticket entity
+     */
+    private static boolean isToken(final String entity) {
+        return Arrays.asList(TOKEN_ENTITIES).contains(entity);
+    }
+
+    /**
+     * Load the next batch of tickets of an entity last used before the run started, in order of last use, remove the
+     * expired ones, and move the walk past the batch.
+     *
+     * @param entity the ticket entity name
+     * @param start when the run started, tickets used since are left to the next pass
+     * @param removed collects the removed tickets
+     * @return the size of the batch, shorter than the batch size when it is the last one
+     */
+    private int cleanTickets(final String entity, final long start, final List<Ticket> removed) {
+        final List<AbstractTicket> batch = this.entityManager
+                .createQuery("select t from " + entity + " t where t.lastTimeUsed < :start"
+                        + this.partition.and(entity) + " "
+                        + "and (t.lastTimeUsed > :lastTimeUsed or (t.lastTimeUsed = :lastTimeUsed and t.id > :lastId)) "
+                        + "order by t.lastTimeUsed, t.id", AbstractTicket.class)
+                .setParameter("start", start)
+                .setParameter("lastTimeUsed", this.lastValue)
+                .setParameter("lastId", this.lastId)
+                .setMaxResults(this.batchSize)
+                .getResultList();
+        for (final AbstractTicket ticket : batch) {
+            if (ticket.isExpired() && remove(ticket)) {
+                removed.add(ticket);
+                this.deletedMeter.mark();
+            }
+        }
+        if (!batch.isEmpty()) {
+            final AbstractTicket last = batch.get(batch.size() - 1);
+            this.lastValue = last.getLastTimeUsed();
+            this.lastId = last.getId();
+        }
+        return batch.size();
+    }
+
+    /**
+     * Load the next batch of tokens of an entity past their expiry column, in order of expiry, remove their tickets if
+     * expired, and move the walk past the batch. A token whose ticket has been used since its expiry was computed is
+     * left alone.
+     *
+     * @param entity the token entity name
+     * @param start when the run started
+     * @param removed collects the removed tickets
+     * @return the size of the batch, shorter than the batch size when it is the last one
+     */
+    private int cleanTokens(final String entity, final long start, final List<Ticket> removed) {
+        final List<AbstractToken> batch = this.entityManager
+                .createQuery("select t from " + entity + " t where t.expiresAt < :start "
+                        + "and (t.expiresAt > :lastExpiresAt or (t.expiresAt = :lastExpiresAt and t.id > :lastId)) "
+                        + "order by t.expiresAt, t.id", AbstractToken.class)
+                .setParameter("start", start)
+                .setParameter("lastExpiresAt", this.lastValue)
+                .setParameter("lastId", this.lastId)
+                .setMaxResults(this.batchSize)
+                .getResultList();
+        for (final AbstractToken token : batch) {
+            final Ticket ticket = token.getTicket();
+            if (ticket != null && ticket.isExpired() && remove(ticket)) {
+                removed.add(ticket);
+                this.deletedMeter.mark();
+            }
+        }
+        if (!batch.isEmpty()) {
+            final AbstractToken last = batch.get(batch.size() - 1);
+            this.lastValue = last.getExpiresAt();
+            this.lastId = last.getId();
+        }
+        return batch.size();
+    }
+
+    /**
+     * Count the tokens past their expiry column, through its index without loading a row.
+     *
+     * @param start when the run started
+     * @return the number of tokens past their expiry
+     */
+    private long countExpiredTokens(final long start) {
+        long count = 0;
+        for (final String entity : TOKEN_ENTITIES) {
+            count += this.entityManager
+                    .createQuery("select count(t) from " + entity + " t where t.expiresAt < :start", Long.class)
+                    .setParameter("start", start)
+                    .getSingleResult();
+        }
+        return count;
+    }
+
+    /**
+     * Name a metric of the cleaner, qualified by its partition unless it cleans every ticket.
+     *
+     * @param name the metric name
+     * @return the qualified metric name
+     */
+    private String metricName(final String name) {
+        if (this.partition == TicketPartition.ALL) {
+            return MetricRegistry.name(getClass(), name);
+        }
+        return MetricRegistry.name(getClass(), this.partition.name().toLowerCase(), name);
+    }
+
+    /**
+     * Remove an expired ticket, logging its user out of the services for a ticket granting ticket.
+     *
+     * @param ticket the expired ticket
+     * @return true if the ticket was removed, false if it was already gone or could not be removed
+     */
+    private boolean remove(final Ticket ticket) {
+        try {
+            if (this.logUserOutOfServices && ticket instanceof TicketGrantingTicket) {
+                this.centralAuthenticationService.destroyTicketGrantingTicket(ticket.getId());
+                return true;
+            }
+            return this.ticketRegistry.deleteTicket(ticket.getId());
+        } catch (final Exception e) {
+            LOGGER.warn("Failed to remove the expired ticket {}: {}", ticket.getId(), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Pause before the next batch, doubling the pause while batches are slower than the latency threshold.
+     *
+     * @param elapsed how long the last batch took in milliseconds
+     * @return false if the thread was interrupted, true otherwise
+     */
+    private boolean backOff(final long elapsed) {
+        if (this.latencyThreshold > 0 && elapsed > this.latencyThreshold) {
+            this.currentPause = Math.min(Math.max(this.currentPause * 2, 1), this.maxPause);
+            LOGGER.debug("Ticket registry batch took {} ms, pausing for {} ms", elapsed, this.currentPause);
+        } else {
+            this.currentPause = this.pause;
+        }
+        if (this.currentPause <= 0) {
+            return true;
+        }
+        try {
+            Thread.sleep(this.currentPause);
+            return true;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @return how long in milliseconds since the start of the last complete pass, before which every expired ticket
+     * has been removed, or -1 if no pass has completed yet
+     */
+    public long getLag() {
+        final long last = this.lastCompletedPass;
+        return last > 0 ? System.currentTimeMillis() - last : -1;
+    }
+
+    /**
+     * @return how many tokens were past their expiry when the last run started, the tokens still in use among them
+     * included, or -1 if the cleaner does not walk the tokens or has not run yet
+     */
+    public long getBacklog() {
+        return this.backlog;
+    }
+
+    /**
+     * @return the pause before the next batch in milliseconds
+     */
+    public long getCurrentPause() {
+        return this.currentPause;
+    }
+
+    public void setEntityManager(final EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    public void setLock(final LockingStrategy lock) {
+        this.lock = lock;
+    }
+
+    public void setMetricRegistry(final MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+    }
+
+    /**
+     * @param batchSize how many tickets are loaded at a time
+     */
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param maxBatches how many batches a run loads at most before it stops, the next run resumes where it stopped
+     */
+    public void setMaxBatches(final int maxBatches) {
+        this.maxBatches = maxBatches;
+    }
+
+    /**
+     * @param pause how long in milliseconds to pause between batches
+     */
+    public void setPause(final long pause) {
+        this.pause = pause;
+    }
+
+    /**
+     * @param maxPause the longest pause in milliseconds between batches while the database is slow
+     */
+    public void setMaxPause(final long maxPause) {
+        this.maxPause = maxPause;
+    }
+
+    /**
+     * @param latencyThreshold how long in milliseconds a batch may take before the pause grows, 0 never grows it
+     */
+    public void setLatencyThreshold(final long latencyThreshold) {
+        this.latencyThreshold = latencyThreshold;
+    }
+
+    /**
+     * @param logUserOutOfServices whether removing an expired ticket granting ticket logs its user out of the services
+     */
+    public void setLogUserOutOfServices(final boolean logUserOutOfServices) {
+        this.logUserOutOfServices = logUserOutOfServices;
+    }
+
+    /**
+     * @param partition the tickets the cleaner removes, every ticket by default
+     */
+    public void setPartition(final TicketPartition partition) {
+        this.partition = partition;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.support.oauth.ticket.registry;
+
+import org.jasig.cas.monitor.TicketRegistryState;
+import org.jasig.cas.ticket.ServiceTicketImpl;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Counts the sessions and service tickets of one partition of the JPA ticket registry, so that the browser SSO and
+ * the OAuth tickets are sized and monitored on their own.
+ *
+ * @author Michael Haselton
+ * @since 4.1.5
+ */
+public final class PartitionTicketRegistryState implements TicketRegistryState {
+
+    @NotNull
+    private final TicketPartition partition;
+
+    @NotNull
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * Instantiates a new partition ticket registry state.
+     *
+     * @param partition the partition counted
+     */
+    public PartitionTicketRegistryState(final TicketPartition partition) {
+        this.partition = partition;
+    }
+
+    @Override
+    public int sessionCount() {
+        return count(TicketGrantingTicketImpl.class.getSimpleName());
+    }
+
+    @Override
+    public int serviceTicketCount() {
+        return count(ServiceTicketImpl.class.getSimpleName());
+    }
+
+    /**
+     * Count the tickets of an entity in the partition.
+     *
+     * @param entity the ticket entity name
+     * @return the number of tickets
+     */
+    private int count(final String entity) {
+        return this.entityManager
+                .createQuery("select count(t) from " + entity + " t" + this.partition.where(entity), Long.class)
+                .getSingleResult()
+                .intValue();
+    }
+
+    public TicketPartition getPartition() {
+        return this.partition;
+    }
+
+    public void setEntityManager(final EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+}
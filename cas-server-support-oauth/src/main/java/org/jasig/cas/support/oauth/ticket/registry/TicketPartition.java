@@ -0,0 +1,96 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.support.oauth.ticket.registry;
+
+import org.jasig.cas.ticket.ServiceTicketImpl;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+
+/**
+ * Partitions of the ticket registry by the origin of the tickets.
+ *
+ * The OAuth tokens reference their tickets by foreign key, so the OAuth and the browser SSO tickets share the
+ * ticket tables and the partitions are told apart by the tokens: a ticket granting ticket belongs to OAuth when a
+ * refresh token or a non CAS access token holds it, and a service ticket when an access token or an authorization
+ * code holds it. Every other ticket belongs to SSO.
+ *
+ * @author Michael Haselton
+ * @since 4.1.5
+ */
+public enum TicketPartition {
+
+    /** Every ticket. */
+    ALL,
+
+    /** The tickets of browser SSO sessions. */
+    SSO,
+
+    /** The tickets held by OAuth tokens. */
+    OAUTH;
+
+    private static final String OAUTH_TICKET_GRANTING_TICKET =
+            "(exists (select r.id from RefreshTokenImpl r where r.ticketGrantingTicket = t) "
+            + "or exists (select a.id from AccessTokenImpl a where a.ticketGrantingTicket = t "
+            + "and a.type <> org.jasig.cas.support.oauth.token.TokenType.CAS))";
+
+    private static final String OAUTH_SERVICE_TICKET =
+            "(exists (select a.id from AccessTokenImpl a where a.serviceTicket = t) "
+            + "or exists (select c.id from AuthorizationCodeImpl c where c.serviceTicket = t))";
+
+    /**
+     * Return the JPQL predicate that restricts the tickets of an entity, aliased t, to the partition as an additional
+     * condition of a where clause.
+     *
+     * @param entity the ticket entity name
+     * @return the predicate, starting with "and", or an empty string for every ticket
+     */
+    public String and(final String entity) {
+        final String condition = condition(entity);
+        return condition == null ? "" : " and " + condition;
+    }
+
+    /**
+     * Return the JPQL where clause that restricts the tickets of an entity, aliased t, to the partition.
+     *
+     * @param entity the ticket entity name
+     * @return the where clause, or an empty string for every ticket
+     */
+    public String where(final String entity) {
+        final String condition = condition(entity);
+        return condition == null ? "" : " where " + condition;
+    }
+
+    /**
+     * @param entity the ticket entity name
+     * @return the condition on the tickets of the entity in the partition, or null for every ticket
+     */
+    private String condition(final String entity) {
+        if (this == ALL) {
+            return null;
+        }
+        final String oAuth;
+        if (TicketGrantingTicketImpl.class.getSimpleName().equals(entity)) {
+            oAuth = OAUTH_TICKET_GRANTING_TICKET;
+        } else if (ServiceTicketImpl.class.getSimpleName().equals(entity)) {
+            oAuth = OAUTH_SERVICE_TICKET;
+        } else {
+            throw new IllegalArgumentException("Not a ticket entity: " + entity);
+        }
+        return this == OAUTH ? oAuth : "not " + oAuth;
+    }
+}
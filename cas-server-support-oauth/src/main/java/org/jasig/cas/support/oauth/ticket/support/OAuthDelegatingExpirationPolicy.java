@@ -53,36 +53,38 @@ public final class OAuthDelegatingExpirationPolicy extends AbstractCasExpiration
     @Override
     public boolean isExpired(final TicketState ticketState) {
         final AbstractTicket ticket = (AbstractTicket) ticketState;
-        final TicketGrantingTicket ticketGrantingTicket = ticket.getGrantingTicket();
+        final boolean grantingTicket = ticket instanceof TicketGrantingTicket;
+        final TokenType tokenType = getTokenType(ticket);
 
-        final Authentication authentication;
-        if (ticketGrantingTicket != null) {
-            authentication = ticketGrantingTicket.getAuthentication();
-        } else {
-            authentication = ticket.getAuthentication();
+        if (tokenType == null) {
+            // service validation / other
+            return sessionExpirationPolicy.isExpired(ticketState);
         }
-
-        final TokenType tokenType = (TokenType) authentication.getAttributes()
-                .get(OAuthCredential.AUTHENTICATION_ATTRIBUTE_ACCESS_TYPE);
-
-        // offline
-        if (tokenType == TokenType.OFFLINE) {
-            return ticket instanceof TicketGrantingTicket ? oAuthRefreshTokenExpirationPolicy.isExpired(ticketState)
-                    : oAuthAccessTokenExpirationPolicy.isExpired(ticketState);
-        }
-
-        // online
-        if (tokenType == TokenType.ONLINE && ticket instanceof TicketGrantingTicket) {
-            return oAuthAccessTokenExpirationPolicy.isExpired(ticketState);
-        }
-
-        // personal
-        if (tokenType == TokenType.PERSONAL && ticket instanceof TicketGrantingTicket) {
-            return false;
+        switch (tokenType) {
+            case OFFLINE:
+                return grantingTicket ? oAuthRefreshTokenExpirationPolicy.isExpired(ticketState)
+                        : oAuthAccessTokenExpirationPolicy.isExpired(ticketState);
+            case ONLINE:
+                return grantingTicket ? oAuthAccessTokenExpirationPolicy.isExpired(ticketState)
+                        : sessionExpirationPolicy.isExpired(ticketState);
+            case PERSONAL:
+                return !grantingTicket && sessionExpirationPolicy.isExpired(ticketState);
+            default:
+                return sessionExpirationPolicy.isExpired(ticketState);
         }
+    }
 
-        // service validation / other
-        return sessionExpirationPolicy.isExpired(ticketState);
+    /**
+     * Return the token type of the authentication of the ticket, or of its granting ticket if it has one.
+     *
+     * @param ticket the ticket
+     * @return the token type, or null for a CAS SSO session
+     */
+    private TokenType getTokenType(final AbstractTicket ticket) {
+        final TicketGrantingTicket ticketGrantingTicket = ticket.getGrantingTicket();
+        final Authentication authentication = ticketGrantingTicket != null
+                ? ticketGrantingTicket.getAuthentication() : ticket.getAuthentication();
+        return (TokenType) authentication.getAttributes().get(OAuthCredential.AUTHENTICATION_ATTRIBUTE_ACCESS_TYPE);
     }
 
     public void setOAuthRefreshTokenExpirationPolicy(final ExpirationPolicy oAuthRefreshTokenExpirationPolicy) {
@@ -0,0 +1,86 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.support.oauth.ticket.support;
+
+import org.jasig.cas.ticket.ExpirationPolicy;
+import org.jasig.cas.ticket.TicketState;
+import org.jasig.cas.ticket.support.AbstractCasExpirationPolicy;
+import org.jasig.cas.ticket.support.MultiTimeUseOrTimeoutExpirationPolicy;
+import org.jasig.cas.ticket.support.TimeoutExpirationPolicy;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Expires a ticket a fixed time after it was last used, optionally after
+ * a number of uses, and tells when that time is.
+ *
+ * The checks are delegated to the core timeout policies, which keep their
+ * time to kill to themselves, so that the token expiry stored for the
+ * registry is computed from the same policy that expires the ticket.
+ *
+ * @author Michael Haselton
+ * @since 4.1.5
+ */
+public final class TimeToKillExpirationPolicy extends AbstractCasExpirationPolicy {
+
+    /** Serialization support. */
+    private static final long serialVersionUID = -2904526383587126372L;
+
+    private final long timeToKillInMilliSeconds;
+
+    private final ExpirationPolicy delegate;
+
+    /**
+     * Instantiates a new time to kill expiration policy.
+     *
+     * @param timeToKill the time to kill after the last use
+     * @param timeUnit the time unit of the time to kill
+     */
+    public TimeToKillExpirationPolicy(final long timeToKill, final TimeUnit timeUnit) {
+        this(0, timeToKill, timeUnit);
+    }
+
+    /**
+     * Instantiates a new time to kill expiration policy.
+     *
+     * @param numberOfUses the number of uses, 0 for no limit
+     * @param timeToKill the time to kill after the last use
+     * @param timeUnit the time unit of the time to kill
+     */
+    public TimeToKillExpirationPolicy(final int numberOfUses, final long timeToKill, final TimeUnit timeUnit) {
+        this.timeToKillInMilliSeconds = timeUnit.toMillis(timeToKill);
+        this.delegate = numberOfUses > 0 ? new MultiTimeUseOrTimeoutExpirationPolicy(numberOfUses, timeToKill, timeUnit)
+                : new TimeoutExpirationPolicy(this.timeToKillInMilliSeconds);
+    }
+
+    @Override
+    public boolean isExpired(final TicketState ticketState) {
+        return this.delegate.isExpired(ticketState);
+    }
+
+    /**
+     * Get when the ticket expires unless it is used again.
+     *
+     * @param ticketState the ticket state
+     * @return the expiry in milliseconds since the epoch
+     */
+    public long getExpiresAt(final TicketState ticketState) {
+        return ticketState.getLastTimeUsed() + this.timeToKillInMilliSeconds;
+    }
+}
@@ -65,6 +65,10 @@ public abstract class AbstractToken implements Token {
     @Column(name="SCOPES_HASH", nullable=false)
     private Integer scopesHash;
 
+    /** When the ticket of the token expires at the latest, null if it does not expire on a schedule. */
+    @Column(name="EXPIRES_AT")
+    private Long expiresAt;
+
     /**
      * Instantiates a new abstract token.
      */
@@ -134,4 +138,13 @@ public abstract class AbstractToken implements Token {
     public Integer getScopesHash() {
         return this.scopesHash;
     }
+
+    @Override
+    public Long getExpiresAt() {
+        return this.expiresAt;
+    }
+
+    public void setExpiresAt(final Long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
 }
@@ -29,6 +29,7 @@ import org.jasig.cas.ticket.TicketGrantingTicketImpl;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.Index;
 import javax.persistence.Lob;
 import javax.persistence.OneToOne;
 import javax.persistence.Table;
@@ -42,7 +43,7 @@ import java.util.Set;
  * @since 4.1.0
  */
 @Entity
-@Table(name="ACCESSTOKEN")
+@Table(name="ACCESSTOKEN", indexes=@Index(name="IDX_ACCESSTOKEN_EXPIRES_AT", columnList="EXPIRES_AT"))
 public final class AccessTokenImpl extends AbstractToken implements AccessToken {
 
     /** Unique Id for serialization. */
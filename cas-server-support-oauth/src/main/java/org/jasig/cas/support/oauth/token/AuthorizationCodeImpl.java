@@ -25,6 +25,7 @@ import org.jasig.cas.ticket.ServiceTicketImpl;
 import org.jasig.cas.ticket.Ticket;
 
 import javax.persistence.Entity;
+import javax.persistence.Index;
 import javax.persistence.OneToOne;
 import javax.persistence.Table;
 import java.util.Set;
@@ -36,7 +37,7 @@ import java.util.Set;
  * @since 4.1.0
  */
 @Entity
-@Table(name="AUTHORIZATIONCODE")
+@Table(name="AUTHORIZATIONCODE", indexes=@Index(name="IDX_AUTHORIZATIONCODE_EXPIRES_AT", columnList="EXPIRES_AT"))
 public final class AuthorizationCodeImpl extends AbstractToken implements AuthorizationCode {
 
     /** Unique Id for serialization. */
@@ -79,4 +79,11 @@ public interface Token extends Serializable {
      * @return the hash
      */
     Integer getScopesHash();
+
+    /**
+     * Method to retrieve when the ticket of the token expires at the latest, as last computed.
+     *
+     * @return the expiry in milliseconds since the epoch, or null if the token does not expire on a schedule
+     */
+    Long getExpiresAt();
 }
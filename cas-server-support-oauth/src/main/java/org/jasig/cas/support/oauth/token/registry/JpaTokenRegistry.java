@@ -18,6 +18,7 @@
  */
 package org.jasig.cas.support.oauth.token.registry;
 
+import com.codahale.metrics.annotation.Timed;
 import org.jasig.cas.support.oauth.token.AccessToken;
 import org.jasig.cas.support.oauth.token.AccessTokenImpl;
 import org.jasig.cas.support.oauth.token.AuthorizationCode;
@@ -41,6 +42,9 @@ import java.util.Set;
 /**
  * JPA Token Registry.
  *
+ * Each method is timed, so the database time of the OAuth requests shows apart from the time of the endpoints
+ * and of the central OAuth service.
+ *
  * @author Michael Haselton
  * @since 4.1.0
  */
@@ -54,18 +58,21 @@ public final class JpaTokenRegistry implements TokenRegistry {
     private EntityManager entityManager;
 
     @Override
+    @Timed(name = "ADD_TOKEN_TIMER")
     public void addToken(final Token token) {
         entityManager.persist(token);
         logger.debug("Added token [{}] to registry.", token);
     }
 
     @Override
+    @Timed(name = "UPDATE_TOKEN_TIMER")
     public void updateToken(final Token token) {
         entityManager.merge(token);
         logger.debug("Updated token [{}].", token);
     }
 
     @Override
+    @Timed(name = "GET_TOKEN_TIMER")
     public <T extends Token> T getToken(final String tokenId, final Class<T> clazz) throws ClassCastException {
         Assert.notNull(clazz, "clazz cannot be null");
 
@@ -84,6 +91,7 @@ public final class JpaTokenRegistry implements TokenRegistry {
     }
 
     @Override
+    @Timed(name = "GET_CLIENT_TOKENS_TIMER")
     public <T extends Token> Collection<T> getClientTokens(final String clientId, final Class<T> clazz) throws ClassCastException {
         Assert.notNull(clientId, "clientId cannot be null");
         Assert.notNull(clazz, "clazz cannot be null");
@@ -100,12 +108,14 @@ public final class JpaTokenRegistry implements TokenRegistry {
     }
 
     @Override
+    @Timed(name = "GET_CLIENT_PRINCIPAL_TOKENS_TIMER")
     public <T extends Token> Collection<T> getClientPrincipalTokens(final String clientId, final String principalId, final Class<T> clazz)
             throws ClassCastException {
         return getClientPrincipalTokens(clientId, principalId, null, clazz);
     }
 
     @Override
+    @Timed(name = "GET_CLIENT_PRINCIPAL_TOKENS_BY_TYPE_TIMER")
     public <T extends Token> Collection<T> getClientPrincipalTokens(final String clientId, final String principalId, final TokenType type,
                                                                     final Class<T> clazz) throws ClassCastException {
         Assert.notNull(clientId, "clientId cannot be null");
@@ -136,6 +146,7 @@ public final class JpaTokenRegistry implements TokenRegistry {
     }
 
     @Override
+    @Timed(name = "GET_PRINCIPAL_TOKENS_TIMER")
     public <T extends Token> Collection<T> getPrincipalTokens(final String principalId, final Class<T> clazz) throws ClassCastException {
         Assert.notNull(principalId, "principalId cannot be null");
         Assert.notNull(clazz, "clazz cannot be null");
@@ -152,12 +163,14 @@ public final class JpaTokenRegistry implements TokenRegistry {
     }
 
     @Override
+    @Timed(name = "IS_TOKEN_TIMER")
     public <T extends Token> Boolean isToken(final String clientId, final String principalId, final Set<String> scopes,
                                              final Class<T> clazz) {
         return isToken(null, clientId, principalId, scopes, clazz);
     }
 
     @Override
+    @Timed(name = "IS_TOKEN_BY_TYPE_TIMER")
     public <T extends Token> Boolean isToken(final TokenType type, final String clientId, final String principalId,
                                              final Set<String> scopes, final Class<T> clazz) {
         Assert.notNull(clientId, "clientId cannot be null");
@@ -193,6 +206,7 @@ public final class JpaTokenRegistry implements TokenRegistry {
             return Boolean.FALSE;
         }
 
+        // the expiry column is not trusted here, a ticket used since it was computed lives longer.
         for (final Token token : tokens) {
             if (!token.getTicket().isExpired()) {
                 return Boolean.TRUE;
@@ -203,6 +217,7 @@ public final class JpaTokenRegistry implements TokenRegistry {
     }
 
     @Override
+    @Timed(name = "GET_PRINCIPAL_COUNT_TIMER")
     public Integer getPrincipalCount(final String clientId) {
         Assert.notNull(clientId, "clientId cannot be null");
 
@@ -26,6 +26,8 @@ import org.jasig.cas.support.oauth.OAuthUtils;
 import org.jasig.cas.support.oauth.token.AccessToken;
 import org.jasig.cas.support.oauth.token.AuthorizationCode;
 import org.jasig.cas.support.oauth.token.TokenType;
+import org.jasig.cas.support.oauth.web.support.OAuth20AuthorizeState;
+import org.jasig.cas.support.oauth.web.support.OAuth20AuthorizeStateStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.web.servlet.ModelAndView;
@@ -33,7 +35,6 @@ import org.springframework.web.servlet.mvc.AbstractController;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.servlet.http.HttpSession;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -50,57 +51,56 @@ public final class OAuth20AuthorizeCallbackActionController extends AbstractCont
 
     private final CentralOAuthService centralOAuthService;
 
+    private final OAuth20AuthorizeStateStore authorizeStateStore;
+
     private final Long timeout;
 
     /**
      * Instantiates a new o auth20 authorize callback action controller.
      *
      * @param centralOAuthService the central oauth service
+     * @param authorizeStateStore the authorize state store
      * @param timeout the ticket timeout
      */
-    public OAuth20AuthorizeCallbackActionController(final CentralOAuthService centralOAuthService, final Long timeout) {
+    public OAuth20AuthorizeCallbackActionController(final CentralOAuthService centralOAuthService,
+                                                    final OAuth20AuthorizeStateStore authorizeStateStore,
+                                                    final Long timeout) {
         this.centralOAuthService = centralOAuthService;
+        this.authorizeStateStore = authorizeStateStore;
         this.timeout = timeout;
     }
 
     @Override
     protected ModelAndView handleRequestInternal(final HttpServletRequest request, final HttpServletResponse response)
             throws Exception {
-        final HttpSession session = request.getSession();
+        final OAuth20AuthorizeState authorizeState = authorizeStateStore.load(request);
+        authorizeStateStore.clear(request, response);
 
         // get action
         final String action = request.getParameter(OAuthConstants.OAUTH20_APPROVAL_PROMPT_ACTION);
         LOGGER.debug("{} : {}", OAuthConstants.OAUTH20_APPROVAL_PROMPT_ACTION, action);
 
-        final String responseType = (String) session.getAttribute(OAuthConstants.OAUTH20_RESPONSE_TYPE);
+        final String responseType = authorizeState.getResponseType();
         LOGGER.debug("{} : {}", OAuthConstants.OAUTH20_RESPONSE_TYPE, responseType);
-        session.removeAttribute(OAuthConstants.OAUTH20_RESPONSE_TYPE);
 
-        final String clientId = (String) session.getAttribute(OAuthConstants.OAUTH20_CLIENT_ID);
+        final String clientId = authorizeState.getClientId();
         LOGGER.debug("{} : {}", OAuthConstants.OAUTH20_CLIENT_ID, clientId);
-        session.removeAttribute(OAuthConstants.OAUTH20_CLIENT_ID);
 
-        // retrieve state from session (csrf equivalent)
-        final String state = (String) session.getAttribute(OAuthConstants.OAUTH20_STATE);
+        // retrieve state from the authorize state (csrf equivalent)
+        final String state = authorizeState.getState();
         LOGGER.debug("{} : {}", OAuthConstants.OAUTH20_STATE, state);
-        session.removeAttribute(OAuthConstants.OAUTH20_STATE);
 
-        final String redirectUri = (String) session.getAttribute(OAuthConstants.OAUTH20_REDIRECT_URI);
+        final String redirectUri = authorizeState.getRedirectUri();
         LOGGER.debug("{} : {}", OAuthConstants.OAUTH20_REDIRECT_URI, redirectUri);
-        session.removeAttribute(OAuthConstants.OAUTH20_REDIRECT_URI);
 
-        final TokenType tokenType = (TokenType) session.getAttribute(OAuthConstants.OAUTH20_TOKEN_TYPE);
+        final TokenType tokenType = authorizeState.getTokenType();
         LOGGER.debug("{} : {}", OAuthConstants.OAUTH20_TOKEN_TYPE, tokenType);
-        session.removeAttribute(OAuthConstants.OAUTH20_TOKEN_TYPE);
 
-        final String loginTicketId = (String) session.getAttribute(OAuthConstants.OAUTH20_LOGIN_TICKET_ID);
+        final String loginTicketId = authorizeState.getLoginTicketId();
         LOGGER.debug("{} : {}", OAuthConstants.OAUTH20_LOGIN_TICKET_ID, loginTicketId);
-        session.removeAttribute(OAuthConstants.OAUTH20_LOGIN_TICKET_ID);
 
-        @SuppressWarnings("unchecked")
-        final Set<String> scopeSet = (Set<String>) session.getAttribute(OAuthConstants.OAUTH20_SCOPE_SET);
+        final Set<String> scopeSet = authorizeState.getScopeSet();
         LOGGER.debug("{} : {}", OAuthConstants.OAUTH20_SCOPE_SET, scopeSet);
-        session.removeAttribute(OAuthConstants.OAUTH20_SCOPE_SET);
 
         if (!action.equalsIgnoreCase(OAuthConstants.OAUTH20_APPROVAL_PROMPT_ACTION_ALLOW)) {
             LOGGER.warn("Approval Prompt Action was denied by the user.");
@@ -110,12 +110,12 @@ public final class OAuth20AuthorizeCallbackActionController extends AbstractCont
         }
 
         if (StringUtils.isBlank(clientId)) {
-            LOGGER.error("{} is missing from the session and can not be retrieved.", OAuthConstants.OAUTH20_CLIENT_ID);
+            LOGGER.error("{} is missing from the authorize state and can not be retrieved.", OAuthConstants.OAUTH20_CLIENT_ID);
             throw new InvalidParameterException(OAuthConstants.OAUTH20_CLIENT_ID);
         }
 
         if (StringUtils.isBlank(redirectUri)) {
-            LOGGER.error("{} is missing from the session and can not be retrieved.", OAuthConstants.OAUTH20_REDIRECT_URI);
+            LOGGER.error("{} is missing from the authorize state and can not be retrieved.", OAuthConstants.OAUTH20_REDIRECT_URI);
             throw new InvalidParameterException(OAuthConstants.OAUTH20_REDIRECT_URI);
         }
 
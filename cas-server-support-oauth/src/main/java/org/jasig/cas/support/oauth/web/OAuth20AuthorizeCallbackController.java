@@ -25,6 +25,8 @@ import org.jasig.cas.support.oauth.OAuthConstants;
 import org.jasig.cas.support.oauth.OAuthUtils;
 import org.jasig.cas.support.oauth.scope.Scope;
 import org.jasig.cas.support.oauth.token.TokenType;
+import org.jasig.cas.support.oauth.web.support.OAuth20AuthorizeState;
+import org.jasig.cas.support.oauth.web.support.OAuth20AuthorizeStateStore;
 import org.jasig.cas.ticket.ServiceTicket;
 import org.jasig.cas.ticket.TicketGrantingTicket;
 import org.jasig.cas.ticket.registry.TicketRegistry;
@@ -35,7 +37,6 @@ import org.springframework.web.servlet.mvc.AbstractController;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.servlet.http.HttpSession;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -59,21 +60,26 @@ public final class OAuth20AuthorizeCallbackController extends AbstractController
 
     private final TicketRegistry ticketRegistry;
 
+    private final OAuth20AuthorizeStateStore authorizeStateStore;
+
     /**
      * Instantiates a new o auth20 authorize callback controller.
      *
      * @param centralOAuthService the central oauth service
      * @param ticketRegistry the ticket registry
+     * @param authorizeStateStore the authorize state store
      */
-    public OAuth20AuthorizeCallbackController(final CentralOAuthService centralOAuthService, final TicketRegistry ticketRegistry) {
+    public OAuth20AuthorizeCallbackController(final CentralOAuthService centralOAuthService, final TicketRegistry ticketRegistry,
+                                              final OAuth20AuthorizeStateStore authorizeStateStore) {
         this.centralOAuthService = centralOAuthService;
         this.ticketRegistry = ticketRegistry;
+        this.authorizeStateStore = authorizeStateStore;
     }
 
     @Override
     protected ModelAndView handleRequestInternal(final HttpServletRequest request, final HttpServletResponse response)
             throws Exception {
-        final HttpSession session = request.getSession();
+        final OAuth20AuthorizeState authorizeState = authorizeStateStore.load(request);
 
         // get cas login service ticket
         final String serviceTicketId = request.getParameter(OAuthConstants.TICKET);
@@ -94,16 +100,17 @@ public final class OAuth20AuthorizeCallbackController extends AbstractController
             // remove login service ticket
             ticketRegistry.deleteTicket(serviceTicket.getId());
 
-            // store the login tgt id in the user's session, used to create service tickets for validation and
+            // store the login tgt id in the authorize state, used to create service tickets for validation and
             // oauth credentials later in the flow
-            session.setAttribute(OAuthConstants.OAUTH20_LOGIN_TICKET_ID, ticketGrantingTicket.getId());
+            authorizeState.setLoginTicketId(ticketGrantingTicket.getId());
+            authorizeStateStore.save(request, response, authorizeState);
 
             // redirect back to self, clears the service ticket from the url, allows the page to be refreshed w/o error
             return OAuthUtils.redirectTo(request.getRequestURL().toString());
         }
 
-        // get cas login service ticket from the session
-        final String ticketGrantingTicketId = (String) session.getAttribute(OAuthConstants.OAUTH20_LOGIN_TICKET_ID);
+        // get cas login ticket granting ticket from the authorize state
+        final String ticketGrantingTicketId = authorizeState.getLoginTicketId();
         LOGGER.debug("{} : {}", OAuthConstants.TICKET, ticketGrantingTicketId);
 
         // verify the login ticket granting ticket is still valid
@@ -120,29 +127,30 @@ public final class OAuth20AuthorizeCallbackController extends AbstractController
                 .replace("/" + OAuthConstants.CALLBACK_AUTHORIZE_URL, "/" + OAuthConstants.CALLBACK_AUTHORIZE_ACTION_URL);
         LOGGER.debug("{} : {}", OAuthConstants.CALLBACK_AUTHORIZE_ACTION_URL, callbackUrl);
 
-        final String clientId = (String) session.getAttribute(OAuthConstants.OAUTH20_CLIENT_ID);
+        final String clientId = authorizeState.getClientId();
         LOGGER.debug("{} : {}", OAuthConstants.OAUTH20_CLIENT_ID, clientId);
 
-        final String scope = (String) session.getAttribute(OAuthConstants.OAUTH20_SCOPE);
+        final String scope = authorizeState.getScope();
         LOGGER.debug("{} : {}", OAuthConstants.OAUTH20_SCOPE, scope);
 
-        final String serviceName = (String) session.getAttribute(OAuthConstants.OAUTH20_SERVICE_NAME);
+        final String serviceName = authorizeState.getServiceName();
         LOGGER.debug("{} : {}", OAuthConstants.OAUTH20_SERVICE_NAME, serviceName);
 
-        final TokenType tokenType = (TokenType) session.getAttribute(OAuthConstants.OAUTH20_TOKEN_TYPE);
+        final TokenType tokenType = authorizeState.getTokenType();
         LOGGER.debug("{} : {}", OAuthConstants.OAUTH20_TOKEN_TYPE, tokenType);
 
-        final String approvalPrompt = (String) session.getAttribute(OAuthConstants.OAUTH20_APPROVAL_PROMPT);
+        final String approvalPrompt = authorizeState.getApprovalPrompt();
         LOGGER.debug("{} : {}", OAuthConstants.OAUTH20_APPROVAL_PROMPT);
 
-        final Boolean bypassApprovalPrompt = (Boolean) session.getAttribute(OAuthConstants.BYPASS_APPROVAL_PROMPT);
+        final Boolean bypassApprovalPrompt = authorizeState.getBypassApprovalPrompt();
         LOGGER.debug("{} : {}", OAuthConstants.BYPASS_APPROVAL_PROMPT, bypassApprovalPrompt);
 
         final Set<String> requestedScopeSet = new HashSet<>(Arrays.asList(scope.split(" ")));
 
         // we use the scope map rather than scope set as the oauth service has the potential to add default scopes(s).
         final Map<String, Scope> scopeMap = centralOAuthService.getScopes(requestedScopeSet);
-        session.setAttribute(OAuthConstants.OAUTH20_SCOPE_SET, scopeMap.keySet());
+        authorizeState.setScopeSet(new HashSet<>(scopeMap.keySet()));
+        authorizeStateStore.save(request, response, authorizeState);
 
         final String allowCallbackUrl = OAuthUtils.addParameter(callbackUrl, OAuthConstants.OAUTH20_APPROVAL_PROMPT_ACTION,
                 OAuthConstants.OAUTH20_APPROVAL_PROMPT_ACTION_ALLOW);
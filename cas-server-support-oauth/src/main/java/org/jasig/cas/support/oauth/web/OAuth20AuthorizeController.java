@@ -19,12 +19,18 @@
 package org.jasig.cas.support.oauth.web;
 
 import org.apache.commons.lang3.StringUtils;
+import org.jasig.cas.CasProtocolConstants;
 import org.jasig.cas.support.oauth.CentralOAuthService;
 import org.jasig.cas.support.oauth.InvalidParameterException;
 import org.jasig.cas.support.oauth.OAuthConstants;
 import org.jasig.cas.support.oauth.OAuthUtils;
 import org.jasig.cas.support.oauth.services.OAuthRegisteredService;
 import org.jasig.cas.support.oauth.token.TokenType;
+import org.jasig.cas.support.oauth.web.support.OAuth20AuthorizeState;
+import org.jasig.cas.support.oauth.web.support.OAuth20AuthorizeStateStore;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.jasig.cas.web.support.CookieRetrievingCookieGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.web.servlet.ModelAndView;
@@ -32,12 +38,17 @@ import org.springframework.web.servlet.mvc.AbstractController;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.servlet.http.HttpSession;
 
 /**
  * This controller is in charge of responding to the authorize
  * call in OAuth protocol. It stores the callback url and redirects user to the
- * login page with the callback service.
+ * login page with the callback service, or straight to the callback when the
+ * user already has a valid single sign on session.
+ *
+ * The single sign on shortcut replaces the path of the login webflow for an
+ * existing session, which would only grant a service ticket the callback reads
+ * and deletes. A request with the renew parameter goes through the login
+ * webflow, and its renew request check, as before.
  *
  * @author Jerome Leleu
  * @author Michael Haselton
@@ -49,16 +60,30 @@ public final class OAuth20AuthorizeController extends AbstractController {
 
     private final CentralOAuthService centralOAuthService;
 
+    private final TicketRegistry ticketRegistry;
+
+    private final CookieRetrievingCookieGenerator ticketGrantingTicketCookieGenerator;
+
+    private final OAuth20AuthorizeStateStore authorizeStateStore;
+
     private final String loginUrl;
 
     /**
      * Instantiates a new o auth20 authorize controller.
      *
      * @param centralOAuthService the central oauth service
+     * @param ticketRegistry the ticket registry
+     * @param ticketGrantingTicketCookieGenerator the ticket granting ticket cookie generator, null to always login
+     * @param authorizeStateStore the authorize state store
      * @param loginUrl the login url
      */
-    public OAuth20AuthorizeController(final CentralOAuthService centralOAuthService, final String loginUrl) {
+    public OAuth20AuthorizeController(final CentralOAuthService centralOAuthService, final TicketRegistry ticketRegistry,
+                                      final CookieRetrievingCookieGenerator ticketGrantingTicketCookieGenerator,
+                                      final OAuth20AuthorizeStateStore authorizeStateStore, final String loginUrl) {
         this.centralOAuthService = centralOAuthService;
+        this.ticketRegistry = ticketRegistry;
+        this.ticketGrantingTicketCookieGenerator = ticketGrantingTicketCookieGenerator;
+        this.authorizeStateStore = authorizeStateStore;
         this.loginUrl = loginUrl;
     }
 
@@ -86,6 +111,9 @@ public final class OAuth20AuthorizeController extends AbstractController {
         final String approvalPrompt = request.getParameter(OAuthConstants.APPROVAL_PROMPT);
         LOGGER.debug("{} : {}", OAuthConstants.APPROVAL_PROMPT, approvalPrompt);
 
+        final String renew = request.getParameter(CasProtocolConstants.PARAMETER_RENEW);
+        LOGGER.debug("{} : {}", CasProtocolConstants.PARAMETER_RENEW, renew);
+
         verifyRequest(responseType, clientId, redirectUri, accessType);
 
         final OAuthRegisteredService service = centralOAuthService.getRegisteredService(clientId);
@@ -98,30 +126,72 @@ public final class OAuth20AuthorizeController extends AbstractController {
             throw new InvalidParameterException(OAuthConstants.REDIRECT_URI);
         }
 
-        // keep info in session
-        final HttpSession session = request.getSession();
-        session.setAttribute(OAuthConstants.BYPASS_APPROVAL_PROMPT, service.isBypassApprovalPrompt());
-        session.setAttribute(OAuthConstants.OAUTH20_APPROVAL_PROMPT, StringUtils.isBlank(approvalPrompt)
+        // keep info in the authorize state
+        final OAuth20AuthorizeState authorizeState = new OAuth20AuthorizeState();
+        authorizeState.setBypassApprovalPrompt(service.isBypassApprovalPrompt());
+        authorizeState.setApprovalPrompt(StringUtils.isBlank(approvalPrompt)
                 ? OAuthConstants.APPROVAL_PROMPT_AUTO : approvalPrompt);
-        session.setAttribute(OAuthConstants.OAUTH20_TOKEN_TYPE, TokenType.valueOf(StringUtils.isBlank(accessType)
+        authorizeState.setTokenType(TokenType.valueOf(StringUtils.isBlank(accessType)
                 ? "ONLINE" : accessType.toUpperCase()));
-        session.setAttribute(OAuthConstants.OAUTH20_RESPONSE_TYPE, StringUtils.isBlank(responseType) ? "code" : responseType.toLowerCase());
-        session.setAttribute(OAuthConstants.OAUTH20_CLIENT_ID, clientId);
-        session.setAttribute(OAuthConstants.OAUTH20_REDIRECT_URI, redirectUri);
-        session.setAttribute(OAuthConstants.OAUTH20_SERVICE_NAME, service.getName());
-        session.setAttribute(OAuthConstants.OAUTH20_SCOPE, StringUtils.isBlank(scope) ? "" : scope);
-        session.setAttribute(OAuthConstants.OAUTH20_STATE, state);
+        authorizeState.setResponseType(StringUtils.isBlank(responseType) ? "code" : responseType.toLowerCase());
+        authorizeState.setClientId(clientId);
+        authorizeState.setRedirectUri(redirectUri);
+        authorizeState.setServiceName(service.getName());
+        authorizeState.setScope(StringUtils.isBlank(scope) ? "" : scope);
+        authorizeState.setState(state);
 
         final String callbackAuthorizeUrl = request.getRequestURL().toString()
                 .replace("/" + OAuthConstants.AUTHORIZE_URL, "/" + OAuthConstants.CALLBACK_AUTHORIZE_URL);
         LOGGER.debug("{} : {}", OAuthConstants.CALLBACK_AUTHORIZE_URL, callbackAuthorizeUrl);
 
-        final String loginUrlWithService = OAuthUtils.addParameter(loginUrl, OAuthConstants.SERVICE, callbackAuthorizeUrl);
+        // an existing sso session is carried straight to the callback, rather than through the login page and a
+        // service ticket the callback would only read and delete, unless the user must authenticate again
+        final boolean renewRequested = StringUtils.isNotEmpty(renew);
+        final String ticketGrantingTicketId = renewRequested ? null : getTicketGrantingTicketId(request);
+        authorizeState.setLoginTicketId(ticketGrantingTicketId);
+        authorizeStateStore.save(request, response, authorizeState);
+        if (ticketGrantingTicketId != null) {
+            return OAuthUtils.redirectTo(callbackAuthorizeUrl);
+        }
+
+        String loginUrlWithService = OAuthUtils.addParameter(loginUrl, OAuthConstants.SERVICE, callbackAuthorizeUrl);
+        if (renewRequested) {
+            loginUrlWithService = OAuthUtils.addParameter(loginUrlWithService, CasProtocolConstants.PARAMETER_RENEW, renew);
+        }
         LOGGER.debug("loginUrlWithService : {}", loginUrlWithService);
 
         return OAuthUtils.redirectTo(loginUrlWithService);
     }
 
+    /**
+     * Get the id of the user's single sign on session from the ticket granting ticket cookie.
+     *
+     * @param request the request
+     * @return the ticket granting ticket id, or null if the user has no valid single sign on session
+     */
+    private String getTicketGrantingTicketId(final HttpServletRequest request) {
+        if (ticketGrantingTicketCookieGenerator == null) {
+            return null;
+        }
+        final String ticketGrantingTicketId;
+        try {
+            ticketGrantingTicketId = ticketGrantingTicketCookieGenerator.retrieveCookieValue(request);
+        } catch (final RuntimeException e) {
+            LOGGER.debug("Invalid ticket granting ticket cookie : {}", e.getMessage());
+            return null;
+        }
+        if (StringUtils.isBlank(ticketGrantingTicketId)) {
+            return null;
+        }
+        final TicketGrantingTicket ticketGrantingTicket =
+                ticketRegistry.getTicket(ticketGrantingTicketId, TicketGrantingTicket.class);
+        if (ticketGrantingTicket == null || ticketGrantingTicket.isExpired()) {
+            LOGGER.debug("Ticket Granting Ticket expired : {}", ticketGrantingTicketId);
+            return null;
+        }
+        return ticketGrantingTicket.getId();
+    }
+
     /**
      * Verify the request by reviewing the values of client id, redirect uri, etc...
      *
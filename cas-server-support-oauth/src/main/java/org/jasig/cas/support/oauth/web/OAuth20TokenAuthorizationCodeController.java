@@ -31,6 +31,7 @@ import org.jasig.cas.support.oauth.token.AuthorizationCode;
 import org.jasig.cas.support.oauth.token.InvalidTokenException;
 import org.jasig.cas.support.oauth.token.RefreshToken;
 import org.jasig.cas.support.oauth.token.TokenType;
+import org.jasig.cas.support.oauth.web.support.OAuth20RateLimiter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.web.servlet.ModelAndView;
@@ -59,15 +60,21 @@ public final class OAuth20TokenAuthorizationCodeController extends AbstractContr
 
     private final Long timeout;
 
+    /** Limits the rate of the requests of each authenticated client, none if null. */
+    private final OAuth20RateLimiter rateLimiter;
+
     /**
      * Instantiates a new o auth20 grant type authorization code controller.
      *
      * @param centralOAuthService the central oauth service
      * @param timeout the timeout
+     * @param rateLimiter the rate limiter of the clients, or null
      */
-    public OAuth20TokenAuthorizationCodeController(final CentralOAuthService centralOAuthService, final Long timeout) {
+    public OAuth20TokenAuthorizationCodeController(final CentralOAuthService centralOAuthService, final Long timeout,
+                                                   final OAuth20RateLimiter rateLimiter) {
         this.centralOAuthService = centralOAuthService;
         this.timeout = timeout;
+        this.rateLimiter = rateLimiter;
     }
 
     @Override
@@ -114,6 +121,13 @@ public final class OAuth20TokenAuthorizationCodeController extends AbstractContr
             return OAuthUtils.writeJsonError(response, OAuthConstants.INVALID_REQUEST,
                     OAuthConstants.INVALID_CLIENT_ID_OR_SECRET_DESCRIPTION, HttpStatus.SC_BAD_REQUEST);
         }
+        if (rateLimiter != null) {
+            final long wait = rateLimiter.tryAcquireClient(clientId);
+            if (wait > 0) {
+                LOGGER.debug("Rate limit exceeded for {} : {}", OAuthConstants.CLIENT_ID, clientId);
+                return OAuthUtils.writeRateLimitError(response, wait);
+            }
+        }
         if (!redirectUri.matches(service.getServiceId())) {
             LOGGER.error("Unsupported {} : {} for serviceId : {}", OAuthConstants.REDIRECT_URI, redirectUri, service.getServiceId());
             return OAuthUtils.writeJsonError(response, OAuthConstants.INVALID_REQUEST,
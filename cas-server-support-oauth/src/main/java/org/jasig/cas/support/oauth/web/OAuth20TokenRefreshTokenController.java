@@ -28,6 +28,7 @@ import org.jasig.cas.support.oauth.OAuthUtils;
 import org.jasig.cas.support.oauth.token.AccessToken;
 import org.jasig.cas.support.oauth.token.InvalidTokenException;
 import org.jasig.cas.support.oauth.token.RefreshToken;
+import org.jasig.cas.support.oauth.web.support.OAuth20RateLimiter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.web.servlet.ModelAndView;
@@ -55,16 +56,21 @@ public final class OAuth20TokenRefreshTokenController extends AbstractController
 
     private final long timeout;
 
+    /** Limits the rate of the requests of each client, none if null. */
+    private final OAuth20RateLimiter rateLimiter;
+
     /**
      * Instantiates a new o auth20 grant type refresh token controller.
      *
      * @param centralOAuthService the central oauth service
      * @param timeout the timeout
+     * @param rateLimiter the rate limiter of the clients, or null
      */
     public OAuth20TokenRefreshTokenController(final CentralOAuthService centralOAuthService,
-                                              final long timeout) {
+                                              final long timeout, final OAuth20RateLimiter rateLimiter) {
         this.centralOAuthService = centralOAuthService;
         this.timeout = timeout;
+        this.rateLimiter = rateLimiter;
     }
 
     @Override
@@ -97,6 +103,15 @@ public final class OAuth20TokenRefreshTokenController extends AbstractController
                                              HttpStatus.SC_BAD_REQUEST);
         }
 
+        // the refresh token was issued to its client, whose quota it spends whatever client id the request carries
+        if (rateLimiter != null) {
+            final long wait = rateLimiter.tryAcquireClient(refreshToken.getClientId());
+            if (wait > 0) {
+                LOGGER.debug("Rate limit exceeded for {} : {}", OAuthConstants.CLIENT_ID, refreshToken.getClientId());
+                return OAuthUtils.writeRateLimitError(response, wait);
+            }
+        }
+
         final AccessToken accessToken = centralOAuthService.grantOfflineAccessToken(refreshToken);
 
         final Map<String, Object> map = new HashMap<>();
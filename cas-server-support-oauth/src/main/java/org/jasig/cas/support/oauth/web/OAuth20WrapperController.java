@@ -18,6 +18,9 @@
  */
 package org.jasig.cas.support.oauth.web;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import org.apache.http.HttpStatus;
 import org.jasig.cas.CentralAuthenticationService;
 import org.jasig.cas.authentication.RootCasException;
@@ -25,6 +28,10 @@ import org.jasig.cas.support.oauth.CentralOAuthService;
 import org.jasig.cas.support.oauth.InvalidParameterException;
 import org.jasig.cas.support.oauth.OAuthConstants;
 import org.jasig.cas.support.oauth.OAuthUtils;
+import org.jasig.cas.support.oauth.web.support.OAuth20AuthorizeStateStore;
+import org.jasig.cas.support.oauth.web.support.OAuth20RateLimiter;
+import org.jasig.cas.support.oauth.web.support.SessionOAuth20AuthorizeStateStore;
+import org.jasig.cas.web.support.CookieRetrievingCookieGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
@@ -42,6 +49,13 @@ import java.util.Map;
  * wrapping in CAS, should be mapped to something like /oauth2.0/*. Dispatch
  * request to specific controllers : authorize, accessToken...
  *
+ * Requests are dispatched through a route table keyed by http verb and method, built once, and the few routes
+ * shared by several controllers read only the parameters that tell them apart. Each route is timed in the
+ * metric registry, and its responses are metered by status class, 2xx to 5xx, along with the exceptions its
+ * controller throws. The token and profile routes are rate limited by ip address and access token when a rate
+ * limiter is set, and the token controllers limit each client once it is authenticated. The requests over the limit
+ * get a temporarily unavailable error with a Retry-After header.
+ *
  * @author Jerome Leleu
  * @author Michael Haselton
  * @since 3.5.0
@@ -50,21 +64,30 @@ public final class OAuth20WrapperController extends BaseOAuthWrapperController i
 
     private static final Logger LOGGER = LoggerFactory.getLogger(OAuth20WrapperController.class);
 
-    private AbstractController authorizeController;
-    private AbstractController authorizeCallbackController;
-    private AbstractController authorizeCallbackActionController;
+    /** The too many requests http status, which the http status constants lack. */
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
+    /** Meters the requests that match no route. */
+    private static final String UNROUTED_METRIC_NAME = MetricRegistry.name(OAuth20WrapperController.class, "unrouted");
+
+    private final Route authorizeRoute = new Route(OAuthConstants.AUTHORIZE_URL);
+    private final Route authorizeCallbackRoute = new Route(OAuthConstants.CALLBACK_AUTHORIZE_URL);
+    private final Route authorizeCallbackActionRoute = new Route(OAuthConstants.CALLBACK_AUTHORIZE_ACTION_URL);
+
+    private final Route tokenAuthorizationCodeRoute = new Route(OAuthConstants.TOKEN_URL, OAuthConstants.AUTHORIZATION_CODE);
+    private final Route tokenRefreshTokenRoute = new Route(OAuthConstants.TOKEN_URL, OAuthConstants.REFRESH_TOKEN);
 
-    private AbstractController tokenAuthorizationCodeController;
-    private AbstractController tokenRefreshTokenController;
+    private final Route revokeTokenRoute = new Route(OAuthConstants.REVOKE_URL, "token");
+    private final Route revokeClientPrincipalTokensRoute = new Route(OAuthConstants.REVOKE_URL, "clientPrincipal");
+    private final Route revokeClientTokensRoute = new Route(OAuthConstants.REVOKE_URL, "client");
 
-    private AbstractController revokeTokenController;
-    private AbstractController revokeClientPrincipalTokensController;
-    private AbstractController revokeClientTokensController;
+    private final Route profileRoute = new Route(OAuthConstants.PROFILE_URL);
 
-    private AbstractController profileController;
+    private final Route metadataPrincipalRoute = new Route(OAuthConstants.METADATA_URL, "principal");
+    private final Route metadataClientRoute = new Route(OAuthConstants.METADATA_URL, "client");
 
-    private AbstractController metadataPrincipalController;
-    private AbstractController metadataClientController;
+    /** The route selectors by http verb, then by method. */
+    private final Map<String, Map<String, RouteSelector>> routeTable = new HashMap<>();
 
     /** Instance of CentralAuthenticationService. */
     @NotNull
@@ -74,23 +97,89 @@ public final class OAuth20WrapperController extends BaseOAuthWrapperController i
     @NotNull
     private CentralOAuthService centralOAuthService;
 
+    /** Reads the single sign on session of the user, if any, so that authorize can skip the login. */
+    private CookieRetrievingCookieGenerator ticketGrantingTicketCookieGenerator;
+
+    /** Keeps the state of the authorize flow between its requests, in the http session by default. */
+    @NotNull
+    private OAuth20AuthorizeStateStore authorizeStateStore = new SessionOAuth20AuthorizeStateStore();
+
+    @NotNull
+    private MetricRegistry metricRegistry = new MetricRegistry();
+
+    private Meter unroutedMeter = metricRegistry.meter(UNROUTED_METRIC_NAME);
+
+    /** Limits the rate of the token and profile requests, none if null. */
+    private OAuth20RateLimiter rateLimiter;
+
+    /**
+     * Instantiates a new o auth20 wrapper controller and its route table.
+     */
+    public OAuth20WrapperController() {
+        tokenAuthorizationCodeRoute.rateLimited = true;
+        tokenRefreshTokenRoute.rateLimited = true;
+        profileRoute.rateLimited = true;
+
+        addRoute("GET", OAuthConstants.AUTHORIZE_URL, authorizeRoute);
+        addRoute("GET", OAuthConstants.CALLBACK_AUTHORIZE_URL, authorizeCallbackRoute);
+        addRoute("GET", OAuthConstants.CALLBACK_AUTHORIZE_ACTION_URL, authorizeCallbackActionRoute);
+        addRoute("GET", OAuthConstants.PROFILE_URL, profileRoute);
+
+        final Map<String, Route> grantTypes = new HashMap<>();
+        grantTypes.put(OAuthConstants.AUTHORIZATION_CODE, tokenAuthorizationCodeRoute);
+        grantTypes.put(OAuthConstants.REFRESH_TOKEN, tokenRefreshTokenRoute);
+        addRoute("POST", OAuthConstants.TOKEN_URL, new RouteSelector() {
+            @Override
+            public Route select(final HttpServletRequest request) {
+                final String grantType = request.getParameter(OAuthConstants.GRANT_TYPE);
+                LOGGER.debug("{} : {}", OAuthConstants.GRANT_TYPE, grantType);
+                return grantType == null ? null : grantTypes.get(grantType);
+            }
+        });
+
+        addRoute("POST", OAuthConstants.REVOKE_URL, new RouteSelector() {
+            @Override
+            public Route select(final HttpServletRequest request) {
+                if (request.getParameter(OAuthConstants.CLIENT_ID) == null) {
+                    return revokeTokenRoute;
+                }
+                return request.getParameter(OAuthConstants.CLIENT_SECRET) == null
+                        ? revokeClientPrincipalTokensRoute : revokeClientTokensRoute;
+            }
+        });
+
+        addRoute("POST", OAuthConstants.METADATA_URL, new RouteSelector() {
+            @Override
+            public Route select(final HttpServletRequest request) {
+                return request.getParameter(OAuthConstants.CLIENT_ID) != null
+                        && request.getParameter(OAuthConstants.CLIENT_SECRET) != null
+                        ? metadataClientRoute : metadataPrincipalRoute;
+            }
+        });
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {
-        authorizeController = new OAuth20AuthorizeController(centralOAuthService, loginUrl);
-        authorizeCallbackController = new OAuth20AuthorizeCallbackController(centralOAuthService, ticketRegistry);
-        authorizeCallbackActionController = new OAuth20AuthorizeCallbackActionController(centralOAuthService, timeout);
+        authorizeRoute.bind(new OAuth20AuthorizeController(centralOAuthService, ticketRegistry,
+                ticketGrantingTicketCookieGenerator, authorizeStateStore, loginUrl), metricRegistry);
+        authorizeCallbackRoute.bind(new OAuth20AuthorizeCallbackController(centralOAuthService, ticketRegistry,
+                authorizeStateStore), metricRegistry);
+        authorizeCallbackActionRoute.bind(new OAuth20AuthorizeCallbackActionController(centralOAuthService,
+                authorizeStateStore, timeout), metricRegistry);
 
-        tokenAuthorizationCodeController = new OAuth20TokenAuthorizationCodeController(centralOAuthService, timeout);
-        tokenRefreshTokenController = new OAuth20TokenRefreshTokenController(centralOAuthService, timeout);
+        tokenAuthorizationCodeRoute.bind(new OAuth20TokenAuthorizationCodeController(centralOAuthService, timeout, rateLimiter),
+                metricRegistry);
+        tokenRefreshTokenRoute.bind(new OAuth20TokenRefreshTokenController(centralOAuthService, timeout, rateLimiter),
+                metricRegistry);
 
-        revokeTokenController = new OAuth20RevokeTokenController(centralOAuthService);
-        revokeClientTokensController = new OAuth20RevokeClientTokensController(centralOAuthService);
-        revokeClientPrincipalTokensController = new OAuth20RevokeClientPrincipalTokensController(centralOAuthService);
+        revokeTokenRoute.bind(new OAuth20RevokeTokenController(centralOAuthService), metricRegistry);
+        revokeClientTokensRoute.bind(new OAuth20RevokeClientTokensController(centralOAuthService), metricRegistry);
+        revokeClientPrincipalTokensRoute.bind(new OAuth20RevokeClientPrincipalTokensController(centralOAuthService), metricRegistry);
 
-        profileController = new OAuth20ProfileController(centralOAuthService, centralAuthenticationService);
+        profileRoute.bind(new OAuth20ProfileController(centralOAuthService, centralAuthenticationService), metricRegistry);
 
-        metadataPrincipalController = new OAuth20MetadataPrincipalController(centralOAuthService);
-        metadataClientController = new OAuth20MetadataClientController(centralOAuthService);
+        metadataPrincipalRoute.bind(new OAuth20MetadataPrincipalController(centralOAuthService), metricRegistry);
+        metadataClientRoute.bind(new OAuth20MetadataClientController(centralOAuthService), metricRegistry);
     }
 
     @Override
@@ -108,68 +197,80 @@ public final class OAuth20WrapperController extends BaseOAuthWrapperController i
     @Override
     protected ModelAndView internalHandleRequest(final String method, final HttpServletRequest request,
                                                  final HttpServletResponse response) throws Exception {
-        // authorize
-        if (OAuthConstants.AUTHORIZE_URL.equals(method) && "GET".equals(request.getMethod())) {
-            return authorizeController.handleRequest(request, response);
-        }
-        // authorize callback
-        if (OAuthConstants.CALLBACK_AUTHORIZE_URL.equals(method) && "GET".equals(request.getMethod())) {
-            return authorizeCallbackController.handleRequest(request, response);
+        final Map<String, RouteSelector> routes = routeTable.get(request.getMethod());
+        final RouteSelector selector = routes == null ? null : routes.get(method);
+        if (selector == null) {
+            LOGGER.error("Unknown method : {}", method);
+            unroutedMeter.mark();
+            OAuthUtils.writeTextError(response, OAuthConstants.INVALID_REQUEST, HttpStatus.SC_BAD_REQUEST);
+            return null;
         }
-        // authorize callback action
-        if (OAuthConstants.CALLBACK_AUTHORIZE_ACTION_URL.equals(method) && "GET".equals(request.getMethod())) {
-            return authorizeCallbackActionController.handleRequest(request, response);
-        }
-
-        // token
-        if (OAuthConstants.TOKEN_URL.equals(method) && "POST".equals(request.getMethod())) {
-            final String grantType = request.getParameter(OAuthConstants.GRANT_TYPE);
-            LOGGER.debug("{} : {}", OAuthConstants.GRANT_TYPE, grantType);
-
-            if (grantType != null) {
-                if (grantType.equals(OAuthConstants.AUTHORIZATION_CODE)) {
-                    return tokenAuthorizationCodeController.handleRequest(request, response);
-                } else if (grantType.equals(OAuthConstants.REFRESH_TOKEN)) {
-                    return tokenRefreshTokenController.handleRequest(request, response);
-                }
-            }
 
+        final Route route = selector.select(request);
+        if (route == null) {
+            // only the token route has no default, when the grant type is missing or unknown
+            unroutedMeter.mark();
             return OAuthUtils.writeJsonError(response, OAuthConstants.INVALID_REQUEST,
                                              new InvalidParameterException(OAuthConstants.GRANT_TYPE).getMessage(),
                                              HttpStatus.SC_BAD_REQUEST);
         }
 
-        // revoke
-        if (OAuthConstants.REVOKE_URL.equals(method) && "POST".equals(request.getMethod())) {
-            if (request.getParameterMap().containsKey(OAuthConstants.CLIENT_ID)) {
-                if (request.getParameterMap().containsKey(OAuthConstants.CLIENT_SECRET)) {
-                    return revokeClientTokensController.handleRequest(request, response);
-                }
-                return revokeClientPrincipalTokensController.handleRequest(request, response);
-            } else {
-                return revokeTokenController.handleRequest(request, response);
+        if (rateLimiter != null && route.rateLimited) {
+            final long wait = rateLimiter.tryAcquire(request);
+            if (wait > 0) {
+                LOGGER.debug("Rate limit exceeded for {} from {}", route.metricName, request.getRemoteAddr());
+                route.limited.mark();
+                return OAuthUtils.writeRateLimitError(response, wait);
             }
         }
 
-        // profile
-        if (OAuthConstants.PROFILE_URL.equals(method) && "GET".equals(request.getMethod())) {
-            return profileController.handleRequest(request, response);
+        final Timer.Context context = route.timer.time();
+        try {
+            final ModelAndView modelAndView = route.controller.handleRequest(request, response);
+            route.statusMeter(response.getStatus()).mark();
+            if (response.getStatus() == SC_TOO_MANY_REQUESTS) {
+                // the client of the request was over its quota
+                route.limited.mark();
+            }
+            return modelAndView;
+        } catch (final Exception e) {
+            route.exceptions.mark();
+            throw e;
+        } finally {
+            context.stop();
         }
+    }
 
-        // metadata
-        if (OAuthConstants.METADATA_URL.equals(method) && "POST".equals(request.getMethod())) {
-            if (request.getParameterMap().containsKey(OAuthConstants.CLIENT_ID)
-                    && request.getParameterMap().containsKey(OAuthConstants.CLIENT_SECRET)) {
-                return metadataClientController.handleRequest(request, response);
-            } else {
-                return metadataPrincipalController.handleRequest(request, response);
-            }
+    /**
+     * Add a route selector to the route table.
+     *
+     * @param verb the http verb
+     * @param method the method, the last segment of the path
+     * @param selector the route selector
+     */
+    private void addRoute(final String verb, final String method, final RouteSelector selector) {
+        Map<String, RouteSelector> routes = routeTable.get(verb);
+        if (routes == null) {
+            routes = new HashMap<>();
+            routeTable.put(verb, routes);
         }
+        routes.put(method, selector);
+    }
 
-        // error
-        LOGGER.error("Unknown method : {}", method);
-        OAuthUtils.writeTextError(response, OAuthConstants.INVALID_REQUEST, HttpStatus.SC_BAD_REQUEST);
-        return null;
+    /**
+     * Add a route served by a single controller to the route table.
+     *
+     * @param verb the http verb
+     * @param method the method, the last segment of the path
+     * @param route the route
+     */
+    private void addRoute(final String verb, final String method, final Route route) {
+        addRoute(verb, method, new RouteSelector() {
+            @Override
+            public Route select(final HttpServletRequest request) {
+                return route;
+            }
+        });
     }
 
     public void setCentralAuthenticationService(final CentralAuthenticationService centralAuthenticationService) {
@@ -179,4 +280,103 @@ public final class OAuth20WrapperController extends BaseOAuthWrapperController i
     public void setCentralOAuthService(final CentralOAuthService centralOAuthService) {
         this.centralOAuthService = centralOAuthService;
     }
+
+    public void setTicketGrantingTicketCookieGenerator(
+            final CookieRetrievingCookieGenerator ticketGrantingTicketCookieGenerator) {
+        this.ticketGrantingTicketCookieGenerator = ticketGrantingTicketCookieGenerator;
+    }
+
+    public void setAuthorizeStateStore(final OAuth20AuthorizeStateStore authorizeStateStore) {
+        this.authorizeStateStore = authorizeStateStore;
+    }
+
+    /**
+     * Set the metric registry of the routes, the route metrics are resolved in it when the properties are set.
+     *
+     * @param metricRegistry the metric registry
+     */
+    public void setMetricRegistry(final MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+        this.unroutedMeter = metricRegistry.meter(UNROUTED_METRIC_NAME);
+    }
+
+    public void setRateLimiter(final OAuth20RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Selects the route of a request among the routes of its verb and method.
+     */
+    private interface RouteSelector {
+
+        /**
+         * Select the route of the request.
+         *
+         * @param request the request
+         * @return the route, or null if the request matches none
+         */
+        Route select(HttpServletRequest request);
+    }
+
+    /**
+     * A route to the controller that handles it, timed under its name. Its metrics are resolved once, when the
+     * controller is bound, rather than looked up by name on each request.
+     */
+    private static final class Route {
+
+        private static final int STATUS_CLASSES = 6;
+
+        private static final int STATUS_CLASS_SIZE = 100;
+
+        private final String metricName;
+
+        /** The meters of the responses, by status class. */
+        private final Meter[] statusMeters = new Meter[STATUS_CLASSES];
+
+        private AbstractController controller;
+
+        private Timer timer;
+
+        private Meter exceptions;
+
+        private Meter limited;
+
+        private boolean rateLimited;
+
+        /**
+         * Instantiates a new route.
+         *
+         * @param names the method, followed by what tells the route apart from the other routes of the method
+         */
+        Route(final String... names) {
+            this.metricName = MetricRegistry.name(OAuth20WrapperController.class, names);
+        }
+
+        /**
+         * Bind the controller of the route and resolve the metrics of the route in the registry.
+         *
+         * @param controller the controller that handles the route
+         * @param metricRegistry the metric registry
+         */
+        void bind(final AbstractController controller, final MetricRegistry metricRegistry) {
+            this.controller = controller;
+            this.timer = metricRegistry.timer(metricName);
+            this.exceptions = metricRegistry.meter(MetricRegistry.name(metricName, "exceptions"));
+            this.limited = metricRegistry.meter(MetricRegistry.name(metricName, "limited"));
+            for (int i = 1; i < STATUS_CLASSES; i++) {
+                this.statusMeters[i] = metricRegistry.meter(MetricRegistry.name(metricName, "responses", i + "xx"));
+            }
+        }
+
+        /**
+         * Return the meter of the responses of the route in the class of the status.
+         *
+         * @param status the http status of the response
+         * @return the meter
+         */
+        Meter statusMeter(final int status) {
+            final int statusClass = status / STATUS_CLASS_SIZE;
+            return statusMeters[statusClass > 0 && statusClass < STATUS_CLASSES ? statusClass : STATUS_CLASSES - 1];
+        }
+    }
 }
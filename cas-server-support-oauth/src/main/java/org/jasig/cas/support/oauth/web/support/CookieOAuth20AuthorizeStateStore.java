@@ -0,0 +1,123 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.support.oauth.web.support;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.lang3.StringUtils;
+import org.jasig.cas.util.CipherExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.util.CookieGenerator;
+import org.springframework.web.util.WebUtils;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the state of the authorization in a short lived cookie, signed and encrypted, so that any node of a cluster
+ * can continue the authorize flow without an http session.
+ *
+ * @author Michael Haselton
+ * @since 4.1.5
+ */
+public final class CookieOAuth20AuthorizeStateStore extends CookieGenerator implements OAuth20AuthorizeStateStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CookieOAuth20AuthorizeStateStore.class);
+
+    private static final String DEFAULT_COOKIE_NAME = "OAUTH20_AUTHORIZE";
+
+    private static final int DEFAULT_MAX_AGE = 600;
+
+    /** Unknown properties are ignored, so that nodes running different versions can continue each other's flows. */
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    @NotNull
+    private final CipherExecutor cipherExecutor;
+
+    private int maxAge = DEFAULT_MAX_AGE;
+
+    /**
+     * Instantiates a new cookie authorize state store.
+     *
+     * @param cipherExecutor signs and encrypts the cookie value
+     */
+    public CookieOAuth20AuthorizeStateStore(final CipherExecutor cipherExecutor) {
+        this.cipherExecutor = cipherExecutor;
+        setCookieName(DEFAULT_COOKIE_NAME);
+        setCookieMaxAge(DEFAULT_MAX_AGE);
+        setCookieHttpOnly(true);
+    }
+
+    @Override
+    public OAuth20AuthorizeState load(final HttpServletRequest request) {
+        final Cookie cookie = WebUtils.getCookie(request, getCookieName());
+        if (cookie == null || StringUtils.isBlank(cookie.getValue())) {
+            return new OAuth20AuthorizeState();
+        }
+        final String json = cipherExecutor.decode(cookie.getValue());
+        if (json == null) {
+            LOGGER.warn("Invalid authorize state cookie signature");
+            return new OAuth20AuthorizeState();
+        }
+        final OAuth20AuthorizeState state;
+        try {
+            state = MAPPER.readValue(json, OAuth20AuthorizeState.class);
+        } catch (final IOException e) {
+            LOGGER.warn("Invalid authorize state cookie : {}", e.getMessage());
+            return new OAuth20AuthorizeState();
+        }
+        if (System.currentTimeMillis() - state.getIssuedAt() > TimeUnit.SECONDS.toMillis(maxAge)) {
+            LOGGER.debug("Expired authorize state cookie issued at {}", state.getIssuedAt());
+            return new OAuth20AuthorizeState();
+        }
+        return state;
+    }
+
+    @Override
+    public void save(final HttpServletRequest request, final HttpServletResponse response,
+                     final OAuth20AuthorizeState state) {
+        if (state.getIssuedAt() == 0) {
+            state.setIssuedAt(System.currentTimeMillis());
+        }
+        try {
+            addCookie(response, cipherExecutor.encode(MAPPER.writeValueAsString(state)));
+        } catch (final IOException e) {
+            throw new IllegalStateException("Failed to write the authorize state", e);
+        }
+    }
+
+    @Override
+    public void clear(final HttpServletRequest request, final HttpServletResponse response) {
+        removeCookie(response);
+    }
+
+    /**
+     * @param maxAge how long in seconds an authorization may take from the authorize request to the user's approval
+     */
+    public void setMaxAge(final int maxAge) {
+        this.maxAge = maxAge;
+        setCookieMaxAge(maxAge);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.support.oauth.web.support;
+
+import org.jasig.cas.support.oauth.token.TokenType;
+
+import java.io.Serializable;
+import java.util.Set;
+
+/**
+ * The state of an authorization in progress, kept between the authorize, the authorize callback and the authorize
+ * callback action requests.
+ *
+ * @author Michael Haselton
+ * @since 4.1.5
+ */
+public final class OAuth20AuthorizeState implements Serializable {
+
+    private static final long serialVersionUID = -2447823717343152466L;
+
+    private Boolean bypassApprovalPrompt;
+
+    private String approvalPrompt;
+
+    private TokenType tokenType;
+
+    private String responseType;
+
+    private String clientId;
+
+    private String redirectUri;
+
+    private String serviceName;
+
+    private String scope;
+
+    private String state;
+
+    private String loginTicketId;
+
+    private Set<String> scopeSet;
+
+    private long issuedAt;
+
+    public Boolean getBypassApprovalPrompt() {
+        return bypassApprovalPrompt;
+    }
+
+    public void setBypassApprovalPrompt(final Boolean bypassApprovalPrompt) {
+        this.bypassApprovalPrompt = bypassApprovalPrompt;
+    }
+
+    public String getApprovalPrompt() {
+        return approvalPrompt;
+    }
+
+    public void setApprovalPrompt(final String approvalPrompt) {
+        this.approvalPrompt = approvalPrompt;
+    }
+
+    public TokenType getTokenType() {
+        return tokenType;
+    }
+
+    public void setTokenType(final TokenType tokenType) {
+        this.tokenType = tokenType;
+    }
+
+    public String getResponseType() {
+        return responseType;
+    }
+
+    public void setResponseType(final String responseType) {
+        this.responseType = responseType;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public void setClientId(final String clientId) {
+        this.clientId = clientId;
+    }
+
+    public String getRedirectUri() {
+        return redirectUri;
+    }
+
+    public void setRedirectUri(final String redirectUri) {
+        this.redirectUri = redirectUri;
+    }
+
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    public void setServiceName(final String serviceName) {
+        this.serviceName = serviceName;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public void setScope(final String scope) {
+        this.scope = scope;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(final String state) {
+        this.state = state;
+    }
+
+    public String getLoginTicketId() {
+        return loginTicketId;
+    }
+
+    public void setLoginTicketId(final String loginTicketId) {
+        this.loginTicketId = loginTicketId;
+    }
+
+    public Set<String> getScopeSet() {
+        return scopeSet;
+    }
+
+    public void setScopeSet(final Set<String> scopeSet) {
+        this.scopeSet = scopeSet;
+    }
+
+    /**
+     * @return when the authorization started, in milliseconds since the epoch
+     */
+    public long getIssuedAt() {
+        return issuedAt;
+    }
+
+    public void setIssuedAt(final long issuedAt) {
+        this.issuedAt = issuedAt;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.support.oauth.web.support;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Keeps the state of an authorization in progress between the requests of the authorize flow.
+ *
+ * @author Michael Haselton
+ * @since 4.1.5
+ */
+public interface OAuth20AuthorizeStateStore {
+
+    /**
+     * Load the state of the authorization in progress.
+     *
+     * @param request the request
+     * @return the state, empty if there is no authorization in progress or its state is invalid or expired
+     */
+    OAuth20AuthorizeState load(HttpServletRequest request);
+
+    /**
+     * Save the state of the authorization in progress.
+     *
+     * @param request the request
+     * @param response the response
+     * @param state the state
+     */
+    void save(HttpServletRequest request, HttpServletResponse response, OAuth20AuthorizeState state);
+
+    /**
+     * Clear the state once the authorization completes.
+     *
+     * @param request the request
+     * @param response the response
+     */
+    void clear(HttpServletRequest request, HttpServletResponse response);
+}
@@ -0,0 +1,343 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.support.oauth.web.support;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.commons.lang3.StringUtils;
+import org.jasig.cas.support.oauth.CentralOAuthService;
+import org.jasig.cas.support.oauth.OAuthConstants;
+import org.jasig.cas.support.oauth.services.OAuthRegisteredService;
+import org.jasig.inspektr.common.web.ClientInfo;
+import org.jasig.inspektr.common.web.ClientInfoHolder;
+import org.springframework.beans.factory.InitializingBean;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the rate of the requests to the OAuth endpoints with token buckets, one per source ip address, per client id
+ * and per access token, held in memory so that no request reaches the database to be limited.
+ *
+ * The buckets of the ip address and of the access token are taken from before the request is handled, see
+ * {@link #tryAcquire(HttpServletRequest)}. The bucket of a client is taken from by the token controllers once the
+ * client is authenticated, see {@link #tryAcquireClient(String)}, so that a caller cannot spend the quota of a client
+ * by sending its client id. The profile requests carry no client id, they are limited by their ip address and access
+ * token only. The source ip address is the one the client info filter resolved for the request.
+ *
+ * The buckets of the ip addresses and of the access tokens share their default quota, the bucket of a client takes
+ * its quota from its {@link OAuthRegisteredService} when it has one, and from the default client quota otherwise. The
+ * buckets are held in a cache of a maximum size, and a bucket is dropped once it has been idle for the time to idle,
+ * which refills it, so the time to idle should exceed the time a bucket takes to refill. The quota of a client is
+ * read when its bucket is created, so a changed quota applies as soon as the client has been idle. A quota of zero
+ * requests per minute disables its buckets.
+ *
+ * @author Michael Haselton
+ * @since 4.1.5
+ */
+public final class OAuth20RateLimiter implements InitializingBean {
+
+    private static final long NANOSECONDS_PER_MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+    private static final String IP_ADDRESS_KEY = "ip:";
+
+    private static final String CLIENT_KEY = "client:";
+
+    private static final String ACCESS_TOKEN_KEY = "token:";
+
+    private static final long DEFAULT_TIME_TO_IDLE = 600;
+
+    private static final long DEFAULT_MAXIMUM_SIZE = 100000;
+
+    private final CentralOAuthService centralOAuthService;
+
+    /** The buckets by key type and value. */
+    private Cache<String, TokenBucket> buckets;
+
+    private int ipAddressPerMinute = 600;
+
+    private int ipAddressBurst = 100;
+
+    private int clientPerMinute = 600;
+
+    private int clientBurst = 100;
+
+    private int accessTokenPerMinute = 120;
+
+    private int accessTokenBurst = 20;
+
+    /** The seconds after which an idle bucket is dropped. */
+    private long timeToIdle = DEFAULT_TIME_TO_IDLE;
+
+    private long maximumSize = DEFAULT_MAXIMUM_SIZE;
+
+    private Ticker ticker = Ticker.systemTicker();
+
+    /**
+     * Instantiates a new rate limiter.
+     *
+     * @param centralOAuthService the central OAuth service, to read the quotas of the registered services
+     */
+    public OAuth20RateLimiter(final CentralOAuthService centralOAuthService) {
+        this.centralOAuthService = centralOAuthService;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        this.buckets = CacheBuilder.newBuilder()
+                .expireAfterAccess(this.timeToIdle, TimeUnit.SECONDS)
+                .maximumSize(this.maximumSize)
+                .ticker(this.ticker)
+                .build();
+    }
+
+    /**
+     * Take a token from each bucket of the request: its source ip address and its access token.
+     *
+     * @param request the request
+     * @return zero if the request is within its limits, or the nanoseconds until its first empty bucket holds a token
+     */
+    public long tryAcquire(final HttpServletRequest request) {
+        return tryAcquire(request, this.ticker.read());
+    }
+
+    /**
+     * Take a token from each bucket of the request at the given time.
+     *
+     * @param request the request
+     * @param now the time, in nanoseconds
+     * @return zero if the request is within its limits, or the nanoseconds until its first empty bucket holds a token
+     */
+    long tryAcquire(final HttpServletRequest request, final long now) {
+        final long wait = tryConsume(IP_ADDRESS_KEY, getIpAddress(request), null, now);
+        if (wait > 0) {
+            return wait;
+        }
+        return tryConsume(ACCESS_TOKEN_KEY, getAccessToken(request), null, now);
+    }
+
+    /**
+     * Take a token from the bucket of an authenticated client, wherever its requests come from.
+     *
+     * @param clientId the client id
+     * @return zero if the request is within the quota of the client, or the nanoseconds until its bucket holds a token
+     */
+    public long tryAcquireClient(final String clientId) {
+        return tryAcquireClient(clientId, this.ticker.read());
+    }
+
+    /**
+     * Take a token from the bucket of an authenticated client at the given time.
+     *
+     * @param clientId the client id
+     * @param now the time, in nanoseconds
+     * @return zero if the request is within the quota of the client, or the nanoseconds until its bucket holds a token
+     */
+    long tryAcquireClient(final String clientId, final long now) {
+        return tryConsume(CLIENT_KEY, clientId, clientId, now);
+    }
+
+    /**
+     * Take a token from the bucket of a key, creating it with its quota if needed.
+     *
+     * @param type the type of the key
+     * @param value the value of the key, nothing is taken when blank
+     * @param clientId the client id whose registered service holds the quota, null for the default quota of the type
+     * @param now the time, in nanoseconds
+     * @return zero if a token was taken, or the nanoseconds until the bucket holds one
+     */
+    private long tryConsume(final String type, final String value, final String clientId, final long now) {
+        if (StringUtils.isBlank(value)) {
+            return 0;
+        }
+        final String key = type + value;
+        TokenBucket bucket = buckets.getIfPresent(key);
+        if (bucket == null) {
+            final TokenBucket created = newBucket(type, clientId, now);
+            if (created == null) {
+                return 0;
+            }
+            bucket = buckets.asMap().putIfAbsent(key, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        return bucket.tryConsume(now);
+    }
+
+    /**
+     * Create the bucket of a key type, with the quota of the registered service of the client if it sets one.
+     *
+     * @param type the type of the key
+     * @param clientId the client id, or null
+     * @param now the time, in nanoseconds
+     * @return the bucket, or null if the quota does not limit the key
+     */
+    private TokenBucket newBucket(final String type, final String clientId, final long now) {
+        int perMinute;
+        int burst;
+        if (IP_ADDRESS_KEY.equals(type)) {
+            perMinute = ipAddressPerMinute;
+            burst = ipAddressBurst;
+        } else if (ACCESS_TOKEN_KEY.equals(type)) {
+            perMinute = accessTokenPerMinute;
+            burst = accessTokenBurst;
+        } else {
+            perMinute = clientPerMinute;
+            burst = clientBurst;
+            final OAuthRegisteredService service = centralOAuthService.getRegisteredService(clientId);
+            if (service != null && service.getRateLimitPerMinute() != null) {
+                perMinute = service.getRateLimitPerMinute();
+            }
+            if (service != null && service.getRateLimitBurst() != null) {
+                burst = service.getRateLimitBurst();
+            }
+        }
+        if (perMinute <= 0) {
+            return null;
+        }
+        return new TokenBucket(NANOSECONDS_PER_MINUTE / perMinute, Math.max(burst, 1), now);
+    }
+
+    /**
+     * Return the source ip address of the request, as resolved by the client info filter when it ran.
+     *
+     * @param request the request
+     * @return the ip address
+     */
+    private static String getIpAddress(final HttpServletRequest request) {
+        final ClientInfo clientInfo = ClientInfoHolder.getClientInfo();
+        return clientInfo != null ? clientInfo.getClientIpAddress() : request.getRemoteAddr();
+    }
+
+    /**
+     * Return the access token of the request, from its parameter or its bearer authorization header.
+     *
+     * @param request the request
+     * @return the access token, or null
+     */
+    private static String getAccessToken(final HttpServletRequest request) {
+        final String accessToken = request.getParameter(OAuthConstants.ACCESS_TOKEN);
+        if (StringUtils.isNotBlank(accessToken)) {
+            return accessToken;
+        }
+        final String authHeader = request.getHeader("Authorization");
+        if (authHeader != null && authHeader.startsWith(OAuthConstants.BEARER_TOKEN + ' ')) {
+            return authHeader.substring(OAuthConstants.BEARER_TOKEN.length() + 1);
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of buckets held, once the idle buckets are dropped
+     */
+    public long getBucketCount() {
+        buckets.cleanUp();
+        return buckets.size();
+    }
+
+    public void setIpAddressPerMinute(final int ipAddressPerMinute) {
+        this.ipAddressPerMinute = ipAddressPerMinute;
+    }
+
+    public void setIpAddressBurst(final int ipAddressBurst) {
+        this.ipAddressBurst = ipAddressBurst;
+    }
+
+    public void setClientPerMinute(final int clientPerMinute) {
+        this.clientPerMinute = clientPerMinute;
+    }
+
+    public void setClientBurst(final int clientBurst) {
+        this.clientBurst = clientBurst;
+    }
+
+    public void setAccessTokenPerMinute(final int accessTokenPerMinute) {
+        this.accessTokenPerMinute = accessTokenPerMinute;
+    }
+
+    public void setAccessTokenBurst(final int accessTokenBurst) {
+        this.accessTokenBurst = accessTokenBurst;
+    }
+
+    public void setTimeToIdle(final long timeToIdle) {
+        this.timeToIdle = timeToIdle;
+    }
+
+    public void setMaximumSize(final long maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * @param ticker the time source of the buckets and of their expiry, for tests
+     */
+    void setTicker(final Ticker ticker) {
+        this.ticker = ticker;
+    }
+
+    /**
+     * A token bucket kept as the theoretical arrival time of its next request, so that a single compare and set
+     * takes a token and refills the bucket.
+     */
+    private static final class TokenBucket {
+
+        /** The nanoseconds to refill a token. */
+        private final long interval;
+
+        /** How far ahead of now the theoretical arrival time may be, the burst less one token. */
+        private final long tolerance;
+
+        private final AtomicLong theoreticalArrivalTime;
+
+        /**
+         * Instantiates a new full token bucket.
+         *
+         * @param interval the nanoseconds to refill a token
+         * @param burst the capacity of the bucket
+         * @param now the time, in nanoseconds
+         */
+        TokenBucket(final long interval, final int burst, final long now) {
+            this.interval = interval;
+            this.tolerance = interval * (burst - 1);
+            this.theoreticalArrivalTime = new AtomicLong(now);
+        }
+
+        /**
+         * Take a token.
+         *
+         * @param now the time, in nanoseconds
+         * @return zero if a token was taken, or the nanoseconds until the bucket holds one
+         */
+        long tryConsume(final long now) {
+            while (true) {
+                final long arrival = theoreticalArrivalTime.get();
+                final long start = arrival - now > 0 ? arrival : now;
+                final long wait = start - tolerance - now;
+                if (wait > 0) {
+                    return wait;
+                }
+                if (theoreticalArrivalTime.compareAndSet(arrival, start + interval)) {
+                    return 0;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.support.oauth.web.support;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.AbstractController;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.constraints.NotNull;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Reports the metrics of the OAuth endpoints, of the central OAuth service and of the token registry in the
+ * Prometheus text format, so that they can be scraped. Timers are reported as summaries in seconds, meters as
+ * counters and counters as gauges. Mapped under /statistics, behind the same access control as the other statistics
+ * endpoints.
+ *
+ * @author Michael Haselton
+ * @since 4.1.5
+ */
+public final class OAuthMetricsController extends AbstractController {
+
+    /** The content type of the Prometheus text format. */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double NANOSECONDS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static final double[] QUANTILES = {0.5, 0.75, 0.95, 0.98, 0.99, 0.999};
+
+    private static final Pattern INVALID_NAME_CHARACTERS = Pattern.compile("[^a-zA-Z0-9_:]|^[0-9]");
+
+    private final MetricRegistry metricRegistry;
+
+    /** Only the metrics whose name starts with the prefix are reported. */
+    @NotNull
+    private String prefix = "org.jasig.cas.support.oauth";
+
+    /**
+     * Instantiates a new OAuth metrics controller.
+     *
+     * @param metricRegistry the metric registry
+     */
+    public OAuthMetricsController(final MetricRegistry metricRegistry) {
+        setSupportedMethods(METHOD_GET);
+        this.metricRegistry = metricRegistry;
+    }
+
+    @Override
+    protected ModelAndView handleRequestInternal(final HttpServletRequest request, final HttpServletResponse response)
+            throws Exception {
+        final MetricFilter filter = new MetricFilter() {
+            @Override
+            public boolean matches(final String name, final Metric metric) {
+                return name.startsWith(prefix);
+            }
+        };
+
+        final StringBuilder result = new StringBuilder();
+        for (final Map.Entry<String, Timer> entry : metricRegistry.getTimers(filter).entrySet()) {
+            final String name = sanitize(entry.getKey()) + "_seconds";
+            writeSummary(result, name, entry.getValue().getSnapshot(), entry.getValue().getCount(), NANOSECONDS_PER_SECOND);
+        }
+        for (final Map.Entry<String, Histogram> entry : metricRegistry.getHistograms(filter).entrySet()) {
+            writeSummary(result, sanitize(entry.getKey()), entry.getValue().getSnapshot(), entry.getValue().getCount(), 1);
+        }
+        for (final Map.Entry<String, Meter> entry : metricRegistry.getMeters(filter).entrySet()) {
+            final String name = sanitize(entry.getKey()) + "_total";
+            writeType(result, name, "counter");
+            writeSample(result, name, entry.getValue().getCount());
+        }
+        for (final Map.Entry<String, Counter> entry : metricRegistry.getCounters(filter).entrySet()) {
+            final String name = sanitize(entry.getKey());
+            writeType(result, name, "gauge");
+            writeSample(result, name, entry.getValue().getCount());
+        }
+        for (final Map.Entry<String, Gauge> entry : metricRegistry.getGauges(filter).entrySet()) {
+            final Object value = entry.getValue().getValue();
+            if (value instanceof Number) {
+                final String name = sanitize(entry.getKey());
+                writeType(result, name, "gauge");
+                writeSample(result, name, ((Number) value).doubleValue());
+            }
+        }
+
+        response.setContentType(CONTENT_TYPE);
+        response.setHeader("Cache-Control", "no-store");
+        try (PrintWriter writer = response.getWriter()) {
+            writer.print(result);
+        }
+        return null;
+    }
+
+    /**
+     * Write the quantiles and the count of a snapshot as a summary. There is no sum, the metrics keep no running sum
+     * and an estimate from the decaying snapshot would not be monotonic.
+     *
+     * @param result the result
+     * @param name the metric name
+     * @param snapshot the snapshot
+     * @param count the count
+     * @param divisor the divisor of the snapshot values, to convert them to the unit of the metric
+     */
+    private static void writeSummary(final StringBuilder result, final String name, final Snapshot snapshot,
+                                     final long count, final double divisor) {
+        writeType(result, name, "summary");
+        for (final double quantile : QUANTILES) {
+            result.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(snapshot.getValue(quantile) / divisor).append('\n');
+        }
+        writeSample(result, name + "_count", count);
+    }
+
+    /**
+     * Write the type line of a metric.
+     *
+     * @param result the result
+     * @param name the metric name
+     * @param type the Prometheus metric type
+     */
+    private static void writeType(final StringBuilder result, final String name, final String type) {
+        result.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Write a sample line of a metric.
+     *
+     * @param result the result
+     * @param name the metric name
+     * @param value the value
+     */
+    private static void writeSample(final StringBuilder result, final String name, final Number value) {
+        result.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Replace the characters of a metric name that the Prometheus format does not allow.
+     *
+     * @param name the metric name
+     * @return the sanitized name
+     */
+    static String sanitize(final String name) {
+        return INVALID_NAME_CHARACTERS.matcher(name).replaceAll("_");
+    }
+
+    public void setPrefix(final String prefix) {
+        this.prefix = prefix;
+    }
+}
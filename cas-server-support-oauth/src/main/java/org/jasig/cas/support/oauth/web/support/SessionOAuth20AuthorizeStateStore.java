@@ -0,0 +1,92 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.support.oauth.web.support;
+
+import org.jasig.cas.support.oauth.OAuthConstants;
+import org.jasig.cas.support.oauth.token.TokenType;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.util.Set;
+
+/**
+ * Keeps the state of the authorization in the http session, which requires sticky sessions or session replication
+ * across the nodes of a cluster.
+ *
+ * @author Michael Haselton
+ * @since 4.1.5
+ */
+public final class SessionOAuth20AuthorizeStateStore implements OAuth20AuthorizeStateStore {
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public OAuth20AuthorizeState load(final HttpServletRequest request) {
+        final HttpSession session = request.getSession();
+        final OAuth20AuthorizeState state = new OAuth20AuthorizeState();
+        state.setBypassApprovalPrompt((Boolean) session.getAttribute(OAuthConstants.BYPASS_APPROVAL_PROMPT));
+        state.setApprovalPrompt((String) session.getAttribute(OAuthConstants.OAUTH20_APPROVAL_PROMPT));
+        state.setTokenType((TokenType) session.getAttribute(OAuthConstants.OAUTH20_TOKEN_TYPE));
+        state.setResponseType((String) session.getAttribute(OAuthConstants.OAUTH20_RESPONSE_TYPE));
+        state.setClientId((String) session.getAttribute(OAuthConstants.OAUTH20_CLIENT_ID));
+        state.setRedirectUri((String) session.getAttribute(OAuthConstants.OAUTH20_REDIRECT_URI));
+        state.setServiceName((String) session.getAttribute(OAuthConstants.OAUTH20_SERVICE_NAME));
+        state.setScope((String) session.getAttribute(OAuthConstants.OAUTH20_SCOPE));
+        state.setState((String) session.getAttribute(OAuthConstants.OAUTH20_STATE));
+        state.setLoginTicketId((String) session.getAttribute(OAuthConstants.OAUTH20_LOGIN_TICKET_ID));
+        state.setScopeSet((Set<String>) session.getAttribute(OAuthConstants.OAUTH20_SCOPE_SET));
+        return state;
+    }
+
+    @Override
+    public void save(final HttpServletRequest request, final HttpServletResponse response,
+                     final OAuth20AuthorizeState state) {
+        final HttpSession session = request.getSession();
+        session.setAttribute(OAuthConstants.BYPASS_APPROVAL_PROMPT, state.getBypassApprovalPrompt());
+        session.setAttribute(OAuthConstants.OAUTH20_APPROVAL_PROMPT, state.getApprovalPrompt());
+        session.setAttribute(OAuthConstants.OAUTH20_TOKEN_TYPE, state.getTokenType());
+        session.setAttribute(OAuthConstants.OAUTH20_RESPONSE_TYPE, state.getResponseType());
+        session.setAttribute(OAuthConstants.OAUTH20_CLIENT_ID, state.getClientId());
+        session.setAttribute(OAuthConstants.OAUTH20_REDIRECT_URI, state.getRedirectUri());
+        session.setAttribute(OAuthConstants.OAUTH20_SERVICE_NAME, state.getServiceName());
+        session.setAttribute(OAuthConstants.OAUTH20_SCOPE, state.getScope());
+        session.setAttribute(OAuthConstants.OAUTH20_STATE, state.getState());
+        session.setAttribute(OAuthConstants.OAUTH20_LOGIN_TICKET_ID, state.getLoginTicketId());
+        session.setAttribute(OAuthConstants.OAUTH20_SCOPE_SET, state.getScopeSet());
+    }
+
+    @Override
+    public void clear(final HttpServletRequest request, final HttpServletResponse response) {
+        final HttpSession session = request.getSession(false);
+        if (session == null) {
+            return;
+        }
+        session.removeAttribute(OAuthConstants.BYPASS_APPROVAL_PROMPT);
+        session.removeAttribute(OAuthConstants.OAUTH20_APPROVAL_PROMPT);
+        session.removeAttribute(OAuthConstants.OAUTH20_TOKEN_TYPE);
+        session.removeAttribute(OAuthConstants.OAUTH20_RESPONSE_TYPE);
+        session.removeAttribute(OAuthConstants.OAUTH20_CLIENT_ID);
+        session.removeAttribute(OAuthConstants.OAUTH20_REDIRECT_URI);
+        session.removeAttribute(OAuthConstants.OAUTH20_SERVICE_NAME);
+        session.removeAttribute(OAuthConstants.OAUTH20_SCOPE);
+        session.removeAttribute(OAuthConstants.OAUTH20_STATE);
+        session.removeAttribute(OAuthConstants.OAUTH20_LOGIN_TICKET_ID);
+        session.removeAttribute(OAuthConstants.OAUTH20_SCOPE_SET);
+    }
+}
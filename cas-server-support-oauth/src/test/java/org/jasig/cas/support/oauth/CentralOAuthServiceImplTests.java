@@ -0,0 +1,150 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.support.oauth;
+
+import org.jasig.cas.CentralAuthenticationService;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.principal.Principal;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.services.ServicesManager;
+import org.jasig.cas.support.oauth.personal.PersonalAccessTokenManager;
+import org.jasig.cas.support.oauth.scope.ScopeManager;
+import org.jasig.cas.support.oauth.ticket.support.TimeToKillExpirationPolicy;
+import org.jasig.cas.support.oauth.token.AccessToken;
+import org.jasig.cas.support.oauth.token.AccessTokenImpl;
+import org.jasig.cas.support.oauth.token.AuthorizationCode;
+import org.jasig.cas.support.oauth.token.RefreshTokenImpl;
+import org.jasig.cas.support.oauth.token.RefreshToken;
+import org.jasig.cas.support.oauth.token.TokenType;
+import org.jasig.cas.support.oauth.token.registry.TokenRegistry;
+import org.jasig.cas.ticket.ExpirationPolicy;
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.jasig.cas.util.UniqueTicketIdGenerator;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * This class tests the {@link CentralOAuthServiceImpl} class.
+ *
+ * @author Michael Haselton
+ * @since 4.1.5
+ */
+public final class CentralOAuthServiceImplTests {
+
+    private static final long CODE_TIME_TO_KILL = 10000;
+
+    private static final long ACCESS_TOKEN_TIME_TO_KILL = 3600000;
+
+    private CentralAuthenticationService centralAuthenticationService;
+
+    private TokenRegistry tokenRegistry;
+
+    private CentralOAuthServiceImpl centralOAuthService;
+
+    private TicketGrantingTicketImpl ticketGrantingTicket;
+
+    @Before
+    public void setUp() throws Exception {
+        this.centralAuthenticationService = mock(CentralAuthenticationService.class);
+        this.tokenRegistry = mock(TokenRegistry.class);
+        final UniqueTicketIdGenerator idGenerator = mock(UniqueTicketIdGenerator.class);
+        when(idGenerator.getNewTicketId(anyString())).thenReturn("T-1");
+
+        this.centralOAuthService = new CentralOAuthServiceImpl(this.centralAuthenticationService,
+                mock(ServicesManager.class), mock(TicketRegistry.class), this.tokenRegistry, idGenerator, idGenerator,
+                idGenerator, mock(ScopeManager.class), mock(PersonalAccessTokenManager.class));
+        this.centralOAuthService.setAuthorizationCodeExpirationPolicy(
+                new TimeToKillExpirationPolicy(1, CODE_TIME_TO_KILL, TimeUnit.MILLISECONDS));
+        this.centralOAuthService.setAccessTokenExpirationPolicy(
+                new TimeToKillExpirationPolicy(ACCESS_TOKEN_TIME_TO_KILL, TimeUnit.MILLISECONDS));
+
+        final Principal principal = mock(Principal.class);
+        when(principal.getId()).thenReturn("principal");
+        final Authentication authentication = mock(Authentication.class);
+        when(authentication.getPrincipal()).thenReturn(principal);
+        this.ticketGrantingTicket = new TicketGrantingTicketImpl("TGT-1", authentication, mock(ExpirationPolicy.class));
+    }
+
+    @Test
+    public void verifyAuthorizationCodeExpiresWithItsServiceTicket() throws Exception {
+        final ServiceTicket serviceTicket = this.ticketGrantingTicket.grantServiceTicket(
+                "ST-1", mock(Service.class), mock(ExpirationPolicy.class), false);
+        when(this.centralAuthenticationService.grantServiceTicket(eq("TGT-1"), any(Service.class)))
+                .thenReturn(serviceTicket);
+
+        final AuthorizationCode code = this.centralOAuthService.grantAuthorizationCode(
+                TokenType.OFFLINE, "client", "TGT-1", "https://example.com/callback", Collections.<String>emptySet());
+
+        assertEquals(Long.valueOf(code.getServiceTicket().getCreationTime() + CODE_TIME_TO_KILL), code.getExpiresAt());
+        verify(this.tokenRegistry).addToken(code);
+    }
+
+    @Test
+    public void verifyStaleAccessTokenExpiryIsRefreshedOnUse() throws Exception {
+        final AccessTokenImpl accessToken = new AccessTokenImpl("AT-1", TokenType.ONLINE, "client", "principal",
+                this.ticketGrantingTicket, null, null, Collections.<String>emptySet());
+        accessToken.setExpiresAt(1L);
+        when(this.tokenRegistry.getToken("AT-1", AccessToken.class)).thenReturn(accessToken);
+
+        this.centralOAuthService.getToken("AT-1", AccessToken.class);
+
+        assertEquals(Long.valueOf(this.ticketGrantingTicket.getLastTimeUsed() + ACCESS_TOKEN_TIME_TO_KILL),
+                accessToken.getExpiresAt());
+        verify(this.tokenRegistry).updateToken(accessToken);
+    }
+
+    @Test
+    public void verifyCurrentAccessTokenExpiryIsNotWritten() throws Exception {
+        final AccessTokenImpl accessToken = new AccessTokenImpl("AT-1", TokenType.ONLINE, "client", "principal",
+                this.ticketGrantingTicket, null, null, Collections.<String>emptySet());
+        accessToken.setExpiresAt(this.ticketGrantingTicket.getLastTimeUsed() + ACCESS_TOKEN_TIME_TO_KILL);
+        when(this.tokenRegistry.getToken("AT-1", AccessToken.class)).thenReturn(accessToken);
+
+        this.centralOAuthService.getToken("AT-1", AccessToken.class);
+
+        verify(this.tokenRegistry, never()).updateToken(accessToken);
+    }
+
+    @Test
+    public void verifyRefreshTokenHasNoExpiry() throws Exception {
+        final RefreshTokenImpl refreshToken = new RefreshTokenImpl("RT-1", "client", "principal",
+                this.ticketGrantingTicket, mock(Service.class), Collections.<String>emptySet());
+        when(this.tokenRegistry.getToken("RT-1", RefreshToken.class)).thenReturn(refreshToken);
+
+        this.centralOAuthService.getToken("RT-1", RefreshToken.class);
+
+        assertNull(refreshToken.getExpiresAt());
+        verify(this.tokenRegistry, never()).updateToken(refreshToken);
+    }
+}
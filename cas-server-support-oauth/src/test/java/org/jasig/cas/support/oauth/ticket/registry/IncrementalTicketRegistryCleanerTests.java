@@ -0,0 +1,354 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.support.oauth.ticket.registry;
+
+import com.codahale.metrics.MetricRegistry;
+import org.jasig.cas.CentralAuthenticationService;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.support.oauth.token.AbstractToken;
+import org.jasig.cas.support.oauth.token.AccessTokenImpl;
+import org.jasig.cas.support.oauth.token.TokenType;
+import org.jasig.cas.ticket.AbstractTicket;
+import org.jasig.cas.ticket.ExpirationPolicy;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.jasig.cas.ticket.registry.support.LockingStrategy;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * This class tests the {@link IncrementalTicketRegistryCleaner} class.
+ *
+ * @author Michael Haselton
+ * @since 4.1.5
+ */
+public final class IncrementalTicketRegistryCleanerTests {
+
+    private CentralAuthenticationService centralAuthenticationService;
+
+    private TicketRegistry ticketRegistry;
+
+    private LockingStrategy lock;
+
+    private EntityManager entityManager;
+
+    private TypedQuery<AbstractTicket> serviceTicketQuery;
+
+    private TypedQuery<AbstractTicket> ticketGrantingTicketQuery;
+
+    private TypedQuery<AbstractToken> accessTokenQuery;
+
+    private MetricRegistry metricRegistry;
+
+    private IncrementalTicketRegistryCleaner cleaner;
+
+    private ExpirationPolicy expired;
+
+    private ExpirationPolicy alive;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        this.centralAuthenticationService = mock(CentralAuthenticationService.class);
+        this.ticketRegistry = mock(TicketRegistry.class);
+        when(this.ticketRegistry.deleteTicket(anyString())).thenReturn(true);
+        this.lock = mock(LockingStrategy.class);
+        when(this.lock.acquire()).thenReturn(true);
+
+        this.expired = mock(ExpirationPolicy.class);
+        when(this.expired.isExpired(any(AbstractTicket.class))).thenReturn(true);
+        this.alive = mock(ExpirationPolicy.class);
+
+        this.entityManager = mock(EntityManager.class);
+        this.serviceTicketQuery = mockQuery();
+        this.ticketGrantingTicketQuery = mockQuery();
+        when(this.entityManager.createQuery(contains("from ServiceTicketImpl"), eq(AbstractTicket.class)))
+                .thenReturn(this.serviceTicketQuery);
+        when(this.entityManager.createQuery(contains("from TicketGrantingTicketImpl"), eq(AbstractTicket.class)))
+                .thenReturn(this.ticketGrantingTicketQuery);
+        this.accessTokenQuery = mockQuery();
+        when(this.accessTokenQuery.getResultList()).thenReturn(Collections.<AbstractToken>emptyList());
+        when(this.entityManager.createQuery(contains("from AccessTokenImpl"), eq(AbstractToken.class)))
+                .thenReturn(this.accessTokenQuery);
+        final TypedQuery<AbstractToken> authorizationCodeQuery = mockQuery();
+        when(authorizationCodeQuery.getResultList()).thenReturn(Collections.<AbstractToken>emptyList());
+        when(this.entityManager.createQuery(contains("from AuthorizationCodeImpl"), eq(AbstractToken.class)))
+                .thenReturn(authorizationCodeQuery);
+
+        final TypedQuery<Long> accessTokenCountQuery = mockQuery();
+        when(accessTokenCountQuery.getSingleResult()).thenReturn(3L);
+        when(this.entityManager.createQuery(contains("count(t) from AccessTokenImpl"), eq(Long.class)))
+                .thenReturn(accessTokenCountQuery);
+        final TypedQuery<Long> authorizationCodeCountQuery = mockQuery();
+        when(authorizationCodeCountQuery.getSingleResult()).thenReturn(2L);
+        when(this.entityManager.createQuery(contains("count(t) from AuthorizationCodeImpl"), eq(Long.class)))
+                .thenReturn(authorizationCodeCountQuery);
+
+        this.metricRegistry = new MetricRegistry();
+        this.cleaner = new IncrementalTicketRegistryCleaner(this.centralAuthenticationService, this.ticketRegistry);
+        this.cleaner.setEntityManager(this.entityManager);
+        this.cleaner.setLock(this.lock);
+        this.cleaner.setMetricRegistry(this.metricRegistry);
+        this.cleaner.setPause(0);
+        this.cleaner.setBatchSize(2);
+        this.cleaner.afterPropertiesSet();
+    }
+
+    @Test
+    public void verifyRemovesOnlyExpiredTickets() throws Exception {
+        final TicketGrantingTicketImpl expiredTgt = newTicketGrantingTicket("TGT-1", this.expired);
+        final TicketGrantingTicketImpl aliveTgt = newTicketGrantingTicket("TGT-2", this.alive);
+        final AbstractTicket expiredSt = (AbstractTicket) aliveTgt.grantServiceTicket(
+                "ST-1", mock(Service.class), this.expired, false);
+        when(this.serviceTicketQuery.getResultList()).thenReturn(Collections.singletonList(expiredSt));
+        when(this.ticketGrantingTicketQuery.getResultList()).thenReturn(Arrays.<AbstractTicket>asList(expiredTgt));
+
+        final Collection<Ticket> removed = this.cleaner.clean();
+
+        assertEquals(2, removed.size());
+        verify(this.ticketRegistry).deleteTicket("ST-1");
+        verify(this.centralAuthenticationService).destroyTicketGrantingTicket("TGT-1");
+        verify(this.centralAuthenticationService, never()).destroyTicketGrantingTicket("TGT-2");
+        verify(this.lock).release();
+        assertEquals(2, this.metricRegistry.getMeters()
+                .get(MetricRegistry.name(IncrementalTicketRegistryCleaner.class, "deleted")).getCount());
+        assertTrue(this.cleaner.getLag() >= 0);
+    }
+
+    @Test
+    public void verifyResumesAfterTheLastTicketOfTheBatch() throws Exception {
+        final TicketGrantingTicketImpl first = newTicketGrantingTicket("TGT-1", this.expired);
+        final TicketGrantingTicketImpl second = newTicketGrantingTicket("TGT-2", this.expired);
+        final TicketGrantingTicketImpl third = newTicketGrantingTicket("TGT-3", this.expired);
+        when(this.serviceTicketQuery.getResultList()).thenReturn(Collections.<AbstractTicket>emptyList());
+        when(this.ticketGrantingTicketQuery.getResultList())
+                .thenReturn(Arrays.<AbstractTicket>asList(first, second))
+                .thenReturn(Arrays.<AbstractTicket>asList(third));
+
+        final Collection<Ticket> removed = this.cleaner.clean();
+
+        assertEquals(3, removed.size());
+        verify(this.ticketGrantingTicketQuery, times(2)).getResultList();
+        verify(this.ticketGrantingTicketQuery).setParameter("lastId", "");
+        verify(this.ticketGrantingTicketQuery).setParameter("lastId", "TGT-2");
+        verify(this.ticketGrantingTicketQuery).setParameter("lastTimeUsed", second.getLastTimeUsed());
+        verify(this.ticketGrantingTicketQuery, times(2)).setMaxResults(2);
+    }
+
+    @Test
+    public void verifyRunStopsAfterTheMaximumBatchesAndTheNextResumes() throws Exception {
+        this.cleaner.setMaxBatches(4);
+        final TicketGrantingTicketImpl first = newTicketGrantingTicket("TGT-1", this.expired);
+        final TicketGrantingTicketImpl second = newTicketGrantingTicket("TGT-2", this.expired);
+        final TicketGrantingTicketImpl third = newTicketGrantingTicket("TGT-3", this.expired);
+        when(this.serviceTicketQuery.getResultList()).thenReturn(Collections.<AbstractTicket>emptyList());
+        when(this.ticketGrantingTicketQuery.getResultList())
+                .thenReturn(Arrays.<AbstractTicket>asList(first, second))
+                .thenReturn(Arrays.<AbstractTicket>asList(third));
+
+        // the tokens, the service tickets and the first ticket granting tickets use up the run
+        assertEquals(2, this.cleaner.clean().size());
+        assertEquals(-1, this.cleaner.getLag());
+
+        assertEquals(1, this.cleaner.clean().size());
+        verify(this.ticketGrantingTicketQuery).setParameter("lastId", "TGT-2");
+        verify(this.serviceTicketQuery, times(1)).getResultList();
+        assertTrue(this.cleaner.getLag() >= 0);
+
+        // the next pass starts over
+        this.cleaner.clean();
+        verify(this.serviceTicketQuery, times(2)).getResultList();
+    }
+
+    @Test
+    public void verifyRemovesTicketsOfTokensPastTheirExpiry() throws Exception {
+        final TicketGrantingTicketImpl expiredTgt = newTicketGrantingTicket("TGT-1", this.expired);
+        final TicketGrantingTicketImpl aliveTgt = newTicketGrantingTicket("TGT-2", this.alive);
+        final AccessTokenImpl expiredToken = new AccessTokenImpl("AT-1", TokenType.ONLINE, "client", "principal",
+                expiredTgt, null, null, Collections.<String>emptySet());
+        expiredToken.setExpiresAt(1L);
+        final AccessTokenImpl usedToken = new AccessTokenImpl("AT-2", TokenType.ONLINE, "client", "principal",
+                aliveTgt, null, null, Collections.<String>emptySet());
+        usedToken.setExpiresAt(2L);
+        when(this.accessTokenQuery.getResultList()).thenReturn(Arrays.<AbstractToken>asList(expiredToken, usedToken));
+        when(this.serviceTicketQuery.getResultList()).thenReturn(Collections.<AbstractTicket>emptyList());
+        when(this.ticketGrantingTicketQuery.getResultList()).thenReturn(Collections.<AbstractTicket>emptyList());
+        this.cleaner.setBatchSize(3);
+
+        final Collection<Ticket> removed = this.cleaner.clean();
+
+        assertEquals(1, removed.size());
+        verify(this.centralAuthenticationService).destroyTicketGrantingTicket("TGT-1");
+        verify(this.centralAuthenticationService, never()).destroyTicketGrantingTicket("TGT-2");
+        verify(this.accessTokenQuery).setParameter(eq("start"), any());
+        verify(this.accessTokenQuery).getResultList();
+    }
+
+    @Test
+    public void verifyDeletesWithoutLogoutWhenDisabled() throws Exception {
+        this.cleaner.setLogUserOutOfServices(false);
+        when(this.serviceTicketQuery.getResultList()).thenReturn(Collections.<AbstractTicket>emptyList());
+        when(this.ticketGrantingTicketQuery.getResultList())
+                .thenReturn(Arrays.<AbstractTicket>asList(newTicketGrantingTicket("TGT-1", this.expired)));
+
+        assertEquals(1, this.cleaner.clean().size());
+        verify(this.ticketRegistry).deleteTicket("TGT-1");
+        verify(this.centralAuthenticationService, never()).destroyTicketGrantingTicket(anyString());
+    }
+
+    @Test
+    public void verifySkipsRunWithoutTheLock() throws Exception {
+        when(this.lock.acquire()).thenReturn(false);
+
+        assertTrue(this.cleaner.clean().isEmpty());
+        verify(this.serviceTicketQuery, never()).getResultList();
+        verify(this.lock, never()).release();
+        assertEquals(-1, this.cleaner.getLag());
+        assertEquals(-1, this.cleaner.getBacklog());
+    }
+
+    @Test
+    public void verifyPauseGrowsWhileBatchesAreSlow() throws Exception {
+        this.cleaner.setPause(1);
+        this.cleaner.setMaxPause(4);
+        this.cleaner.setLatencyThreshold(1);
+        final List<AbstractTicket> batch = Arrays.<AbstractTicket>asList(
+                newTicketGrantingTicket("TGT-1", this.alive), newTicketGrantingTicket("TGT-2", this.alive));
+        when(this.serviceTicketQuery.getResultList()).thenReturn(Collections.<AbstractTicket>emptyList());
+        when(this.ticketGrantingTicketQuery.getResultList()).thenAnswer(new Answer<List<AbstractTicket>>() {
+            private int calls;
+
+            @Override
+            public List<AbstractTicket> answer(final InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(5);
+                return ++this.calls < 5 ? batch : Collections.<AbstractTicket>emptyList();
+            }
+        });
+
+        this.cleaner.clean();
+
+        assertEquals(4, this.cleaner.getCurrentPause());
+        verify(this.ticketRegistry, never()).deleteTicket(anyString());
+    }
+
+    @Test
+    public void verifySsoPartitionSkipsTheOAuthTickets() throws Exception {
+        this.cleaner = newPartitionCleaner(TicketPartition.SSO);
+        when(this.serviceTicketQuery.getResultList()).thenReturn(Collections.<AbstractTicket>emptyList());
+        when(this.ticketGrantingTicketQuery.getResultList()).thenReturn(Collections.<AbstractTicket>emptyList());
+
+        this.cleaner.clean();
+
+        verify(this.accessTokenQuery, never()).getResultList();
+        verify(this.entityManager, never()).createQuery(anyString(), eq(Long.class));
+        assertEquals(-1, this.cleaner.getBacklog());
+        verify(this.entityManager).createQuery(
+                contains("from TicketGrantingTicketImpl t where t.lastTimeUsed < :start and not (exists"),
+                eq(AbstractTicket.class));
+        verify(this.entityManager).createQuery(
+                contains("from ServiceTicketImpl t where t.lastTimeUsed < :start and not (exists"),
+                eq(AbstractTicket.class));
+        assertTrue(this.metricRegistry.getMeters().containsKey(
+                MetricRegistry.name(IncrementalTicketRegistryCleaner.class, "sso", "deleted")));
+    }
+
+    @Test
+    public void verifyOAuthPartitionCleansTheTokensAndTheOAuthTickets() throws Exception {
+        this.cleaner = newPartitionCleaner(TicketPartition.OAUTH);
+        when(this.serviceTicketQuery.getResultList()).thenReturn(Collections.<AbstractTicket>emptyList());
+        when(this.ticketGrantingTicketQuery.getResultList()).thenReturn(Collections.<AbstractTicket>emptyList());
+
+        this.cleaner.clean();
+
+        verify(this.accessTokenQuery).getResultList();
+        assertEquals(5L, this.metricRegistry.getGauges()
+                .get(MetricRegistry.name(IncrementalTicketRegistryCleaner.class, "oauth", "backlog")).getValue());
+        verify(this.entityManager).createQuery(
+                contains("from TicketGrantingTicketImpl t where t.lastTimeUsed < :start and (exists"),
+                eq(AbstractTicket.class));
+        assertTrue(this.metricRegistry.getMeters().containsKey(
+                MetricRegistry.name(IncrementalTicketRegistryCleaner.class, "oauth", "deleted")));
+    }
+
+    /**
+     * Create a cleaner of one partition, sharing the registry and metrics of the default cleaner.
+     *
+     * @param partition the partition
+     * @return the cleaner
+     * @throws Exception if the cleaner fails to initialize
+     */
+    private IncrementalTicketRegistryCleaner newPartitionCleaner(final TicketPartition partition) throws Exception {
+        final IncrementalTicketRegistryCleaner partitionCleaner =
+                new IncrementalTicketRegistryCleaner(this.centralAuthenticationService, this.ticketRegistry);
+        partitionCleaner.setEntityManager(this.entityManager);
+        partitionCleaner.setLock(this.lock);
+        partitionCleaner.setMetricRegistry(this.metricRegistry);
+        partitionCleaner.setPause(0);
+        partitionCleaner.setPartition(partition);
+        partitionCleaner.afterPropertiesSet();
+        return partitionCleaner;
+    }
+
+    /**
+     * Create a ticket granting ticket with the expiration policy.
+     *
+     * @param id the ticket id
+     * @param policy the expiration policy
+     * @return the ticket granting ticket
+     */
+    private static TicketGrantingTicketImpl newTicketGrantingTicket(final String id, final ExpirationPolicy policy) {
+        return new TicketGrantingTicketImpl(id, mock(Authentication.class), policy);
+    }
+
+    /**
+     * @param <T> the result type
+     * @return a query mock that returns itself from its setters
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> TypedQuery<T> mockQuery() {
+        final TypedQuery<T> query = mock(TypedQuery.class);
+        when(query.setParameter(anyString(), any())).thenReturn(query);
+        when(query.setMaxResults(anyInt())).thenReturn(query);
+        return query;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.support.oauth.ticket.registry;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * This class tests the {@link PartitionTicketRegistryState} class.
+ *
+ * @author Michael Haselton
+ * @since 4.1.5
+ */
+public final class PartitionTicketRegistryStateTests {
+
+    private EntityManager entityManager;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        this.entityManager = mock(EntityManager.class);
+        final TypedQuery<Long> sessionQuery = mock(TypedQuery.class);
+        when(sessionQuery.getSingleResult()).thenReturn(3L);
+        when(this.entityManager.createQuery(startsWith("select count(t) from TicketGrantingTicketImpl t"),
+                eq(Long.class))).thenReturn(sessionQuery);
+        final TypedQuery<Long> serviceTicketQuery = mock(TypedQuery.class);
+        when(serviceTicketQuery.getSingleResult()).thenReturn(5L);
+        when(this.entityManager.createQuery(startsWith("select count(t) from ServiceTicketImpl t"),
+                eq(Long.class))).thenReturn(serviceTicketQuery);
+    }
+
+    @Test
+    public void verifyCountsTheSsoTickets() throws Exception {
+        final PartitionTicketRegistryState state = newState(TicketPartition.SSO);
+
+        assertEquals(3, state.sessionCount());
+        assertEquals(5, state.serviceTicketCount());
+        verify(this.entityManager).createQuery(
+                eq("select count(t) from TicketGrantingTicketImpl t where " + "not (exists (select r.id "
+                        + "from RefreshTokenImpl r where r.ticketGrantingTicket = t) or exists (select a.id "
+                        + "from AccessTokenImpl a where a.ticketGrantingTicket = t "
+                        + "and a.type <> org.jasig.cas.support.oauth.token.TokenType.CAS))"),
+                eq(Long.class));
+    }
+
+    @Test
+    public void verifyCountsEveryTicketWithoutAPartition() throws Exception {
+        final PartitionTicketRegistryState state = newState(TicketPartition.ALL);
+
+        assertEquals(3, state.sessionCount());
+        verify(this.entityManager).createQuery(eq("select count(t) from TicketGrantingTicketImpl t"), eq(Long.class));
+    }
+
+    /**
+     * @param partition the partition counted
+     * @return the state of the partition
+     */
+    private PartitionTicketRegistryState newState(final TicketPartition partition) {
+        final PartitionTicketRegistryState state = new PartitionTicketRegistryState(partition);
+        state.setEntityManager(this.entityManager);
+        return state;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.support.oauth.ticket.support;
+
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.CredentialMetaData;
+import org.jasig.cas.authentication.HandlerResult;
+import org.jasig.cas.authentication.ImmutableAuthentication;
+import org.jasig.cas.authentication.principal.Principal;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.support.oauth.authentication.principal.OAuthCredential;
+import org.jasig.cas.support.oauth.token.TokenType;
+import org.jasig.cas.ticket.AbstractTicket;
+import org.jasig.cas.ticket.ExpirationPolicy;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * This class tests the {@link OAuthDelegatingExpirationPolicy} class.
+ *
+ * @author Michael Haselton
+ * @since 4.1.5
+ */
+public final class OAuthDelegatingExpirationPolicyTests {
+
+    private ExpirationPolicy refreshTokenPolicy;
+
+    private ExpirationPolicy accessTokenPolicy;
+
+    private ExpirationPolicy sessionPolicy;
+
+    private OAuthDelegatingExpirationPolicy policy;
+
+    @Before
+    public void setUp() throws Exception {
+        this.refreshTokenPolicy = mock(ExpirationPolicy.class);
+        this.accessTokenPolicy = mock(ExpirationPolicy.class);
+        this.sessionPolicy = mock(ExpirationPolicy.class);
+        when(this.refreshTokenPolicy.isExpired(any(AbstractTicket.class))).thenReturn(true);
+        when(this.accessTokenPolicy.isExpired(any(AbstractTicket.class))).thenReturn(true);
+        when(this.sessionPolicy.isExpired(any(AbstractTicket.class))).thenReturn(true);
+
+        this.policy = new OAuthDelegatingExpirationPolicy();
+        this.policy.setOAuthRefreshTokenExpirationPolicy(this.refreshTokenPolicy);
+        this.policy.setOAuthAccessTokenExpirationPolicy(this.accessTokenPolicy);
+        this.policy.setSessionExpirationPolicy(this.sessionPolicy);
+    }
+
+    @Test
+    public void verifyOfflineTickets() throws Exception {
+        final TicketGrantingTicketImpl tgt = newTicketGrantingTicket(TokenType.OFFLINE, this.policy);
+        assertTrue(this.policy.isExpired(tgt));
+        verify(this.refreshTokenPolicy).isExpired(tgt);
+
+        final AbstractTicket st = newServiceTicket(tgt, this.policy);
+        assertTrue(this.policy.isExpired(st));
+        verify(this.accessTokenPolicy).isExpired(st);
+    }
+
+    @Test
+    public void verifyOnlineTickets() throws Exception {
+        final TicketGrantingTicketImpl tgt = newTicketGrantingTicket(TokenType.ONLINE, this.policy);
+        assertTrue(this.policy.isExpired(tgt));
+        verify(this.accessTokenPolicy).isExpired(tgt);
+
+        final AbstractTicket st = newServiceTicket(tgt, this.policy);
+        assertTrue(this.policy.isExpired(st));
+        verify(this.sessionPolicy).isExpired(st);
+    }
+
+    @Test
+    public void verifyPersonalTickets() throws Exception {
+        final TicketGrantingTicketImpl tgt = newTicketGrantingTicket(TokenType.PERSONAL, this.policy);
+        assertFalse(this.policy.isExpired(tgt));
+
+        final AbstractTicket st = newServiceTicket(tgt, this.policy);
+        assertTrue(this.policy.isExpired(st));
+        verify(this.sessionPolicy).isExpired(st);
+    }
+
+    @Test
+    public void verifySessionTickets() throws Exception {
+        final TicketGrantingTicketImpl cas = newTicketGrantingTicket(TokenType.CAS, this.policy);
+        assertTrue(this.policy.isExpired(cas));
+        verify(this.sessionPolicy).isExpired(cas);
+
+        final TicketGrantingTicketImpl sso = newTicketGrantingTicket(null, this.policy);
+        assertTrue(this.policy.isExpired(sso));
+        verify(this.sessionPolicy).isExpired(sso);
+    }
+
+    @Test
+    public void verifyTokenTypeFollowsTheAuthentication() throws Exception {
+        final TicketGrantingTicketImpl offline = newTicketGrantingTicket(TokenType.OFFLINE, this.policy);
+        final TicketGrantingTicketImpl personal = newTicketGrantingTicket(TokenType.PERSONAL, this.policy);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(this.policy.isExpired(offline));
+            assertFalse(this.policy.isExpired(personal));
+        }
+        verify(this.refreshTokenPolicy, times(3)).isExpired(offline);
+    }
+
+    /**
+     * Create a ticket granting ticket whose authentication carries the token type.
+     *
+     * @param type the token type, null for a CAS SSO session
+     * @param expirationPolicy the expiration policy of the ticket
+     * @return the ticket granting ticket
+     */
+    private static TicketGrantingTicketImpl newTicketGrantingTicket(final TokenType type,
+                                                                    final ExpirationPolicy expirationPolicy) {
+        final Map<String, Object> attributes = type == null
+                ? Collections.<String, Object>emptyMap()
+                : Collections.<String, Object>singletonMap(OAuthCredential.AUTHENTICATION_ATTRIBUTE_ACCESS_TYPE, type);
+        final Authentication authentication = new ImmutableAuthentication(new DateTime(),
+                Collections.singletonList(mock(CredentialMetaData.class)), mock(Principal.class), attributes,
+                Collections.singletonMap("handler", mock(HandlerResult.class)),
+                Collections.<String, Class<? extends Exception>>emptyMap());
+        return new TicketGrantingTicketImpl("TGT-" + type, authentication, expirationPolicy);
+    }
+
+    /**
+     * Grant a service ticket from the ticket granting ticket.
+     *
+     * @param tgt the ticket granting ticket
+     * @param expirationPolicy the expiration policy of the service ticket
+     * @return the service ticket
+     */
+    private static AbstractTicket newServiceTicket(final TicketGrantingTicketImpl tgt,
+                                                   final ExpirationPolicy expirationPolicy) {
+        return (AbstractTicket) tgt.grantServiceTicket("ST-1", mock(Service.class), expirationPolicy, false);
+    }
+}
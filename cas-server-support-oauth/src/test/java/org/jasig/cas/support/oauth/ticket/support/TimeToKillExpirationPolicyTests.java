@@ -0,0 +1,75 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.support.oauth.ticket.support;
+
+import org.jasig.cas.ticket.TicketState;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * This class tests the {@link TimeToKillExpirationPolicy} class.
+ *
+ * @author Michael Haselton
+ * @since 4.1.5
+ */
+public final class TimeToKillExpirationPolicyTests {
+
+    private static final long TIME_TO_KILL_IN_SECONDS = 10;
+
+    private static final long TIME_TO_KILL_IN_MILLISECONDS = 10000;
+
+    @Test
+    public void verifyExpiresAtIsTheTimeToKillAfterTheLastUse() throws Exception {
+        final TimeToKillExpirationPolicy policy = new TimeToKillExpirationPolicy(TIME_TO_KILL_IN_SECONDS, TimeUnit.SECONDS);
+        final TicketState ticketState = ticketState(System.currentTimeMillis(), 1);
+
+        assertEquals(ticketState.getLastTimeUsed() + TIME_TO_KILL_IN_MILLISECONDS, policy.getExpiresAt(ticketState));
+        assertFalse(policy.isExpired(ticketState));
+    }
+
+    @Test
+    public void verifyExpiredAfterTheTimeToKill() throws Exception {
+        final TimeToKillExpirationPolicy policy = new TimeToKillExpirationPolicy(TIME_TO_KILL_IN_SECONDS, TimeUnit.SECONDS);
+
+        assertTrue(policy.isExpired(ticketState(System.currentTimeMillis() - TIME_TO_KILL_IN_MILLISECONDS - 1, 1)));
+    }
+
+    @Test
+    public void verifyExpiredAfterTheNumberOfUses() throws Exception {
+        final TimeToKillExpirationPolicy policy = new TimeToKillExpirationPolicy(1, TIME_TO_KILL_IN_SECONDS, TimeUnit.SECONDS);
+
+        assertFalse(policy.isExpired(ticketState(System.currentTimeMillis(), 0)));
+        assertTrue(policy.isExpired(ticketState(System.currentTimeMillis(), 1)));
+    }
+
+    private static TicketState ticketState(final long lastTimeUsed, final int countOfUses) {
+        final TicketState ticketState = mock(TicketState.class);
+        when(ticketState.getLastTimeUsed()).thenReturn(lastTimeUsed);
+        when(ticketState.getCreationTime()).thenReturn(lastTimeUsed);
+        when(ticketState.getCountOfUses()).thenReturn(countOfUses);
+        return ticketState;
+    }
+}
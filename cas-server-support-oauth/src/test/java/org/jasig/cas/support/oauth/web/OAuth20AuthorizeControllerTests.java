@@ -18,22 +18,34 @@
  */
 package org.jasig.cas.support.oauth.web;
 
+import org.jasig.cas.CasProtocolConstants;
 import org.jasig.cas.support.oauth.CentralOAuthService;
 import org.jasig.cas.support.oauth.OAuthConstants;
 import org.jasig.cas.support.oauth.services.OAuthRegisteredService;
 import org.jasig.cas.support.oauth.token.TokenType;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.jasig.cas.web.support.CookieRetrievingCookieGenerator;
 import org.junit.Test;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.view.RedirectView;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -83,6 +95,8 @@ public final class OAuth20AuthorizeControllerTests {
 
     private static final String STATE = "state";
 
+    private static final String TGT_ID = "TGT-1";
+
     @Test
     public void verifyInvalidResponseType() throws Exception {
         final MockHttpServletRequest mockRequest = new MockHttpServletRequest("GET", CONTEXT
@@ -296,6 +310,92 @@ public final class OAuth20AuthorizeControllerTests {
         assertEquals(STATE, session.getAttribute(OAuthConstants.OAUTH20_STATE));
     }
 
+    @Test
+    public void verifySsoSessionSkipsLogin() throws Exception {
+        final TicketGrantingTicket ticketGrantingTicket = mock(TicketGrantingTicket.class);
+        when(ticketGrantingTicket.getId()).thenReturn(TGT_ID);
+        final TicketRegistry ticketRegistry = mock(TicketRegistry.class);
+        when(ticketRegistry.getTicket(TGT_ID, TicketGrantingTicket.class)).thenReturn(ticketGrantingTicket);
+
+        final MockHttpServletRequest mockRequest = newAuthorizeRequest();
+        final ModelAndView modelAndView = newSsoWrapperController(ticketRegistry)
+                .handleRequest(mockRequest, new MockHttpServletResponse());
+
+        final RedirectView redirectView = (RedirectView) modelAndView.getView();
+        assertFalse(redirectView.getUrl().startsWith(CAS_URL));
+        assertTrue(redirectView.getUrl().endsWith(OAuthConstants.CALLBACK_AUTHORIZE_URL));
+        assertEquals(TGT_ID, mockRequest.getSession().getAttribute(OAuthConstants.OAUTH20_LOGIN_TICKET_ID));
+        verify(ticketRegistry, never()).addTicket(any(Ticket.class));
+        verify(ticketRegistry, never()).deleteTicket(anyString());
+    }
+
+    @Test
+    public void verifyExpiredSsoSessionGoesToLogin() throws Exception {
+        final TicketGrantingTicket ticketGrantingTicket = mock(TicketGrantingTicket.class);
+        when(ticketGrantingTicket.isExpired()).thenReturn(true);
+        final TicketRegistry ticketRegistry = mock(TicketRegistry.class);
+        when(ticketRegistry.getTicket(TGT_ID, TicketGrantingTicket.class)).thenReturn(ticketGrantingTicket);
+
+        final MockHttpServletRequest mockRequest = newAuthorizeRequest();
+        final ModelAndView modelAndView = newSsoWrapperController(ticketRegistry)
+                .handleRequest(mockRequest, new MockHttpServletResponse());
+
+        final RedirectView redirectView = (RedirectView) modelAndView.getView();
+        assertTrue(redirectView.getUrl().startsWith(CAS_URL + "?service=http"));
+        assertNull(mockRequest.getSession().getAttribute(OAuthConstants.OAUTH20_LOGIN_TICKET_ID));
+    }
+
+    @Test
+    public void verifyRenewGoesToLogin() throws Exception {
+        final TicketGrantingTicket ticketGrantingTicket = mock(TicketGrantingTicket.class);
+        when(ticketGrantingTicket.getId()).thenReturn(TGT_ID);
+        final TicketRegistry ticketRegistry = mock(TicketRegistry.class);
+        when(ticketRegistry.getTicket(TGT_ID, TicketGrantingTicket.class)).thenReturn(ticketGrantingTicket);
+
+        final MockHttpServletRequest mockRequest = newAuthorizeRequest();
+        mockRequest.setParameter(CasProtocolConstants.PARAMETER_RENEW, "true");
+        final ModelAndView modelAndView = newSsoWrapperController(ticketRegistry)
+                .handleRequest(mockRequest, new MockHttpServletResponse());
+
+        final RedirectView redirectView = (RedirectView) modelAndView.getView();
+        assertTrue(redirectView.getUrl().startsWith(CAS_URL + "?service=http"));
+        assertTrue(redirectView.getUrl().endsWith("&" + CasProtocolConstants.PARAMETER_RENEW + "=true"));
+        assertNull(mockRequest.getSession().getAttribute(OAuthConstants.OAUTH20_LOGIN_TICKET_ID));
+        verify(ticketRegistry, never()).getTicket(TGT_ID, TicketGrantingTicket.class);
+    }
+
+    /**
+     * @return an authorize request of the registered client
+     */
+    private MockHttpServletRequest newAuthorizeRequest() {
+        final MockHttpServletRequest mockRequest = new MockHttpServletRequest("GET", CONTEXT
+                + OAuthConstants.AUTHORIZE_URL);
+        mockRequest.setParameter(OAuthConstants.CLIENT_ID, CLIENT_ID);
+        mockRequest.setParameter(OAuthConstants.REDIRECT_URI, REDIRECT_URI);
+        return mockRequest;
+    }
+
+    /**
+     * @param ticketRegistry the ticket registry
+     * @return a wrapper controller whose ticket granting ticket cookie holds {@link #TGT_ID}
+     * @throws Exception if the controller fails to initialize
+     */
+    private OAuth20WrapperController newSsoWrapperController(final TicketRegistry ticketRegistry) throws Exception {
+        final CentralOAuthService centralOAuthService = mock(CentralOAuthService.class);
+        final OAuthRegisteredService service = getRegisteredService(REDIRECT_URI, SERVICE_NAME);
+        when(centralOAuthService.getRegisteredService(CLIENT_ID)).thenReturn(service);
+        final CookieRetrievingCookieGenerator cookieGenerator = mock(CookieRetrievingCookieGenerator.class);
+        when(cookieGenerator.retrieveCookieValue(any(HttpServletRequest.class))).thenReturn(TGT_ID);
+
+        final OAuth20WrapperController oauth20WrapperController = new OAuth20WrapperController();
+        oauth20WrapperController.setCentralOAuthService(centralOAuthService);
+        oauth20WrapperController.setTicketRegistry(ticketRegistry);
+        oauth20WrapperController.setTicketGrantingTicketCookieGenerator(cookieGenerator);
+        oauth20WrapperController.setLoginUrl(CAS_URL);
+        oauth20WrapperController.afterPropertiesSet();
+        return oauth20WrapperController;
+    }
+
     private OAuthRegisteredService getRegisteredService(final String serviceId, final String name) {
         final OAuthRegisteredService registeredServiceImpl = new OAuthRegisteredService();
 
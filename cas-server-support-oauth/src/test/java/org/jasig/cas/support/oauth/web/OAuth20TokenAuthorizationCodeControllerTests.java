@@ -22,6 +22,7 @@ import static org.junit.Assert.*;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.http.HttpStatus;
@@ -34,6 +35,7 @@ import org.jasig.cas.support.oauth.token.AuthorizationCode;
 import org.jasig.cas.support.oauth.token.InvalidTokenException;
 import org.jasig.cas.support.oauth.token.RefreshToken;
 import org.jasig.cas.support.oauth.token.TokenType;
+import org.jasig.cas.support.oauth.web.support.OAuth20RateLimiter;
 import org.jasig.cas.ticket.ServiceTicket;
 import org.junit.Test;
 import org.springframework.mock.web.MockHttpServletRequest;
@@ -483,6 +485,72 @@ public final class OAuth20TokenAuthorizationCodeControllerTests {
         assertEquals(expectedObj.get("access_token").asText(), receivedObj.get("access_token").asText());
     }
 
+    @Test
+    public void verifyClientRateLimitedOnceAuthenticated() throws Exception {
+        final ServiceTicket serviceTicket = mock(ServiceTicket.class);
+        when(serviceTicket.getCreationTime()).thenReturn(new Date().getTime());
+
+        final AuthorizationCode authorizationCode = mock(AuthorizationCode.class);
+        when(authorizationCode.getTicket()).thenReturn(serviceTicket);
+        when(authorizationCode.getType()).thenReturn(TokenType.ONLINE);
+
+        final OAuthRegisteredService service = getRegisteredService(REDIRECT_URI, CLIENT_SECRET);
+        service.setRateLimitPerMinute(1);
+        service.setRateLimitBurst(1);
+
+        final AccessToken accessToken = mock(AccessToken.class);
+        when(accessToken.getId()).thenReturn(AT_ID);
+        when(accessToken.getTicket()).thenReturn(serviceTicket);
+
+        final CentralOAuthService centralOAuthService = mock(CentralOAuthService.class);
+        when(centralOAuthService.getToken(CODE, AuthorizationCode.class)).thenReturn(authorizationCode);
+        when(centralOAuthService.getRegisteredService(CLIENT_ID)).thenReturn(service);
+        when(centralOAuthService.grantOnlineAccessToken(authorizationCode)).thenReturn(accessToken);
+
+        final OAuth20RateLimiter rateLimiter = new OAuth20RateLimiter(centralOAuthService);
+        rateLimiter.afterPropertiesSet();
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final OAuth20WrapperController oauth20WrapperController = new OAuth20WrapperController();
+        oauth20WrapperController.setCentralOAuthService(centralOAuthService);
+        oauth20WrapperController.setTimeout(TIMEOUT);
+        oauth20WrapperController.setMetricRegistry(metricRegistry);
+        oauth20WrapperController.setRateLimiter(rateLimiter);
+        oauth20WrapperController.afterPropertiesSet();
+
+        // a request with the wrong secret does not spend the quota of the client
+        MockHttpServletResponse mockResponse = new MockHttpServletResponse();
+        oauth20WrapperController.handleRequest(newTokenRequest(WRONG_CLIENT_SECRET), mockResponse);
+        assertEquals(HttpStatus.SC_BAD_REQUEST, mockResponse.getStatus());
+
+        mockResponse = new MockHttpServletResponse();
+        oauth20WrapperController.handleRequest(newTokenRequest(CLIENT_SECRET), mockResponse);
+        assertEquals(HttpStatus.SC_OK, mockResponse.getStatus());
+
+        mockResponse = new MockHttpServletResponse();
+        oauth20WrapperController.handleRequest(newTokenRequest(CLIENT_SECRET), mockResponse);
+        assertEquals(429, mockResponse.getStatus());
+        assertEquals("60", mockResponse.getHeader("Retry-After"));
+        final JsonNode error = new ObjectMapper().readTree(mockResponse.getContentAsString());
+        assertEquals(OAuthConstants.TEMPORARILY_UNAVAILABLE, error.get("error").asText());
+        assertEquals(1, metricRegistry.meter(MetricRegistry.name(OAuth20WrapperController.class,
+                OAuthConstants.TOKEN_URL, OAuthConstants.AUTHORIZATION_CODE, "limited")).getCount());
+    }
+
+    /**
+     * @param clientSecret the client secret
+     * @return an authorization code token request of the client
+     */
+    private static MockHttpServletRequest newTokenRequest(final String clientSecret) {
+        final MockHttpServletRequest mockRequest = new MockHttpServletRequest("POST", CONTEXT
+                + OAuthConstants.TOKEN_URL);
+        mockRequest.setParameter(OAuthConstants.GRANT_TYPE, OAuthConstants.AUTHORIZATION_CODE);
+        mockRequest.setParameter(OAuthConstants.CODE, CODE);
+        mockRequest.setParameter(OAuthConstants.CLIENT_ID, CLIENT_ID);
+        mockRequest.setParameter(OAuthConstants.CLIENT_SECRET, clientSecret);
+        mockRequest.setParameter(OAuthConstants.REDIRECT_URI, REDIRECT_URI);
+        return mockRequest;
+    }
+
     private OAuthRegisteredService getRegisteredService(final String serviceId, final String secret) {
         final OAuthRegisteredService registeredServiceImpl = new OAuthRegisteredService();
 
@@ -19,12 +19,18 @@
 package org.jasig.cas.support.oauth.web;
 
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.http.HttpStatus;
+import org.jasig.cas.support.oauth.CentralOAuthService;
 import org.jasig.cas.support.oauth.InvalidParameterException;
 import org.jasig.cas.support.oauth.OAuthConstants;
+import org.jasig.cas.support.oauth.token.Token;
+import org.jasig.cas.support.oauth.web.support.OAuth20RateLimiter;
 import org.junit.Test;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
@@ -203,4 +209,85 @@ public final class OAuth20WrapperControllerTests {
         assertEquals("error=" + OAuthConstants.INVALID_REQUEST, mockResponse.getContentAsString());
     }
 
+
+    @Test
+    public void verifyRoutesAreTimed() throws Exception {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final Token token = mock(Token.class);
+        final CentralOAuthService centralOAuthService = mock(CentralOAuthService.class);
+        when(centralOAuthService.getToken("T-1")).thenReturn(token);
+        when(centralOAuthService.revokeToken(token)).thenReturn(true);
+        final OAuth20WrapperController oauth20WrapperController = new OAuth20WrapperController();
+        oauth20WrapperController.setCentralOAuthService(centralOAuthService);
+        oauth20WrapperController.setMetricRegistry(metricRegistry);
+        oauth20WrapperController.afterPropertiesSet();
+
+        oauth20WrapperController.handleRequest(
+                new MockHttpServletRequest("GET", CONTEXT + OAuthConstants.PROFILE_URL), new MockHttpServletResponse());
+        final MockHttpServletRequest tokenRequest = new MockHttpServletRequest("POST", CONTEXT + OAuthConstants.TOKEN_URL);
+        tokenRequest.setParameter(OAuthConstants.GRANT_TYPE, OAuthConstants.REFRESH_TOKEN);
+        oauth20WrapperController.handleRequest(tokenRequest, new MockHttpServletResponse());
+        final MockHttpServletRequest revokeRequest = new MockHttpServletRequest("POST", CONTEXT + OAuthConstants.REVOKE_URL);
+        revokeRequest.setParameter(OAuthConstants.TOKEN, "T-1");
+        oauth20WrapperController.handleRequest(revokeRequest, new MockHttpServletResponse());
+
+        assertEquals(1, metricRegistry.timer(
+                MetricRegistry.name(OAuth20WrapperController.class, OAuthConstants.PROFILE_URL)).getCount());
+        assertEquals(1, metricRegistry.timer(MetricRegistry.name(OAuth20WrapperController.class,
+                OAuthConstants.TOKEN_URL, OAuthConstants.REFRESH_TOKEN)).getCount());
+        assertEquals(1, metricRegistry.timer(
+                MetricRegistry.name(OAuth20WrapperController.class, OAuthConstants.REVOKE_URL, "token")).getCount());
+        assertEquals(0, metricRegistry.getTimers().get(
+                MetricRegistry.name(OAuth20WrapperController.class, OAuthConstants.REVOKE_URL, "client")).getCount());
+    }
+
+    @Test
+    public void verifyResponsesAreMeteredByStatusClass() throws Exception {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final OAuth20WrapperController oauth20WrapperController = new OAuth20WrapperController();
+        oauth20WrapperController.setCentralOAuthService(mock(CentralOAuthService.class));
+        oauth20WrapperController.setMetricRegistry(metricRegistry);
+        oauth20WrapperController.afterPropertiesSet();
+
+        final MockHttpServletResponse mockResponse = new MockHttpServletResponse();
+        oauth20WrapperController.handleRequest(
+                new MockHttpServletRequest("GET", CONTEXT + OAuthConstants.PROFILE_URL), mockResponse);
+        oauth20WrapperController.handleRequest(
+                new MockHttpServletRequest("GET", CONTEXT + "wrongmethod"), new MockHttpServletResponse());
+
+        final String profile = MetricRegistry.name(OAuth20WrapperController.class, OAuthConstants.PROFILE_URL);
+        assertEquals(1, metricRegistry.meter(
+                MetricRegistry.name(profile, "responses", mockResponse.getStatus() / 100 + "xx")).getCount());
+        assertEquals(0, metricRegistry.meter(MetricRegistry.name(profile, "exceptions")).getCount());
+        assertEquals(1, metricRegistry.meter(
+                MetricRegistry.name(OAuth20WrapperController.class, "unrouted")).getCount());
+    }
+
+    @Test
+    public void verifyRateLimitedRequestGetsRetryAfter() throws Exception {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final CentralOAuthService centralOAuthService = mock(CentralOAuthService.class);
+        final OAuth20RateLimiter rateLimiter = new OAuth20RateLimiter(centralOAuthService);
+        rateLimiter.setIpAddressPerMinute(1);
+        rateLimiter.setIpAddressBurst(1);
+        rateLimiter.afterPropertiesSet();
+        final OAuth20WrapperController oauth20WrapperController = new OAuth20WrapperController();
+        oauth20WrapperController.setCentralOAuthService(centralOAuthService);
+        oauth20WrapperController.setMetricRegistry(metricRegistry);
+        oauth20WrapperController.setRateLimiter(rateLimiter);
+        oauth20WrapperController.afterPropertiesSet();
+
+        oauth20WrapperController.handleRequest(
+                new MockHttpServletRequest("GET", CONTEXT + OAuthConstants.PROFILE_URL), new MockHttpServletResponse());
+        final MockHttpServletResponse mockResponse = new MockHttpServletResponse();
+        oauth20WrapperController.handleRequest(
+                new MockHttpServletRequest("GET", CONTEXT + OAuthConstants.PROFILE_URL), mockResponse);
+
+        assertEquals(429, mockResponse.getStatus());
+        assertEquals("60", mockResponse.getHeader("Retry-After"));
+        final JsonNode error = new ObjectMapper().readTree(mockResponse.getContentAsString());
+        assertEquals(OAuthConstants.TEMPORARILY_UNAVAILABLE, error.get("error").asText());
+        assertEquals(1, metricRegistry.meter(MetricRegistry.name(OAuth20WrapperController.class,
+                OAuthConstants.PROFILE_URL, "limited")).getCount());
+    }
 }
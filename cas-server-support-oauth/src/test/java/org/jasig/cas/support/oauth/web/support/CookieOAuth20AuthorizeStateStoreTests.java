@@ -0,0 +1,222 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.support.oauth.web.support;
+
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.principal.Principal;
+import org.jasig.cas.support.oauth.CentralOAuthService;
+import org.jasig.cas.support.oauth.OAuthConstants;
+import org.jasig.cas.support.oauth.scope.Scope;
+import org.jasig.cas.support.oauth.services.OAuthRegisteredService;
+import org.jasig.cas.support.oauth.token.AuthorizationCode;
+import org.jasig.cas.support.oauth.token.TokenType;
+import org.jasig.cas.support.oauth.web.OAuth20WrapperController;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.jasig.cas.util.CipherExecutor;
+import org.jasig.cas.web.support.CookieRetrievingCookieGenerator;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.view.RedirectView;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * This class tests the {@link CookieOAuth20AuthorizeStateStore} class.
+ *
+ * @author Michael Haselton
+ * @since 4.1.5
+ */
+public final class CookieOAuth20AuthorizeStateStoreTests {
+
+    private static final String COOKIE_NAME = "OAUTH20_AUTHORIZE";
+
+    private static final String CLIENT_ID = "1";
+
+    private static final String REDIRECT_URI = "http://someurl";
+
+    private static final String TGT_ID = "TGT-1";
+
+    private static final String CODE = "AC-1";
+
+    private CookieOAuth20AuthorizeStateStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        this.store = new CookieOAuth20AuthorizeStateStore(new SigningCipherExecutor());
+    }
+
+    @Test
+    public void verifyStateRoundTrips() throws Exception {
+        final OAuth20AuthorizeState state = new OAuth20AuthorizeState();
+        state.setClientId(CLIENT_ID);
+        state.setTokenType(TokenType.OFFLINE);
+        state.setScopeSet(Collections.singleton("scope1"));
+
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        this.store.save(new MockHttpServletRequest(), response, state);
+        final Cookie cookie = response.getCookie(COOKIE_NAME);
+        assertTrue(cookie.isHttpOnly());
+
+        final OAuth20AuthorizeState loaded = this.store.load(newRequest(cookie));
+        assertEquals(CLIENT_ID, loaded.getClientId());
+        assertEquals(TokenType.OFFLINE, loaded.getTokenType());
+        assertEquals(Collections.singleton("scope1"), loaded.getScopeSet());
+    }
+
+    @Test
+    public void verifyTamperedStateIsIgnored() throws Exception {
+        final OAuth20AuthorizeState state = new OAuth20AuthorizeState();
+        state.setClientId(CLIENT_ID);
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        this.store.save(new MockHttpServletRequest(), response, state);
+        final Cookie cookie = response.getCookie(COOKIE_NAME);
+
+        final OAuth20AuthorizeState loaded = this.store.load(
+                newRequest(new Cookie(COOKIE_NAME, cookie.getValue().replace(CLIENT_ID, "2"))));
+        assertNull(loaded.getClientId());
+    }
+
+    @Test
+    public void verifyExpiredStateIsIgnored() throws Exception {
+        final OAuth20AuthorizeState state = new OAuth20AuthorizeState();
+        state.setClientId(CLIENT_ID);
+        state.setIssuedAt(System.currentTimeMillis() - 2000);
+        this.store.setMaxAge(1);
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        this.store.save(new MockHttpServletRequest(), response, state);
+
+        assertNull(this.store.load(newRequest(response.getCookie(COOKIE_NAME))).getClientId());
+    }
+
+    @Test
+    public void verifyAuthorizeFlowWithoutHttpSession() throws Exception {
+        final Principal principal = mock(Principal.class);
+        when(principal.getId()).thenReturn("principal");
+        final Authentication authentication = mock(Authentication.class);
+        when(authentication.getPrincipal()).thenReturn(principal);
+        final TicketGrantingTicket ticketGrantingTicket = mock(TicketGrantingTicket.class);
+        when(ticketGrantingTicket.getId()).thenReturn(TGT_ID);
+        when(ticketGrantingTicket.getAuthentication()).thenReturn(authentication);
+        final TicketRegistry ticketRegistry = mock(TicketRegistry.class);
+        when(ticketRegistry.getTicket(TGT_ID, TicketGrantingTicket.class)).thenReturn(ticketGrantingTicket);
+        when(ticketRegistry.getTicket(TGT_ID)).thenReturn(ticketGrantingTicket);
+
+        final OAuthRegisteredService service = new OAuthRegisteredService();
+        service.setName("serviceName");
+        service.setServiceId(REDIRECT_URI);
+        service.setClientId(CLIENT_ID);
+        final Map<String, Scope> scopeMap = Collections.singletonMap("scope1", new Scope("scope1", "description"));
+        final AuthorizationCode authorizationCode = mock(AuthorizationCode.class);
+        when(authorizationCode.getId()).thenReturn(CODE);
+        final CentralOAuthService centralOAuthService = mock(CentralOAuthService.class);
+        when(centralOAuthService.getRegisteredService(CLIENT_ID)).thenReturn(service);
+        when(centralOAuthService.getScopes(anySetOf(String.class))).thenReturn(scopeMap);
+        when(centralOAuthService.grantAuthorizationCode(eq(TokenType.ONLINE), eq(CLIENT_ID), eq(TGT_ID),
+                eq(REDIRECT_URI), anySetOf(String.class))).thenReturn(authorizationCode);
+
+        final CookieRetrievingCookieGenerator ticketGrantingTicketCookieGenerator =
+                mock(CookieRetrievingCookieGenerator.class);
+        when(ticketGrantingTicketCookieGenerator.retrieveCookieValue(any(HttpServletRequest.class))).thenReturn(TGT_ID);
+
+        final OAuth20WrapperController oauth20WrapperController = new OAuth20WrapperController();
+        oauth20WrapperController.setCentralOAuthService(centralOAuthService);
+        oauth20WrapperController.setTicketRegistry(ticketRegistry);
+        oauth20WrapperController.setTicketGrantingTicketCookieGenerator(ticketGrantingTicketCookieGenerator);
+        oauth20WrapperController.setAuthorizeStateStore(this.store);
+        oauth20WrapperController.setLoginUrl("https://casserver/login");
+        oauth20WrapperController.afterPropertiesSet();
+
+        // authorize, carried straight to the callback by the sso session
+        final MockHttpServletRequest authorizeRequest = new MockHttpServletRequest(
+                "GET", "/oauth2.0/" + OAuthConstants.AUTHORIZE_URL);
+        authorizeRequest.setParameter(OAuthConstants.CLIENT_ID, CLIENT_ID);
+        authorizeRequest.setParameter(OAuthConstants.REDIRECT_URI, REDIRECT_URI);
+        authorizeRequest.setParameter(OAuthConstants.SCOPE, "scope1");
+        authorizeRequest.setParameter(OAuthConstants.STATE, "xyz");
+        final MockHttpServletResponse authorizeResponse = new MockHttpServletResponse();
+        oauth20WrapperController.handleRequest(authorizeRequest, authorizeResponse);
+        assertNull(authorizeRequest.getSession(false));
+
+        // callback, which asks for approval
+        final MockHttpServletRequest callbackRequest = new MockHttpServletRequest(
+                "GET", "/oauth2.0/" + OAuthConstants.CALLBACK_AUTHORIZE_URL);
+        callbackRequest.setCookies(authorizeResponse.getCookie(COOKIE_NAME));
+        final MockHttpServletResponse callbackResponse = new MockHttpServletResponse();
+        final ModelAndView confirm = oauth20WrapperController.handleRequest(callbackRequest, callbackResponse);
+        assertEquals(OAuthConstants.CONFIRM_VIEW, confirm.getViewName());
+        assertNull(callbackRequest.getSession(false));
+
+        // approval, on any node
+        final MockHttpServletRequest actionRequest = new MockHttpServletRequest(
+                "GET", "/oauth2.0/" + OAuthConstants.CALLBACK_AUTHORIZE_ACTION_URL);
+        actionRequest.setParameter(OAuthConstants.OAUTH20_APPROVAL_PROMPT_ACTION,
+                OAuthConstants.OAUTH20_APPROVAL_PROMPT_ACTION_ALLOW);
+        actionRequest.setCookies(callbackResponse.getCookie(COOKIE_NAME));
+        final MockHttpServletResponse actionResponse = new MockHttpServletResponse();
+        final ModelAndView redirect = oauth20WrapperController.handleRequest(actionRequest, actionResponse);
+
+        assertEquals(REDIRECT_URI + "?code=" + CODE + "&state=xyz", ((RedirectView) redirect.getView()).getUrl());
+        assertEquals(0, actionResponse.getCookie(COOKIE_NAME).getMaxAge());
+        assertNull(actionRequest.getSession(false));
+    }
+
+    /**
+     * @param cookie the authorize state cookie
+     * @return a request carrying the cookie
+     */
+    private static MockHttpServletRequest newRequest(final Cookie cookie) {
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(cookie);
+        return request;
+    }
+
+    /**
+     * Stands in for the signing and encryption of the cookie value, rejecting any value it did not encode.
+     */
+    private static final class SigningCipherExecutor implements CipherExecutor {
+
+        @Override
+        public String encode(final String value) {
+            return value + '.' + value.hashCode();
+        }
+
+        @Override
+        public String decode(final String value) {
+            final int separator = value.lastIndexOf('.');
+            final String payload = value.substring(0, separator);
+            return String.valueOf(payload.hashCode()).equals(value.substring(separator + 1)) ? payload : null;
+        }
+    }
+}
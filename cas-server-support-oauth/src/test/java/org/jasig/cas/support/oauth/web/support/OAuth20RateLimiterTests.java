@@ -0,0 +1,195 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.support.oauth.web.support;
+
+import com.google.common.base.Ticker;
+import org.jasig.cas.support.oauth.CentralOAuthService;
+import org.jasig.cas.support.oauth.OAuthConstants;
+import org.jasig.cas.support.oauth.services.OAuthRegisteredService;
+import org.jasig.inspektr.common.web.ClientInfo;
+import org.jasig.inspektr.common.web.ClientInfoHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * This class tests the {@link OAuth20RateLimiter} class.
+ *
+ * @author Michael Haselton
+ * @since 4.1.5
+ */
+public final class OAuth20RateLimiterTests {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private CentralOAuthService centralOAuthService;
+
+    private OAuth20RateLimiter rateLimiter;
+
+    private final AtomicLong nanos = new AtomicLong(System.nanoTime());
+
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    };
+
+    private long now;
+
+    @Before
+    public void setUp() throws Exception {
+        this.centralOAuthService = mock(CentralOAuthService.class);
+        this.rateLimiter = new OAuth20RateLimiter(this.centralOAuthService);
+        this.rateLimiter.setIpAddressPerMinute(60);
+        this.rateLimiter.setIpAddressBurst(2);
+        this.rateLimiter.setTicker(this.ticker);
+        this.now = this.nanos.get();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ClientInfoHolder.clear();
+    }
+
+    @Test
+    public void verifyBurstThenRetryAfter() throws Exception {
+        this.rateLimiter.afterPropertiesSet();
+        final MockHttpServletRequest request = newRequest("10.0.0.1");
+
+        assertEquals(0, this.rateLimiter.tryAcquire(request, this.now));
+        assertEquals(0, this.rateLimiter.tryAcquire(request, this.now));
+        assertEquals(SECOND, this.rateLimiter.tryAcquire(request, this.now));
+        assertEquals(0, this.rateLimiter.tryAcquire(newRequest("10.0.0.2"), this.now));
+        assertEquals(0, this.rateLimiter.tryAcquire(request, this.now + SECOND));
+    }
+
+    @Test
+    public void verifyRegisteredServiceQuota() throws Exception {
+        final OAuthRegisteredService service = new OAuthRegisteredService();
+        service.setRateLimitPerMinute(1);
+        service.setRateLimitBurst(1);
+        when(this.centralOAuthService.getRegisteredService("client")).thenReturn(service);
+        this.rateLimiter.afterPropertiesSet();
+
+        assertEquals(0, this.rateLimiter.tryAcquireClient("client", this.now));
+        assertEquals(TimeUnit.MINUTES.toNanos(1) - SECOND, this.rateLimiter.tryAcquireClient("client", this.now + SECOND));
+        assertEquals(0, this.rateLimiter.tryAcquireClient("other", this.now + SECOND));
+    }
+
+    @Test
+    public void verifyClientIdOfTheRequestIsNotLimited() throws Exception {
+        final OAuthRegisteredService service = new OAuthRegisteredService();
+        service.setRateLimitPerMinute(1);
+        service.setRateLimitBurst(1);
+        when(this.centralOAuthService.getRegisteredService("client")).thenReturn(service);
+        this.rateLimiter.setIpAddressPerMinute(0);
+        this.rateLimiter.afterPropertiesSet();
+
+        // a caller that only knows the client id cannot spend the quota of the client
+        final MockHttpServletRequest attacker = newRequest("10.0.0.2");
+        attacker.setParameter(OAuthConstants.CLIENT_ID, "client");
+        assertEquals(0, this.rateLimiter.tryAcquire(attacker, this.now));
+        assertEquals(0, this.rateLimiter.tryAcquire(attacker, this.now));
+        assertEquals(0, this.rateLimiter.tryAcquireClient("client", this.now));
+        assertEquals(TimeUnit.MINUTES.toNanos(1), this.rateLimiter.tryAcquireClient("client", this.now));
+        verify(this.centralOAuthService, times(1)).getRegisteredService(anyString());
+    }
+
+    @Test
+    public void verifyIpAddressFromClientInfo() throws Exception {
+        this.rateLimiter.setIpAddressBurst(1);
+        this.rateLimiter.afterPropertiesSet();
+        ClientInfoHolder.setClientInfo(new ClientInfo("10.0.0.100", "192.0.2.1"));
+
+        assertEquals(0, this.rateLimiter.tryAcquire(newRequest("10.0.0.1"), this.now));
+        assertEquals(SECOND, this.rateLimiter.tryAcquire(newRequest("10.0.0.2"), this.now));
+    }
+
+    @Test
+    public void verifyAccessTokenFromBearerHeader() throws Exception {
+        this.rateLimiter.setAccessTokenPerMinute(60);
+        this.rateLimiter.setAccessTokenBurst(1);
+        this.rateLimiter.afterPropertiesSet();
+
+        final MockHttpServletRequest first = newRequest("10.0.0.1");
+        first.addHeader("Authorization", OAuthConstants.BEARER_TOKEN + " AT-1");
+        final MockHttpServletRequest second = newRequest("10.0.0.2");
+        second.setParameter(OAuthConstants.ACCESS_TOKEN, "AT-1");
+
+        assertEquals(0, this.rateLimiter.tryAcquire(first, this.now));
+        assertEquals(SECOND, this.rateLimiter.tryAcquire(second, this.now));
+    }
+
+    @Test
+    public void verifyZeroQuotaDisablesTheLimit() throws Exception {
+        this.rateLimiter.setIpAddressPerMinute(0);
+        this.rateLimiter.afterPropertiesSet();
+        final MockHttpServletRequest request = newRequest("10.0.0.1");
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, this.rateLimiter.tryAcquire(request, this.now));
+        }
+        assertEquals(0, this.rateLimiter.getBucketCount());
+    }
+
+    @Test
+    public void verifyIdleBucketsExpire() throws Exception {
+        this.rateLimiter.setTimeToIdle(60);
+        this.rateLimiter.afterPropertiesSet();
+        this.rateLimiter.tryAcquire(newRequest("10.0.0.1"), this.now);
+        this.rateLimiter.tryAcquire(newRequest("10.0.0.2"), this.now);
+        assertEquals(2, this.rateLimiter.getBucketCount());
+
+        this.nanos.addAndGet(61 * SECOND);
+        this.rateLimiter.tryAcquire(newRequest("10.0.0.3"), this.nanos.get());
+        assertEquals(1, this.rateLimiter.getBucketCount());
+    }
+
+    @Test
+    public void verifyBucketCountIsBounded() throws Exception {
+        this.rateLimiter.setMaximumSize(1);
+        this.rateLimiter.afterPropertiesSet();
+        this.rateLimiter.tryAcquire(newRequest("10.0.0.1"), this.now);
+        this.rateLimiter.tryAcquire(newRequest("10.0.0.2"), this.now);
+
+        assertEquals(1, this.rateLimiter.getBucketCount());
+    }
+
+    /**
+     * @param remoteAddr the source ip address
+     * @return a token request from the address
+     */
+    private static MockHttpServletRequest newRequest(final String remoteAddr) {
+        final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/oauth2/token");
+        request.setRemoteAddr(remoteAddr);
+        return request;
+    }
+}
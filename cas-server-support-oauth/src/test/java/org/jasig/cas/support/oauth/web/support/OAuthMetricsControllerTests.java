@@ -0,0 +1,70 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.support.oauth.web.support;
+
+import com.codahale.metrics.MetricRegistry;
+import org.jasig.cas.support.oauth.CentralOAuthServiceImpl;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class tests the {@link OAuthMetricsController} class.
+ *
+ * @author Michael Haselton
+ * @since 4.1.5
+ */
+public final class OAuthMetricsControllerTests {
+
+    private static final String TIMER = "org_jasig_cas_support_oauth_CentralOAuthServiceImpl_GET_TOKEN_TIMER_seconds";
+
+    @Test
+    public void verifyOAuthMetricsAreReported() throws Exception {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        metricRegistry.timer(MetricRegistry.name(CentralOAuthServiceImpl.class, "GET_TOKEN_TIMER"))
+                .update(2, TimeUnit.SECONDS);
+        metricRegistry.meter(MetricRegistry.name(CentralOAuthServiceImpl.class, "GET_TOKEN_METER")).mark(3);
+        metricRegistry.meter("org.jasig.cas.CentralAuthenticationServiceImpl.GRANT_SERVICE_TICKET_METER").mark();
+
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        new OAuthMetricsController(metricRegistry).handleRequest(new MockHttpServletRequest("GET", "/statistics/oauth"),
+                response);
+
+        final String body = response.getContentAsString();
+        assertEquals(OAuthMetricsController.CONTENT_TYPE, response.getContentType());
+        assertTrue(body.contains("# TYPE " + TIMER + " summary\n"));
+        assertTrue(body.contains(TIMER + "{quantile=\"0.99\"} 2.0\n"));
+        assertFalse(body.contains(TIMER + "_sum"));
+        assertTrue(body.contains(TIMER + "_count 1\n"));
+        assertTrue(body.contains("org_jasig_cas_support_oauth_CentralOAuthServiceImpl_GET_TOKEN_METER_total 3\n"));
+        assertFalse(body.contains("CentralAuthenticationServiceImpl"));
+    }
+
+    @Test
+    public void verifyNamesAreSanitized() throws Exception {
+        assertEquals("a_b_2xx", OAuthMetricsController.sanitize("a.b.2xx"));
+        assertEquals("_xx", OAuthMetricsController.sanitize("2xx"));
+    }
+}
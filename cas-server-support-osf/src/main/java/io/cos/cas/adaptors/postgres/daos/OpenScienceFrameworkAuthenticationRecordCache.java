@@ -0,0 +1,228 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.cos.cas.adaptors.postgres.daos;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.cos.cas.adaptors.postgres.datasources.OpenScienceFrameworkRoutingDataSource;
+import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkAuthenticationRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+import javax.validation.constraints.NotNull;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Open Science Framework Authentication Record Cache.
+ *
+ * A per-node, read-through cache of {@link OpenScienceFrameworkAuthenticationRecord}, keyed by user id, with an index
+ * from the normalized username or email the user signed in with to the user id, so that every record of a user is
+ * evicted at once. Entries expire a fixed time after they are loaded, so a password or status change on the OSF is
+ * never ignored for longer than the time to live, and the records of a user can be evicted sooner through the
+ * statistics cache endpoint. Users that are not found are never cached. A time to live of zero disables the cache
+ * and every lookup goes to the database.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public class OpenScienceFrameworkAuthenticationRecordCache implements InitializingBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OpenScienceFrameworkAuthenticationRecordCache.class);
+
+    private static final long DEFAULT_TIME_TO_LIVE = 30;
+
+    private static final long DEFAULT_MAXIMUM_SIZE = 10000;
+
+    @NotNull
+    private OpenScienceFrameworkDao openScienceFrameworkDao;
+
+    private long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+    private long maximumSize = DEFAULT_MAXIMUM_SIZE;
+
+    private Ticker ticker = Ticker.systemTicker();
+
+    /** The user ids by normalized username or email. */
+    private Cache<String, Integer> userIds;
+
+    /** The records by user id. */
+    private Cache<Integer, OpenScienceFrameworkAuthenticationRecord> records;
+
+    /** Default Constructor. */
+    public OpenScienceFrameworkAuthenticationRecordCache() {}
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (this.timeToLive > 0) {
+            this.userIds = CacheBuilder.newBuilder()
+                    .expireAfterWrite(this.timeToLive, TimeUnit.SECONDS)
+                    .maximumSize(this.maximumSize)
+                    .ticker(this.ticker)
+                    .build();
+            this.records = CacheBuilder.newBuilder()
+                    .expireAfterWrite(this.timeToLive, TimeUnit.SECONDS)
+                    .maximumSize(this.maximumSize)
+                    .ticker(this.ticker)
+                    .build();
+        } else {
+            LOGGER.info("Authentication record cache is disabled");
+        }
+    }
+
+    /**
+     * Find the authentication record of a user by username or email, from the cache when present.
+     *
+     * @param username the username or email
+     * @return the authentication record or null if no such user exists
+     */
+    public OpenScienceFrameworkAuthenticationRecord find(final String username) {
+        if (this.records != null) {
+            final Integer userId = this.userIds.getIfPresent(normalize(username));
+            final OpenScienceFrameworkAuthenticationRecord record
+                    = userId == null ? null : this.records.getIfPresent(userId);
+            if (record != null) {
+                return record;
+            }
+        }
+        return reload(username);
+    }
+
+    /**
+     * Load the authentication record of a user by username or email from the primary database, never a replica that
+     * may not have the latest row yet, replacing any cached record.
+     *
+     * @param username the username or email
+     * @return the authentication record or null if no such user exists
+     */
+    public OpenScienceFrameworkAuthenticationRecord reload(final String username) {
+        final String key = normalize(username);
+        final OpenScienceFrameworkAuthenticationRecord record = load(key);
+        if (this.records == null) {
+            return record;
+        }
+        if (record == null) {
+            this.userIds.invalidate(key);
+            return null;
+        }
+        this.records.put(record.getUserId(), record);
+        this.userIds.put(key, record.getUserId());
+        return record;
+    }
+
+    /**
+     * Evict every record of the user with the given username or email, whichever username or email it was cached
+     * under. The user id is taken from the cache, or from the primary database when the username is not cached.
+     *
+     * @param username the username or email
+     * @return the id of the evicted user or null if no such user exists
+     */
+    public Integer invalidate(final String username) {
+        final String key = normalize(username);
+        Integer userId = this.records == null ? null : this.userIds.getIfPresent(key);
+        if (userId == null) {
+            final OpenScienceFrameworkAuthenticationRecord record = load(key);
+            userId = record == null ? null : record.getUserId();
+        }
+        if (this.records != null) {
+            this.userIds.invalidate(key);
+            if (userId != null) {
+                this.records.invalidate(userId);
+            }
+        }
+        return userId;
+    }
+
+    /**
+     * Evict every record of the given user, whichever username or email it was cached under.
+     *
+     * @param userId the user id
+     */
+    public void invalidateUser(final Integer userId) {
+        if (this.records != null) {
+            this.records.invalidate(userId);
+        }
+    }
+
+    /**
+     * Evict every record.
+     */
+    public void invalidateAll() {
+        if (this.records != null) {
+            this.records.invalidateAll();
+            this.userIds.invalidateAll();
+        }
+    }
+
+    /**
+     * Load the authentication record of a user from the primary database, bypassing the cache.
+     *
+     * @param key the normalized username or email
+     * @return the authentication record or null if no such user exists
+     */
+    private OpenScienceFrameworkAuthenticationRecord load(final String key) {
+        final boolean previous = OpenScienceFrameworkRoutingDataSource.usePrimary();
+        try {
+            return this.openScienceFrameworkDao.findOneAuthenticationRecordByEmail(key);
+        } finally {
+            OpenScienceFrameworkRoutingDataSource.restore(previous);
+        }
+    }
+
+    /**
+     * Normalize the username or email used as the cache key, the same way the handler does.
+     *
+     * @param username the username or email
+     * @return the normalized key
+     */
+    private String normalize(final String username) {
+        return username.trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * @param openScienceFrameworkDao the open science framework data access object
+     */
+    public void setOpenScienceFrameworkDao(final OpenScienceFrameworkDao openScienceFrameworkDao) {
+        this.openScienceFrameworkDao = openScienceFrameworkDao;
+    }
+
+    /**
+     * @param timeToLive the time to live of a record in seconds, zero disables the cache
+     */
+    public void setTimeToLive(final long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * @param maximumSize the maximum number of cached records
+     */
+    public void setMaximumSize(final long maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * @param ticker the time source, for testing
+     */
+    void setTicker(final Ticker ticker) {
+        this.ticker = ticker;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.cos.cas.adaptors.postgres.daos;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+import javax.validation.constraints.NotNull;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The Open Science Framework Cache Regions.
+ *
+ * Per-node, read-through caches of the read-mostly OSF lookups, one region each. The regions hold immutable values,
+ * such as GUID _ids or {@link org.jasig.cas.support.oauth.scope.Scope}s, never JPA entities, which are detached from
+ * the entity manager that loaded them and may carry lazy associations. Every region is configured by a Guava cache
+ * spec, for example {@code maximumSize=1000,expireAfterWrite=1m}, and a region without a spec is not cached. Lookups
+ * that find nothing are not cached. The hits, misses, evictions and size of every region are reported to the metric
+ * registry.
+ *
+ * Institutions are not cached here, the institution directory holds them, and neither are OAuth applications, the
+ * service registry holds them between reloads.
+ *
+ * Each node has its own regions, so an eviction only applies to the node it is made on, the others keep their
+ * entries until they expire.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public class OpenScienceFrameworkCacheRegions implements InitializingBean {
+
+    /** The GUID _ids of users, by user id. */
+    public static final String GUID = "guid";
+
+    /** The active OAuth scopes, by lower case name, a deactivated scope is granted until its entry expires. */
+    public static final String SCOPE = "scope";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OpenScienceFrameworkCacheRegions.class);
+
+    @NotNull
+    private Map<String, String> specs = new HashMap<>();
+
+    @NotNull
+    private MetricRegistry metricRegistry = new MetricRegistry();
+
+    private Map<String, Cache<Object, Object>> regions = Collections.emptyMap();
+
+    /** Default Constructor. */
+    public OpenScienceFrameworkCacheRegions() {}
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        final Map<String, Cache<Object, Object>> regions = new LinkedHashMap<>();
+        for (final Map.Entry<String, String> spec : this.specs.entrySet()) {
+            if (spec.getValue() == null || spec.getValue().trim().isEmpty()) {
+                LOGGER.info("Cache region {} is disabled", spec.getKey());
+                continue;
+            }
+            final Cache<Object, Object> cache = CacheBuilder.from(spec.getValue().trim()).recordStats().build();
+            regions.put(spec.getKey(), cache);
+            registerMetrics(spec.getKey(), cache);
+            LOGGER.info("Cache region {} is enabled: {}", spec.getKey(), spec.getValue());
+        }
+        this.regions = Collections.unmodifiableMap(regions);
+    }
+
+    /**
+     * Return the value cached in the region under the key, loading and caching it if absent. When the region is
+     * disabled, or the loader finds nothing, the value is loaded on every call.
+     *
+     * @param region the region name
+     * @param key the key
+     * @param loader loads the value, returns null if there is none
+     * @param <V> the type of the value
+     * @return the value or null
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V get(final String region, final Object key, final Callable<V> loader) {
+        final Cache<Object, Object> cache = this.regions.get(region);
+        try {
+            if (cache == null) {
+                return loader.call();
+            }
+            return (V) cache.get(key, (Callable<Object>) loader);
+        } catch (final CacheLoader.InvalidCacheLoadException e) {
+            // the loader found nothing, which is not cached
+            return null;
+        } catch (final ExecutionException | UncheckedExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (final Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Evict every entry of a region, on this node only.
+     *
+     * @param region the region name
+     * @return true if the region exists and is enabled, false otherwise
+     */
+    public boolean evict(final String region) {
+        final Cache<Object, Object> cache = this.regions.get(region);
+        if (cache == null) {
+            return false;
+        }
+        cache.invalidateAll();
+        LOGGER.info("Cache region {} evicted", region);
+        return true;
+    }
+
+    /**
+     * @return the names of the enabled regions
+     */
+    public Set<String> getRegionNames() {
+        return this.regions.keySet();
+    }
+
+    /**
+     * @param region the region name
+     * @return the statistics of the region, or null if it does not exist or is disabled
+     */
+    public CacheStats getStats(final String region) {
+        final Cache<Object, Object> cache = this.regions.get(region);
+        return cache != null ? cache.stats() : null;
+    }
+
+    /**
+     * @param region the region name
+     * @return the number of entries in the region, 0 if it does not exist or is disabled
+     */
+    public long getSize(final String region) {
+        final Cache<Object, Object> cache = this.regions.get(region);
+        return cache != null ? cache.size() : 0;
+    }
+
+    /**
+     * Report the statistics of a region to the metric registry.
+     *
+     * @param region the region name
+     * @param cache the region
+     */
+    private void registerMetrics(final String region, final Cache<Object, Object> cache) {
+        this.metricRegistry.register(MetricRegistry.name(getClass(), region, "hits"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return cache.stats().hitCount();
+            }
+        });
+        this.metricRegistry.register(MetricRegistry.name(getClass(), region, "misses"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return cache.stats().missCount();
+            }
+        });
+        this.metricRegistry.register(MetricRegistry.name(getClass(), region, "evictions"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return cache.stats().evictionCount();
+            }
+        });
+        this.metricRegistry.register(MetricRegistry.name(getClass(), region, "size"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return cache.size();
+            }
+        });
+    }
+
+    /**
+     * @param specs the Guava cache spec of every region by region name, an empty spec disables the region
+     */
+    public void setSpecs(final Map<String, String> specs) {
+        this.specs = specs;
+    }
+
+    public void setMetricRegistry(final MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+    }
+}
@@ -22,7 +22,7 @@ package io.cos.cas.adaptors.postgres.daos;
 import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkApiOauth2Application;
 import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkApiOauth2PersonalAccessToken;
 import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkApiOauth2Scope;
-import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkGuid;
+import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkAuthenticationRecord;
 import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkInstitution;
 import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkTimeBasedOneTimePassword;
 import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkUser;
@@ -53,6 +53,15 @@ public interface OpenScienceFrameworkDao {
      */
     OpenScienceFrameworkUser findOneUserByEmail(final String email);
 
+    /**
+     * Find the authentication record of one user by user's emails, including username, together with the user's
+     * confirmed "time based one-time password" and GUID in a single query. A username match takes precedence.
+     *
+     * @param email the user's email
+     * @return OpenScienceFrameworkAuthenticationRecord or null
+     */
+    OpenScienceFrameworkAuthenticationRecord findOneAuthenticationRecordByEmail(final String email);
+
     /**
      * Find one "time based one-time password" by owner.
      *
@@ -100,10 +109,10 @@ public interface OpenScienceFrameworkDao {
     List<OpenScienceFrameworkApiOauth2Application> findOauthApplications();
 
     /**
-     * Find the GUID object asscociated with a User.
+     * Find the GUID _id asscociated with a User.
      *
      * @param user the user
-     * @return the GUID object
+     * @return the GUID _id or null
      */
-    OpenScienceFrameworkGuid findGuidByUser(final OpenScienceFrameworkUser user);
+    String findGuidIdByUser(final OpenScienceFrameworkUser user);
 }
@@ -22,12 +22,13 @@ package io.cos.cas.adaptors.postgres.daos;
 import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkApiOauth2Application;
 import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkApiOauth2PersonalAccessToken;
 import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkApiOauth2Scope;
-import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkGuid;
+import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkAuthenticationRecord;
 import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkInstitution;
 import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkTimeBasedOneTimePassword;
 import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkUser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
@@ -36,6 +37,7 @@ import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 import javax.validation.constraints.NotNull;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * The Open Science Framework Data Access Object Implementation.
@@ -43,18 +45,66 @@ import java.util.List;
  * @author Longze Chen
  * @since 4.1.0
  */
-public class OpenScienceFrameworkDaoImpl implements OpenScienceFrameworkDao {
+public class OpenScienceFrameworkDaoImpl implements OpenScienceFrameworkDao, InitializingBean {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(OpenScienceFrameworkDaoImpl.class);
 
+    /**
+     * The user, the confirmed and not deleted two factor secret and the GUID, matching the username or any of the
+     * emails. A username match is ordered first, mirroring {@link #findOneUserByEmail(String)}. The emails are matched
+     * as in {@link #USER_BY_EMAIL_QUERY}, with the same GIN index.
+     */
+    private static final String AUTHENTICATION_RECORD_QUERY =
+            "select u.id, u.username, u.given_name, u.family_name, u.password, u.verification_key,"
+            + " u.is_registered, u.is_claimed, u.date_confirmed is not null, u.merged_by_id is not null,"
+            + " u.date_disabled is not null,"
+            + " case when t.is_confirmed and not t.deleted then t.totp_secret end,"
+            + " g._id"
+            + " from osf_osfuser u"
+            + " left join addons_twofactor_usersettings t on t.owner_id = u.id"
+            + " left join osf_guid g on g.object_id = u.id and g.content_type_id = :contentTypeId"
+            + " where u.username = :email or u.emails @> cast(array[:email] as varchar[])"
+            + " order by u.username = :email desc"
+            + " limit 1";
+
+    /**
+     * The user with the email among their emails. The email is a bound parameter so that every lookup shares one SQL
+     * string, which the statement cache of the pool and the server-side plan of the driver can reuse. The containment
+     * is served by a GIN index on the emails, in the OSF database:
+     * {@code create index concurrently osf_osfuser_emails_gin on osf_osfuser using gin (emails)}.
+     */
+    private static final String USER_BY_EMAIL_QUERY =
+            "select u.* from osf_osfuser u where u.emails @> cast(array[:email] as varchar[])";
+
+    /** The Django app label and model of users, which identify the content type of user GUIDs. */
+    private static final String USER_APP_LABEL = "osf";
+
+    private static final String USER_MODEL = "osfuser";
+
     /** The entity manager for persistenceUnitOsf. */
     @NotNull
     @PersistenceContext(unitName = "persistenceUnitOsf")
     private EntityManager entityManager;
 
+    /** The cache regions, of which the GUID region is used here, none are cached by default. */
+    @NotNull
+    private OpenScienceFrameworkCacheRegions cacheRegions = new OpenScienceFrameworkCacheRegions();
+
+    /** The primary key of the user content type, resolved once. */
+    private volatile Integer userContentTypeId;
+
     /** Default Constructor. */
     public OpenScienceFrameworkDaoImpl() {}
 
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        try {
+            getUserContentTypeId();
+        } catch (final PersistenceException e) {
+            LOGGER.warn("Failed to look up the content type of users, will retry on first use: {}", e.toString());
+        }
+    }
+
     /**
      * @param entityManager the entity manager.
      */
@@ -62,6 +112,13 @@ public class OpenScienceFrameworkDaoImpl implements OpenScienceFrameworkDao {
         this.entityManager = entityManager;
     }
 
+    /**
+     * @param cacheRegions the cache regions of the read-mostly lookups.
+     */
+    public void setCacheRegions(final OpenScienceFrameworkCacheRegions cacheRegions) {
+        this.cacheRegions = cacheRegions;
+    }
+
     @Override
     public OpenScienceFrameworkUser findOneUserByUsername(final String username) {
         try {
@@ -89,11 +146,8 @@ public class OpenScienceFrameworkDaoImpl implements OpenScienceFrameworkDao {
         // check emails
         try {
             // JPA Hibernate does not support postgres query array operations, use postgres native queries
-            // `query.setParameter()` does not work, use string concatenation instead
-            final Query query= entityManager.createNativeQuery(
-                    "select u.* from osf_osfuser u where u.emails @> '{" + email + "}'\\:\\:varchar[]",
-                    OpenScienceFrameworkUser.class
-            );
+            final Query query = entityManager.createNativeQuery(USER_BY_EMAIL_QUERY, OpenScienceFrameworkUser.class);
+            query.setParameter("email", email);
             return (OpenScienceFrameworkUser) query.getSingleResult();
         } catch (final PersistenceException e) {
             LOGGER.error(e.toString());
@@ -101,6 +155,53 @@ public class OpenScienceFrameworkDaoImpl implements OpenScienceFrameworkDao {
         }
     }
 
+    @Override
+    public OpenScienceFrameworkAuthenticationRecord findOneAuthenticationRecordByEmail(final String email) {
+        try {
+            final Query query = entityManager.createNativeQuery(AUTHENTICATION_RECORD_QUERY);
+            query.setParameter("email", email);
+            query.setParameter("contentTypeId", getUserContentTypeId());
+            final List<?> results = query.getResultList();
+            if (results.isEmpty()) {
+                return null;
+            }
+            // columns are read in the order of the select list
+            final Object[] row = (Object[]) results.get(0);
+            int column = 0;
+            final Integer userId = ((Number) row[column++]).intValue();
+            final String username = (String) row[column++];
+            final String givenName = (String) row[column++];
+            final String familyName = (String) row[column++];
+            final String password = (String) row[column++];
+            final String verificationKey = (String) row[column++];
+            final boolean registered = Boolean.TRUE.equals(row[column++]);
+            final boolean claimed = Boolean.TRUE.equals(row[column++]);
+            final boolean confirmed = Boolean.TRUE.equals(row[column++]);
+            final boolean merged = Boolean.TRUE.equals(row[column++]);
+            final boolean disabled = Boolean.TRUE.equals(row[column++]);
+            final String totpSecret = (String) row[column++];
+            final String guid = (String) row[column];
+            return new OpenScienceFrameworkAuthenticationRecord(
+                    userId,
+                    username,
+                    givenName,
+                    familyName,
+                    password,
+                    verificationKey,
+                    registered,
+                    claimed,
+                    confirmed,
+                    merged,
+                    disabled,
+                    totpSecret != null ? OpenScienceFrameworkTimeBasedOneTimePassword.encodeBase32(totpSecret) : null,
+                    guid
+            );
+        } catch (final PersistenceException e) {
+            LOGGER.error(e.toString());
+            return null;
+        }
+    }
+
     @Override
     public OpenScienceFrameworkTimeBasedOneTimePassword findOneTimeBasedOneTimePasswordByOwnerId(final Integer ownerId) {
         try {
@@ -191,22 +292,56 @@ public class OpenScienceFrameworkDaoImpl implements OpenScienceFrameworkDao {
     }
 
     @Override
-    public OpenScienceFrameworkGuid findGuidByUser(final OpenScienceFrameworkUser user) {
+    public String findGuidIdByUser(final OpenScienceFrameworkUser user) {
+        return cacheRegions.get(OpenScienceFrameworkCacheRegions.GUID, user.getId(), new Callable<String>() {
+            @Override
+            public String call() {
+                return loadGuidIdByUser(user);
+            }
+        });
+    }
+
+    /**
+     * Load the GUID _id of the user from the database.
+     *
+     * @param user the user
+     * @return the GUID _id or null
+     */
+    private String loadGuidIdByUser(final OpenScienceFrameworkUser user) {
         try {
-            final TypedQuery<OpenScienceFrameworkGuid> query = entityManager.createQuery(
-                    "select g from OpenScienceFrameworkGuid g where"
-                    + " g.objectId = :userId"
-                    + " and g.djangoContentType.appLabel = :appLable"
-                    + " and g.djangoContentType.model = :model",
-                    OpenScienceFrameworkGuid.class
+            final TypedQuery<String> query = entityManager.createQuery(
+                    "select g.guid from OpenScienceFrameworkGuid g where g.objectId = :userId and g.contentTypeId = :contentTypeId",
+                    String.class
             );
             query.setParameter("userId", user.getId());
-            query.setParameter("appLable", "osf");
-            query.setParameter("model", "osfuser");
+            query.setParameter("contentTypeId", getUserContentTypeId());
             return query.getSingleResult();
         } catch (final PersistenceException e) {
             LOGGER.error(e.toString());
             return null;
         }
     }
+
+    /**
+     * Return the primary key of the user content type, looking it up the first time only. The content types of a
+     * Django project never change once created.
+     *
+     * @return the primary key
+     * @throws PersistenceException if the content type cannot be looked up
+     */
+    private Integer getUserContentTypeId() {
+        Integer contentTypeId = this.userContentTypeId;
+        if (contentTypeId == null) {
+            final TypedQuery<Integer> query = entityManager.createQuery(
+                    "select c.id from OpenScienceFrameworkDjangoContentTypeId c where c.appLabel = :appLabel and c.model = :model",
+                    Integer.class
+            );
+            query.setParameter("appLabel", USER_APP_LABEL);
+            query.setParameter("model", USER_MODEL);
+            contentTypeId = query.getSingleResult();
+            this.userContentTypeId = contentTypeId;
+            LOGGER.info("The content type of users is {}", contentTypeId);
+        }
+        return contentTypeId;
+    }
 }
@@ -0,0 +1,201 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.cos.cas.adaptors.postgres.datasources;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.validation.constraints.NotNull;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A data source that measures the connection pool it delegates to.
+ *
+ * The pool itself is whichever data source is set as the target, so the pool implementation can be replaced in the
+ * Spring configuration alone. Records how long checkouts wait, how many connections are checked out and how many
+ * callers are waiting, and counts checkouts that fail after waiting for the whole checkout timeout as exhaustion.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public class OpenScienceFrameworkInstrumentedDataSource extends DelegatingDataSource {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OpenScienceFrameworkInstrumentedDataSource.class);
+
+    private static final long DEFAULT_CHECKOUT_TIMEOUT = 2000;
+
+    @NotNull
+    private String poolName = "osf";
+
+    private long checkoutTimeout = DEFAULT_CHECKOUT_TIMEOUT;
+
+    @NotNull
+    private MetricRegistry metricRegistry = new MetricRegistry();
+
+    private final AtomicInteger active = new AtomicInteger();
+
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private Timer waitTimer;
+
+    private Meter exhaustedMeter;
+
+    private Meter failedMeter;
+
+    /** Default Constructor. */
+    public OpenScienceFrameworkInstrumentedDataSource() {}
+
+    @Override
+    public void afterPropertiesSet() {
+        super.afterPropertiesSet();
+        this.waitTimer = this.metricRegistry.timer(MetricRegistry.name(getClass(), this.poolName, "wait"));
+        this.exhaustedMeter = this.metricRegistry.meter(MetricRegistry.name(getClass(), this.poolName, "exhausted"));
+        this.failedMeter = this.metricRegistry.meter(MetricRegistry.name(getClass(), this.poolName, "failed"));
+        this.metricRegistry.register(MetricRegistry.name(getClass(), this.poolName, "active"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return active.get();
+            }
+        });
+        this.metricRegistry.register(MetricRegistry.name(getClass(), this.poolName, "waiting"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return waiting.get();
+            }
+        });
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return checkout(null, null, false);
+    }
+
+    @Override
+    public Connection getConnection(final String username, final String password) throws SQLException {
+        return checkout(username, password, true);
+    }
+
+    /**
+     * Check a connection out of the pool, timing the wait.
+     *
+     * @param username the database user, if given
+     * @param password the database password, if given
+     * @param withCredentials whether to check out with the given credentials
+     * @return the connection, which counts as active until closed
+     * @throws SQLException if the pool fails to provide a connection
+     */
+    private Connection checkout(final String username, final String password, final boolean withCredentials)
+            throws SQLException {
+        this.waiting.incrementAndGet();
+        final long start = System.nanoTime();
+        final Connection connection;
+        try {
+            connection = withCredentials
+                    ? getTargetDataSource().getConnection(username, password)
+                    : getTargetDataSource().getConnection();
+        } catch (final SQLException | RuntimeException e) {
+            final long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            this.failedMeter.mark();
+            if (this.checkoutTimeout > 0 && waited >= this.checkoutTimeout) {
+                this.exhaustedMeter.mark();
+                LOGGER.warn("The {} connection pool is exhausted: {} active, gave up after {} ms",
+                        this.poolName, this.active.get(), waited);
+            }
+            throw e;
+        } finally {
+            this.waiting.decrementAndGet();
+        }
+        this.waitTimer.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        this.active.incrementAndGet();
+        return (Connection) Proxy.newProxyInstance(
+                OpenScienceFrameworkInstrumentedDataSource.class.getClassLoader(),
+                new Class<?>[] {Connection.class},
+                new CheckedOutConnection(connection));
+    }
+
+    /**
+     * @return the number of connections checked out and not yet closed
+     */
+    public int getActive() {
+        return this.active.get();
+    }
+
+    public void setPoolName(final String poolName) {
+        this.poolName = poolName;
+    }
+
+    /**
+     * @param checkoutTimeout the checkout timeout of the pool in milliseconds, 0 if it has none
+     */
+    public void setCheckoutTimeout(final long checkoutTimeout) {
+        this.checkoutTimeout = checkoutTimeout;
+    }
+
+    public void setMetricRegistry(final MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+    }
+
+    /**
+     * Delegates to the pooled connection, and stops counting it as active the first time it is closed.
+     */
+    private final class CheckedOutConnection implements InvocationHandler {
+
+        private final Connection connection;
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        /**
+         * @param connection the pooled connection
+         */
+        CheckedOutConnection(final Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final String name = method.getName();
+            if ("equals".equals(name)) {
+                return proxy == args[0];
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            } else if ("close".equals(name) && this.closed.compareAndSet(false, true)) {
+                active.decrementAndGet();
+            }
+            try {
+                return method.invoke(this.connection, args);
+            } catch (final InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.cos.cas.adaptors.postgres.datasources;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import javax.sql.DataSource;
+import javax.validation.constraints.NotNull;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routes the read-only OSF queries to a replica, falling back to the primary.
+ *
+ * Connections come from the replica unless the current thread asked for the primary with {@link #usePrimary()}, the
+ * last staleness check found the replica lagging behind by more than the maximum staleness or failed, or the replica
+ * recently failed to provide a connection. Reads that must see the latest rows, such as a verification key login
+ * right after the account is confirmed, ask for the primary. When the replica is the primary, there is nothing to
+ * check and every connection comes from the primary.
+ *
+ * The routing is Spring's, keyed by {@link #PRIMARY_KEY} and {@link #REPLICA_KEY}, so connections asked for with
+ * explicit credentials go to the same data source as the others. Only the plain connections fall back to the primary
+ * when the replica fails to provide one.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public class OpenScienceFrameworkRoutingDataSource extends AbstractRoutingDataSource implements DisposableBean {
+
+    /** The lookup key of the primary. */
+    public static final String PRIMARY_KEY = "primary";
+
+    /** The lookup key of the replica. */
+    public static final String REPLICA_KEY = "replica";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OpenScienceFrameworkRoutingDataSource.class);
+
+    private static final ThreadLocal<Boolean> PRIMARY = new ThreadLocal<>();
+
+    private static final long DEFAULT_CHECK_INTERVAL = 10;
+
+    private static final long DEFAULT_MAX_STALENESS = 30;
+
+    private static final long DEFAULT_RETRY_DELAY = 30;
+
+    private static final long MILLISECONDS_PER_SECOND = 1000;
+
+    @NotNull
+    private DataSource primaryDataSource;
+
+    @NotNull
+    private DataSource replicaDataSource;
+
+    /** The replication lag of the replica in seconds, null or no row when the replica is not in recovery. */
+    @NotNull
+    private String stalenessQuery = "select extract(epoch from now() - pg_last_xact_replay_timestamp())";
+
+    private long checkInterval = DEFAULT_CHECK_INTERVAL;
+
+    private long maxStaleness = DEFAULT_MAX_STALENESS;
+
+    private long retryDelay = DEFAULT_RETRY_DELAY;
+
+    @NotNull
+    private MetricRegistry metricRegistry = new MetricRegistry();
+
+    private volatile boolean replicaFresh = true;
+
+    private volatile long replicaUnavailableUntil;
+
+    private ScheduledExecutorService scheduler;
+
+    private Meter primaryMeter;
+
+    private Meter replicaMeter;
+
+    private Meter fallbackMeter;
+
+    /** Default Constructor. */
+    public OpenScienceFrameworkRoutingDataSource() {}
+
+    /**
+     * Send the queries of the current thread to the primary, until {@link #restore(boolean)} is called.
+     *
+     * @return whether the current thread was already using the primary, to pass to {@link #restore(boolean)}
+     */
+    public static boolean usePrimary() {
+        final boolean previous = Boolean.TRUE.equals(PRIMARY.get());
+        PRIMARY.set(Boolean.TRUE);
+        return previous;
+    }
+
+    /**
+     * Restore the routing of the current thread to what it was before {@link #usePrimary()}.
+     *
+     * @param previous the value returned by {@link #usePrimary()}
+     */
+    public static void restore(final boolean previous) {
+        if (!previous) {
+            PRIMARY.remove();
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        final Map<Object, Object> targetDataSources = new HashMap<>();
+        targetDataSources.put(PRIMARY_KEY, this.primaryDataSource);
+        targetDataSources.put(REPLICA_KEY, this.replicaDataSource);
+        setTargetDataSources(targetDataSources);
+        setDefaultTargetDataSource(this.primaryDataSource);
+        setLenientFallback(false);
+        super.afterPropertiesSet();
+
+        this.primaryMeter = this.metricRegistry.meter(MetricRegistry.name(getClass(), "primary"));
+        this.replicaMeter = this.metricRegistry.meter(MetricRegistry.name(getClass(), "replica"));
+        this.fallbackMeter = this.metricRegistry.meter(MetricRegistry.name(getClass(), "fallback"));
+        if (hasReplica() && this.checkInterval > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                    new CustomizableThreadFactory("osf-replica-check-"));
+            this.scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    checkReplica();
+                }
+            }, 0, this.checkInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (!useReplica()) {
+            this.primaryMeter.mark();
+            return this.primaryDataSource.getConnection();
+        }
+        final Connection connection;
+        try {
+            connection = this.replicaDataSource.getConnection();
+        } catch (final SQLException e) {
+            this.replicaUnavailableUntil = System.currentTimeMillis() + this.retryDelay * MILLISECONDS_PER_SECOND;
+            this.fallbackMeter.mark();
+            LOGGER.warn("The OSF replica failed to provide a connection, using the primary for {} seconds: {}",
+                    this.retryDelay, e.getMessage());
+            return this.primaryDataSource.getConnection();
+        }
+        this.replicaMeter.mark();
+        return connection;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return useReplica() ? REPLICA_KEY : PRIMARY_KEY;
+    }
+
+    /**
+     * Check how far the replica lags behind the primary, and stop routing to it while it lags by more than the
+     * maximum staleness or cannot be checked.
+     *
+     * @return true if the replica is fresh enough to route to, false otherwise
+     */
+    public boolean checkReplica() {
+        boolean fresh;
+        double staleness = 0;
+        try (final Connection connection = this.replicaDataSource.getConnection();
+             final Statement statement = connection.createStatement();
+             final ResultSet resultSet = statement.executeQuery(this.stalenessQuery)) {
+            if (resultSet.next()) {
+                staleness = resultSet.getDouble(1);
+            }
+            fresh = staleness <= this.maxStaleness;
+        } catch (final SQLException e) {
+            LOGGER.warn("Failed to check the staleness of the OSF replica: {}", e.getMessage());
+            fresh = false;
+        }
+        if (fresh != this.replicaFresh) {
+            if (fresh) {
+                LOGGER.info("The OSF replica is {} seconds behind, routing reads to it", staleness);
+            } else {
+                LOGGER.warn("The OSF replica is {} seconds behind or unreachable, routing reads to the primary", staleness);
+            }
+        }
+        this.replicaFresh = fresh;
+        return fresh;
+    }
+
+    /**
+     * @return true if the next connection of the current thread should come from the replica
+     */
+    private boolean useReplica() {
+        return hasReplica()
+                && !Boolean.TRUE.equals(PRIMARY.get())
+                && this.replicaFresh
+                && System.currentTimeMillis() >= this.replicaUnavailableUntil;
+    }
+
+    /**
+     * @return true if a replica distinct from the primary is configured
+     */
+    private boolean hasReplica() {
+        return this.replicaDataSource != this.primaryDataSource;
+    }
+
+    public void setPrimaryDataSource(final DataSource primaryDataSource) {
+        this.primaryDataSource = primaryDataSource;
+    }
+
+    public void setReplicaDataSource(final DataSource replicaDataSource) {
+        this.replicaDataSource = replicaDataSource;
+    }
+
+    public void setStalenessQuery(final String stalenessQuery) {
+        this.stalenessQuery = stalenessQuery;
+    }
+
+    /**
+     * @param checkInterval how often in seconds the staleness of the replica is checked, 0 never checks it
+     */
+    public void setCheckInterval(final long checkInterval) {
+        this.checkInterval = checkInterval;
+    }
+
+    /**
+     * @param maxStaleness how far in seconds the replica may lag behind the primary and still be read from
+     */
+    public void setMaxStaleness(final long maxStaleness) {
+        this.maxStaleness = maxStaleness;
+    }
+
+    /**
+     * @param retryDelay how long in seconds the primary is used after the replica failed to provide a connection
+     */
+    public void setRetryDelay(final long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    public void setMetricRegistry(final MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+    }
+}
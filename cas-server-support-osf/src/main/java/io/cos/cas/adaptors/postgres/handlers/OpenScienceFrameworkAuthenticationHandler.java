@@ -19,23 +19,24 @@
 
 package io.cos.cas.adaptors.postgres.handlers;
 
-import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
-import java.security.MessageDigest;
 import java.util.HashMap;
 import java.util.Map;
 
-import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkGuid;
-import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkTimeBasedOneTimePassword;
-import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkUser;
-import io.cos.cas.adaptors.postgres.daos.OpenScienceFrameworkDaoImpl;
+import io.cos.cas.adaptors.postgres.daos.OpenScienceFrameworkAuthenticationRecordCache;
+import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkAuthenticationRecord;
+import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkPasswordHash;
 import io.cos.cas.authentication.LoginNotAllowedException;
+import io.cos.cas.authentication.LoginThrottledException;
 import io.cos.cas.authentication.OneTimePasswordFailedLoginException;
 import io.cos.cas.authentication.OneTimePasswordRequiredException;
 import io.cos.cas.authentication.OpenScienceFrameworkCredential;
 
 import io.cos.cas.authentication.ShouldNotHappenException;
-import io.cos.cas.authentication.oath.TotpUtils;
+import io.cos.cas.authentication.handler.support.OpenScienceFrameworkPasswordVerifier;
+import io.cos.cas.authentication.oath.InMemoryTotpReplayStore;
+import io.cos.cas.authentication.oath.TotpReplayStore;
+import io.cos.cas.authentication.oath.TotpVerifier;
 import org.jasig.cas.authentication.AccountDisabledException;
 import org.jasig.cas.authentication.Credential;
 import org.jasig.cas.authentication.HandlerResult;
@@ -44,10 +45,11 @@ import org.jasig.cas.authentication.handler.NoOpPrincipalNameTransformer;
 import org.jasig.cas.authentication.handler.PrincipalNameTransformer;
 import org.jasig.cas.authentication.handler.support.AbstractPreAndPostProcessingAuthenticationHandler;
 
+import org.jasig.inspektr.common.web.ClientInfo;
+import org.jasig.inspektr.common.web.ClientInfoHolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
-import org.springframework.security.crypto.bcrypt.BCrypt;
 
 import javax.security.auth.login.AccountNotFoundException;
 import javax.security.auth.login.FailedLoginException;
@@ -81,7 +83,12 @@ public class OpenScienceFrameworkAuthenticationHandler extends AbstractPreAndPos
     private PrincipalNameTransformer principalNameTransformer = new NoOpPrincipalNameTransformer();
 
     @NotNull
-    private OpenScienceFrameworkDaoImpl openScienceFrameworkDao;
+    private OpenScienceFrameworkAuthenticationRecordCache authenticationRecordCache;
+
+    private OpenScienceFrameworkPasswordVerifier passwordVerifier;
+
+    @NotNull
+    private TotpReplayStore totpReplayStore = new InMemoryTotpReplayStore();
 
     /** Default Constructor. */
     public OpenScienceFrameworkAuthenticationHandler() {}
@@ -94,10 +101,24 @@ public class OpenScienceFrameworkAuthenticationHandler extends AbstractPreAndPos
     }
 
     /**
-     * @param openScienceFrameworkDao the open science framework data access object
+     * @param authenticationRecordCache the cache of user authentication records
+     */
+    public void setAuthenticationRecordCache(final OpenScienceFrameworkAuthenticationRecordCache authenticationRecordCache) {
+        this.authenticationRecordCache = authenticationRecordCache;
+    }
+
+    /**
+     * @param passwordVerifier the bounded executor password hashes are verified on, inline if not set
+     */
+    public void setPasswordVerifier(final OpenScienceFrameworkPasswordVerifier passwordVerifier) {
+        this.passwordVerifier = passwordVerifier;
+    }
+
+    /**
+     * @param totpReplayStore the store of one time password intervals already used
      */
-    public void setOpenScienceFrameworkDao(final OpenScienceFrameworkDaoImpl openScienceFrameworkDao) {
-        this.openScienceFrameworkDao = openScienceFrameworkDao;
+    public void setTotpReplayStore(final TotpReplayStore totpReplayStore) {
+        this.totpReplayStore = totpReplayStore;
     }
 
     @Override
@@ -137,7 +158,9 @@ public class OpenScienceFrameworkAuthenticationHandler extends AbstractPreAndPos
         final String verificationKey = credential.getVerificationKey();
         final String oneTimePassword = credential.getOneTimePassword();
 
-        final OpenScienceFrameworkUser user = openScienceFrameworkDao.findOneUserByEmail(username);
+        // a verification key is single use and changes with the account, always check it against the primary database
+        final OpenScienceFrameworkAuthenticationRecord user = verificationKey != null
+                ? authenticationRecordCache.reload(username) : authenticationRecordCache.find(username);
         if (user == null) {
             throw new AccountNotFoundException(username + " not found with query");
         }
@@ -151,7 +174,7 @@ public class OpenScienceFrameworkAuthenticationHandler extends AbstractPreAndPos
         } else if (verificationKey != null && verificationKey.equals(user.getVerificationKey())) {
             // verified by verification key
             validPassphrase = Boolean.TRUE;
-        } else if (plainTextPassword != null && verifyPassword(plainTextPassword, user.getPassword())) {
+        } else if (plainTextPassword != null && verifyPassword(username, plainTextPassword, user.getPasswordHash())) {
             // verified by password
             validPassphrase = Boolean.TRUE;
         }
@@ -159,14 +182,9 @@ public class OpenScienceFrameworkAuthenticationHandler extends AbstractPreAndPos
             throw new FailedLoginException(username + ": invalid remote authentication, verification key or password");
         }
 
-        final OpenScienceFrameworkTimeBasedOneTimePassword timeBasedOneTimePassword
-                = openScienceFrameworkDao.findOneTimeBasedOneTimePasswordByOwnerId(user.getId());
-
         // if the user has set up two factors authentication
-        if (timeBasedOneTimePassword != null
-                && timeBasedOneTimePassword.getTotpSecret() != null
-                && timeBasedOneTimePassword.isConfirmed()
-                && !timeBasedOneTimePassword.isDeleted()) {
+        long interval = TotpVerifier.NO_MATCH;
+        if (user.isTwoFactorEnabled()) {
             // if no one time password is provided in credential, redirect to `casOtpLoginView`
             if (oneTimePassword == null) {
                 throw new OneTimePasswordRequiredException("Time-based One Time Password required");
@@ -174,12 +192,13 @@ public class OpenScienceFrameworkAuthenticationHandler extends AbstractPreAndPos
             // verify one time password
             try {
                 final Long longOneTimePassword = Long.valueOf(oneTimePassword);
-                if (!TotpUtils.checkCode(timeBasedOneTimePassword.getTotpSecretBase32(), longOneTimePassword, TOTP_INTERVAL, TOTP_WINDOW)) {
-                    throw new OneTimePasswordFailedLoginException(username + " invalid time-based one time password");
-                }
+                interval = TotpVerifier.findInterval(user.getTotpSecretBase32(), longOneTimePassword, TOTP_INTERVAL, TOTP_WINDOW);
             } catch (final Exception e) {
                 throw new OneTimePasswordFailedLoginException(username + ": invalid time-based one time password");
             }
+            if (interval == TotpVerifier.NO_MATCH) {
+                throw new OneTimePasswordFailedLoginException(username + ": invalid time-based one time password");
+            }
         }
 
         // Check user's status, and only ACTIVE user can sign in
@@ -201,8 +220,15 @@ public class OpenScienceFrameworkAuthenticationHandler extends AbstractPreAndPos
 
         // CAS returns the user's GUID to OSF
         // Note: GUID is recommended. Do not use user's pimary key or username.
-        final OpenScienceFrameworkGuid guid = openScienceFrameworkDao.findGuidByUser(user);
-        return createHandlerResult(credential, this.principalFactory.createPrincipal(guid.getGuid(), attributes), null);
+        if (user.getGuid() == null) {
+            throw new ShouldNotHappenException(username + " does not have a GUID");
+        }
+
+        // a code stays valid for the whole window, only accept it once, and only consume it when the login succeeds
+        if (interval != TotpVerifier.NO_MATCH && !totpReplayStore.markUsed(user.getUserId(), interval)) {
+            throw new OneTimePasswordFailedLoginException(username + ": time-based one time password already used");
+        }
+        return createHandlerResult(credential, this.principalFactory.createPrincipal(user.getGuid(), attributes), null);
     }
 
     /**
@@ -228,10 +254,10 @@ public class OpenScienceFrameworkAuthenticationHandler extends AbstractPreAndPos
      *  USER_MERGED, USER_NOT_CLAIMED and USER_STATUS_UNKNOWN:
      *      these is not suppose to happen, ask user to contact OSF support
      *
-     * @param user the OSF user
+     * @param user the authentication record of the OSF user
      * @return the user status
      */
-    private String verifyUserStatus(final OpenScienceFrameworkUser user) {
+    private String verifyUserStatus(final OpenScienceFrameworkAuthenticationRecord user) {
         // An active user must be registered, claimed, not disabled, not merged and has a not null/None password.
         // Only active user can pass the verification.
         if (user.isActive()) {
@@ -275,31 +301,31 @@ public class OpenScienceFrameworkAuthenticationHandler extends AbstractPreAndPos
     }
 
     /**
-     * Verify Password. `bcrypt$` (backward compatibility) and `bcrypt_sha256$` are the only two valid prefix.
+     * Verify Password. `bcrypt$` (backward compatibility) and `bcrypt_sha256$` are the only two valid prefix. The hash
+     * is checked on the password verifier, which rejects the attempt with {@link LoginThrottledException} when too
+     * many verifications are in progress.
      *
+     * @param username the username
      * @param plainTextPassword the plain text password provided by the user
-     * @param userPasswordHash the password hash stored in database
+     * @param passwordHash the parsed password hash of the user or null if it is unusable
      * @return True if verified, False otherwise
+     * @throws LoginThrottledException if the verification is rejected
      */
-    private boolean verifyPassword(final String plainTextPassword, final String userPasswordHash) {
-
-        String password, passwordHash;
-
+    private boolean verifyPassword(
+            final String username,
+            final String plainTextPassword,
+            final OpenScienceFrameworkPasswordHash passwordHash) throws LoginThrottledException {
+        if (passwordHash == null) {
+            // invalid password hash prefix
+            return false;
+        }
+        if (passwordVerifier != null) {
+            final ClientInfo clientInfo = ClientInfoHolder.getClientInfo();
+            final String remoteAddress = clientInfo != null ? clientInfo.getClientIpAddress() : null;
+            return passwordVerifier.verify(username, remoteAddress, passwordHash, plainTextPassword);
+        }
         try {
-            if (userPasswordHash.startsWith("bcrypt$")) {
-                // django.contrib.auth.hashers.BCryptPasswordHasher
-                passwordHash = userPasswordHash.split("bcrypt\\$")[1];
-                password = plainTextPassword;
-            } else if(userPasswordHash.startsWith("bcrypt_sha256$")) {
-                // django.contrib.auth.hashers.BCryptSHA256PasswordHasher
-                passwordHash = userPasswordHash.split("bcrypt_sha256\\$")[1];
-                password = sha256HashPassword(plainTextPassword);
-            } else {
-                // invalid password hash prefix
-                return false;
-            }
-            passwordHash = updateBCryptHashIdentifier(passwordHash);
-            return password != null && passwordHash != null && BCrypt.checkpw(password, passwordHash);
+            return passwordHash.matches(plainTextPassword);
         } catch (final Exception e) {
             // Do not log stack trace which may contain user's plaintext password
             logger.error(String.format("CAS has encountered a problem when verifying the password: %s.", e.toString()));
@@ -326,52 +352,4 @@ public class OpenScienceFrameworkAuthenticationHandler extends AbstractPreAndPos
     private boolean checkPasswordPrefix(final String passwordHash) {
         return passwordHash != null && (passwordHash.startsWith("bcrypt$") || passwordHash.startsWith("bcrypt_sha256$"));
     }
-
-    /**
-     * Hash the password using SHA256, the first step for BCryptSHA256.
-     * This is dependent on django.contrib.auth.hashers.BCryptSHA256PasswordHasher.
-     *
-     * @param password the plain text password provided by user
-     * @return the password hash in String or null
-     */
-    private String sha256HashPassword(final String password) {
-        try {
-            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            final byte[] sha256HashedPassword = digest.digest(password.getBytes(StandardCharsets.UTF_8));
-            final StringBuilder builder = new StringBuilder();
-            for (final byte b : sha256HashedPassword) {
-                builder.append(String.format("%02x", b));
-            }
-            return builder.toString();
-        } catch (final Exception e) {
-            // Do not log stack trace which may contain user's plaintext password
-            logger.error(String.format("CAS has encountered a problem when sha256-hashing the password: %s.", e.toString()));
-            return null;
-        }
-    }
-
-    /**
-     * Update BCrypt Hash Identifier for Compatibility.
-     *
-     * Spring's BCrypt implements the specification and is not vulnerable to OpenBSD's `u_int8_t` overflow issue. How-
-     * ever, it only recognizes `$2$` or `$2a$` identifier for a password BCrypt hash. The solution is to replace `$2b$`
-     * or `$2y$` with `$2a` in the hash before calling `BCrypt.checkpw()`. This is correct and secure.
-     *
-     * @param passwordHash the password hash by BCrypt or BCryptSHA256
-     * @return the spring compatible hash string or null
-     */
-    private String updateBCryptHashIdentifier(final String passwordHash) {
-        try {
-            if (passwordHash.charAt(2) != '$') {
-                final StringBuilder builder = new StringBuilder(passwordHash);
-                builder.setCharAt(2, 'a');
-                return builder.toString();
-            }
-            return passwordHash;
-        } catch (final Exception e) {
-            // Do not log stack trace which may contain user's plaintext password
-            logger.error(String.format("CAS has encountered a problem when updating password hash identifier: %s.", e.toString()));
-            return null;
-        }
-    }
 }
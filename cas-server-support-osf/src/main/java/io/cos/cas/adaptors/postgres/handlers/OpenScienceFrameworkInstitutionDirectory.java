@@ -0,0 +1,169 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.cos.cas.adaptors.postgres.handlers;
+
+import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkInstitution;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The Open Science Framework Institution Directory.
+ *
+ * An immutable snapshot of the institutions: the ones users can log in through, sorted by name with their login url
+ * prefixes precomputed, and an index of every institution's logout url by institution id. The version is a hash of
+ * the institutions users can log in through, it only changes when one of them does.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public final class OpenScienceFrameworkInstitutionDirectory {
+
+    /** The empty directory. */
+    public static final OpenScienceFrameworkInstitutionDirectory EMPTY
+            = new OpenScienceFrameworkInstitutionDirectory(new ArrayList<OpenScienceFrameworkInstitution>());
+
+    private static final int VERSION_LENGTH = 16;
+
+    private static final Comparator<OpenScienceFrameworkInstitution> BY_NAME = new Comparator<OpenScienceFrameworkInstitution>() {
+        @Override
+        public int compare(final OpenScienceFrameworkInstitution i1, final OpenScienceFrameworkInstitution i2) {
+            return i1.getName().compareTo(i2.getName());
+        }
+    };
+
+    private final List<Entry> institutions;
+
+    private final Map<String, String> logoutUrls;
+
+    private final String version;
+
+    /**
+     * Creates a new snapshot of the given institutions.
+     *
+     * @param institutions the institutions that can be logged in through
+     */
+    public OpenScienceFrameworkInstitutionDirectory(final List<OpenScienceFrameworkInstitution> institutions) {
+        final List<OpenScienceFrameworkInstitution> sorted = new ArrayList<>(institutions);
+        Collections.sort(sorted, BY_NAME);
+
+        final List<Entry> entries = new ArrayList<>(sorted.size());
+        final Map<String, String> logoutUrls = new HashMap<>();
+        final StringBuilder versionSource = new StringBuilder();
+        for (final OpenScienceFrameworkInstitution institution : sorted) {
+            entries.add(new Entry(institution.getId(), institution.getName(), institution.getLoginUrl()));
+            logoutUrls.put(institution.getId(), institution.getLogoutUrl());
+            versionSource.append(institution.getId()).append('\n')
+                    .append(institution.getName()).append('\n')
+                    .append(institution.getLoginUrl()).append('\n');
+        }
+        this.institutions = Collections.unmodifiableList(entries);
+        this.logoutUrls = Collections.unmodifiableMap(logoutUrls);
+        this.version = DigestUtils.sha256Hex(versionSource.toString().getBytes(StandardCharsets.UTF_8))
+                .substring(0, VERSION_LENGTH);
+    }
+
+    /**
+     * Find the logout url of the institution.
+     *
+     * @param id the institution _id
+     * @return String or null
+     */
+    public String findLogoutUrlById(final String id) {
+        return logoutUrls.get(id);
+    }
+
+    /**
+     * @param id the institution _id
+     * @return true if the institution is in the directory, false otherwise
+     */
+    public boolean contains(final String id) {
+        return logoutUrls.containsKey(id);
+    }
+
+    /**
+     * @return the institutions that can be logged in through, sorted by name
+     */
+    public List<Entry> getInstitutions() {
+        return institutions;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the number of institutions that can be logged in through
+     */
+    public int size() {
+        return institutions.size();
+    }
+
+    /**
+     * An institution that can be logged in through.
+     */
+    public static final class Entry {
+
+        private final String id;
+
+        private final String name;
+
+        private final String loginUrl;
+
+        private final String loginUrlPrefix;
+
+        /**
+         * @param id the institution _id
+         * @param name the institution name
+         * @param loginUrl the institution login url
+         */
+        private Entry(final String id, final String name, final String loginUrl) {
+            this.id = id;
+            this.name = name;
+            this.loginUrl = loginUrl;
+            this.loginUrlPrefix = loginUrl + "&target=";
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getLoginUrl() {
+            return loginUrl;
+        }
+
+        /**
+         * @return the login url, to which only the encoded target is left to append
+         */
+        public String getLoginUrlPrefix() {
+            return loginUrlPrefix;
+        }
+    }
+}
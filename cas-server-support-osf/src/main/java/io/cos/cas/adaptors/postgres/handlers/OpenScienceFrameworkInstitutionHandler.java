@@ -23,25 +23,43 @@ import io.cos.cas.adaptors.postgres.daos.OpenScienceFrameworkDaoImpl;
 import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkInstitution;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 import javax.validation.constraints.NotNull;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The Open Science Framework Institution Handler.
  *
+ * Institutions are loaded once into an {@link OpenScienceFrameworkInstitutionDirectory} and reloaded in the
+ * background, so that neither the institution login page nor the institution logout query the database. When a
+ * reload fails the previous directory is kept.
+ *
  * @author Longze Chen
  * @since 4.1.0
  */
-public class OpenScienceFrameworkInstitutionHandler {
+public class OpenScienceFrameworkInstitutionHandler implements InitializingBean, DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OpenScienceFrameworkInstitutionHandler.class);
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(OpenScienceFrameworkInstitution.class);
+    private static final long DEFAULT_REFRESH_INTERVAL = 300;
 
     @NotNull
     private OpenScienceFrameworkDaoImpl openScienceFrameworkDao;
 
+    private long refreshInterval = DEFAULT_REFRESH_INTERVAL;
+
+    private volatile OpenScienceFrameworkInstitutionDirectory directory = OpenScienceFrameworkInstitutionDirectory.EMPTY;
+
+    private volatile boolean loaded;
+
+    private ScheduledExecutorService scheduler;
+
     /** Default Constructor. */
     public OpenScienceFrameworkInstitutionHandler() {}
 
@@ -53,28 +71,82 @@ public class OpenScienceFrameworkInstitutionHandler {
     }
 
     /**
-     * Find the logout url for given institution identified by institution _id.
+     * @param refreshInterval the number of seconds between two reloads of the institutions, zero disables reloading
+     */
+    public void setRefreshInterval(final long refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        refresh();
+        if (refreshInterval > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("osf-institution-directory-"));
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    refresh();
+                }
+            }, refreshInterval, refreshInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Reload the institutions from the database, keeping the current directory if that fails.
      *
-     * @param id the institution _id
-     * @return String or null
+     * @return true if reloaded, false otherwise
      */
-    public String findInstitutionLogoutUrlById(final String id) {
-        final OpenScienceFrameworkInstitution institution = openScienceFrameworkDao.findOneInstitutionById(id);
-        return institution != null ? institution.getLogoutUrl() : null;
+    public synchronized boolean refresh() {
+        try {
+            final List<OpenScienceFrameworkInstitution> institutions = openScienceFrameworkDao.findAllInstitutions();
+            if (institutions == null) {
+                LOGGER.error("Failed to load institutions, keeping the {} institutions loaded before", directory.size());
+                return false;
+            }
+            directory = new OpenScienceFrameworkInstitutionDirectory(institutions);
+            loaded = true;
+            LOGGER.debug("Institutions loaded: {}", directory.size());
+            return true;
+        } catch (final RuntimeException e) {
+            LOGGER.error("Failed to load institutions: {}", e.toString());
+            return false;
+        }
     }
 
     /**
-     * Return a map of institution name and login url.
+     * @return the current institution directory, loaded on first use if the initial load failed
+     */
+    public OpenScienceFrameworkInstitutionDirectory getDirectory() {
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    refresh();
+                }
+            }
+        }
+        return directory;
+    }
+
+    /**
+     * Find the logout url for given institution identified by institution _id.
      *
-     * @param target The osf service target after successful institution login
-     * @return Map&lt;String, String&gt;
+     * @param id the institution _id
+     * @return String or null
      */
-    public Map<String, String> getInstitutionLoginUrls(final String target) {
-        final List<OpenScienceFrameworkInstitution> institutionList = openScienceFrameworkDao.findAllInstitutions();
-        final Map<String, String> institutionLogin = new HashMap<>();
-        for (final OpenScienceFrameworkInstitution institution: institutionList) {
-            institutionLogin.put(institution.getLoginUrl() + "&target=" + target, institution.getName());
+    public String findInstitutionLogoutUrlById(final String id) {
+        final OpenScienceFrameworkInstitutionDirectory current = getDirectory();
+        if (current.contains(id)) {
+            return current.findLogoutUrlById(id);
         }
-        return institutionLogin;
+        // institutions that can no longer be logged in through are not in the directory
+        final OpenScienceFrameworkInstitution institution = openScienceFrameworkDao.findOneInstitutionById(id);
+        return institution != null ? institution.getLogoutUrl() : null;
     }
 }
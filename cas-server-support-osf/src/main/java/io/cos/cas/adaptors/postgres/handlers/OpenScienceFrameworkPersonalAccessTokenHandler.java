@@ -21,7 +21,6 @@ package io.cos.cas.adaptors.postgres.handlers;
 
 import io.cos.cas.adaptors.postgres.daos.OpenScienceFrameworkDaoImpl;
 import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkApiOauth2PersonalAccessToken;
-import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkGuid;
 import org.jasig.cas.support.oauth.personal.PersonalAccessToken;
 import org.jasig.cas.support.oauth.personal.handler.support.AbstractPersonalAccessTokenHandler;
 import org.slf4j.Logger;
@@ -69,13 +68,13 @@ public class OpenScienceFrameworkPersonalAccessTokenHandler extends AbstractPers
             return null;
         }
         final String scopes = token.getScopes() == null ? "" : token.getScopes();
-        final OpenScienceFrameworkGuid guid = openScienceFrameworkDao.findGuidByUser(token.getOwner());
+        final String guid = openScienceFrameworkDao.findGuidIdByUser(token.getOwner());
         if (guid == null) {
             return null;
         }
         return new PersonalAccessToken(
             token.getTokenId(),
-            guid.getGuid(),
+            guid,
             new HashSet<>(Arrays.asList(scopes.split(" ")))
         );
     }
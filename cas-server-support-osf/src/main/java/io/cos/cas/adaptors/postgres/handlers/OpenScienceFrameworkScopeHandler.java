@@ -19,6 +19,7 @@
 
 package io.cos.cas.adaptors.postgres.handlers;
 
+import io.cos.cas.adaptors.postgres.daos.OpenScienceFrameworkCacheRegions;
 import io.cos.cas.adaptors.postgres.daos.OpenScienceFrameworkDaoImpl;
 import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkApiOauth2Scope;
 import org.jasig.cas.support.oauth.scope.Scope;
@@ -28,10 +29,13 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 
 import javax.validation.constraints.NotNull;
+import java.util.concurrent.Callable;
 
 /**
  * The Open Science Framework Scope handler.
  *
+ * The active scopes are cached in the scope region as immutable {@link Scope}s, never as entities.
+ *
  * @author Michael Haselton
  * @author Longze Chen
  * @since 4.1.0
@@ -43,6 +47,10 @@ public class OpenScienceFrameworkScopeHandler extends AbstractScopeHandler imple
     @NotNull
     private OpenScienceFrameworkDaoImpl openScienceFrameworkDao;
 
+    /** The cache regions, of which the scope region is used here, none are cached by default. */
+    @NotNull
+    private OpenScienceFrameworkCacheRegions cacheRegions = new OpenScienceFrameworkCacheRegions();
+
     /** Default Constructor. */
     public OpenScienceFrameworkScopeHandler() {}
 
@@ -53,12 +61,35 @@ public class OpenScienceFrameworkScopeHandler extends AbstractScopeHandler imple
         this.openScienceFrameworkDao = openScienceFrameworkDao;
     }
 
+    /**
+     * @param cacheRegions the cache regions of the read-mostly lookups.
+     */
+    public void setCacheRegions(final OpenScienceFrameworkCacheRegions cacheRegions) {
+        this.cacheRegions = cacheRegions;
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {}
 
     @Override
     public Scope getScope(final String name) {
-        final OpenScienceFrameworkApiOauth2Scope scope = openScienceFrameworkDao.findOneScopeByName(name.toLowerCase());
+        final String key = name.toLowerCase();
+        return cacheRegions.get(OpenScienceFrameworkCacheRegions.SCOPE, key, new Callable<Scope>() {
+            @Override
+            public Scope call() {
+                return loadScope(key);
+            }
+        });
+    }
+
+    /**
+     * Load the scope from the database.
+     *
+     * @param name the lower case scope name
+     * @return the scope, or null if it does not exist or is not active
+     */
+    private Scope loadScope(final String name) {
+        final OpenScienceFrameworkApiOauth2Scope scope = openScienceFrameworkDao.findOneScopeByName(name);
         if (scope == null || !scope.isActive()) {
             return null;
         }
@@ -0,0 +1,184 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.cos.cas.adaptors.postgres.models;
+
+/**
+ * The Open Science Framework Authentication Record.
+ *
+ * An immutable snapshot of everything the authentication handler needs to know about a user: the status flags,
+ * the password hash and verification key, the confirmed two-factor secret and the GUID. Not an entity, it is loaded
+ * from the user, the time-based one-time password and the GUID rows in a single query. The password hash is parsed
+ * once here, so a cached record is never parsed again.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public final class OpenScienceFrameworkAuthenticationRecord {
+
+    private final Integer userId;
+
+    private final String username;
+
+    private final String givenName;
+
+    private final String familyName;
+
+    private final String password;
+
+    private final OpenScienceFrameworkPasswordHash passwordHash;
+
+    private final String verificationKey;
+
+    private final boolean registered;
+
+    private final boolean claimed;
+
+    private final boolean confirmed;
+
+    private final boolean merged;
+
+    private final boolean disabled;
+
+    private final String totpSecretBase32;
+
+    private final String guid;
+
+    /**
+     * Creates a new instance with the given parameters.
+     *
+     * @param userId the user id
+     * @param username the username
+     * @param givenName the given name
+     * @param familyName the family name
+     * @param password the password hash
+     * @param verificationKey the verification key or null
+     * @param registered whether the user is registered
+     * @param claimed whether the user is claimed
+     * @param confirmed whether the user is confirmed
+     * @param merged whether the user is merged into another user
+     * @param disabled whether the user is disabled
+     * @param totpSecretBase32 the Base32 encoded secret of a confirmed two-factor setup or null
+     * @param guid the user's guid or null
+     */
+    public OpenScienceFrameworkAuthenticationRecord(
+            final Integer userId,
+            final String username,
+            final String givenName,
+            final String familyName,
+            final String password,
+            final String verificationKey,
+            final boolean registered,
+            final boolean claimed,
+            final boolean confirmed,
+            final boolean merged,
+            final boolean disabled,
+            final String totpSecretBase32,
+            final String guid) {
+        this.userId = userId;
+        this.username = username;
+        this.givenName = givenName;
+        this.familyName = familyName;
+        this.password = password;
+        this.passwordHash = OpenScienceFrameworkPasswordHash.parse(password);
+        this.verificationKey = verificationKey;
+        this.registered = registered;
+        this.claimed = claimed;
+        this.confirmed = confirmed;
+        this.merged = merged;
+        this.disabled = disabled;
+        this.totpSecretBase32 = totpSecretBase32;
+        this.guid = guid;
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getGivenName() {
+        return givenName;
+    }
+
+    public String getFamilyName() {
+        return familyName;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    /**
+     * @return the parsed password hash or null if the password is unusable or malformed
+     */
+    public OpenScienceFrameworkPasswordHash getPasswordHash() {
+        return passwordHash;
+    }
+
+    public String getVerificationKey() {
+        return verificationKey;
+    }
+
+    public boolean isRegistered() {
+        return registered;
+    }
+
+    public boolean isClaimed() {
+        return claimed;
+    }
+
+    public boolean isConfirmed() {
+        return confirmed;
+    }
+
+    public boolean isMerged() {
+        return merged;
+    }
+
+    public boolean isDisabled() {
+        return disabled;
+    }
+
+    public boolean isActive() {
+        return registered && !merged && !disabled && confirmed;
+    }
+
+    /**
+     * @return true if the user has a confirmed two-factor secret, false otherwise
+     */
+    public boolean isTwoFactorEnabled() {
+        return totpSecretBase32 != null;
+    }
+
+    public String getTotpSecretBase32() {
+        return totpSecretBase32;
+    }
+
+    public String getGuid() {
+        return guid;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OpenScienceFrameworkAuthenticationRecord [userId=%s, username=%s]", userId, username);
+    }
+}
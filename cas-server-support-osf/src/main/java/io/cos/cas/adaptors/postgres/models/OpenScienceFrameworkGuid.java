@@ -5,6 +5,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.OneToOne;
@@ -38,8 +39,12 @@ public class OpenScienceFrameworkGuid {
     @Column(name = "object_id", nullable = false)
     private Integer objectId;
 
-    /** The Content Type of the Object. */
-    @OneToOne
+    /** The Primary Key of the Content Type of the Object, read without loading the content type. */
+    @Column(name = "content_type_id", nullable = false, insertable = false, updatable = false)
+    private Integer contentTypeId;
+
+    /** The Content Type of the Object, only loaded when accessed. */
+    @OneToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "content_type_id")
     private OpenScienceFrameworkDjangoContentTypeId djangoContentType;
 
@@ -63,6 +68,10 @@ public class OpenScienceFrameworkGuid {
         return objectId;
     }
 
+    public Integer getContentTypeId() {
+        return contentTypeId;
+    }
+
     public OpenScienceFrameworkDjangoContentTypeId getDjangoContentType() {
         return djangoContentType;
     }
@@ -73,7 +82,7 @@ public class OpenScienceFrameworkGuid {
             "OpenScienceFrameworkGuid [guid=%s, objectId=%d, djangoContentTypeId=%s]",
             guid,
             objectId,
-            djangoContentType.getId()
+            contentTypeId
         );
     }
 }
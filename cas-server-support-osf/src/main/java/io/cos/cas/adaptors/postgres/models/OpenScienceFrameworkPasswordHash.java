@@ -0,0 +1,190 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.cos.cas.adaptors.postgres.models;
+
+import org.springframework.security.crypto.bcrypt.BCrypt;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The Open Science Framework Password Hash.
+ *
+ * A Django `bcrypt$` or `bcrypt_sha256$` password hash, parsed once when the authentication record is loaded: the
+ * hasher, the BCrypt cost factor and the BCrypt hash rewritten for Spring's {@link BCrypt}, so that nothing but the
+ * BCrypt check itself is left to do on each login.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public final class OpenScienceFrameworkPasswordHash {
+
+    /**
+     * The Django password hashers CAS can verify.
+     */
+    public enum Algorithm {
+
+        /** django.contrib.auth.hashers.BCryptPasswordHasher, kept for backward compatibility. */
+        BCRYPT("bcrypt$"),
+
+        /** django.contrib.auth.hashers.BCryptSHA256PasswordHasher. */
+        BCRYPT_SHA256("bcrypt_sha256$");
+
+        private final String prefix;
+
+        /**
+         * @param prefix the prefix Django stores the hash with
+         */
+        Algorithm(final String prefix) {
+            this.prefix = prefix;
+        }
+
+        public String getPrefix() {
+            return prefix;
+        }
+    }
+
+    private static final int SHORT_IDENTIFIER_LENGTH = "$2$".length();
+
+    private static final int LONG_IDENTIFIER_LENGTH = "$2a$".length();
+
+    private static final int COST_LENGTH = 2;
+
+    private static final int BYTE_MASK = 0xff;
+
+    private static final int NIBBLE_MASK = 0x0f;
+
+    private static final int NIBBLE_BITS = 4;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Algorithm algorithm;
+
+    private final String bcryptHash;
+
+    private final int cost;
+
+    /**
+     * @param algorithm the Django hasher
+     * @param bcryptHash the Spring compatible BCrypt hash
+     * @param cost the BCrypt cost factor
+     */
+    private OpenScienceFrameworkPasswordHash(final Algorithm algorithm, final String bcryptHash, final int cost) {
+        this.algorithm = algorithm;
+        this.bcryptHash = bcryptHash;
+        this.cost = cost;
+    }
+
+    /**
+     * Parse a password hash as stored by Django.
+     *
+     * Spring's BCrypt implements the specification and is not vulnerable to OpenBSD's `u_int8_t` overflow issue. How-
+     * ever, it only recognizes `$2$` or `$2a$` identifier for a password BCrypt hash. The solution is to replace `$2b$`
+     * or `$2y$` with `$2a` in the hash, once, here. This is correct and secure.
+     *
+     * @param passwordHash the password hash stored in database
+     * @return the parsed hash or null if the hash is unusable, malformed or of an unknown hasher
+     */
+    public static OpenScienceFrameworkPasswordHash parse(final String passwordHash) {
+        if (passwordHash == null) {
+            return null;
+        }
+        final Algorithm algorithm;
+        if (passwordHash.startsWith(Algorithm.BCRYPT.getPrefix())) {
+            algorithm = Algorithm.BCRYPT;
+        } else if (passwordHash.startsWith(Algorithm.BCRYPT_SHA256.getPrefix())) {
+            algorithm = Algorithm.BCRYPT_SHA256;
+        } else {
+            return null;
+        }
+
+        final StringBuilder bcryptHash = new StringBuilder(passwordHash.substring(algorithm.getPrefix().length()));
+        // `$2$` has a single character identifier, `$2a$`, `$2b$` and `$2y$` have two
+        final int costOffset;
+        if (bcryptHash.length() >= SHORT_IDENTIFIER_LENGTH && bcryptHash.charAt(SHORT_IDENTIFIER_LENGTH - 1) == '$') {
+            costOffset = SHORT_IDENTIFIER_LENGTH;
+        } else if (bcryptHash.length() >= LONG_IDENTIFIER_LENGTH && bcryptHash.charAt(LONG_IDENTIFIER_LENGTH - 1) == '$') {
+            bcryptHash.setCharAt(LONG_IDENTIFIER_LENGTH - 2, 'a');
+            costOffset = LONG_IDENTIFIER_LENGTH;
+        } else {
+            return null;
+        }
+        if (bcryptHash.charAt(0) != '$' || bcryptHash.length() <= costOffset + COST_LENGTH
+                || bcryptHash.charAt(costOffset + COST_LENGTH) != '$') {
+            return null;
+        }
+        try {
+            final int cost = Integer.parseInt(bcryptHash.substring(costOffset, costOffset + COST_LENGTH));
+            return new OpenScienceFrameworkPasswordHash(algorithm, bcryptHash.toString(), cost);
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Check a plain text password against the hash.
+     *
+     * @param plainTextPassword the plain text password provided by the user
+     * @return true if the password matches, false otherwise
+     */
+    public boolean matches(final String plainTextPassword) {
+        final String password = algorithm == Algorithm.BCRYPT_SHA256
+                ? sha256HashPassword(plainTextPassword) : plainTextPassword;
+        return BCrypt.checkpw(password, bcryptHash);
+    }
+
+    /**
+     * Hash the password using SHA256, the first step for BCryptSHA256.
+     * This is dependent on django.contrib.auth.hashers.BCryptSHA256PasswordHasher.
+     *
+     * @param password the plain text password provided by user
+     * @return the hex encoded password hash
+     */
+    private static String sha256HashPassword(final String password) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        final byte[] sha256HashedPassword = digest.digest(password.getBytes(StandardCharsets.UTF_8));
+        final char[] hex = new char[sha256HashedPassword.length * 2];
+        for (int i = 0; i < sha256HashedPassword.length; i++) {
+            final int b = sha256HashedPassword[i] & BYTE_MASK;
+            hex[i * 2] = HEX_DIGITS[b >>> NIBBLE_BITS];
+            hex[i * 2 + 1] = HEX_DIGITS[b & NIBBLE_MASK];
+        }
+        return new String(hex);
+    }
+
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getCost() {
+        return cost;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OpenScienceFrameworkPasswordHash [algorithm=%s, cost=%d]", algorithm, cost);
+    }
+}
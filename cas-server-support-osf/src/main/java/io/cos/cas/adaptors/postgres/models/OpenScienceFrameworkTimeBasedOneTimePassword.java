@@ -86,7 +86,17 @@ public class OpenScienceFrameworkTimeBasedOneTimePassword {
      * @return the encoded secret
      */
     public String getTotpSecretBase32() {
-        final byte[] bytes = DatatypeConverter.parseHexBinary(totpSecret);
+        return encodeBase32(totpSecret);
+    }
+
+    /**
+     * Re-encode a hex encoded TOTP secret, as stored by the OSF, as Base32.
+     *
+     * @param hexSecret the hex encoded secret
+     * @return the encoded secret
+     */
+    public static String encodeBase32(final String hexSecret) {
+        final byte[] bytes = DatatypeConverter.parseHexBinary(hexSecret);
         return new Base32().encodeAsString(bytes);
     }
 
@@ -0,0 +1,198 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.cos.cas.authentication.handler.support;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import io.cos.cas.authentication.RemoteUserFailedLoginException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Open Science Framework Institution Authentication Client.
+ *
+ * Delivers the institution login payload to the OSF API over a pooled, keep-alive connection. The number of
+ * notifications in flight is bounded by a bulkhead so that an institution login storm fails fast instead of
+ * occupying every servlet container thread while waiting on the OSF API.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public class OpenScienceFrameworkInstitutionAuthClient implements InitializingBean, DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OpenScienceFrameworkInstitutionAuthClient.class);
+
+    private static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+
+    private static final int DEFAULT_READ_TIMEOUT = 10000;
+
+    private static final int DEFAULT_MAX_CONCURRENT_NOTIFICATIONS = 20;
+
+    private static final long DEFAULT_BULKHEAD_TIMEOUT = 1000;
+
+    @NotNull
+    private String institutionsAuthUrl;
+
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+
+    private int readTimeout = DEFAULT_READ_TIMEOUT;
+
+    private int maxConcurrentNotifications = DEFAULT_MAX_CONCURRENT_NOTIFICATIONS;
+
+    private long bulkheadTimeout = DEFAULT_BULKHEAD_TIMEOUT;
+
+    @NotNull
+    private MetricRegistry metricRegistry = new MetricRegistry();
+
+    private CloseableHttpClient httpClient;
+
+    private Semaphore bulkhead;
+
+    private Timer latencyTimer;
+
+    private Meter rejectedMeter;
+
+    private Meter failedMeter;
+
+    /** Default Constructor. */
+    public OpenScienceFrameworkInstitutionAuthClient() {}
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        // a single route is ever used, allow the pool to hold as many connections as there are permits
+        connectionManager.setMaxTotal(this.maxConcurrentNotifications);
+        connectionManager.setDefaultMaxPerRoute(this.maxConcurrentNotifications);
+
+        final RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(this.connectTimeout)
+                .setConnectionRequestTimeout(this.connectTimeout)
+                .setSocketTimeout(this.readTimeout)
+                .build();
+
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .build();
+        this.bulkhead = new Semaphore(this.maxConcurrentNotifications, true);
+
+        this.latencyTimer = this.metricRegistry.timer(MetricRegistry.name(getClass(), "notify"));
+        this.rejectedMeter = this.metricRegistry.meter(MetricRegistry.name(getClass(), "rejected"));
+        this.failedMeter = this.metricRegistry.meter(MetricRegistry.name(getClass(), "failed"));
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (this.httpClient != null) {
+            this.httpClient.close();
+        }
+    }
+
+    /**
+     * Notify the OSF of a remote principal authentication. The OSF Institution Login Endpoint responds with
+     * a 204 No Content when the user has been created and/or affiliated successfully.
+     *
+     * @param username the username of the remote principal, used for logging only
+     * @param payload the encrypted payload to send
+     * @throws RemoteUserFailedLoginException if the bulkhead is saturated or the OSF rejects the notification
+     * @throws IOException on transport failure or timeout
+     */
+    public void notifyAuthenticated(final String username, final String payload)
+            throws RemoteUserFailedLoginException, IOException {
+        try {
+            if (!this.bulkhead.tryAcquire(this.bulkheadTimeout, TimeUnit.MILLISECONDS)) {
+                this.rejectedMeter.mark();
+                LOGGER.error("Notify Remote Principal Authenticated [OSF API] Rejected: <{}> Too Many Concurrent Requests", username);
+                throw new RemoteUserFailedLoginException("Too Many Concurrent Requests to OSF API Endpoint");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteUserFailedLoginException("Interrupted While Waiting for OSF API Endpoint");
+        }
+
+        final Timer.Context timerContext = this.latencyTimer.time();
+        try {
+            final HttpPost httpPost = new HttpPost(this.institutionsAuthUrl);
+            httpPost.setHeader(HttpHeaders.CONTENT_TYPE, ContentType.TEXT_PLAIN.getMimeType());
+            httpPost.setEntity(new StringEntity(payload, ContentType.APPLICATION_JSON));
+
+            try (final CloseableHttpResponse httpResponse = this.httpClient.execute(httpPost)) {
+                final int statusCode = httpResponse.getStatusLine().getStatusCode();
+                LOGGER.info("Notify Remote Principal Authenticated [OSF API] Response: <{}> Status Code {}", username, statusCode);
+                // consume the entity in all cases so the connection can be returned to the pool
+                final String responseString = httpResponse.getEntity() != null
+                        ? EntityUtils.toString(httpResponse.getEntity()) : null;
+                if (statusCode != HttpStatus.SC_NO_CONTENT) {
+                    this.failedMeter.mark();
+                    LOGGER.error("Notify Remote Principal Authenticated [OSF API] Response Body: '{}'", responseString);
+                    throw new RemoteUserFailedLoginException("Invalid Status Code from OSF API Endpoint");
+                }
+            }
+        } catch (final IOException e) {
+            this.failedMeter.mark();
+            throw e;
+        } finally {
+            timerContext.stop();
+            this.bulkhead.release();
+        }
+    }
+
+    public void setInstitutionsAuthUrl(final String institutionsAuthUrl) {
+        this.institutionsAuthUrl = institutionsAuthUrl;
+    }
+
+    public void setConnectTimeout(final int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public void setReadTimeout(final int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public void setMaxConcurrentNotifications(final int maxConcurrentNotifications) {
+        this.maxConcurrentNotifications = maxConcurrentNotifications;
+    }
+
+    public void setBulkheadTimeout(final long bulkheadTimeout) {
+        this.bulkheadTimeout = bulkheadTimeout;
+    }
+
+    public void setMetricRegistry(final MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+    }
+}
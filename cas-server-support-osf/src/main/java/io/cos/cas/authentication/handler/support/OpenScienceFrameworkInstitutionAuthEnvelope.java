@@ -0,0 +1,152 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.cos.cas.authentication.handler.support;
+
+import com.nimbusds.jose.EncryptionMethod;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWEAlgorithm;
+import com.nimbusds.jose.JWEEncrypter;
+import com.nimbusds.jose.JWEHeader;
+import com.nimbusds.jose.JWEObject;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.KeyLengthException;
+import com.nimbusds.jose.Payload;
+import com.nimbusds.jose.crypto.DirectEncrypter;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.springframework.beans.factory.InitializingBean;
+
+import javax.validation.constraints.NotNull;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Open Science Framework Institution Authentication Envelope.
+ *
+ * Wraps the normalized institution login payload for secure transport to the OSF API: a HS256 signed JWT
+ * encrypted as a JWE (dir, A256GCM). The secrets are decoded as UTF-8 and the signer and encrypter are built once,
+ * both are thread-safe and shared by all logins. The keys may be rotated at runtime with
+ * {@link #rotateKeys(String, String)}, which swaps the signer and encrypter together.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public class OpenScienceFrameworkInstitutionAuthEnvelope implements InitializingBean {
+
+    private static final JWSHeader JWS_HEADER = new JWSHeader(JWSAlgorithm.HS256);
+
+    private static final JWEHeader JWE_HEADER = new JWEHeader.Builder(JWEAlgorithm.DIR, EncryptionMethod.A256GCM)
+            .contentType("JWT")
+            .build();
+
+    private static final int SIXTY_SECONDS = 60 * 1000;
+
+    /**
+     * The signer and encrypter, kept together so a rotation is never observed half done.
+     */
+    private static final class Keys {
+
+        private final JWSSigner signer;
+
+        private final JWEEncrypter encrypter;
+
+        /**
+         * Creates a new instance with the given secrets.
+         *
+         * @param jwtSecret the jwt secret
+         * @param jweSecret the jwe secret
+         * @throws KeyLengthException if either secret has an invalid length
+         */
+        Keys(final String jwtSecret, final String jweSecret) throws KeyLengthException {
+            this.signer = new MACSigner(jwtSecret.getBytes(StandardCharsets.UTF_8));
+            this.encrypter = new DirectEncrypter(jweSecret.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @NotNull
+    private String institutionsAuthJwtSecret;
+
+    @NotNull
+    private String institutionsAuthJweSecret;
+
+    private int expiration = SIXTY_SECONDS;
+
+    private final AtomicReference<Keys> keys = new AtomicReference<>();
+
+    /** Default Constructor. */
+    public OpenScienceFrameworkInstitutionAuthEnvelope() {}
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        this.keys.set(new Keys(this.institutionsAuthJwtSecret, this.institutionsAuthJweSecret));
+    }
+
+    /**
+     * Sign and encrypt the payload.
+     *
+     * @param subject the subject of the jwt, the username of the remote principal
+     * @param data the normalized payload
+     * @return the compact serialized jwe
+     * @throws JOSEException if the payload cannot be signed or encrypted
+     */
+    public String seal(final String subject, final String data) throws JOSEException {
+        final Keys current = this.keys.get();
+
+        final JWTClaimsSet claimsSet = new JWTClaimsSet.Builder()
+                .subject(subject)
+                .claim("data", data)
+                .expirationTime(new Date(System.currentTimeMillis() + this.expiration))
+                .build();
+
+        final SignedJWT signedJWT = new SignedJWT(JWS_HEADER, claimsSet);
+        signedJWT.sign(current.signer);
+
+        final JWEObject jweObject = new JWEObject(JWE_HEADER, new Payload(signedJWT));
+        jweObject.encrypt(current.encrypter);
+        return jweObject.serialize();
+    }
+
+    /**
+     * Replace the jwt and jwe secrets. The new signer and encrypter are built first and swapped in together,
+     * payloads sealed concurrently use either the old or the new pair, never a mix of both.
+     *
+     * @param jwtSecret the new jwt secret
+     * @param jweSecret the new jwe secret
+     * @throws KeyLengthException if either secret has an invalid length, the current keys are kept
+     */
+    public void rotateKeys(final String jwtSecret, final String jweSecret) throws KeyLengthException {
+        this.keys.set(new Keys(jwtSecret, jweSecret));
+    }
+
+    public void setInstitutionsAuthJwtSecret(final String institutionsAuthJwtSecret) {
+        this.institutionsAuthJwtSecret = institutionsAuthJwtSecret;
+    }
+
+    public void setInstitutionsAuthJweSecret(final String institutionsAuthJweSecret) {
+        this.institutionsAuthJweSecret = institutionsAuthJweSecret;
+    }
+
+    public void setExpiration(final int expiration) {
+        this.expiration = expiration;
+    }
+}
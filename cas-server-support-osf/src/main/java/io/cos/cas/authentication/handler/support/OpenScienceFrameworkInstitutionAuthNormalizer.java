@@ -0,0 +1,305 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.cos.cas.authentication.handler.support;
+
+import org.json.JSONObject;
+import org.json.XML;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.ResourceUtils;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.validation.constraints.NotNull;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Open Science Framework Institution Authentication Normalizer.
+ *
+ * Runs the institution authentication headers through the institutions XSL and maps the result to the json
+ * payload expected by the OSF API. The stylesheet is compiled once into thread-safe {@link Templates}, each
+ * thread keeps its own {@link Transformer}, the headers are streamed in as SAX events and the transformed
+ * output is mapped straight to json, following the same conventions as {@link XML#toJSONObject(String)}.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public class OpenScienceFrameworkInstitutionAuthNormalizer implements InitializingBean {
+
+    private static final String ROOT_ELEMENT = "auth";
+
+    private static final String ATTRIBUTE_ELEMENT = "attribute";
+
+    private static final String CDATA = "CDATA";
+
+    private static final String CONTENT = "content";
+
+    @NotNull
+    private String institutionsAuthXslLocation;
+
+    private Templates institutionsAuthTemplates;
+
+    private final ThreadLocal<Transformer> institutionsAuthTransformer = new ThreadLocal<Transformer>() {
+        @Override
+        protected Transformer initialValue() {
+            try {
+                return institutionsAuthTemplates.newTransformer();
+            } catch (final TransformerConfigurationException e) {
+                throw new IllegalStateException("Unable to create the institutions auth transformer", e);
+            }
+        }
+    };
+
+    /** Default Constructor. */
+    public OpenScienceFrameworkInstitutionAuthNormalizer() {}
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        final File xslFile = ResourceUtils.getFile(this.institutionsAuthXslLocation);
+        final TransformerFactory tFactory = TransformerFactory.newInstance();
+        this.institutionsAuthTemplates = tFactory.newTemplates(new StreamSource(xslFile));
+    }
+
+    /**
+     * Normalize the authentication headers of a remote principal.
+     *
+     * @param authenticationHeaders the authentication headers, keyed by name with the attribute prefix removed
+     * @return the json object to serialize for authorization with the OSF API
+     * @throws TransformerException a transformer exception
+     */
+    public JSONObject normalize(final Map<String, String> authenticationHeaders) throws TransformerException {
+        final JsonContentHandler handler = new JsonContentHandler();
+        final Transformer transformer = this.institutionsAuthTransformer.get();
+        try {
+            transformer.transform(
+                    new SAXSource(new AttributesXmlReader(authenticationHeaders), new InputSource()),
+                    new SAXResult(handler));
+        } finally {
+            transformer.reset();
+        }
+        return handler.getResult();
+    }
+
+    public void setInstitutionsAuthXslLocation(final String institutionsAuthXslLocation) {
+        this.institutionsAuthXslLocation = institutionsAuthXslLocation;
+    }
+
+    /**
+     * Emits the <code>&lt;auth&gt;&lt;attribute name="" value=""/&gt;...&lt;/auth&gt;</code> document the
+     * stylesheet expects as SAX events, without building a DOM.
+     */
+    private static final class AttributesXmlReader implements XMLReader {
+
+        private final Map<String, String> attributes;
+
+        private final Map<String, Boolean> features = new HashMap<>();
+
+        private final Map<String, Object> properties = new HashMap<>();
+
+        private ContentHandler contentHandler;
+
+        private DTDHandler dtdHandler;
+
+        private EntityResolver entityResolver;
+
+        private ErrorHandler errorHandler;
+
+        /**
+         * Creates a new reader over the given attributes.
+         *
+         * @param attributes the attributes to emit
+         */
+        AttributesXmlReader(final Map<String, String> attributes) {
+            this.attributes = attributes;
+        }
+
+        @Override
+        public void parse(final InputSource input) throws SAXException {
+            final AttributesImpl atts = new AttributesImpl();
+            this.contentHandler.startDocument();
+            this.contentHandler.startElement("", ROOT_ELEMENT, ROOT_ELEMENT, atts);
+            for (final Map.Entry<String, String> entry : this.attributes.entrySet()) {
+                atts.clear();
+                atts.addAttribute("", "name", "name", CDATA, entry.getKey());
+                atts.addAttribute("", "value", "value", CDATA, entry.getValue() == null ? "" : entry.getValue());
+                this.contentHandler.startElement("", ATTRIBUTE_ELEMENT, ATTRIBUTE_ELEMENT, atts);
+                this.contentHandler.endElement("", ATTRIBUTE_ELEMENT, ATTRIBUTE_ELEMENT);
+            }
+            this.contentHandler.endElement("", ROOT_ELEMENT, ROOT_ELEMENT);
+            this.contentHandler.endDocument();
+        }
+
+        @Override
+        public void parse(final String systemId) throws SAXException {
+            parse((InputSource) null);
+        }
+
+        @Override
+        public boolean getFeature(final String name) {
+            final Boolean value = this.features.get(name);
+            return value != null && value;
+        }
+
+        @Override
+        public void setFeature(final String name, final boolean value) {
+            this.features.put(name, value);
+        }
+
+        @Override
+        public Object getProperty(final String name) {
+            return this.properties.get(name);
+        }
+
+        @Override
+        public void setProperty(final String name, final Object value) {
+            this.properties.put(name, value);
+        }
+
+        @Override
+        public void setEntityResolver(final EntityResolver resolver) {
+            this.entityResolver = resolver;
+        }
+
+        @Override
+        public EntityResolver getEntityResolver() {
+            return this.entityResolver;
+        }
+
+        @Override
+        public void setDTDHandler(final DTDHandler handler) {
+            this.dtdHandler = handler;
+        }
+
+        @Override
+        public DTDHandler getDTDHandler() {
+            return this.dtdHandler;
+        }
+
+        @Override
+        public void setContentHandler(final ContentHandler handler) {
+            this.contentHandler = handler;
+        }
+
+        @Override
+        public ContentHandler getContentHandler() {
+            return this.contentHandler;
+        }
+
+        @Override
+        public void setErrorHandler(final ErrorHandler handler) {
+            this.errorHandler = handler;
+        }
+
+        @Override
+        public ErrorHandler getErrorHandler() {
+            return this.errorHandler;
+        }
+    }
+
+    /**
+     * Builds a json object from the transformed document. Attribute and text values are converted with
+     * {@link XML#stringToValue(String)}, repeated elements are accumulated into arrays and empty elements map to
+     * an empty string, as {@link XML#toJSONObject(String)} does.
+     */
+    private static final class JsonContentHandler extends DefaultHandler {
+
+        private final Deque<JSONObject> objects = new ArrayDeque<>();
+
+        private final Deque<StringBuilder> texts = new ArrayDeque<>();
+
+        private final JSONObject result = new JSONObject();
+
+        /** Creates a new handler. */
+        JsonContentHandler() {
+            this.objects.push(this.result);
+            this.texts.push(new StringBuilder());
+        }
+
+        @Override
+        public void startElement(final String uri, final String localName, final String qName, final Attributes atts) {
+            final JSONObject object = new JSONObject();
+            for (int i = 0; i < atts.getLength(); i++) {
+                object.accumulate(name(atts.getLocalName(i), atts.getQName(i)), XML.stringToValue(atts.getValue(i)));
+            }
+            this.objects.push(object);
+            this.texts.push(new StringBuilder());
+        }
+
+        @Override
+        public void characters(final char[] ch, final int start, final int length) {
+            this.texts.peek().append(ch, start, length);
+        }
+
+        @Override
+        public void endElement(final String uri, final String localName, final String qName) {
+            final JSONObject object = this.objects.pop();
+            final String text = this.texts.pop().toString().trim();
+            if (!text.isEmpty()) {
+                object.accumulate(CONTENT, XML.stringToValue(text));
+            }
+
+            final Object value;
+            if (object.length() == 0) {
+                value = "";
+            } else if (object.length() == 1 && object.has(CONTENT)) {
+                value = object.get(CONTENT);
+            } else {
+                value = object;
+            }
+            this.objects.peek().accumulate(name(localName, qName), value);
+        }
+
+        /**
+         * @return the json object built from the document.
+         */
+        public JSONObject getResult() {
+            return this.result;
+        }
+
+        /**
+         * Resolve the name of an element or attribute, preferring the qualified name.
+         *
+         * @param localName the local name
+         * @param qName the qualified name
+         * @return the name
+         */
+        private static String name(final String localName, final String qName) {
+            return qName == null || qName.isEmpty() ? localName : qName;
+        }
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.cos.cas.authentication.handler.support;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkPasswordHash;
+import io.cos.cas.authentication.LoginThrottledException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import javax.validation.constraints.NotNull;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Open Science Framework Password Verifier.
+ *
+ * Runs password hash verifications, which are deliberately CPU-heavy, on a dedicated pool sized to the number of
+ * cores with a bounded queue, instead of on the servlet container threads. A verification is rejected right away
+ * when the queue is full, or when too many verifications are already in flight for the same username or client
+ * address, so a credential-stuffing burst cannot starve the rest of the traffic served by the node.
+ *
+ * The BCrypt cost factor of every verified hash is recorded along with the verify time per cost. When a rehash cost
+ * is set, a successful login with a hash of any other cost is logged to the `passwordRehashLogger`, for the OSF to
+ * pick up and rehash the password at the target cost.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public class OpenScienceFrameworkPasswordVerifier implements InitializingBean, DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OpenScienceFrameworkPasswordVerifier.class);
+
+    private static final Logger REHASH_LOGGER = LoggerFactory.getLogger("passwordRehashLogger");
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+    private static final int DEFAULT_MAX_IN_FLIGHT_PER_USERNAME = 2;
+
+    private static final int DEFAULT_MAX_IN_FLIGHT_PER_ADDRESS = 8;
+
+    private static final long DEFAULT_TIMEOUT = 5000;
+
+    private int poolSize;
+
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+    private int maxInFlightPerUsername = DEFAULT_MAX_IN_FLIGHT_PER_USERNAME;
+
+    private int maxInFlightPerAddress = DEFAULT_MAX_IN_FLIGHT_PER_ADDRESS;
+
+    private long timeout = DEFAULT_TIMEOUT;
+
+    private int rehashCost;
+
+    @NotNull
+    private MetricRegistry metricRegistry = new MetricRegistry();
+
+    private final ConcurrentMap<String, AtomicInteger> inFlightByUsername = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, AtomicInteger> inFlightByAddress = new ConcurrentHashMap<>();
+
+    private ThreadPoolExecutor executor;
+
+    private Timer verifyTimer;
+
+    private Meter rejectedMeter;
+
+    private Histogram costHistogram;
+
+    private Meter rehashNeededMeter;
+
+    /** Default Constructor. */
+    public OpenScienceFrameworkPasswordVerifier() {}
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        final int threads = this.poolSize > 0 ? this.poolSize : Runtime.getRuntime().availableProcessors();
+        this.executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(this.queueCapacity),
+                new CustomizableThreadFactory("osf-password-verifier-"),
+                new ThreadPoolExecutor.AbortPolicy());
+
+        this.verifyTimer = this.metricRegistry.timer(MetricRegistry.name(getClass(), "verify"));
+        this.rejectedMeter = this.metricRegistry.meter(MetricRegistry.name(getClass(), "rejected"));
+        this.costHistogram = this.metricRegistry.histogram(MetricRegistry.name(getClass(), "cost"));
+        this.rehashNeededMeter = this.metricRegistry.meter(MetricRegistry.name(getClass(), "rehashNeeded"));
+        this.metricRegistry.register(MetricRegistry.name(getClass(), "queue"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return executor.getQueue().size();
+            }
+        });
+        this.metricRegistry.register(MetricRegistry.name(getClass(), "active"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return executor.getActiveCount();
+            }
+        });
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Check a plain text password against a parsed hash on the verifier pool.
+     *
+     * @param username the username being verified
+     * @param remoteAddress the client address or null if unknown
+     * @param passwordHash the parsed password hash of the user
+     * @param plainTextPassword the plain text password provided by the user
+     * @return true if the password matches, false otherwise
+     * @throws LoginThrottledException if the verification is rejected or does not complete in time
+     */
+    public boolean verify(
+            final String username,
+            final String remoteAddress,
+            final OpenScienceFrameworkPasswordHash passwordHash,
+            final String plainTextPassword) throws LoginThrottledException {
+        final int cost = passwordHash.getCost();
+        this.costHistogram.update(cost);
+        final Timer costTimer = this.metricRegistry.timer(MetricRegistry.name(getClass(), "verify", "cost-" + cost));
+        final boolean valid = verify(username, remoteAddress, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                final Timer.Context timerContext = costTimer.time();
+                try {
+                    return passwordHash.matches(plainTextPassword);
+                } finally {
+                    timerContext.stop();
+                }
+            }
+        });
+        if (valid && this.rehashCost > 0 && cost != this.rehashCost) {
+            this.rehashNeededMeter.mark();
+            REHASH_LOGGER.info("{} {} {} {}", username, passwordHash.getAlgorithm(), cost, this.rehashCost);
+        }
+        return valid;
+    }
+
+    /**
+     * Run a password verification on the verifier pool and wait for its outcome.
+     *
+     * @param username the username being verified
+     * @param remoteAddress the client address or null if unknown
+     * @param verification the verification to run
+     * @return the outcome of the verification
+     * @throws LoginThrottledException if the verification is rejected or does not complete in time
+     */
+    public boolean verify(final String username, final String remoteAddress, final Callable<Boolean> verification)
+            throws LoginThrottledException {
+        final String usernameKey = username.toLowerCase(Locale.ENGLISH);
+        if (!tryAcquire(this.inFlightByUsername, usernameKey, this.maxInFlightPerUsername)) {
+            throw reject("Too many password verifications in progress for " + username);
+        }
+        try {
+            if (remoteAddress != null && !tryAcquire(this.inFlightByAddress, remoteAddress, this.maxInFlightPerAddress)) {
+                throw reject("Too many password verifications in progress from " + remoteAddress);
+            }
+            try {
+                return execute(verification);
+            } finally {
+                if (remoteAddress != null) {
+                    release(this.inFlightByAddress, remoteAddress);
+                }
+            }
+        } finally {
+            release(this.inFlightByUsername, usernameKey);
+        }
+    }
+
+    /**
+     * Submit the verification and wait for it.
+     *
+     * @param verification the verification to run
+     * @return the outcome of the verification
+     * @throws LoginThrottledException if the verification is rejected or does not complete in time
+     */
+    private boolean execute(final Callable<Boolean> verification) throws LoginThrottledException {
+        final Future<Boolean> future;
+        try {
+            future = this.executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    final Timer.Context timerContext = verifyTimer.time();
+                    try {
+                        return verification.call();
+                    } finally {
+                        timerContext.stop();
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            throw reject("Password verification queue is full");
+        }
+
+        try {
+            return Boolean.TRUE.equals(future.get(this.timeout, TimeUnit.MILLISECONDS));
+        } catch (final TimeoutException e) {
+            future.cancel(true);
+            throw reject("Password verification timed out");
+        } catch (final InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw reject("Interrupted while waiting for password verification");
+        } catch (final ExecutionException e) {
+            LOGGER.error("Password verification failed: {}", e.getCause().toString());
+            return false;
+        }
+    }
+
+    /**
+     * Mark and log a rejection.
+     *
+     * @param message the reason
+     * @return the exception to throw
+     */
+    private LoginThrottledException reject(final String message) {
+        this.rejectedMeter.mark();
+        LOGGER.warn(message);
+        return new LoginThrottledException(message);
+    }
+
+    /**
+     * Take an in-flight slot for the key unless the limit is reached. A counter that dropped to zero is retired and
+     * replaced, so that it is removed from the map without losing a concurrent acquisition.
+     *
+     * @param inFlight the in-flight counters
+     * @param key the key
+     * @param limit the maximum number of in-flight verifications for the key
+     * @return true if a slot was taken, false otherwise
+     */
+    private static boolean tryAcquire(final ConcurrentMap<String, AtomicInteger> inFlight, final String key, final int limit) {
+        while (true) {
+            AtomicInteger counter = inFlight.get(key);
+            if (counter == null) {
+                counter = inFlight.putIfAbsent(key, new AtomicInteger(1));
+                if (counter == null) {
+                    return true;
+                }
+            }
+            final int current = counter.get();
+            if (current <= 0) {
+                inFlight.remove(key, counter);
+            } else if (current >= limit) {
+                return false;
+            } else if (counter.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Give back an in-flight slot for the key.
+     *
+     * @param inFlight the in-flight counters
+     * @param key the key
+     */
+    private static void release(final ConcurrentMap<String, AtomicInteger> inFlight, final String key) {
+        final AtomicInteger counter = inFlight.get(key);
+        if (counter != null && counter.decrementAndGet() <= 0) {
+            inFlight.remove(key, counter);
+        }
+    }
+
+    /**
+     * @param poolSize the number of verification threads, zero or less for one per core
+     */
+    public void setPoolSize(final int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    public void setQueueCapacity(final int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public void setMaxInFlightPerUsername(final int maxInFlightPerUsername) {
+        this.maxInFlightPerUsername = maxInFlightPerUsername;
+    }
+
+    public void setMaxInFlightPerAddress(final int maxInFlightPerAddress) {
+        this.maxInFlightPerAddress = maxInFlightPerAddress;
+    }
+
+    public void setTimeout(final long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @param rehashCost the BCrypt cost every password should be hashed with, zero or less to never ask for a rehash
+     */
+    public void setRehashCost(final int rehashCost) {
+        this.rehashCost = rehashCost;
+    }
+
+    public void setMetricRegistry(final MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+    }
+}
@@ -18,27 +18,9 @@
  */
 package io.cos.cas.authentication.handler.support;
 
-import com.nimbusds.jose.EncryptionMethod;
 import com.nimbusds.jose.JOSEException;
-import com.nimbusds.jose.JWEAlgorithm;
-import com.nimbusds.jose.JWEHeader;
-import com.nimbusds.jose.JWEObject;
-import com.nimbusds.jose.JWSAlgorithm;
-import com.nimbusds.jose.JWSHeader;
-import com.nimbusds.jose.JWSSigner;
-import com.nimbusds.jose.Payload;
-import com.nimbusds.jose.crypto.DirectEncrypter;
-import com.nimbusds.jose.crypto.MACSigner;
-import com.nimbusds.jwt.JWTClaimsSet;
-import com.nimbusds.jwt.SignedJWT;
 import io.cos.cas.authentication.OpenScienceFrameworkCredential;
 import io.cos.cas.authentication.RemoteUserFailedLoginException;
-import org.apache.http.HttpResponse;
-import org.apache.http.HttpStatus;
-import org.apache.http.client.fluent.Request;
-import org.apache.http.entity.ContentType;
-import org.apache.http.impl.client.BasicResponseHandler;
-import org.apache.http.message.BasicHeader;
 import org.jasig.cas.CentralAuthenticationService;
 import org.jasig.cas.authentication.AuthenticationException;
 import org.jasig.cas.authentication.Credential;
@@ -49,37 +31,22 @@ import org.jasig.cas.ticket.ServiceTicket;
 import org.jasig.cas.ticket.TicketException;
 import org.jasig.cas.web.support.WebUtils;
 import org.json.JSONObject;
-import org.json.XML;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.util.ResourceUtils;
 import org.springframework.util.StringUtils;
 import org.springframework.webflow.action.AbstractAction;
 import org.springframework.webflow.core.collection.LocalAttributeMap;
 import org.springframework.webflow.execution.Event;
 import org.springframework.webflow.execution.RequestContext;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 
 import javax.security.auth.login.AccountException;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.validation.constraints.NotNull;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
-import java.io.File;
 import java.io.IOException;
-import java.io.StringWriter;
 import java.util.Collections;
-import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -139,8 +106,6 @@ public final class OpenScienceFrameworkPrincipalFromRequestRemoteUserNonInteract
 
     private static final String SHIBBOLETH_COOKIE_PREFIX = "_shibsession_";
 
-    private static final int SIXTY_SECONDS = 60 * 1000;
-
     /** The logger instance. */
     protected final Logger logger = LoggerFactory.getLogger(this.getClass());
 
@@ -150,18 +115,13 @@ public final class OpenScienceFrameworkPrincipalFromRequestRemoteUserNonInteract
     protected PrincipalFactory principalFactory = new DefaultPrincipalFactory();
 
     @NotNull
-    private String institutionsAuthUrl;
-
-    @NotNull
-    private String institutionsAuthJweSecret;
+    private OpenScienceFrameworkInstitutionAuthClient institutionsAuthClient;
 
     @NotNull
-    private String institutionsAuthJwtSecret;
+    private OpenScienceFrameworkInstitutionAuthEnvelope institutionsAuthEnvelope;
 
     @NotNull
-    private String institutionsAuthXslLocation;
-
-    private Transformer institutionsAuthTransformer;
+    private OpenScienceFrameworkInstitutionAuthNormalizer institutionsAuthNormalizer;
 
     /** Instance of CentralAuthenticationService. */
     @NotNull
@@ -238,16 +198,6 @@ public final class OpenScienceFrameworkPrincipalFromRequestRemoteUserNonInteract
         }
     }
 
-    @Override
-    public void afterPropertiesSet() throws Exception {
-        final File xslFile = ResourceUtils.getFile(this.institutionsAuthXslLocation);
-        final StreamSource xslStreamSource = new StreamSource(xslFile);
-        final TransformerFactory tFactory = TransformerFactory.newInstance();
-        this.institutionsAuthTransformer = tFactory.newTransformer(xslStreamSource);
-
-        super.afterPropertiesSet();
-    }
-
     /**
      * Abstract method to implement to construct the credential from the
      * request object.
@@ -323,7 +273,7 @@ public final class OpenScienceFrameworkPrincipalFromRequestRemoteUserNonInteract
     private PrincipalAuthenticationResult notifyRemotePrincipalAuthenticated(final OpenScienceFrameworkCredential credential)
             throws AccountException {
         try {
-            final JSONObject normalized = this.normalizeRemotePrincipal(credential);
+            final JSONObject normalized = this.institutionsAuthNormalizer.normalize(credential.getAuthenticationHeaders());
             final JSONObject provider = normalized.getJSONObject("provider");
             final String institutionId = provider.getString("id");
             final String username = provider.getJSONObject("user").getString("username");
@@ -333,103 +283,31 @@ public final class OpenScienceFrameworkPrincipalFromRequestRemoteUserNonInteract
             logger.debug("Notify Remote Principal Authenticated [{}, {}] Normalized Payload '{}'", username, institutionId, payload);
 
             // Build a JWT and wrap it with JWE for secure transport to the OSF API.
-            final JWTClaimsSet claimsSet = new JWTClaimsSet.Builder()
-                    .subject(username)
-                    .claim("data", payload)
-                    .expirationTime(new Date(new Date().getTime() + SIXTY_SECONDS))
-                    .build();
-
-            final SignedJWT signedJWT = new SignedJWT(new JWSHeader(JWSAlgorithm.HS256), claimsSet);
-
-            final JWSSigner signer = new MACSigner(this.institutionsAuthJwtSecret.getBytes());
-            signedJWT.sign(signer);
-
-            final JWEObject jweObject = new JWEObject(
-                    new JWEHeader.Builder(JWEAlgorithm.DIR, EncryptionMethod.A256GCM)
-                            .contentType("JWT")
-                            .build(),
-                    new Payload(signedJWT));
-            jweObject.encrypt(new DirectEncrypter(this.institutionsAuthJweSecret.getBytes()));
-            final String jweString = jweObject.serialize();
+            final String jweString = this.institutionsAuthEnvelope.seal(username, payload);
 
             // A call is made to the OSF CAS Institution Login Endpoint to create a registered user (if
             // one does not already exist) and apply institutional affiliation.
-            final HttpResponse httpResponse = Request.Post(this.institutionsAuthUrl)
-                    .addHeader(new BasicHeader("Content-Type", "text/plain"))
-                    .bodyString(jweString, ContentType.APPLICATION_JSON)
-                    .execute()
-                    .returnResponse();
-            final int statusCode = httpResponse.getStatusLine().getStatusCode();
-            logger.info(
-                    "Notify Remote Principal Authenticated [OSF API] Response: <{}> Status Code {}",
-                    username,
-                    statusCode
-            );
-            // The institutional authentication endpoint should always respond with a 204 No Content when successful.
-            if (statusCode != HttpStatus.SC_NO_CONTENT) {
-                final String responseString = new BasicResponseHandler().handleResponse(httpResponse);
-                logger.error("Notify Remote Principal Authenticated [OSF API] Response Body: '{}'", responseString);
-                throw new RemoteUserFailedLoginException("Invalid Status Code from OSF API Endpoint");
-            }
+            this.institutionsAuthClient.notifyAuthenticated(username, jweString);
 
             // return the username for the credential build.
             return new PrincipalAuthenticationResult(username, institutionId);
-        } catch (final JOSEException | IOException | ParserConfigurationException | TransformerException e) {
+        } catch (final JOSEException | IOException | TransformerException e) {
             logger.error("Notify Remote Principal Authenticated Exception: {}", e.getMessage());
             logger.trace("Notify Remote Principal Authenticated Exception: {}", e);
             throw new RemoteUserFailedLoginException("Unable to Build Message for OSF API Endpoint");
         }
     }
 
-    /**
-     * Normalize the Remote Principal credential.
-     *
-     * @param credential the credential object bearing the username, password, etc...
-     * @return the json object to serialize for authorization with the OSF API
-     * @throws ParserConfigurationException a parser configuration exception
-     * @throws TransformerException a transformer exception
-     */
-    private JSONObject normalizeRemotePrincipal(final OpenScienceFrameworkCredential credential)
-            throws ParserConfigurationException, TransformerException {
-        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        final DocumentBuilder builder = factory.newDocumentBuilder();
-
-        final Document document = builder.newDocument();
-        final Element rootElement = document.createElement("auth");
-        document.appendChild(rootElement);
-
-        for (final String key : credential.getAuthenticationHeaders().keySet()) {
-            final Element attribute = document.createElement("attribute");
-            attribute.setAttribute("name", key);
-            attribute.setAttribute("value", credential.getAuthenticationHeaders().get(key));
-            rootElement.appendChild(attribute);
-        }
-
-        // run the auth document through the transformer
-        final DOMSource source = new DOMSource(document);
-        final StringWriter writer = new StringWriter();
-        final StreamResult result = new StreamResult(writer);
-
-        this.institutionsAuthTransformer.transform(source, result);
-
-        // convert transformed xml to json
-        return XML.toJSONObject(writer.getBuffer().toString());
-    }
-
-    public void setInstitutionsAuthUrl(final String institutionsAuthUrl) {
-        this.institutionsAuthUrl = institutionsAuthUrl;
-    }
-
-    public void setInstitutionsAuthJweSecret(final String institutionsAuthJweSecret) {
-        this.institutionsAuthJweSecret = institutionsAuthJweSecret;
+    public void setInstitutionsAuthClient(final OpenScienceFrameworkInstitutionAuthClient institutionsAuthClient) {
+        this.institutionsAuthClient = institutionsAuthClient;
     }
 
-    public void setInstitutionsAuthJwtSecret(final String institutionsAuthJwtSecret) {
-        this.institutionsAuthJwtSecret = institutionsAuthJwtSecret;
+    public void setInstitutionsAuthEnvelope(final OpenScienceFrameworkInstitutionAuthEnvelope institutionsAuthEnvelope) {
+        this.institutionsAuthEnvelope = institutionsAuthEnvelope;
     }
 
-    public void setInstitutionsAuthXslLocation(final String institutionsAuthXslLocation) {
-        this.institutionsAuthXslLocation = institutionsAuthXslLocation;
+    public void setInstitutionsAuthNormalizer(final OpenScienceFrameworkInstitutionAuthNormalizer institutionsAuthNormalizer) {
+        this.institutionsAuthNormalizer = institutionsAuthNormalizer;
     }
 
     /**
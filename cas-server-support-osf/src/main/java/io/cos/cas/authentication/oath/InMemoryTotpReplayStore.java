@@ -0,0 +1,109 @@
+package io.cos.cas.authentication.oath;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A node-local {@link TotpReplayStore}, for a single node or tests, see {@link JpaTotpReplayStore} for a cluster.
+ *
+ * Users are spread over a fixed number of lock stripes. Each stripe keeps one bucket of user ids per interval, in a
+ * ring of `2 * window + 2` buckets indexed by the interval. A bucket is emptied when a newer interval takes its slot,
+ * which only happens once its own interval has left the accepted window, so entries expire without a sweeper and
+ * both the check and the insert are O(1).
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public final class InMemoryTotpReplayStore implements TotpReplayStore {
+
+    private static final int DEFAULT_WINDOW = 1;
+
+    private static final int DEFAULT_STRIPES = 64;
+
+    private static final int GOLDEN_RATIO = 0x9e3779b9;
+
+    private final Stripe[] stripes;
+
+    /**
+     * Create a store for a window of one interval before and after the current one.
+     */
+    public InMemoryTotpReplayStore() {
+        this(DEFAULT_WINDOW, DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param window the number of intervals before and after the current one the verifier accepts
+     * @param concurrency the number of lock stripes, rounded up to a power of two
+     */
+    public InMemoryTotpReplayStore(final int window, final int concurrency) {
+        final int buckets = 2 * window + 2;
+        int size = 1;
+        while (size < concurrency) {
+            size <<= 1;
+        }
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new Stripe(buckets);
+        }
+    }
+
+    @Override
+    public boolean markUsed(final Integer userId, final long interval) {
+        final Stripe stripe = this.stripes[spread(userId.hashCode()) & (this.stripes.length - 1)];
+        synchronized (stripe) {
+            return stripe.add(userId, interval);
+        }
+    }
+
+    /**
+     * Spread the bits of sequential user ids over the stripes.
+     *
+     * @param hash the hash code
+     * @return the spread hash
+     */
+    private static int spread(final int hash) {
+        final int h = hash * GOLDEN_RATIO;
+        return h ^ (h >>> (Integer.SIZE / 2));
+    }
+
+    /**
+     * A ring of interval buckets guarded by its own lock.
+     */
+    private static final class Stripe {
+
+        private final long[] intervals;
+
+        private final Set<Integer>[] users;
+
+        /**
+         * @param buckets the number of buckets in the ring
+         */
+        @SuppressWarnings("unchecked")
+        Stripe(final int buckets) {
+            this.intervals = new long[buckets];
+            this.users = new Set[buckets];
+            for (int i = 0; i < buckets; i++) {
+                this.intervals[i] = TotpVerifier.NO_MATCH;
+                this.users[i] = new HashSet<>();
+            }
+        }
+
+        /**
+         * @param userId the user id
+         * @param interval the interval
+         * @return true if added, false if already present
+         */
+        boolean add(final Integer userId, final long interval) {
+            final int slot = (int) (interval % this.intervals.length);
+            if (this.intervals[slot] != interval) {
+                if (this.intervals[slot] > interval) {
+                    // older than anything the ring still holds, the verifier can no longer accept it
+                    return false;
+                }
+                this.intervals[slot] = interval;
+                this.users[slot].clear();
+            }
+            return this.users[slot].add(userId);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package io.cos.cas.authentication.oath;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.validation.constraints.NotNull;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link TotpReplayStore} backed by the CAS database, which every node shares, so that a code consumed on one node
+ * is refused on every other. Each used interval is a row keyed by user and interval, the insert of a replay fails on
+ * the key and the interval is then found already used. The rows of intervals the verifier can no longer accept are
+ * deleted at most once per interval by each node.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public class JpaTotpReplayStore implements TotpReplayStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JpaTotpReplayStore.class);
+
+    private static final int DEFAULT_WINDOW = 1;
+
+    @NotNull
+    @PersistenceContext(unitName = "persistenceUnitCas")
+    private EntityManager entityManager;
+
+    @NotNull
+    private TransactionTemplate transactionTemplate;
+
+    private int window = DEFAULT_WINDOW;
+
+    /** The intervals before this one have been deleted. */
+    private final AtomicLong purgedBefore = new AtomicLong(TotpVerifier.NO_MATCH);
+
+    /** Default Constructor. */
+    public JpaTotpReplayStore() {}
+
+    @Override
+    public boolean markUsed(final Integer userId, final long interval) {
+        purge(interval);
+        try {
+            return this.transactionTemplate.execute(new TransactionCallback<Boolean>() {
+                @Override
+                public Boolean doInTransaction(final TransactionStatus status) {
+                    entityManager.persist(new UsedTotpInterval(userId, interval));
+                    entityManager.flush();
+                    return Boolean.TRUE;
+                }
+            });
+        } catch (final RuntimeException e) {
+            if (isUsed(userId, interval)) {
+                LOGGER.debug("Time-based one time password interval {} already used by user {}", interval, userId);
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @param userId the user id
+     * @param interval the interval
+     * @return true if the interval is stored as used by the user
+     */
+    private boolean isUsed(final Integer userId, final long interval) {
+        return this.transactionTemplate.execute(new TransactionCallback<Boolean>() {
+            @Override
+            public Boolean doInTransaction(final TransactionStatus status) {
+                return entityManager.find(UsedTotpInterval.class, new UsedTotpInterval.Key(userId, interval)) != null;
+            }
+        });
+    }
+
+    /**
+     * Delete the intervals older than the window of the given interval, once per interval.
+     *
+     * @param interval the current interval
+     */
+    private void purge(final long interval) {
+        final long before = interval - 2 * this.window - 1;
+        final long purged = this.purgedBefore.get();
+        if (before <= purged || !this.purgedBefore.compareAndSet(purged, before)) {
+            return;
+        }
+        try {
+            final int deleted = this.transactionTemplate.execute(new TransactionCallback<Integer>() {
+                @Override
+                public Integer doInTransaction(final TransactionStatus status) {
+                    return entityManager.createQuery("delete from UsedTotpInterval u where u.interval < :before")
+                            .setParameter("before", before)
+                            .executeUpdate();
+                }
+            });
+            LOGGER.debug("Deleted {} used time-based one time password intervals before {}", deleted, before);
+        } catch (final RuntimeException e) {
+            // another node or the next interval deletes them
+            LOGGER.warn("Failed to delete the used time-based one time password intervals before {}", before, e);
+        }
+    }
+
+    /**
+     * @param transactionManager the transaction manager of the CAS database
+     */
+    public void setTransactionManager(final PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * @param window the number of intervals before and after the current one the verifier accepts
+     */
+    public void setWindow(final int window) {
+        this.window = window;
+    }
+
+    /**
+     * @param entityManager the entity manager of the CAS database
+     */
+    public void setEntityManager(final EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+}
@@ -0,0 +1,23 @@
+package io.cos.cas.authentication.oath;
+
+/**
+ * Records the Time-based One Time Password intervals each user has already signed in with, so that a code cannot be
+ * replayed while it is still inside the accepted window.
+ *
+ * A single node can use {@link InMemoryTotpReplayStore}. Nodes behind a load balancer need a store they all share,
+ * such as {@link JpaTotpReplayStore}, since a code consumed on one node must be refused on every other.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public interface TotpReplayStore {
+
+    /**
+     * Atomically mark the interval as used by the user.
+     *
+     * @param userId the user id
+     * @param interval the interval the one time password was valid in
+     * @return true if the interval was not used yet by the user, false if this is a replay
+     */
+    boolean markUsed(Integer userId, long interval);
+}
@@ -0,0 +1,150 @@
+package io.cos.cas.authentication.oath;
+
+import org.apache.commons.codec.binary.Base32;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Verifies Time-based One Time Password codes (RFC 6238, HmacSHA1, six digits) the way {@link TotpUtils} does,
+ * without the per-interval allocations of {@link Totp#generateTotp}.
+ *
+ * The secret is decoded once per attempt and the key is set once on a thread-local {@link Mac}. Every interval of
+ * the window reuses the same 8-byte counter and hash buffers. All intervals are always checked and codes are compared
+ * without branching on the result, so the time taken does not tell which interval, if any, matched. The matched
+ * interval is returned by {@link #findInterval}, for a {@link TotpReplayStore} to record.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public final class TotpVerifier {
+
+    /** The interval returned when the code is not valid in any interval of the window. */
+    public static final long NO_MATCH = -1;
+
+    private static final String CRYPTO = "HmacSHA1";
+
+    private static final int PASS_CODE_MODULUS = 1000000;
+
+    private static final int COUNTER_LENGTH = 8;
+
+    private static final int HASH_OFFSET_MASK = 0xf;
+
+    private static final int BITMASK_255 = 0xff;
+
+    private static final int BITS_PER_BYTE = 8;
+
+    private static final int SIGN_SHIFT = 31;
+
+    private static final long MILLISECONDS_PER_SECOND = 1000;
+
+    private static final Base32 BASE32 = new Base32();
+
+    private static final ThreadLocal<Mac> MAC = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                return Mac.getInstance(CRYPTO);
+            } catch (final NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    /**
+     * A private constructor for the utility class.
+     */
+    private TotpVerifier() {
+    }
+
+    /**
+     * Checks a Time-based One Time Password Code against the current time.
+     *
+     * @param secret the Base32 encoded totp secret
+     * @param code the code to verify
+     * @param interval the totp interval in seconds
+     * @param window the number of intervals before and after the current one to accept
+     * @return true if the code is valid in any interval of the window, false otherwise
+     * @throws InvalidKeyException On the case when the key is invalid.
+     */
+    public static boolean checkCode(final String secret, final long code, final int interval, final int window)
+            throws InvalidKeyException {
+        return findInterval(secret, code, interval, window) != NO_MATCH;
+    }
+
+    /**
+     * Finds the interval a Time-based One Time Password Code is valid in, around the current time.
+     *
+     * @param secret the Base32 encoded totp secret
+     * @param code the code to verify
+     * @param interval the totp interval in seconds
+     * @param window the number of intervals before and after the current one to accept
+     * @return the interval the code is valid in or {@link #NO_MATCH}
+     * @throws InvalidKeyException On the case when the key is invalid.
+     */
+    public static long findInterval(final String secret, final long code, final int interval, final int window)
+            throws InvalidKeyException {
+        final long currentInterval = System.currentTimeMillis() / MILLISECONDS_PER_SECOND / interval;
+        return findInterval(BASE32.decode(secret), code, currentInterval, window);
+    }
+
+    /**
+     * Finds the interval a Time-based One Time Password Code is valid in, among the intervals around the given one.
+     *
+     * @param key the decoded totp secret
+     * @param code the code to verify
+     * @param currentInterval the current interval
+     * @param window the number of intervals before and after the current one to accept
+     * @return the interval the code is valid in or {@link #NO_MATCH}
+     * @throws InvalidKeyException On the case when the key is invalid.
+     */
+    static long findInterval(final byte[] key, final long code, final long currentInterval, final int window)
+            throws InvalidKeyException {
+        // not a six-digit code, nothing about the secret is revealed by rejecting it early
+        if (code < 0 || code >= PASS_CODE_MODULUS) {
+            return NO_MATCH;
+        }
+        final Mac mac = MAC.get();
+        mac.init(new SecretKeySpec(key, "RAW"));
+
+        final byte[] counter = new byte[COUNTER_LENGTH];
+        final byte[] hash = new byte[mac.getMacLength()];
+        long matched = NO_MATCH;
+        for (long i = currentInterval - window; i <= currentInterval + window; i++) {
+            long value = i;
+            for (int j = COUNTER_LENGTH - 1; j >= 0; j--) {
+                counter[j] = (byte) value;
+                value >>>= BITS_PER_BYTE;
+            }
+            mac.update(counter);
+            try {
+                mac.doFinal(hash, 0);
+            } catch (final ShortBufferException e) {
+                throw new IllegalStateException(e);
+            }
+            // a difference of zero is the only one that turns negative when decremented, select without branching
+            final long mask = -(long) (((truncate(hash) ^ (int) code) - 1) >>> SIGN_SHIFT);
+            matched = (matched & ~mask) | (i & mask);
+        }
+        return matched;
+    }
+
+    /**
+     * Dynamic truncation of the HMAC into a six-digit code, as in {@link Totp#generateTotp}.
+     *
+     * @param hash the HMAC
+     * @return the code
+     */
+    private static int truncate(final byte[] hash) {
+        final int offset = hash[hash.length - 1] & HASH_OFFSET_MASK;
+        int binary = 0;
+        for (int j = 0; j < Integer.SIZE / BITS_PER_BYTE; j++) {
+            binary = (binary << BITS_PER_BYTE) | (hash[offset + j] & BITMASK_255);
+        }
+        // drop the sign bit
+        return (binary & Integer.MAX_VALUE) % PASS_CODE_MODULUS;
+    }
+}
@@ -0,0 +1,89 @@
+package io.cos.cas.authentication.oath;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Table;
+import java.io.Serializable;
+
+/**
+ * A Time-based One Time Password interval a user has signed in with, stored by {@link JpaTotpReplayStore} in the CAS
+ * database shared by every node. The user and the interval form the primary key, so the database refuses a second
+ * sign in with a code of the same interval whichever node it reaches.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+@Entity
+@IdClass(UsedTotpInterval.Key.class)
+@Table(name = "TOTP_REPLAY")
+public class UsedTotpInterval {
+
+    @Id
+    @Column(name = "USER_ID", nullable = false)
+    private Integer userId;
+
+    @Id
+    @Column(name = "TOTP_INTERVAL", nullable = false)
+    private long interval;
+
+    /** Default Constructor, for JPA. */
+    public UsedTotpInterval() {}
+
+    /**
+     * @param userId the user id
+     * @param interval the interval
+     */
+    public UsedTotpInterval(final Integer userId, final long interval) {
+        this.userId = userId;
+        this.interval = interval;
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * The primary key of a used interval.
+     */
+    public static class Key implements Serializable {
+
+        private static final long serialVersionUID = 4406917735180912631L;
+
+        private Integer userId;
+
+        private long interval;
+
+        /** Default Constructor, for JPA. */
+        public Key() {}
+
+        /**
+         * @param userId the user id
+         * @param interval the interval
+         */
+        public Key(final Integer userId, final long interval) {
+            this.userId = userId;
+            this.interval = interval;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return this.interval == other.interval
+                    && (this.userId == null ? other.userId == null : this.userId.equals(other.userId));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (this.userId == null ? 0 : this.userId.hashCode()) + (int) (this.interval ^ (this.interval >>> 32));
+        }
+    }
+}
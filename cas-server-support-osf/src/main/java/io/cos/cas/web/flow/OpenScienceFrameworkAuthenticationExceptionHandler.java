@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import io.cos.cas.authentication.LoginNotAllowedException;
+import io.cos.cas.authentication.LoginThrottledException;
 import io.cos.cas.authentication.OneTimePasswordFailedLoginException;
 import io.cos.cas.authentication.OneTimePasswordRequiredException;
 import io.cos.cas.authentication.RemoteUserFailedLoginException;
@@ -52,6 +53,7 @@ public class OpenScienceFrameworkAuthenticationExceptionHandler extends Authenti
         DEFAULT_ERROR_LIST.add(LoginNotAllowedException.class);
         DEFAULT_ERROR_LIST.add(ShouldNotHappenException.class);
         DEFAULT_ERROR_LIST.add(RemoteUserFailedLoginException.class);
+        DEFAULT_ERROR_LIST.add(LoginThrottledException.class);
         // One Time Password Exceptions
         DEFAULT_ERROR_LIST.add(OneTimePasswordFailedLoginException.class);
         DEFAULT_ERROR_LIST.add(OneTimePasswordRequiredException.class);
@@ -20,24 +20,23 @@
 package io.cos.cas.web.flow;
 
 
+import io.cos.cas.adaptors.postgres.handlers.OpenScienceFrameworkInstitutionDirectory;
 import io.cos.cas.adaptors.postgres.handlers.OpenScienceFrameworkInstitutionHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.web.util.HtmlUtils;
 import org.springframework.webflow.execution.Event;
 import org.springframework.webflow.execution.RequestContext;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.LinkedList;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
 
 /**
  * Open Science Framework Institution Login Handler.
  *
+ * The institution select options are rendered once per directory snapshot and shared by every request. Only the
+ * encoded target, which the institution login view appends to the selected login url prefix, is kept per flow.
+ *
  * @author Longze Chen
  * @since 4.1.0
  */
@@ -49,6 +48,9 @@ public class OpenScienceFrameworkInstitutionLoginHandler {
     /** The Institution Authentication Handler. */
     private final OpenScienceFrameworkInstitutionHandler institutionHandler;
 
+    /** The select options of the directory they were rendered from. */
+    private volatile RenderedOptions renderedOptions;
+
     /**
      * Creates a new instance with the given parameters.
      * @param institutionHandler The institution handler
@@ -78,36 +80,66 @@ public class OpenScienceFrameworkInstitutionLoginHandler {
             throw new AssertionError("UTF-8 is unknown");
         }
 
-        final Map<String, String> institutions = this.institutionHandler.getInstitutionLoginUrls(target);
-        institutions.put("", " -- select an institution -- ");
-        final Map<String, String> sortedInstitutions = sortByValue(institutions);
-        logger.info(String.format("Institutions loaded: %s", sortedInstitutions.toString()));
-        context.getFlowScope().put("institutions", sortedInstitutions);
+        context.getFlowScope().put("institutionLoginTarget", target);
         return new Event(this, "success");
     }
 
     /**
-     * Sort a Map by value. Return the sorted Map.
-     * References: http://www.programcreek.com/2013/03/java-sort-map-by-value/
-     *             https://www.mkyong.com/java/how-to-sort-a-map-in-java/
-     *
-     * @param map The Map to be sorted
-     * @param <K> The Type of the Key
-     * @param <V> The Type of the Value
-     * @return Map&lt;K,V&gt;
+     * The Render Institutions Action. Put the pre-rendered institution select options and the directory version in
+     * request scope, so that they are not serialized with the flow. Return the "success" event.
+     * @param context The request context
+     * @return Event
      */
-    private static <K, V extends Comparable<? super V>> Map<K, V> sortByValue(final Map<K, V> map) {
-        final List<Map.Entry<K, V>> list = new LinkedList<>(map.entrySet());
-        Collections.sort(list, new Comparator<Map.Entry<K, V>>() {
-            @Override
-            public int compare(final Map.Entry<K, V> e1, final Map.Entry<K, V> e2) {
-                return (e1.getValue()).compareTo(e2.getValue());
+    public Event renderInstitutions(final RequestContext context) {
+        final RenderedOptions options = getRenderedOptions();
+        context.getRequestScope().put("institutionSelectOptions", options.getOptions());
+        context.getRequestScope().put("institutionDirectoryVersion", options.getDirectory().getVersion());
+        return new Event(this, "success");
+    }
+
+    /**
+     * Return the select options of the current directory, rendering them only if the directory has changed.
+     * @return RenderedOptions
+     */
+    private RenderedOptions getRenderedOptions() {
+        final OpenScienceFrameworkInstitutionDirectory directory = this.institutionHandler.getDirectory();
+        RenderedOptions options = this.renderedOptions;
+        if (options == null || options.getDirectory() != directory) {
+            options = new RenderedOptions(directory);
+            this.renderedOptions = options;
+            logger.debug("Institution select options rendered: {} version {}", directory.size(), directory.getVersion());
+        }
+        return options;
+    }
+
+    /**
+     * The institution select options, with the login url prefixes as values, of a directory snapshot.
+     */
+    private static final class RenderedOptions {
+
+        private final OpenScienceFrameworkInstitutionDirectory directory;
+
+        private final String options;
+
+        /**
+         * @param directory the directory to render
+         */
+        RenderedOptions(final OpenScienceFrameworkInstitutionDirectory directory) {
+            final StringBuilder builder = new StringBuilder();
+            for (final OpenScienceFrameworkInstitutionDirectory.Entry institution : directory.getInstitutions()) {
+                builder.append("<option value=\"").append(HtmlUtils.htmlEscape(institution.getLoginUrlPrefix()))
+                        .append("\">").append(HtmlUtils.htmlEscape(institution.getName())).append("</option>");
             }
-        });
-        final Map<K, V> result = new LinkedHashMap<>();
-        for (final Map.Entry<K, V> entry : list) {
-            result.put(entry.getKey(), entry.getValue());
+            this.directory = directory;
+            this.options = builder.toString();
+        }
+
+        public OpenScienceFrameworkInstitutionDirectory getDirectory() {
+            return directory;
+        }
+
+        public String getOptions() {
+            return options;
         }
-        return result;
     }
 }
@@ -0,0 +1,165 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.cos.cas.web.support;
+
+import com.google.common.cache.CacheStats;
+import io.cos.cas.adaptors.postgres.daos.OpenScienceFrameworkAuthenticationRecordCache;
+import io.cos.cas.adaptors.postgres.daos.OpenScienceFrameworkCacheRegions;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.AbstractController;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+
+/**
+ * Reports the statistics of the OSF cache regions, and evicts a region on a POST with its name as the region
+ * parameter. A POST with a user parameter, the user id, or a username parameter, any username or email of the user,
+ * evicts the authentication records of that user instead, whichever username or email they were cached under. Mapped
+ * under /statistics, behind the same access control as the other statistics endpoints.
+ *
+ * The caches are per node and so are the statistics and evictions: a POST only evicts the entries of the node that
+ * receives it. To evict across a cluster, POST to every node, or wait for the entries to expire.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public final class OpenScienceFrameworkCacheRegionController extends AbstractController {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OpenScienceFrameworkCacheRegionController.class);
+
+    private final OpenScienceFrameworkCacheRegions cacheRegions;
+
+    private OpenScienceFrameworkAuthenticationRecordCache authenticationRecordCache;
+
+    /**
+     * Instantiates a new cache region controller.
+     *
+     * @param cacheRegions the cache regions
+     */
+    public OpenScienceFrameworkCacheRegionController(final OpenScienceFrameworkCacheRegions cacheRegions) {
+        setSupportedMethods(METHOD_GET, METHOD_POST);
+        this.cacheRegions = cacheRegions;
+    }
+
+    @Override
+    protected ModelAndView handleRequestInternal(final HttpServletRequest request, final HttpServletResponse response)
+            throws Exception {
+        final JSONObject result = new JSONObject();
+        if (METHOD_POST.equals(request.getMethod()) && isUserEviction(request)) {
+            return evictUser(request, response);
+        }
+        if (METHOD_POST.equals(request.getMethod())) {
+            final String region = request.getParameter("region");
+            if (region == null || !cacheRegions.evict(region)) {
+                LOGGER.debug("Unknown cache region: {}", region);
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                result.put("error", "unknown region");
+                return write(response, result);
+            }
+            LOGGER.info("Cache region {} evicted by {}", region, request.getRemoteAddr());
+            result.put("evicted", region);
+        }
+
+        for (final String region : cacheRegions.getRegionNames()) {
+            final CacheStats stats = cacheRegions.getStats(region);
+            final JSONObject entry = new JSONObject();
+            entry.put("size", cacheRegions.getSize(region));
+            entry.put("hits", stats.hitCount());
+            entry.put("misses", stats.missCount());
+            entry.put("evictions", stats.evictionCount());
+            entry.put("hitRate", stats.hitRate());
+            result.put(region, entry);
+        }
+        return write(response, result);
+    }
+
+    /**
+     * @param request the request
+     * @return true if the request evicts the authentication records of a user
+     */
+    private boolean isUserEviction(final HttpServletRequest request) {
+        return authenticationRecordCache != null
+                && (request.getParameter("user") != null || request.getParameter("username") != null);
+    }
+
+    /**
+     * Evict the authentication records of the user of the request.
+     *
+     * @param request the request
+     * @param response the response
+     * @return a null view
+     * @throws Exception if the response cannot be written
+     */
+    private ModelAndView evictUser(final HttpServletRequest request, final HttpServletResponse response)
+            throws Exception {
+        final JSONObject result = new JSONObject();
+        final String user = request.getParameter("user");
+        if (user != null) {
+            final Integer userId;
+            try {
+                userId = Integer.valueOf(user);
+            } catch (final NumberFormatException e) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                result.put("error", "invalid user");
+                return write(response, result);
+            }
+            authenticationRecordCache.invalidateUser(userId);
+            result.put("evicted", userId);
+        } else {
+            final Integer userId = authenticationRecordCache.invalidate(request.getParameter("username"));
+            if (userId == null) {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                result.put("error", "unknown user");
+                return write(response, result);
+            }
+            result.put("evicted", userId);
+        }
+        LOGGER.info("Authentication records of {} evicted by {}", result.get("evicted"), request.getRemoteAddr());
+        return write(response, result);
+    }
+
+    /**
+     * Write the result as JSON and return a null view.
+     *
+     * @param response the response
+     * @param result the result
+     * @return a null view
+     * @throws Exception if the response cannot be written
+     */
+    private static ModelAndView write(final HttpServletResponse response, final JSONObject result) throws Exception {
+        response.setContentType("application/json;charset=UTF-8");
+        response.setHeader("Cache-Control", "no-store");
+        try (PrintWriter writer = response.getWriter()) {
+            writer.print(result.toString());
+        }
+        return null;
+    }
+
+    /**
+     * @param authenticationRecordCache the authentication record cache whose users may be evicted, none if null
+     */
+    public void setAuthenticationRecordCache(final OpenScienceFrameworkAuthenticationRecordCache authenticationRecordCache) {
+        this.authenticationRecordCache = authenticationRecordCache;
+    }
+}
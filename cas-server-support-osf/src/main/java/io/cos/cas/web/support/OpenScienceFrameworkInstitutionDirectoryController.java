@@ -0,0 +1,174 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.cos.cas.web.support;
+
+import io.cos.cas.adaptors.postgres.handlers.OpenScienceFrameworkInstitutionDirectory;
+import io.cos.cas.adaptors.postgres.handlers.OpenScienceFrameworkInstitutionHandler;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.AbstractController;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the institutions that can be logged in through as JSON.
+ *
+ * The body is rendered once per directory snapshot. Responses carry a strong ETag, the directory version, and a
+ * public Cache-Control header so that browsers and the CDN revalidate or reuse them instead of asking CAS again.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public final class OpenScienceFrameworkInstitutionDirectoryController extends AbstractController {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OpenScienceFrameworkInstitutionDirectoryController.class);
+
+    private static final long DEFAULT_MAX_AGE = 300;
+
+    private final OpenScienceFrameworkInstitutionHandler institutionHandler;
+
+    private long maxAge = DEFAULT_MAX_AGE;
+
+    private volatile RenderedDirectory renderedDirectory;
+
+    /**
+     * Instantiates a new institution directory controller.
+     *
+     * @param institutionHandler the institution handler
+     */
+    public OpenScienceFrameworkInstitutionDirectoryController(final OpenScienceFrameworkInstitutionHandler institutionHandler) {
+        setSupportedMethods(METHOD_GET, METHOD_HEAD);
+        this.institutionHandler = institutionHandler;
+    }
+
+    /**
+     * @param maxAge how long in seconds browsers and the CDN may reuse a response without revalidating it
+     */
+    public void setMaxAge(final long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    @Override
+    protected ModelAndView handleRequestInternal(final HttpServletRequest request, final HttpServletResponse response)
+            throws Exception {
+        final RenderedDirectory rendered = getRenderedDirectory();
+        response.setHeader("ETag", rendered.getEtag());
+        response.setHeader("Cache-Control", "public, max-age=" + maxAge);
+
+        if (matches(request.getHeader("If-None-Match"), rendered.getEtag())) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return null;
+        }
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("application/json;charset=UTF-8");
+        response.setContentLength(rendered.getBody().length);
+        if (!METHOD_HEAD.equals(request.getMethod())) {
+            response.getOutputStream().write(rendered.getBody());
+        }
+        return null;
+    }
+
+    /**
+     * Return the rendered current directory, rendering it only if the directory has changed.
+     *
+     * @return the rendered directory
+     */
+    private RenderedDirectory getRenderedDirectory() {
+        final OpenScienceFrameworkInstitutionDirectory directory = institutionHandler.getDirectory();
+        RenderedDirectory rendered = renderedDirectory;
+        if (rendered == null || rendered.getDirectory() != directory) {
+            rendered = new RenderedDirectory(directory);
+            renderedDirectory = rendered;
+            LOGGER.debug("Institution directory rendered: {} version {}", directory.size(), directory.getVersion());
+        }
+        return rendered;
+    }
+
+    /**
+     * Check an If-None-Match header against the current ETag.
+     *
+     * @param ifNoneMatch the If-None-Match header, may be null
+     * @param etag the current ETag
+     * @return true if the client already has the current representation
+     */
+    private static boolean matches(final String ifNoneMatch, final String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (final String candidate : ifNoneMatch.split(",")) {
+            final String trimmed = candidate.trim();
+            if ("*".equals(trimmed) || etag.equals(trimmed)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The JSON body and ETag of a directory snapshot.
+     */
+    private static final class RenderedDirectory {
+
+        private final OpenScienceFrameworkInstitutionDirectory directory;
+
+        private final byte[] body;
+
+        private final String etag;
+
+        /**
+         * @param directory the directory to render
+         */
+        RenderedDirectory(final OpenScienceFrameworkInstitutionDirectory directory) {
+            final JSONArray institutions = new JSONArray();
+            for (final OpenScienceFrameworkInstitutionDirectory.Entry institution : directory.getInstitutions()) {
+                final JSONObject entry = new JSONObject();
+                entry.put("id", institution.getId());
+                entry.put("name", institution.getName());
+                entry.put("loginUrl", institution.getLoginUrl());
+                institutions.put(entry);
+            }
+            final JSONObject result = new JSONObject();
+            result.put("version", directory.getVersion());
+            result.put("institutions", institutions);
+
+            this.directory = directory;
+            this.body = result.toString().getBytes(StandardCharsets.UTF_8);
+            this.etag = '"' + directory.getVersion() + '"';
+        }
+
+        public OpenScienceFrameworkInstitutionDirectory getDirectory() {
+            return directory;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+    }
+}
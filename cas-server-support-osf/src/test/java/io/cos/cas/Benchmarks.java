@@ -0,0 +1,97 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.cos.cas;
+
+import org.junit.Assume;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the gated benchmarks of the unit tests: an implementation against the reference it replaces, over a few
+ * rounds so that the later rounds report warm code. The benchmarks are skipped unless the tests run with
+ * -DargLine=-Dbenchmark=true, and report their results under this class at info level.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public final class Benchmarks {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Benchmarks.class);
+
+    private static final int ROUNDS = 3;
+
+    /** Utility class. */
+    private Benchmarks() {}
+
+    /**
+     * Skip the calling test unless run with -Dbenchmark=true.
+     */
+    public static void assumeEnabled() {
+        Assume.assumeTrue("Skipped unless run with -Dbenchmark=true", Boolean.getBoolean("benchmark"));
+    }
+
+    /**
+     * Time the reference and the candidate over the given iterations per round and report their cost per operation.
+     *
+     * @param name the name of the benchmark
+     * @param iterations the iterations per round
+     * @param reference the implementation that is replaced
+     * @param candidate the implementation that replaces it
+     * @throws Exception if an operation fails
+     */
+    public static void compare(final String name, final int iterations, final Operation reference,
+                               final Operation candidate) throws Exception {
+        assumeEnabled();
+        for (int round = 0; round < ROUNDS; round++) {
+            final long referenceNanos = time(reference, round, iterations);
+            final long candidateNanos = time(candidate, round, iterations);
+            LOGGER.info("{} round {}: reference {} ns/op, candidate {} ns/op", name, round,
+                    referenceNanos / iterations, candidateNanos / iterations);
+        }
+    }
+
+    /**
+     * @param operation the operation
+     * @param round the round
+     * @param iterations the iterations
+     * @return the nanoseconds the iterations took
+     * @throws Exception if an operation fails
+     */
+    private static long time(final Operation operation, final int round, final int iterations) throws Exception {
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            operation.run(round * iterations + i);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * An operation of a benchmark.
+     */
+    public interface Operation {
+
+        /**
+         * Run the operation once.
+         *
+         * @param iteration the number of the iteration, unique across the rounds
+         * @throws Exception if the operation fails
+         */
+        void run(int iteration) throws Exception;
+    }
+}
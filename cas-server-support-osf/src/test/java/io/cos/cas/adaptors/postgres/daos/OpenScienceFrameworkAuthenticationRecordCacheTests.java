@@ -0,0 +1,179 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.cos.cas.adaptors.postgres.daos;
+
+import com.google.common.base.Ticker;
+import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkAuthenticationRecord;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * This class tests the {@link OpenScienceFrameworkAuthenticationRecordCache} class.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public final class OpenScienceFrameworkAuthenticationRecordCacheTests {
+
+    private static final String USERNAME = "jane@osf.io";
+
+    private static final String EMAIL = "jane.researcher@university.edu";
+
+    private OpenScienceFrameworkDao dao;
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    };
+
+    @Before
+    public void setUp() {
+        dao = mock(OpenScienceFrameworkDao.class);
+        when(dao.findOneAuthenticationRecordByEmail(USERNAME)).thenAnswer(new RecordAnswer());
+        when(dao.findOneAuthenticationRecordByEmail(EMAIL)).thenAnswer(new RecordAnswer());
+    }
+
+    /**
+     * Answers a new record on every call, like a database would.
+     */
+    private static final class RecordAnswer implements Answer<OpenScienceFrameworkAuthenticationRecord> {
+        @Override
+        public OpenScienceFrameworkAuthenticationRecord answer(final InvocationOnMock invocation) {
+            return new OpenScienceFrameworkAuthenticationRecord(
+                    1, USERNAME, "Jane", "Researcher", "bcrypt$hash", null, true, true, true, false, false, null, "abcde");
+        }
+    }
+
+    private OpenScienceFrameworkAuthenticationRecordCache newCache(final long timeToLive) throws Exception {
+        final OpenScienceFrameworkAuthenticationRecordCache cache = new OpenScienceFrameworkAuthenticationRecordCache();
+        cache.setOpenScienceFrameworkDao(dao);
+        cache.setTimeToLive(timeToLive);
+        cache.setTicker(ticker);
+        cache.afterPropertiesSet();
+        return cache;
+    }
+
+    @Test
+    public void verifyCachedRecordReused() throws Exception {
+        final OpenScienceFrameworkAuthenticationRecordCache cache = newCache(30);
+        final OpenScienceFrameworkAuthenticationRecord record = cache.find(USERNAME);
+        assertSame(record, cache.find(" Jane@OSF.io "));
+        verify(dao, times(1)).findOneAuthenticationRecordByEmail(anyString());
+    }
+
+    @Test
+    public void verifyRecordExpires() throws Exception {
+        final OpenScienceFrameworkAuthenticationRecordCache cache = newCache(30);
+        cache.find(USERNAME);
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(29));
+        cache.find(USERNAME);
+        verify(dao, times(1)).findOneAuthenticationRecordByEmail(USERNAME);
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        cache.find(USERNAME);
+        verify(dao, times(2)).findOneAuthenticationRecordByEmail(USERNAME);
+    }
+
+    @Test
+    public void verifyReloadReplacesRecord() throws Exception {
+        final OpenScienceFrameworkAuthenticationRecordCache cache = newCache(30);
+        final OpenScienceFrameworkAuthenticationRecord record = cache.find(USERNAME);
+        final OpenScienceFrameworkAuthenticationRecord reloaded = cache.reload(USERNAME);
+        assertFalse(record == reloaded);
+        assertSame(reloaded, cache.find(USERNAME));
+        verify(dao, times(2)).findOneAuthenticationRecordByEmail(USERNAME);
+    }
+
+    @Test
+    public void verifyMissNotCached() throws Exception {
+        final OpenScienceFrameworkAuthenticationRecordCache cache = newCache(30);
+        assertNull(cache.find("nobody@osf.io"));
+        assertNull(cache.find("nobody@osf.io"));
+        verify(dao, times(2)).findOneAuthenticationRecordByEmail("nobody@osf.io");
+    }
+
+    @Test
+    public void verifyInvalidateUserEvictsEveryAlias() throws Exception {
+        final OpenScienceFrameworkAuthenticationRecordCache cache = newCache(30);
+        cache.find(USERNAME);
+        final OpenScienceFrameworkAuthenticationRecord evicted = cache.find(EMAIL);
+        cache.invalidateUser(1);
+        assertNotSame(evicted, cache.find(EMAIL));
+        verify(dao, times(2)).findOneAuthenticationRecordByEmail(EMAIL);
+
+        // the reloaded record is shared by every username and email of the user
+        assertSame(cache.find(EMAIL), cache.find(USERNAME));
+        verify(dao, times(1)).findOneAuthenticationRecordByEmail(USERNAME);
+    }
+
+    @Test
+    public void verifyInvalidate() throws Exception {
+        final OpenScienceFrameworkAuthenticationRecordCache cache = newCache(30);
+        cache.find(USERNAME);
+        cache.find(EMAIL);
+        assertEquals(Integer.valueOf(1), cache.invalidate(USERNAME));
+        cache.find(EMAIL);
+        cache.find(USERNAME);
+        verify(dao, times(2)).findOneAuthenticationRecordByEmail(USERNAME);
+        verify(dao, times(2)).findOneAuthenticationRecordByEmail(EMAIL);
+
+        cache.invalidateAll();
+        cache.find(EMAIL);
+        verify(dao, times(3)).findOneAuthenticationRecordByEmail(EMAIL);
+    }
+
+    @Test
+    public void verifyInvalidateUncachedUsernameEvictsEveryAlias() throws Exception {
+        final OpenScienceFrameworkAuthenticationRecordCache cache = newCache(30);
+        final OpenScienceFrameworkAuthenticationRecord evicted = cache.find(EMAIL);
+        assertEquals(Integer.valueOf(1), cache.invalidate(USERNAME));
+        assertNotSame(evicted, cache.find(EMAIL));
+        verify(dao, times(2)).findOneAuthenticationRecordByEmail(EMAIL);
+        assertNull(cache.invalidate("nobody@osf.io"));
+    }
+
+    @Test
+    public void verifyDisabled() throws Exception {
+        final OpenScienceFrameworkAuthenticationRecordCache cache = newCache(0);
+        cache.find(USERNAME);
+        cache.find(USERNAME);
+        verify(dao, times(2)).findOneAuthenticationRecordByEmail(USERNAME);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.cos.cas.adaptors.postgres.daos;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import io.cos.cas.adaptors.postgres.handlers.OpenScienceFrameworkScopeHandler;
+import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkApiOauth2Scope;
+import org.jasig.cas.support.oauth.scope.Scope;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.persistence.EntityManager;
+import javax.persistence.NoResultException;
+import javax.persistence.TypedQuery;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * This class tests the {@link OpenScienceFrameworkCacheRegions} class.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public final class OpenScienceFrameworkCacheRegionsTests {
+
+    private MetricRegistry metricRegistry;
+
+    private OpenScienceFrameworkCacheRegions cacheRegions;
+
+    @Before
+    public void setUp() throws Exception {
+        final Map<String, String> specs = new HashMap<>();
+        specs.put(OpenScienceFrameworkCacheRegions.SCOPE, "maximumSize=10,expireAfterWrite=5m");
+        specs.put(OpenScienceFrameworkCacheRegions.GUID, "");
+        metricRegistry = new MetricRegistry();
+        cacheRegions = new OpenScienceFrameworkCacheRegions();
+        cacheRegions.setSpecs(specs);
+        cacheRegions.setMetricRegistry(metricRegistry);
+        cacheRegions.afterPropertiesSet();
+    }
+
+    private static Callable<String> counting(final AtomicInteger loads, final String value) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                loads.incrementAndGet();
+                return value;
+            }
+        };
+    }
+
+    @Test
+    public void verifyCachedUntilEvicted() {
+        final AtomicInteger loads = new AtomicInteger();
+        assertEquals("osf.full_read", cacheRegions.get(OpenScienceFrameworkCacheRegions.SCOPE, "a", counting(loads, "osf.full_read")));
+        assertEquals("osf.full_read", cacheRegions.get(OpenScienceFrameworkCacheRegions.SCOPE, "a", counting(loads, "osf.full_read")));
+        assertEquals(1, loads.get());
+        assertEquals(1, cacheRegions.getStats(OpenScienceFrameworkCacheRegions.SCOPE).hitCount());
+
+        assertTrue(cacheRegions.evict(OpenScienceFrameworkCacheRegions.SCOPE));
+        assertEquals(0, cacheRegions.getSize(OpenScienceFrameworkCacheRegions.SCOPE));
+        cacheRegions.get(OpenScienceFrameworkCacheRegions.SCOPE, "a", counting(loads, "osf.full_read"));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void verifyNothingFoundNotCached() {
+        final AtomicInteger loads = new AtomicInteger();
+        assertNull(cacheRegions.get(OpenScienceFrameworkCacheRegions.SCOPE, "missing", counting(loads, null)));
+        assertNull(cacheRegions.get(OpenScienceFrameworkCacheRegions.SCOPE, "missing", counting(loads, null)));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void verifyDisabledRegionsNotCached() {
+        final AtomicInteger loads = new AtomicInteger();
+        cacheRegions.get(OpenScienceFrameworkCacheRegions.GUID, 1, counting(loads, "abcde"));
+        cacheRegions.get(OpenScienceFrameworkCacheRegions.GUID, 1, counting(loads, "abcde"));
+        assertEquals(2, loads.get());
+        assertFalse(cacheRegions.evict(OpenScienceFrameworkCacheRegions.GUID));
+        assertEquals(1, cacheRegions.getRegionNames().size());
+    }
+
+    @Test
+    public void verifyMetrics() {
+        final AtomicInteger loads = new AtomicInteger();
+        cacheRegions.get(OpenScienceFrameworkCacheRegions.SCOPE, "a", counting(loads, "osf.full_read"));
+        cacheRegions.get(OpenScienceFrameworkCacheRegions.SCOPE, "a", counting(loads, "osf.full_read"));
+
+        final String prefix = MetricRegistry.name(OpenScienceFrameworkCacheRegions.class, OpenScienceFrameworkCacheRegions.SCOPE);
+        final Map<String, Gauge> gauges = metricRegistry.getGauges();
+        assertEquals(1L, gauges.get(prefix + ".hits").getValue());
+        assertEquals(1L, gauges.get(prefix + ".misses").getValue());
+        assertEquals(1L, gauges.get(prefix + ".size").getValue());
+        assertFalse(gauges.containsKey(MetricRegistry.name(
+                OpenScienceFrameworkCacheRegions.class, OpenScienceFrameworkCacheRegions.GUID, "hits")));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void verifyScopeCachedAsValue() {
+        final EntityManager entityManager = mock(EntityManager.class);
+        final TypedQuery<OpenScienceFrameworkApiOauth2Scope> query = mock(TypedQuery.class);
+        final OpenScienceFrameworkApiOauth2Scope scope = new OpenScienceFrameworkApiOauth2Scope();
+        ReflectionTestUtils.setField(scope, "name", "osf.full_read");
+        ReflectionTestUtils.setField(scope, "isActive", true);
+        when(entityManager.createQuery(anyString(), eq(OpenScienceFrameworkApiOauth2Scope.class))).thenReturn(query);
+        when(query.getSingleResult()).thenReturn(scope).thenThrow(new NoResultException());
+
+        final OpenScienceFrameworkDaoImpl dao = new OpenScienceFrameworkDaoImpl();
+        dao.setEntityManager(entityManager);
+        final OpenScienceFrameworkScopeHandler handler = new OpenScienceFrameworkScopeHandler();
+        handler.setOpenScienceFrameworkDao(dao);
+        handler.setCacheRegions(cacheRegions);
+
+        final Scope cached = handler.getScope("OSF.FULL_READ");
+        assertEquals("osf.full_read", cached.getName());
+        assertSame(cached, handler.getScope("osf.full_read"));
+        assertNull(handler.getScope("osf.unknown"));
+        assertNull(handler.getScope("osf.unknown"));
+        verify(query, times(3)).getSingleResult();
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.cos.cas.adaptors.postgres.daos;
+
+import io.cos.cas.Benchmarks;
+import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkAuthenticationRecord;
+import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkUser;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.persistence.EntityManager;
+import javax.persistence.NoResultException;
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * This class tests the {@link OpenScienceFrameworkDaoImpl} class.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public final class OpenScienceFrameworkDaoImplTests {
+
+    private static final String EMAIL = "jane.researcher@university.edu";
+
+    private static final Integer USER_CONTENT_TYPE_ID = 7;
+
+    private EntityManager entityManager;
+
+    private Query query;
+
+    private TypedQuery<Integer> contentTypeQuery;
+
+    private OpenScienceFrameworkDaoImpl dao;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        entityManager = mock(EntityManager.class);
+        query = mock(Query.class);
+        when(entityManager.createNativeQuery(anyString())).thenReturn(query);
+        contentTypeQuery = mock(TypedQuery.class);
+        when(contentTypeQuery.getSingleResult()).thenReturn(USER_CONTENT_TYPE_ID);
+        when(entityManager.createQuery(anyString(), eq(Integer.class))).thenReturn(contentTypeQuery);
+
+        dao = new OpenScienceFrameworkDaoImpl();
+        dao.setEntityManager(entityManager);
+        dao.afterPropertiesSet();
+    }
+
+    private static Object[] row(final Object totpSecret, final Object guid) {
+        return new Object[] {
+            42, "jane@osf.io", "Jane", "Researcher", "bcrypt$hash", "key",
+            true, true, true, false, false, totpSecret, guid,
+        };
+    }
+
+    @Test
+    public void verifyAuthenticationRecordInOneQuery() {
+        when(query.getResultList()).thenReturn(Collections.singletonList(row("0123456789abcdef", "abcde")));
+
+        final OpenScienceFrameworkAuthenticationRecord record = dao.findOneAuthenticationRecordByEmail(EMAIL);
+
+        verify(entityManager, times(1)).createNativeQuery(anyString());
+        verify(entityManager, never()).createQuery(anyString());
+        verify(query).setParameter("email", EMAIL);
+        verify(query).setParameter("contentTypeId", USER_CONTENT_TYPE_ID);
+        assertEquals(Integer.valueOf(42), record.getUserId());
+        assertEquals("jane@osf.io", record.getUsername());
+        assertEquals("key", record.getVerificationKey());
+        assertTrue(record.isActive());
+        assertTrue(record.isTwoFactorEnabled());
+        assertEquals("AERUKZ4JVPG66===", record.getTotpSecretBase32());
+        assertEquals("abcde", record.getGuid());
+    }
+
+    @Test
+    public void verifyAuthenticationRecordWithoutTwoFactor() {
+        when(query.getResultList()).thenReturn(Collections.singletonList(row(null, "abcde")));
+
+        final OpenScienceFrameworkAuthenticationRecord record = dao.findOneAuthenticationRecordByEmail(EMAIL);
+        assertFalse(record.isTwoFactorEnabled());
+        assertNull(record.getTotpSecretBase32());
+    }
+
+    @Test
+    public void verifyAuthenticationRecordNotFound() {
+        when(query.getResultList()).thenReturn(Collections.emptyList());
+        assertNull(dao.findOneAuthenticationRecordByEmail(EMAIL));
+    }
+
+    @Test
+    public void verifyAuthenticationRecordPersistenceException() {
+        when(query.getResultList()).thenThrow(new PersistenceException("connection refused"));
+        assertNull(dao.findOneAuthenticationRecordByEmail(EMAIL));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void verifyDistinctEmailsShareOneStatement() {
+        final TypedQuery<OpenScienceFrameworkUser> byUsername = mock(TypedQuery.class);
+        when(byUsername.getSingleResult()).thenThrow(new NoResultException());
+        when(entityManager.createQuery(anyString(), eq(OpenScienceFrameworkUser.class))).thenReturn(byUsername);
+        final OpenScienceFrameworkUser user = new OpenScienceFrameworkUser();
+        when(entityManager.createNativeQuery(anyString(), eq(OpenScienceFrameworkUser.class))).thenReturn(query);
+        when(query.getSingleResult()).thenReturn(user);
+
+        // distinct email logins, one of them trying to break out of the array literal
+        assertEquals(user, dao.findOneUserByEmail("researcher0@university.edu"));
+        assertEquals(user, dao.findOneUserByEmail("researcher1@university.edu"));
+        final String injection = "x}'::varchar[] or '1'='1";
+        dao.findOneUserByEmail(injection);
+
+        final ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(entityManager, times(3)).createNativeQuery(sql.capture(), eq(OpenScienceFrameworkUser.class));
+        assertEquals(1, new HashSet<>(sql.getAllValues()).size());
+        assertFalse(sql.getValue().contains("university.edu"));
+        verify(query).setParameter("email", "researcher0@university.edu");
+        verify(query).setParameter("email", injection);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void verifyGuidByUserWithoutContentTypeJoin() {
+        final TypedQuery<String> guidQuery = mock(TypedQuery.class);
+        when(guidQuery.getSingleResult()).thenReturn("g42");
+        when(entityManager.createQuery(anyString(), eq(String.class))).thenReturn(guidQuery);
+        final OpenScienceFrameworkUser user = new OpenScienceFrameworkUser();
+        ReflectionTestUtils.setField(user, "id", 42);
+
+        assertEquals("g42", dao.findGuidIdByUser(user));
+        assertEquals("g42", dao.findGuidIdByUser(user));
+
+        final ArgumentCaptor<String> jpql = ArgumentCaptor.forClass(String.class);
+        verify(entityManager, times(2)).createQuery(jpql.capture(), eq(String.class));
+        assertFalse(jpql.getValue().contains("djangoContentType"));
+        verify(guidQuery, times(2)).setParameter("contentTypeId", USER_CONTENT_TYPE_ID);
+        // resolved once, at startup
+        verify(contentTypeQuery, times(1)).getSingleResult();
+    }
+
+    @Test
+    public void verifyContentTypeRetriedAfterFailedStartup() throws Exception {
+        when(contentTypeQuery.getSingleResult()).thenThrow(new PersistenceException("connection refused"))
+                .thenReturn(USER_CONTENT_TYPE_ID);
+        final OpenScienceFrameworkDaoImpl restarted = new OpenScienceFrameworkDaoImpl();
+        restarted.setEntityManager(entityManager);
+        restarted.afterPropertiesSet();
+
+        when(query.getResultList()).thenReturn(Collections.singletonList(row(null, "abcde")));
+        assertEquals("abcde", restarted.findOneAuthenticationRecordByEmail(EMAIL).getGuid());
+        verify(query).setParameter("contentTypeId", USER_CONTENT_TYPE_ID);
+    }
+
+    /**
+     * Compares looking up distinct emails with the email inlined in the SQL, as before, and bound to one prepared
+     * statement, against a real OSF database. Also needs
+     * -Dbenchmark.jdbcUrl=jdbc:postgresql://host/osf?user=...&amp;password=..., with the PostgreSQL driver on the test
+     * classpath.
+     */
+    @Test
+    public void benchmark() throws Exception {
+        Benchmarks.assumeEnabled();
+        final String url = System.getProperty("benchmark.jdbcUrl");
+        Assume.assumeNotNull(url);
+        try (final Connection connection = DriverManager.getConnection(url);
+             final Statement inlined = connection.createStatement();
+             final PreparedStatement bound = connection.prepareStatement(
+                     "select u.id from osf_osfuser u where u.emails @> cast(array[?] as varchar[])")) {
+            Benchmarks.compare("Email lookup", 2000, new Benchmarks.Operation() {
+                @Override
+                public void run(final int iteration) throws Exception {
+                    drain(inlined.executeQuery("select u.id from osf_osfuser u where u.emails @> '{researcher"
+                            + iteration + "@university.edu}'::varchar[]"));
+                }
+            }, new Benchmarks.Operation() {
+                @Override
+                public void run(final int iteration) throws Exception {
+                    bound.setString(1, "researcher" + iteration + "@university.edu");
+                    drain(bound.executeQuery());
+                }
+            });
+        }
+    }
+
+    /**
+     * Read and close the result set.
+     *
+     * @param resultSet the result set
+     * @throws SQLException if reading fails
+     */
+    private static void drain(final ResultSet resultSet) throws SQLException {
+        try (final ResultSet rows = resultSet) {
+            while (rows.next()) {
+                rows.getInt(1);
+            }
+        }
+    }
+}
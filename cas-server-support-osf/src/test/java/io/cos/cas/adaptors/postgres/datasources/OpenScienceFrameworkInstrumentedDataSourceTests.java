@@ -0,0 +1,226 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.cos.cas.adaptors.postgres.datasources;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * This class tests the {@link OpenScienceFrameworkInstrumentedDataSource} class against a bounded in-memory pool.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public final class OpenScienceFrameworkInstrumentedDataSourceTests {
+
+    private static final String PREFIX = MetricRegistry.name(OpenScienceFrameworkInstrumentedDataSource.class, "osf");
+
+    private MetricRegistry metricRegistry;
+
+    private BoundedPool pool;
+
+    private OpenScienceFrameworkInstrumentedDataSource dataSource;
+
+    @Before
+    public void setUp() {
+        metricRegistry = new MetricRegistry();
+        pool = new BoundedPool(4, 100);
+        dataSource = new OpenScienceFrameworkInstrumentedDataSource();
+        dataSource.setTargetDataSource(pool);
+        dataSource.setCheckoutTimeout(100);
+        dataSource.setMetricRegistry(metricRegistry);
+        dataSource.afterPropertiesSet();
+    }
+
+    @Test
+    public void verifyActiveUntilClosed() throws Exception {
+        final Connection connection = dataSource.getConnection();
+        assertEquals(1, dataSource.getActive());
+        assertEquals(1, metricRegistry.getGauges().get(PREFIX + ".active").getValue());
+        assertEquals(connection, connection);
+        assertFalse(connection.isClosed());
+
+        connection.close();
+        connection.close();
+        assertEquals(0, dataSource.getActive());
+        assertTrue(connection.isClosed());
+        assertEquals(1, metricRegistry.timer(PREFIX + ".wait").getCount());
+    }
+
+    @Test
+    public void verifyExhaustion() throws Exception {
+        final List<Connection> connections = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            connections.add(dataSource.getConnection());
+        }
+        try {
+            dataSource.getConnection();
+            fail("The pool should be exhausted");
+        } catch (final SQLException e) {
+            assertEquals(1, metricRegistry.meter(PREFIX + ".exhausted").getCount());
+            assertEquals(1, metricRegistry.meter(PREFIX + ".failed").getCount());
+        }
+        for (final Connection connection : connections) {
+            connection.close();
+        }
+        dataSource.getConnection().close();
+        assertEquals(0, dataSource.getActive());
+        assertEquals(5, metricRegistry.timer(PREFIX + ".wait").getCount());
+    }
+
+    @Test
+    public void verifyFailureWithoutWaitIsNotExhaustion() throws Exception {
+        pool.setBroken(true);
+        try {
+            dataSource.getConnection();
+            fail("The pool should fail");
+        } catch (final SQLException e) {
+            assertEquals(0, metricRegistry.meter(PREFIX + ".exhausted").getCount());
+            assertEquals(1, metricRegistry.meter(PREFIX + ".failed").getCount());
+        }
+        assertEquals(0, metricRegistry.getGauges().get(PREFIX + ".waiting").getValue());
+    }
+
+    @Test
+    public void verifyUnderLoad() throws Exception {
+        final int threads = 16;
+        final int checkouts = 200;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger peak = new AtomicInteger();
+        try {
+            final List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        start.await();
+                        int failures = 0;
+                        for (int j = 0; j < checkouts; j++) {
+                            try (final Connection connection = dataSource.getConnection()) {
+                                final int active = dataSource.getActive();
+                                if (active > peak.get()) {
+                                    peak.set(active);
+                                }
+                                connection.isClosed();
+                            } catch (final SQLException e) {
+                                failures++;
+                            }
+                        }
+                        return failures;
+                    }
+                }));
+            }
+            start.countDown();
+            int failures = 0;
+            for (final Future<Integer> result : results) {
+                failures += result.get();
+            }
+            assertEquals(0, dataSource.getActive());
+            assertTrue(peak.get() <= 4);
+            assertEquals(threads * checkouts - failures, metricRegistry.timer(PREFIX + ".wait").getCount());
+            assertEquals(failures, metricRegistry.meter(PREFIX + ".failed").getCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A pool of a fixed number of connections, with a checkout timeout.
+     */
+    private static final class BoundedPool extends AbstractDataSource {
+
+        private final Semaphore permits;
+
+        private final long checkoutTimeout;
+
+        private volatile boolean broken;
+
+        BoundedPool(final int size, final long checkoutTimeout) {
+            this.permits = new Semaphore(size);
+            this.checkoutTimeout = checkoutTimeout;
+        }
+
+        void setBroken(final boolean broken) {
+            this.broken = broken;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            if (broken) {
+                throw new SQLException("Connection refused");
+            }
+            try {
+                if (!permits.tryAcquire(checkoutTimeout, TimeUnit.MILLISECONDS)) {
+                    throw new SQLException("Checkout timed out");
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException(e);
+            }
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Connection.class},
+                    new InvocationHandler() {
+                        private boolean closed;
+
+                        @Override
+                        public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                            if ("close".equals(method.getName())) {
+                                if (!closed) {
+                                    closed = true;
+                                    permits.release();
+                                }
+                                return null;
+                            } else if ("isClosed".equals(method.getName())) {
+                                return closed;
+                            }
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+
+        @Override
+        public Connection getConnection(final String username, final String password) throws SQLException {
+            return getConnection();
+        }
+    }
+}
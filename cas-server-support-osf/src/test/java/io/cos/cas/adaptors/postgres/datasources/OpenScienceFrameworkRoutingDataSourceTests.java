@@ -0,0 +1,169 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.cos.cas.adaptors.postgres.datasources;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * This class tests the {@link OpenScienceFrameworkRoutingDataSource} class with a primary and a replica.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public final class OpenScienceFrameworkRoutingDataSourceTests {
+
+    private DataSource primary;
+
+    private DataSource replica;
+
+    private Connection primaryConnection;
+
+    private Connection replicaConnection;
+
+    private ResultSet staleness;
+
+    private OpenScienceFrameworkRoutingDataSource dataSource;
+
+    @Before
+    public void setUp() throws Exception {
+        primary = mock(DataSource.class);
+        replica = mock(DataSource.class);
+        primaryConnection = mock(Connection.class);
+        replicaConnection = mock(Connection.class);
+        when(primary.getConnection()).thenReturn(primaryConnection);
+        when(replica.getConnection()).thenReturn(replicaConnection);
+
+        final Statement statement = mock(Statement.class);
+        staleness = mock(ResultSet.class);
+        when(replicaConnection.createStatement()).thenReturn(statement);
+        when(statement.executeQuery(anyString())).thenReturn(staleness);
+        when(staleness.next()).thenReturn(true);
+        when(staleness.getDouble(1)).thenReturn(1.5);
+
+        dataSource = new OpenScienceFrameworkRoutingDataSource();
+        dataSource.setPrimaryDataSource(primary);
+        dataSource.setReplicaDataSource(replica);
+        dataSource.setCheckInterval(0);
+        dataSource.setMaxStaleness(30);
+        dataSource.setRetryDelay(60);
+        dataSource.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dataSource.destroy();
+    }
+
+    @Test
+    public void verifyReadsFromReplica() throws Exception {
+        assertTrue(dataSource.checkReplica());
+        assertSame(replicaConnection, dataSource.getConnection());
+    }
+
+    @Test
+    public void verifyPrimaryWhenAsked() throws Exception {
+        final boolean outer = OpenScienceFrameworkRoutingDataSource.usePrimary();
+        try {
+            assertSame(primaryConnection, dataSource.getConnection());
+            final boolean inner = OpenScienceFrameworkRoutingDataSource.usePrimary();
+            OpenScienceFrameworkRoutingDataSource.restore(inner);
+            // still inside the outer block
+            assertSame(primaryConnection, dataSource.getConnection());
+        } finally {
+            OpenScienceFrameworkRoutingDataSource.restore(outer);
+        }
+        assertSame(replicaConnection, dataSource.getConnection());
+    }
+
+    @Test
+    public void verifyStaleReplicaSkipped() throws Exception {
+        when(staleness.getDouble(1)).thenReturn(45.0);
+        assertFalse(dataSource.checkReplica());
+        assertSame(primaryConnection, dataSource.getConnection());
+
+        when(staleness.getDouble(1)).thenReturn(0.0);
+        assertTrue(dataSource.checkReplica());
+        assertSame(replicaConnection, dataSource.getConnection());
+    }
+
+    @Test
+    public void verifyUncheckableReplicaSkipped() throws Exception {
+        when(staleness.next()).thenThrow(new SQLException("recovery conflict"));
+        assertFalse(dataSource.checkReplica());
+        assertSame(primaryConnection, dataSource.getConnection());
+    }
+
+    @Test
+    public void verifyFallbackWhenReplicaUnavailable() throws Exception {
+        when(replica.getConnection()).thenThrow(new SQLException("Connection refused"));
+        assertSame(primaryConnection, dataSource.getConnection());
+
+        // the replica is left alone for the retry delay
+        doReturn(replicaConnection).when(replica).getConnection();
+        assertSame(primaryConnection, dataSource.getConnection());
+    }
+
+    @Test
+    public void verifySameDataSourceNeverChecked() throws Exception {
+        final OpenScienceFrameworkRoutingDataSource single = new OpenScienceFrameworkRoutingDataSource();
+        single.setPrimaryDataSource(primary);
+        single.setReplicaDataSource(primary);
+        single.afterPropertiesSet();
+        try {
+            assertSame(primaryConnection, single.getConnection());
+            verify(primaryConnection, never()).createStatement();
+        } finally {
+            single.destroy();
+        }
+    }
+
+    @Test
+    public void verifyCredentialsRoutedLikeOtherConnections() throws Exception {
+        final Connection withCredentials = mock(Connection.class);
+        when(replica.getConnection("osf", "secret")).thenReturn(withCredentials);
+        when(primary.getConnection("osf", "secret")).thenReturn(primaryConnection);
+        assertSame(withCredentials, dataSource.getConnection("osf", "secret"));
+
+        final boolean previous = OpenScienceFrameworkRoutingDataSource.usePrimary();
+        try {
+            assertSame(primaryConnection, dataSource.getConnection("osf", "secret"));
+        } finally {
+            OpenScienceFrameworkRoutingDataSource.restore(previous);
+        }
+    }
+}
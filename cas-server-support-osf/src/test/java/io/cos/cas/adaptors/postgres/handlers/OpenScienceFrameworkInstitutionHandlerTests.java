@@ -0,0 +1,142 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.cos.cas.adaptors.postgres.handlers;
+
+import io.cos.cas.adaptors.postgres.daos.OpenScienceFrameworkDaoImpl;
+import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkInstitution;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * This class tests the {@link OpenScienceFrameworkInstitutionHandler} class.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public final class OpenScienceFrameworkInstitutionHandlerTests {
+
+    private OpenScienceFrameworkDaoImpl dao;
+
+    private OpenScienceFrameworkInstitutionHandler handler;
+
+    private static OpenScienceFrameworkInstitution institution(final String id, final String name, final String logoutUrl) {
+        final OpenScienceFrameworkInstitution institution = new OpenScienceFrameworkInstitution();
+        ReflectionTestUtils.setField(institution, "objectId", id);
+        ReflectionTestUtils.setField(institution, "name", name);
+        ReflectionTestUtils.setField(institution, "loginUrl", "https://idp.example.edu/login?entityID=" + id);
+        ReflectionTestUtils.setField(institution, "logoutUrl", logoutUrl);
+        return institution;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dao = mock(OpenScienceFrameworkDaoImpl.class);
+        when(dao.findAllInstitutions()).thenReturn(Arrays.asList(
+                institution("vt", "Virginia Tech", "https://vt.example.edu/logout"),
+                institution("cos", "Center For Open Science", null),
+                institution("uva", "University of Virginia", "https://uva.example.edu/logout")));
+
+        handler = new OpenScienceFrameworkInstitutionHandler();
+        handler.setOpenScienceFrameworkDao(dao);
+        handler.setRefreshInterval(0);
+        handler.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        handler.destroy();
+    }
+
+    @Test
+    public void verifyInstitutionsSortedByName() {
+        final List<String> names = new ArrayList<>();
+        for (final OpenScienceFrameworkInstitutionDirectory.Entry entry : handler.getDirectory().getInstitutions()) {
+            names.add(entry.getName());
+        }
+        assertEquals(Arrays.asList("Center For Open Science", "University of Virginia", "Virginia Tech"), names);
+        assertEquals(
+                "https://idp.example.edu/login?entityID=cos&target=",
+                handler.getDirectory().getInstitutions().get(0).getLoginUrlPrefix());
+
+        handler.getDirectory();
+        verify(dao, times(1)).findAllInstitutions();
+    }
+
+    @Test
+    public void verifyLogoutUrlFromDirectory() {
+        assertEquals("https://vt.example.edu/logout", handler.findInstitutionLogoutUrlById("vt"));
+        assertNull(handler.findInstitutionLogoutUrlById("cos"));
+        verify(dao, never()).findOneInstitutionById("vt");
+        verify(dao, never()).findOneInstitutionById("cos");
+    }
+
+    @Test
+    public void verifyLogoutUrlOutsideDirectory() {
+        final OpenScienceFrameworkInstitution deleted = institution("old", "Old University", "https://old.example.edu/logout");
+        when(dao.findOneInstitutionById("old")).thenReturn(deleted);
+        assertEquals("https://old.example.edu/logout", handler.findInstitutionLogoutUrlById("old"));
+    }
+
+    @Test
+    public void verifyFailedRefreshKeepsDirectory() {
+        when(dao.findAllInstitutions()).thenReturn(null);
+        assertFalse(handler.refresh());
+        assertEquals(3, handler.getDirectory().size());
+
+        final List<OpenScienceFrameworkInstitution> institutions = new ArrayList<>();
+        institutions.add(institution("vt", "Virginia Tech", null));
+        when(dao.findAllInstitutions()).thenReturn(institutions);
+        assertTrue(handler.refresh());
+        assertEquals(1, handler.getDirectory().size());
+    }
+
+    @Test
+    public void verifyInitialLoadRetried() throws Exception {
+        final List<OpenScienceFrameworkInstitution> institutions = dao.findAllInstitutions();
+        final OpenScienceFrameworkDaoImpl unavailable = mock(OpenScienceFrameworkDaoImpl.class);
+        when(unavailable.findAllInstitutions()).thenReturn(null);
+        final OpenScienceFrameworkInstitutionHandler restarted = new OpenScienceFrameworkInstitutionHandler();
+        restarted.setOpenScienceFrameworkDao(unavailable);
+        restarted.setRefreshInterval(0);
+        restarted.afterPropertiesSet();
+        assertEquals(0, restarted.getDirectory().size());
+
+        when(unavailable.findAllInstitutions()).thenReturn(institutions);
+        assertEquals(3, restarted.getDirectory().size());
+        assertEquals(3, restarted.getDirectory().size());
+        verify(unavailable, times(3)).findAllInstitutions();
+    }
+}
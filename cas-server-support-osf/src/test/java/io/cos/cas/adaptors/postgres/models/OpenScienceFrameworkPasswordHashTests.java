@@ -0,0 +1,96 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.cos.cas.adaptors.postgres.models;
+
+import org.junit.Test;
+import org.springframework.security.crypto.bcrypt.BCrypt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class tests the {@link OpenScienceFrameworkPasswordHash} class.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public final class OpenScienceFrameworkPasswordHashTests {
+
+    private static final String PASSWORD = "correct horse battery staple";
+
+    // SHA-256 hex digest of the password, as Django's BCryptSHA256PasswordHasher prepares it
+    private static final String PASSWORD_SHA256 = "c4bbcb1fbec99d65bf59d85c8cb62ee2db963f0fe106f483d9afa73bd4e39a8a";
+
+    /**
+     * Turn a Spring `$2a$` hash into the `$2b$` hash Python's bcrypt produces.
+     */
+    private static String python(final String hash) {
+        return "$2b$" + hash.substring("$2a$".length());
+    }
+
+    @Test
+    public void verifyBCrypt() {
+        final OpenScienceFrameworkPasswordHash hash = OpenScienceFrameworkPasswordHash.parse(
+                "bcrypt$" + python(BCrypt.hashpw(PASSWORD, BCrypt.gensalt(4))));
+        assertEquals(OpenScienceFrameworkPasswordHash.Algorithm.BCRYPT, hash.getAlgorithm());
+        assertEquals(4, hash.getCost());
+        assertTrue(hash.matches(PASSWORD));
+        assertFalse(hash.matches(PASSWORD_SHA256));
+    }
+
+    @Test
+    public void verifyBCryptSha256() {
+        final OpenScienceFrameworkPasswordHash hash = OpenScienceFrameworkPasswordHash.parse(
+                "bcrypt_sha256$" + python(BCrypt.hashpw(PASSWORD_SHA256, BCrypt.gensalt(5))));
+        assertEquals(OpenScienceFrameworkPasswordHash.Algorithm.BCRYPT_SHA256, hash.getAlgorithm());
+        assertEquals(5, hash.getCost());
+        assertTrue(hash.matches(PASSWORD));
+        assertFalse(hash.matches(PASSWORD_SHA256));
+    }
+
+    @Test
+    public void verifyShortIdentifier() {
+        final OpenScienceFrameworkPasswordHash hash = OpenScienceFrameworkPasswordHash.parse(
+                "bcrypt$$2$12$abcdefghijklmnopqrstuv");
+        assertEquals(12, hash.getCost());
+    }
+
+    @Test
+    public void verifyUnusable() {
+        assertNull(OpenScienceFrameworkPasswordHash.parse(null));
+        assertNull(OpenScienceFrameworkPasswordHash.parse("!unusable"));
+        assertNull(OpenScienceFrameworkPasswordHash.parse("pbkdf2_sha256$20000$salt$hash"));
+        assertNull(OpenScienceFrameworkPasswordHash.parse("bcrypt$"));
+        assertNull(OpenScienceFrameworkPasswordHash.parse("bcrypt$$2b$"));
+        assertNull(OpenScienceFrameworkPasswordHash.parse("bcrypt$$2b$1x$abc"));
+        assertNull(OpenScienceFrameworkPasswordHash.parse("bcrypt_sha256$x2b$12$abc"));
+    }
+
+    @Test
+    public void verifyParsedOnceByRecord() {
+        final OpenScienceFrameworkAuthenticationRecord record = new OpenScienceFrameworkAuthenticationRecord(
+                1, "jane@osf.io", "Jane", "Researcher", "bcrypt$$2b$10$abcdefghijklmnopqrstuv",
+                null, true, true, true, false, false, null, "abcde");
+        assertEquals(10, record.getPasswordHash().getCost());
+        assertTrue(record.getPasswordHash() == record.getPasswordHash());
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.cos.cas.authentication.handler.support;
+
+import com.codahale.metrics.MetricRegistry;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import io.cos.cas.authentication.RemoteUserFailedLoginException;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * This class tests the {@link OpenScienceFrameworkInstitutionAuthClient} class against a local stub server.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public final class OpenScienceFrameworkInstitutionAuthClientTests {
+
+    private static final String PAYLOAD = "header.key.iv.ciphertext.tag";
+
+    private HttpServer server;
+
+    private final AtomicReference<String> receivedBody = new AtomicReference<>();
+
+    private final AtomicReference<String> receivedContentType = new AtomicReference<>();
+
+    private volatile int responseStatus = HttpStatus.SC_NO_CONTENT;
+
+    private volatile CountDownLatch release = new CountDownLatch(0);
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/v2/institutions/auth/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                receivedContentType.set(exchange.getRequestHeaders().getFirst("Content-Type"));
+                receivedBody.set(IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8));
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (responseStatus == HttpStatus.SC_NO_CONTENT) {
+                    exchange.sendResponseHeaders(responseStatus, -1);
+                } else {
+                    final byte[] body = "{\"errors\":[]}".getBytes(StandardCharsets.UTF_8);
+                    exchange.sendResponseHeaders(responseStatus, body.length);
+                    try (final OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        server.stop(0);
+    }
+
+    private OpenScienceFrameworkInstitutionAuthClient newClient(final int maxConcurrent, final int readTimeout) throws Exception {
+        final OpenScienceFrameworkInstitutionAuthClient client = new OpenScienceFrameworkInstitutionAuthClient();
+        client.setInstitutionsAuthUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/v2/institutions/auth/");
+        client.setMaxConcurrentNotifications(maxConcurrent);
+        client.setReadTimeout(readTimeout);
+        client.setBulkheadTimeout(50);
+        client.setMetricRegistry(metricRegistry);
+        client.afterPropertiesSet();
+        return client;
+    }
+
+    @Test
+    public void verifyNoContentAccepted() throws Exception {
+        final OpenScienceFrameworkInstitutionAuthClient client = newClient(2, 5000);
+        client.notifyAuthenticated("user@example.edu", PAYLOAD);
+        client.notifyAuthenticated("user@example.edu", PAYLOAD);
+
+        assertEquals(PAYLOAD, receivedBody.get());
+        assertEquals("text/plain", receivedContentType.get());
+        assertEquals(2, metricRegistry.timer(MetricRegistry.name(OpenScienceFrameworkInstitutionAuthClient.class, "notify"))
+                .getCount());
+        client.destroy();
+    }
+
+    @Test(expected = RemoteUserFailedLoginException.class)
+    public void verifyUnexpectedStatusRejected() throws Exception {
+        responseStatus = HttpStatus.SC_FORBIDDEN;
+        final OpenScienceFrameworkInstitutionAuthClient client = newClient(2, 5000);
+        try {
+            client.notifyAuthenticated("user@example.edu", PAYLOAD);
+        } finally {
+            client.destroy();
+        }
+    }
+
+    @Test(expected = SocketTimeoutException.class)
+    public void verifyReadTimeout() throws Exception {
+        release = new CountDownLatch(1);
+        final OpenScienceFrameworkInstitutionAuthClient client = newClient(2, 200);
+        try {
+            client.notifyAuthenticated("user@example.edu", PAYLOAD);
+        } finally {
+            client.destroy();
+        }
+    }
+
+    @Test
+    public void verifyBulkheadRejectsWhenSaturated() throws Exception {
+        release = new CountDownLatch(1);
+        final OpenScienceFrameworkInstitutionAuthClient client = newClient(1, 5000);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<?> inFlight = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    client.notifyAuthenticated("first@example.edu", PAYLOAD);
+                    return null;
+                }
+            });
+            // wait until the first notification reaches the stub server and holds the only permit
+            while (receivedBody.get() == null) {
+                Thread.sleep(10);
+            }
+            try {
+                client.notifyAuthenticated("second@example.edu", PAYLOAD);
+                fail("Expected the bulkhead to reject the second notification");
+            } catch (final RemoteUserFailedLoginException e) {
+                assertEquals(1, metricRegistry.meter(
+                        MetricRegistry.name(OpenScienceFrameworkInstitutionAuthClient.class, "rejected")).getCount());
+            }
+            release.countDown();
+            inFlight.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+            client.destroy();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.cos.cas.authentication.handler.support;
+
+import com.nimbusds.jose.EncryptionMethod;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWEAlgorithm;
+import com.nimbusds.jose.JWEHeader;
+import com.nimbusds.jose.JWEObject;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.KeyLengthException;
+import com.nimbusds.jose.Payload;
+import com.nimbusds.jose.crypto.DirectDecrypter;
+import com.nimbusds.jose.crypto.DirectEncrypter;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jose.crypto.MACVerifier;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import io.cos.cas.Benchmarks;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class tests the {@link OpenScienceFrameworkInstitutionAuthEnvelope} class.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public final class OpenScienceFrameworkInstitutionAuthEnvelopeTests {
+
+    private static final String JWT_SECRET = "osf_api_cas_login_jwt_secret_32b";
+
+    private static final String JWE_SECRET = "osf_api_cas_login_jwe_secret_32b";
+
+    private static final String PAYLOAD = "{\"provider\":{\"id\":\"cir\",\"user\":{\"username\":\"jane@circle.edu\"}}}";
+
+    private OpenScienceFrameworkInstitutionAuthEnvelope envelope;
+
+    @Before
+    public void setUp() throws Exception {
+        envelope = new OpenScienceFrameworkInstitutionAuthEnvelope();
+        envelope.setInstitutionsAuthJwtSecret(JWT_SECRET);
+        envelope.setInstitutionsAuthJweSecret(JWE_SECRET);
+        envelope.afterPropertiesSet();
+    }
+
+    private static SignedJWT open(final String jwe, final String jweSecret) throws Exception {
+        final JWEObject jweObject = JWEObject.parse(jwe);
+        jweObject.decrypt(new DirectDecrypter(jweSecret.getBytes(StandardCharsets.UTF_8)));
+        return jweObject.getPayload().toSignedJWT();
+    }
+
+    @Test
+    public void verifySeal() throws Exception {
+        final String jwe = envelope.seal("jane@circle.edu", PAYLOAD);
+
+        final JWEObject jweObject = JWEObject.parse(jwe);
+        assertEquals(JWEAlgorithm.DIR, jweObject.getHeader().getAlgorithm());
+        assertEquals(EncryptionMethod.A256GCM, jweObject.getHeader().getEncryptionMethod());
+        assertEquals("JWT", jweObject.getHeader().getContentType());
+
+        final SignedJWT signedJWT = open(jwe, JWE_SECRET);
+        assertTrue(signedJWT.verify(new MACVerifier(JWT_SECRET.getBytes(StandardCharsets.UTF_8))));
+        assertEquals("jane@circle.edu", signedJWT.getJWTClaimsSet().getSubject());
+        assertEquals(PAYLOAD, signedJWT.getJWTClaimsSet().getStringClaim("data"));
+        assertTrue(signedJWT.getJWTClaimsSet().getExpirationTime().getTime() > System.currentTimeMillis());
+    }
+
+    @Test
+    public void verifySecretsDecodedAsUtf8() throws Exception {
+        // the jwe secret is 31 characters, but the 32 bytes AES-256 requires once encoded as UTF-8
+        final String jwtSecret = "osf_api_cas_login_jwt_secret_\u00e9\u00e9";
+        final String jweSecret = "osf_api_cas_login_jwe_secret_\u00e9x";
+        envelope.rotateKeys(jwtSecret, jweSecret);
+
+        final SignedJWT signedJWT = open(envelope.seal("jane@circle.edu", PAYLOAD), jweSecret);
+        assertTrue(signedJWT.verify(new MACVerifier(jwtSecret.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void verifyRotateKeys() throws Exception {
+        final String jwtSecret = "rotated_api_cas_login_jwt_secret";
+        final String jweSecret = "rotated_api_cas_login_jwe_secret";
+        envelope.rotateKeys(jwtSecret, jweSecret);
+
+        final SignedJWT signedJWT = open(envelope.seal("jane@circle.edu", PAYLOAD), jweSecret);
+        assertTrue(signedJWT.verify(new MACVerifier(jwtSecret.getBytes(StandardCharsets.UTF_8))));
+        assertFalse(signedJWT.verify(new MACVerifier(JWT_SECRET.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void verifyInvalidRotationKeepsCurrentKeys() throws Exception {
+        try {
+            envelope.rotateKeys("rotated_api_cas_login_jwt_secret", "too_short");
+        } catch (final KeyLengthException e) {
+            // expected
+        }
+        final SignedJWT signedJWT = open(envelope.seal("jane@circle.edu", PAYLOAD), JWE_SECRET);
+        assertTrue(signedJWT.verify(new MACVerifier(JWT_SECRET.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test(expected = JOSEException.class)
+    public void verifyInvalidKeyLengthRejectedAtStartup() throws Exception {
+        final OpenScienceFrameworkInstitutionAuthEnvelope invalid = new OpenScienceFrameworkInstitutionAuthEnvelope();
+        invalid.setInstitutionsAuthJwtSecret(JWT_SECRET);
+        invalid.setInstitutionsAuthJweSecret("too_short");
+        invalid.afterPropertiesSet();
+    }
+
+    /**
+     * Compares sealing with the signer and encrypter built once against building them for each payload, as the login
+     * action used to.
+     */
+    @Test
+    public void benchmark() throws Exception {
+        Benchmarks.compare("Institution login envelope", 20000, new Benchmarks.Operation() {
+            @Override
+            public void run(final int iteration) throws Exception {
+                sealPerRequest("jane@circle.edu", PAYLOAD);
+            }
+        }, new Benchmarks.Operation() {
+            @Override
+            public void run(final int iteration) throws Exception {
+                envelope.seal("jane@circle.edu", PAYLOAD);
+            }
+        });
+    }
+
+    /**
+     * The reference implementation: build the headers, the signer and the encrypter for each payload.
+     */
+    private static String sealPerRequest(final String subject, final String data) throws Exception {
+        final JWTClaimsSet claimsSet = new JWTClaimsSet.Builder()
+                .subject(subject)
+                .claim("data", data)
+                .expirationTime(new Date(System.currentTimeMillis() + 60000))
+                .build();
+        final SignedJWT signedJWT = new SignedJWT(new JWSHeader(JWSAlgorithm.HS256), claimsSet);
+        signedJWT.sign(new MACSigner(JWT_SECRET.getBytes(StandardCharsets.UTF_8)));
+        final JWEObject jweObject = new JWEObject(
+                new JWEHeader.Builder(JWEAlgorithm.DIR, EncryptionMethod.A256GCM).contentType("JWT").build(),
+                new Payload(signedJWT));
+        jweObject.encrypt(new DirectEncrypter(JWE_SECRET.getBytes(StandardCharsets.UTF_8)));
+        return jweObject.serialize();
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.cos.cas.authentication.handler.support;
+
+import io.cos.cas.Benchmarks;
+import org.json.JSONObject;
+import org.json.XML;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.ResourceUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class tests the {@link OpenScienceFrameworkInstitutionAuthNormalizer} class.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public final class OpenScienceFrameworkInstitutionAuthNormalizerTests {
+
+    private static final String XSL_LOCATION = "classpath:institutions-auth.xsl";
+
+    private OpenScienceFrameworkInstitutionAuthNormalizer normalizer;
+
+    /** The transformer of the reference implementation, compiled once as the login action did. */
+    private Transformer referenceTransformer;
+
+    @Before
+    public void setUp() throws Exception {
+        normalizer = new OpenScienceFrameworkInstitutionAuthNormalizer();
+        normalizer.setInstitutionsAuthXslLocation(XSL_LOCATION);
+        normalizer.afterPropertiesSet();
+        referenceTransformer = TransformerFactory.newInstance()
+                .newTransformer(new StreamSource(ResourceUtils.getFile(XSL_LOCATION)));
+    }
+
+    private static Map<String, String> circleHeaders(final String eppn) {
+        final Map<String, String> headers = new HashMap<>();
+        headers.put("Shib-Session-ID", "_b9a7d9d5c1f06f5e7c2a3d1e0f4b8c6a");
+        headers.put("Shib-Identity-Provider", "https://login.circle.edu/idp/shibboleth");
+        headers.put("Shib-Application-ID", "default");
+        headers.put("Shib-Authentication-Instant", "2016-03-01T17:12:45.519Z");
+        headers.put("Shib-AuthnContext-Class", "urn:oasis:names:tc:SAML:2.0:ac:classes:PasswordProtectedTransport");
+        headers.put("eppn", eppn);
+        headers.put("displayName", "Jane Q. Researcher");
+        headers.put("mail", "jane.researcher@circle.edu");
+        headers.put("affiliation", "member@circle.edu;staff@circle.edu");
+        headers.put("persistent-id", "https://login.circle.edu/idp/shibboleth!https://accounts.osf.io/shibboleth!Xz3t0");
+        return headers;
+    }
+
+    private static Map<String, String> exampleHeaders() {
+        final Map<String, String> headers = new HashMap<>();
+        headers.put("Shib-Session-ID", "_0c4e1d7e2a9b5f3c8d6a1b0e9f7c2d4a");
+        headers.put("Shib-Identity-Provider", "https://idp.example.edu/idp/shibboleth");
+        headers.put("mail", "j.smith@example.edu");
+        headers.put("sn", "Smith");
+        headers.put("givenName", "John & <Jack>");
+        headers.put("employeeNumber", "004211");
+        return headers;
+    }
+
+    /**
+     * The reference implementation, as the login action did it: build a DOM, transform it with the precompiled
+     * transformer to a string and parse that string as xml.
+     */
+    private JSONObject normalizeThroughDocument(final Map<String, String> headers) throws Exception {
+        final Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        final Element rootElement = document.createElement("auth");
+        document.appendChild(rootElement);
+        for (final Map.Entry<String, String> entry : headers.entrySet()) {
+            final Element attribute = document.createElement("attribute");
+            attribute.setAttribute("name", entry.getKey());
+            attribute.setAttribute("value", entry.getValue());
+            rootElement.appendChild(attribute);
+        }
+        final StringWriter writer = new StringWriter();
+        referenceTransformer.transform(new DOMSource(document), new StreamResult(writer));
+        return XML.toJSONObject(writer.toString());
+    }
+
+    @Test
+    public void verifyMatchesDocumentRoundTrip() throws Exception {
+        final Map<String, String> headers = circleHeaders("jane.researcher@circle.edu");
+        final JSONObject normalized = normalizer.normalize(headers);
+
+        assertEquals("cir", normalized.getJSONObject("provider").getString("id"));
+        assertEquals("jane.researcher@circle.edu",
+                normalized.getJSONObject("provider").getJSONObject("user").getString("username"));
+        assertTrue(normalizeThroughDocument(headers).similar(normalized));
+    }
+
+    @Test
+    public void verifyValueConversionMatchesDocumentRoundTrip() throws Exception {
+        final Map<String, String> headers = exampleHeaders();
+        final JSONObject normalized = normalizer.normalize(headers);
+
+        final JSONObject user = normalized.getJSONObject("provider").getJSONObject("user");
+        assertEquals("John & <Jack>", user.getString("givenName"));
+        assertEquals("", user.getString("middleNames"));
+        assertTrue(normalizeThroughDocument(headers).similar(normalized));
+    }
+
+    @Test(expected = TransformerException.class)
+    public void verifyUnknownIdentityProviderRejected() throws Exception {
+        final Map<String, String> headers = circleHeaders("jane.researcher@circle.edu");
+        headers.put("Shib-Identity-Provider", "https://idp.unknown.edu/idp/shibboleth");
+        normalizer.normalize(headers);
+    }
+
+    @Test
+    public void verifyTransformerReusableAfterFailure() throws Exception {
+        final Map<String, String> headers = circleHeaders("jane.researcher@circle.edu");
+        headers.put("Shib-Identity-Provider", "https://idp.unknown.edu/idp/shibboleth");
+        try {
+            normalizer.normalize(headers);
+        } catch (final TransformerException e) {
+            // expected
+        }
+        assertEquals("exu", normalizer.normalize(exampleHeaders()).getJSONObject("provider").getString("id"));
+    }
+
+    @Test
+    public void verifyConcurrentNormalization() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                final String eppn = "user" + i + "@circle.edu";
+                futures.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return normalizer.normalize(circleHeaders(eppn))
+                                .getJSONObject("provider").getJSONObject("user").getString("username");
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals("user" + i + "@circle.edu", futures.get(i).get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Compares the normalizer with the document round trip through the precompiled transformer, as the login action
+     * used to do it.
+     */
+    @Test
+    public void benchmark() throws Exception {
+        final Map<String, String> headers = circleHeaders("jane.researcher@circle.edu");
+        Benchmarks.compare("Institution attribute normalizer", 2000, new Benchmarks.Operation() {
+            @Override
+            public void run(final int iteration) throws Exception {
+                normalizeThroughDocument(headers);
+            }
+        }, new Benchmarks.Operation() {
+            @Override
+            public void run(final int iteration) throws Exception {
+                normalizer.normalize(headers);
+            }
+        });
+    }
+}
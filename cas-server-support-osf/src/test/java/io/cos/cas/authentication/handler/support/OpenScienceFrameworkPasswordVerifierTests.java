@@ -0,0 +1,222 @@
+/*
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.cos.cas.authentication.handler.support;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkPasswordHash;
+import io.cos.cas.authentication.LoginThrottledException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.crypto.bcrypt.BCrypt;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * This class tests the {@link OpenScienceFrameworkPasswordVerifier} class.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public final class OpenScienceFrameworkPasswordVerifierTests {
+
+    private static final String USERNAME = "jane@osf.io";
+
+    private static final String ADDRESS = "192.0.2.1";
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+
+    private OpenScienceFrameworkPasswordVerifier verifier;
+
+    @Before
+    public void setUp() throws Exception {
+        verifier = new OpenScienceFrameworkPasswordVerifier();
+        verifier.setPoolSize(1);
+        verifier.setQueueCapacity(1);
+        verifier.setMaxInFlightPerUsername(1);
+        verifier.setMaxInFlightPerAddress(2);
+        verifier.setMetricRegistry(metricRegistry);
+        verifier.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        callers.shutdownNow();
+        verifier.destroy();
+    }
+
+    private static Callable<Boolean> outcome(final boolean valid) {
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return valid;
+            }
+        };
+    }
+
+    /**
+     * Occupy the only verification thread until the test releases it.
+     */
+    private Future<Boolean> block(final String username, final String address) throws Exception {
+        final Future<Boolean> future = callers.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return verifier.verify(username, address, new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        started.countDown();
+                        release.await();
+                        return true;
+                    }
+                });
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return future;
+    }
+
+    private long rejected() {
+        return metricRegistry.meter(MetricRegistry.name(OpenScienceFrameworkPasswordVerifier.class, "rejected")).getCount();
+    }
+
+    @Test
+    public void verifyOutcome() throws Exception {
+        assertTrue(verifier.verify(USERNAME, ADDRESS, outcome(true)));
+        assertFalse(verifier.verify(USERNAME, null, outcome(false)));
+        assertEquals(2, metricRegistry.timer(MetricRegistry.name(OpenScienceFrameworkPasswordVerifier.class, "verify")).getCount());
+    }
+
+    @Test
+    public void verifyFailureIsInvalid() throws Exception {
+        assertFalse(verifier.verify(USERNAME, ADDRESS, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                throw new IllegalArgumentException("Invalid salt version");
+            }
+        }));
+    }
+
+    @Test
+    public void verifyUsernameLimit() throws Exception {
+        final Future<Boolean> blocked = block(USERNAME, ADDRESS);
+        try {
+            verifier.verify("Jane@OSF.io", "192.0.2.2", outcome(true));
+            fail("Expected LoginThrottledException");
+        } catch (final LoginThrottledException e) {
+            assertEquals(1, rejected());
+        }
+        release.countDown();
+        assertTrue(blocked.get(5, TimeUnit.SECONDS));
+        assertTrue(verifier.verify(USERNAME, ADDRESS, outcome(true)));
+    }
+
+    @Test
+    public void verifyAddressLimit() throws Exception {
+        verifier.setMaxInFlightPerAddress(1);
+        final Future<Boolean> blocked = block(USERNAME, ADDRESS);
+        try {
+            verifier.verify("john@osf.io", ADDRESS, outcome(true));
+            fail("Expected LoginThrottledException");
+        } catch (final LoginThrottledException e) {
+            assertEquals(1, rejected());
+        }
+        release.countDown();
+        assertTrue(blocked.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void verifyQueueFullRejected() throws Exception {
+        block(USERNAME, ADDRESS);
+        final Future<Boolean> queued = callers.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return verifier.verify("john@osf.io", "192.0.2.2", outcome(true));
+            }
+        });
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        final Gauge<?> queue = metricRegistry.getGauges().get(MetricRegistry.name(OpenScienceFrameworkPasswordVerifier.class, "queue"));
+        while (Integer.valueOf(0).equals(queue.getValue()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        try {
+            verifier.verify("joe@osf.io", "192.0.2.3", outcome(true));
+            fail("Expected LoginThrottledException");
+        } catch (final LoginThrottledException e) {
+            assertEquals(1, rejected());
+        }
+        release.countDown();
+        assertTrue(queued.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void verifyTimeout() throws Exception {
+        verifier.setTimeout(50);
+        try {
+            verifier.verify(USERNAME, ADDRESS, new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    release.await();
+                    return true;
+                }
+            });
+            fail("Expected LoginThrottledException");
+        } catch (final LoginThrottledException e) {
+            assertEquals(1, rejected());
+        }
+        verifier.setTimeout(5000);
+        assertTrue(verifier.verify(USERNAME, ADDRESS, outcome(true)));
+    }
+
+    @Test
+    public void verifyCostTelemetryAndRehashSignal() throws Exception {
+        verifier.setRehashCost(5);
+        final OpenScienceFrameworkPasswordHash hash
+                = OpenScienceFrameworkPasswordHash.parse("bcrypt$" + BCrypt.hashpw("password", BCrypt.gensalt(4)));
+        assertTrue(verifier.verify(USERNAME, ADDRESS, hash, "password"));
+        assertFalse(verifier.verify(USERNAME, ADDRESS, hash, "wrong"));
+
+        final String prefix = MetricRegistry.name(OpenScienceFrameworkPasswordVerifier.class);
+        assertEquals(2, metricRegistry.histogram(prefix + ".cost").getCount());
+        assertEquals(4, metricRegistry.histogram(prefix + ".cost").getSnapshot().getMax());
+        assertEquals(2, metricRegistry.timer(prefix + ".verify.cost-4").getCount());
+        assertEquals(1, metricRegistry.meter(prefix + ".rehashNeeded").getCount());
+
+        verifier.setRehashCost(4);
+        assertTrue(verifier.verify(USERNAME, ADDRESS, hash, "password"));
+        assertEquals(1, metricRegistry.meter(prefix + ".rehashNeeded").getCount());
+    }
+}
@@ -0,0 +1,97 @@
+package io.cos.cas.authentication.oath;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class tests the {@link InMemoryTotpReplayStore} class.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public final class InMemoryTotpReplayStoreTests {
+
+    private static final long INTERVAL = 1234567890L / 30;
+
+    @Test
+    public void verifyReplayRejected() {
+        final InMemoryTotpReplayStore store = new InMemoryTotpReplayStore();
+        assertTrue(store.markUsed(1, INTERVAL));
+        assertFalse(store.markUsed(1, INTERVAL));
+    }
+
+    @Test
+    public void verifyUsersAndIntervalsIndependent() {
+        final InMemoryTotpReplayStore store = new InMemoryTotpReplayStore(1, 1);
+        assertTrue(store.markUsed(1, INTERVAL));
+        assertTrue(store.markUsed(2, INTERVAL));
+        assertTrue(store.markUsed(1, INTERVAL - 1));
+        assertTrue(store.markUsed(1, INTERVAL + 1));
+        assertFalse(store.markUsed(2, INTERVAL));
+        assertFalse(store.markUsed(1, INTERVAL + 1));
+    }
+
+    @Test
+    public void verifyUsedIntervalKeptForTheWholeWindow() {
+        final InMemoryTotpReplayStore store = new InMemoryTotpReplayStore(1, 1);
+        // used at the latest interval the window accepts
+        assertTrue(store.markUsed(1, INTERVAL + 1));
+        // time passes, other users sign in, the code is still inside the window until INTERVAL + 2
+        for (long interval = INTERVAL; interval <= INTERVAL + 3; interval++) {
+            assertTrue(store.markUsed(2, interval));
+        }
+        assertFalse(store.markUsed(1, INTERVAL + 1));
+    }
+
+    @Test
+    public void verifyExpiredBucketRecycled() {
+        final InMemoryTotpReplayStore store = new InMemoryTotpReplayStore(1, 1);
+        assertTrue(store.markUsed(1, INTERVAL));
+        // four buckets for a window of one, INTERVAL + 4 takes the slot of INTERVAL
+        assertTrue(store.markUsed(1, INTERVAL + 4));
+        assertFalse(store.markUsed(1, INTERVAL + 4));
+        // INTERVAL has left the ring and can no longer be accepted
+        assertFalse(store.markUsed(2, INTERVAL));
+    }
+
+    @Test
+    public void verifyConcurrentReplayAcceptedOnce() throws Exception {
+        final InMemoryTotpReplayStore store = new InMemoryTotpReplayStore();
+        final int threads = 16;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        start.await();
+                        return store.markUsed(42, INTERVAL);
+                    }
+                }));
+            }
+            start.countDown();
+            int accepted = 0;
+            for (final Future<Boolean> result : results) {
+                if (result.get()) {
+                    accepted++;
+                }
+            }
+            assertEquals(1, accepted);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package io.cos.cas.authentication.oath;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * This class tests the {@link JpaTotpReplayStore} class.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public final class JpaTotpReplayStoreTests {
+
+    private static final long INTERVAL = 1234567890L / 30;
+
+    private EntityManager entityManager;
+
+    private Query purgeQuery;
+
+    private JpaTotpReplayStore store;
+
+    @Before
+    public void setUp() {
+        entityManager = mock(EntityManager.class);
+        purgeQuery = mock(Query.class);
+        when(entityManager.createQuery(anyString())).thenReturn(purgeQuery);
+        when(purgeQuery.setParameter(anyString(), anyLong())).thenReturn(purgeQuery);
+        final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any(TransactionDefinition.class))).thenReturn(new SimpleTransactionStatus());
+
+        store = new JpaTotpReplayStore();
+        store.setEntityManager(entityManager);
+        store.setTransactionManager(transactionManager);
+    }
+
+    @Test
+    public void verifyFirstUseStored() {
+        assertTrue(store.markUsed(1, INTERVAL));
+        verify(entityManager).persist(any(UsedTotpInterval.class));
+        verify(entityManager).flush();
+    }
+
+    @Test
+    public void verifyReplayRejected() {
+        doThrow(new PersistenceException("duplicate key")).when(entityManager).flush();
+        when(entityManager.find(eq(UsedTotpInterval.class), any(UsedTotpInterval.Key.class)))
+                .thenReturn(new UsedTotpInterval(1, INTERVAL));
+        assertFalse(store.markUsed(1, INTERVAL));
+    }
+
+    @Test(expected = PersistenceException.class)
+    public void verifyFailureNotTakenForReplay() {
+        doThrow(new PersistenceException("connection refused")).when(entityManager).flush();
+        store.markUsed(1, INTERVAL);
+    }
+
+    @Test
+    public void verifyOldIntervalsPurgedOncePerInterval() {
+        store.markUsed(1, INTERVAL);
+        store.markUsed(2, INTERVAL);
+        verify(purgeQuery, times(1)).setParameter("before", INTERVAL - 3);
+
+        store.markUsed(1, INTERVAL + 1);
+        verify(purgeQuery, times(1)).setParameter("before", INTERVAL - 2);
+        verify(purgeQuery, times(2)).executeUpdate();
+    }
+}
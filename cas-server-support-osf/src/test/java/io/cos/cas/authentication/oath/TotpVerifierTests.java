@@ -0,0 +1,89 @@
+package io.cos.cas.authentication.oath;
+
+import io.cos.cas.Benchmarks;
+import org.apache.commons.codec.binary.Base32;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * This class tests the {@link TotpVerifier} class against {@link Totp} and the RFC 6238 test vectors.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public final class TotpVerifierTests {
+
+    private static final byte[] KEY = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    public void verifyRfc6238Vectors() throws Exception {
+        // RFC 6238 Appendix B, SHA1, truncated to six digits
+        final long[][] vectors = {
+            {59L, 287082},
+            {1111111109L, 81804},
+            {1111111111L, 50471},
+            {1234567890L, 5924},
+            {2000000000L, 279037},
+            {20000000000L, 353130},
+        };
+        for (final long[] vector : vectors) {
+            final long interval = vector[0] / 30;
+            assertEquals(interval, TotpVerifier.findInterval(KEY, vector[1], interval, 0));
+            assertEquals(vector[1], Totp.generateTotp(KEY, interval, 6, "HmacSHA1"));
+        }
+    }
+
+    @Test
+    public void verifyWindow() throws Exception {
+        final long interval = 1234567890L / 30;
+        final long previous = Totp.generateTotp(KEY, interval - 1, 6, "HmacSHA1");
+        final long next = Totp.generateTotp(KEY, interval + 1, 6, "HmacSHA1");
+        final long later = Totp.generateTotp(KEY, interval + 2, 6, "HmacSHA1");
+
+        assertEquals(interval - 1, TotpVerifier.findInterval(KEY, previous, interval, 1));
+        assertEquals(interval + 1, TotpVerifier.findInterval(KEY, next, interval, 1));
+        assertEquals(TotpVerifier.NO_MATCH, TotpVerifier.findInterval(KEY, next, interval, 0));
+        assertEquals(TotpVerifier.NO_MATCH, TotpVerifier.findInterval(KEY, later, interval, 1));
+    }
+
+    @Test
+    public void verifyInvalidCodes() throws Exception {
+        final long interval = 59L / 30;
+        assertEquals(TotpVerifier.NO_MATCH, TotpVerifier.findInterval(KEY, 287083, interval, 1));
+        assertEquals(TotpVerifier.NO_MATCH, TotpVerifier.findInterval(KEY, -287082, interval, 1));
+        assertEquals(TotpVerifier.NO_MATCH, TotpVerifier.findInterval(KEY, 1000000 + 287082, interval, 1));
+        assertEquals(TotpVerifier.NO_MATCH, TotpVerifier.findInterval(KEY, 94287082, interval, 1));
+    }
+
+    @Test
+    public void verifyAgreesWithTotpUtils() throws Exception {
+        final String secret = new Base32().encodeAsString(KEY);
+        final long interval = System.currentTimeMillis() / 1000 / 30;
+        for (int i = -2; i <= 2; i++) {
+            final long code = Totp.generateTotp(KEY, interval + i, 6, "HmacSHA1");
+            assertEquals(TotpUtils.checkCode(secret, code, 30, 1), TotpVerifier.checkCode(secret, code, 30, 1));
+        }
+    }
+
+    /**
+     * Compares the verifier with {@link TotpUtils} for a window of one.
+     */
+    @Test
+    public void benchmark() throws Exception {
+        final String secret = new Base32().encodeAsString(KEY);
+        Benchmarks.compare("TOTP verifier", 200000, new Benchmarks.Operation() {
+            @Override
+            public void run(final int iteration) throws Exception {
+                TotpUtils.checkCode(secret, iteration % 1000000, 30, 1);
+            }
+        }, new Benchmarks.Operation() {
+            @Override
+            public void run(final int iteration) throws Exception {
+                TotpVerifier.checkCode(secret, iteration % 1000000, 30, 1);
+            }
+        });
+    }
+}
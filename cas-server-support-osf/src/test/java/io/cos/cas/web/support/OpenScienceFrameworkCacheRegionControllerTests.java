@@ -0,0 +1,103 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.cos.cas.web.support;
+
+import io.cos.cas.adaptors.postgres.daos.OpenScienceFrameworkAuthenticationRecordCache;
+import io.cos.cas.adaptors.postgres.daos.OpenScienceFrameworkCacheRegions;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * This class tests the {@link OpenScienceFrameworkCacheRegionController} class.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public final class OpenScienceFrameworkCacheRegionControllerTests {
+
+    private OpenScienceFrameworkAuthenticationRecordCache authenticationRecordCache;
+
+    private OpenScienceFrameworkCacheRegionController controller;
+
+    @Before
+    public void setUp() {
+        final OpenScienceFrameworkCacheRegions cacheRegions = mock(OpenScienceFrameworkCacheRegions.class);
+        when(cacheRegions.getRegionNames()).thenReturn(Collections.<String>emptySet());
+        authenticationRecordCache = mock(OpenScienceFrameworkAuthenticationRecordCache.class);
+        controller = new OpenScienceFrameworkCacheRegionController(cacheRegions);
+        controller.setAuthenticationRecordCache(authenticationRecordCache);
+    }
+
+    @Test
+    public void verifyEvictUser() throws Exception {
+        final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/statistics/cache");
+        request.setParameter("user", "42");
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.handleRequest(request, response);
+
+        assertEquals(200, response.getStatus());
+        verify(authenticationRecordCache).invalidateUser(42);
+    }
+
+    @Test
+    public void verifyEvictUsername() throws Exception {
+        final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/statistics/cache");
+        request.setParameter("username", "jane@osf.io");
+        when(authenticationRecordCache.invalidate("jane@osf.io")).thenReturn(42);
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.handleRequest(request, response);
+
+        assertEquals(200, response.getStatus());
+        assertTrue(response.getContentAsString().contains("\"evicted\":42"));
+    }
+
+    @Test
+    public void verifyUnknownUsernameRejected() throws Exception {
+        final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/statistics/cache");
+        request.setParameter("username", "nobody@osf.io");
+        when(authenticationRecordCache.invalidate("nobody@osf.io")).thenReturn(null);
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.handleRequest(request, response);
+
+        assertEquals(404, response.getStatus());
+    }
+
+    @Test
+    public void verifyInvalidUserRejected() throws Exception {
+        final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/statistics/cache");
+        request.setParameter("user", "jane");
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.handleRequest(request, response);
+
+        assertEquals(400, response.getStatus());
+        verify(authenticationRecordCache, never()).invalidateUser(anyInt());
+    }
+}
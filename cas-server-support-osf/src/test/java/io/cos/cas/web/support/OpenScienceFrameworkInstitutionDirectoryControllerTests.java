@@ -0,0 +1,143 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.cos.cas.web.support;
+
+import io.cos.cas.adaptors.postgres.daos.OpenScienceFrameworkDaoImpl;
+import io.cos.cas.adaptors.postgres.handlers.OpenScienceFrameworkInstitutionHandler;
+import io.cos.cas.adaptors.postgres.models.OpenScienceFrameworkInstitution;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * This class tests the {@link OpenScienceFrameworkInstitutionDirectoryController} class.
+ *
+ * @author Longze Chen
+ * @since 4.1.5
+ */
+public final class OpenScienceFrameworkInstitutionDirectoryControllerTests {
+
+    private OpenScienceFrameworkDaoImpl dao;
+
+    private OpenScienceFrameworkInstitutionHandler handler;
+
+    private OpenScienceFrameworkInstitutionDirectoryController controller;
+
+    private static OpenScienceFrameworkInstitution institution(final String id, final String name) {
+        final OpenScienceFrameworkInstitution institution = new OpenScienceFrameworkInstitution();
+        ReflectionTestUtils.setField(institution, "objectId", id);
+        ReflectionTestUtils.setField(institution, "name", name);
+        ReflectionTestUtils.setField(institution, "loginUrl", "https://idp.example.edu/login?entityID=" + id);
+        return institution;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dao = mock(OpenScienceFrameworkDaoImpl.class);
+        when(dao.findAllInstitutions()).thenReturn(Arrays.asList(
+                institution("vt", "Virginia Tech"),
+                institution("cos", "Center For Open Science")));
+
+        handler = new OpenScienceFrameworkInstitutionHandler();
+        handler.setOpenScienceFrameworkDao(dao);
+        handler.setRefreshInterval(0);
+        handler.afterPropertiesSet();
+
+        controller = new OpenScienceFrameworkInstitutionDirectoryController(handler);
+        controller.setMaxAge(600);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        handler.destroy();
+    }
+
+    private MockHttpServletResponse get(final String ifNoneMatch) throws Exception {
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/institutions");
+        if (ifNoneMatch != null) {
+            request.addHeader("If-None-Match", ifNoneMatch);
+        }
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.handleRequest(request, response);
+        return response;
+    }
+
+    @Test
+    public void verifyJsonSortedByName() throws Exception {
+        final MockHttpServletResponse response = get(null);
+        assertEquals(200, response.getStatus());
+        assertEquals("public, max-age=600", response.getHeader("Cache-Control"));
+
+        final JSONObject body = new JSONObject(response.getContentAsString());
+        final String version = handler.getDirectory().getVersion();
+        assertEquals(version, body.getString("version"));
+        assertEquals('"' + version + '"', response.getHeader("ETag"));
+
+        final JSONArray institutions = body.getJSONArray("institutions");
+        assertEquals(2, institutions.length());
+        assertEquals("cos", institutions.getJSONObject(0).getString("id"));
+        assertEquals("Center For Open Science", institutions.getJSONObject(0).getString("name"));
+        assertEquals("https://idp.example.edu/login?entityID=cos", institutions.getJSONObject(0).getString("loginUrl"));
+    }
+
+    @Test
+    public void verifyNotModified() throws Exception {
+        final String etag = get(null).getHeader("ETag");
+        final MockHttpServletResponse response = get("\"stale\", " + etag);
+        assertEquals(304, response.getStatus());
+        assertEquals(etag, response.getHeader("ETag"));
+        assertEquals(0, response.getContentAsByteArray().length);
+
+        assertEquals(200, get("\"stale\"").getStatus());
+    }
+
+    @Test
+    public void verifyVersionFollowsDirectory() throws Exception {
+        final String etag = get(null).getHeader("ETag");
+
+        // reloading the same institutions keeps the version
+        handler.refresh();
+        assertEquals(304, get(etag).getStatus());
+
+        final List<OpenScienceFrameworkInstitution> institutions = new ArrayList<>();
+        institutions.add(institution("vt", "Virginia Tech"));
+        institutions.add(institution("cos", "Center for Open Science"));
+        when(dao.findAllInstitutions()).thenReturn(institutions);
+        handler.refresh();
+
+        final MockHttpServletResponse response = get(etag);
+        assertEquals(200, response.getStatus());
+        assertNotEquals(etag, response.getHeader("ETag"));
+    }
+}
@@ -34,7 +34,10 @@
     </section>
     <section class="row">
         <div class="select">
-            <form:select class="select" id="institution-form-select" name="select-institution" path="institutions" items="${institutions}" />
+            <select class="select" id="institution-form-select" name="select-institution" data-version="${institutionDirectoryVersion}" data-target="${institutionLoginTarget}">
+                <option value=""> -- select an institution -- </option>
+                ${institutionSelectOptions}
+            </select>
         </div>
     </section>
     <br>
@@ -51,7 +54,8 @@
             if(login_url == null || login_url == "") {
                 return;
             }
-            window.location = login_url;
+            // the options are shared by every request, only the encoded target is per request
+            window.location = login_url + form.getAttribute('data-target');
         }
     </script>
 </div>